@@ -42,6 +42,8 @@ import org.apache.batik.dom.svg.SVGPathSegItem;
 
 import org.apache.batik.parser.ParseException;
 import org.apache.batik.parser.PathArrayProducer;
+import org.apache.batik.parser.PathHandler;
+import org.apache.batik.parser.PathParser;
 
 import org.w3c.dom.Attr;
 import org.w3c.dom.DOMException;
@@ -193,6 +195,43 @@ public class SVGOMAnimatedPathData
         }
     }
 
+    /**
+     * Sends the animated path data to the given handler.  When the
+     * path segment list hasn't been asked for, the attribute is parsed
+     * straight into the handler without building the list.
+     * @throws LiveAttributeException if the path data is missing or
+     *         malformed.
+     */
+    public void handlePathData(PathHandler h) {
+        if (hasAnimVal || (pathSegs != null)) {
+            check();
+            SVGAnimatedPathDataSupport.handlePathSegList
+                (getAnimatedPathSegList(), h);
+            return;
+        }
+        String s;
+        Attr attr = element.getAttributeNodeNS(namespaceURI, localName);
+        if (attr == null) {
+            s = defaultValue;
+        } else {
+            s = attr.getValue();
+        }
+        if (s == null) {
+            throw new LiveAttributeException
+                (element, localName,
+                 LiveAttributeException.ERR_ATTRIBUTE_MISSING, null);
+        }
+        try {
+            PathParser pp = new PathParser();
+            pp.setPathHandler(h);
+            pp.parse(s);
+        } catch (ParseException e) {
+            throw new LiveAttributeException
+                (element, localName,
+                 LiveAttributeException.ERR_ATTRIBUTE_MALFORMED, s);
+        }
+    }
+
     /**
      * Returns the base value of the attribute as an {@link AnimatableValue}.
      */
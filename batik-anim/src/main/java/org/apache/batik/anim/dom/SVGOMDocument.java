@@ -773,6 +773,7 @@ public class SVGOMDocument
             (RESOURCES, getClass().getClassLoader());
         sd.referrer = referrer;
         sd.url = url;
+        sd.isSVG12 = isSVG12;
         return n;
     }
 
@@ -787,6 +788,7 @@ public class SVGOMDocument
             (RESOURCES, getClass().getClassLoader());
         sd.referrer = referrer;
         sd.url = url;
+        sd.isSVG12 = isSVG12;
         return n;
     }
 
@@ -22,7 +22,10 @@ import java.awt.Shape;
 import java.awt.Rectangle;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Arc2D;
+import java.awt.geom.FlatteningPathIterator;
 import java.awt.geom.GeneralPath;
+import java.awt.geom.IllegalPathStateException;
+import java.awt.geom.Path2D;
 import java.awt.geom.PathIterator;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
@@ -38,26 +41,53 @@ import java.util.Arrays;
  * <p><b>Warning</b> : An elliptical arc may be composed of several
  * path segments. For futher details, see the SVG Appendix&nbsp;F.6
  *
+ * <p>The segments are stored packed in a float array (their values)
+ * and a byte array (their types).  Until an arc is added the path is
+ * also seen as a plain Java2D shape straight from these arrays; the
+ * enclosed <code>GeneralPath</code> is only created for paths holding
+ * arcs.  The bounds and the length of the path are computed once and
+ * kept until it changes.</p>
+ *
  * @author <a href="mailto:Thierry.Kormann@sophia.inria.fr">Thierry Kormann</a>
  * @version $Id$
  */
 public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
 
-    /** The enclosed general path. */
+    /**
+     * The enclosed general path, null until the path holds an arc.
+     */
     protected GeneralPath path;
 
     int      numVals = 0;
     int      numSeg  = 0;
     float [] values  = null;
-    int   [] types   = null;
+    byte  [] types   = null;
 
     float    mx, my, cx, cy;
 
+    int windingRule;
+
+    /**
+     * The cached bounds of the path, or null.
+     */
+    Rectangle2D bounds;
+
+    /**
+     * The cached length of the path, or null.
+     */
+    PathLength pathLength;
+
+    /**
+     * The value stored in types for SEG_ARCTO, which doesn't fit in a
+     * byte.
+     */
+    static final byte ARCTO = 5;
+
    /**
      * Constructs a new <code>ExtendedGeneralPath</code>.
      */
     public ExtendedGeneralPath() {
-        path = new GeneralPath();
+        windingRule = PathIterator.WIND_NON_ZERO;
     }
 
     /**
@@ -66,7 +96,7 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
      * interior of the path to be defined.
      */
     public ExtendedGeneralPath(int rule) {
-        path = new GeneralPath(rule);
+        setWindingRule(rule);
     }
 
     /**
@@ -75,7 +105,11 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
      * to store path coordinates.
      */
     public ExtendedGeneralPath(int rule, int initialCapacity) {
-        path = new GeneralPath(rule, initialCapacity);
+        setWindingRule(rule);
+        if (initialCapacity > 0) {
+            values = new float[2 * initialCapacity];
+            types  = new byte[initialCapacity];
+        }
     }
 
     /**
@@ -122,6 +156,9 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
             return;
         }
 
+        if (path == null)
+            createPath();
+        changed();
         checkMoveTo();  // check if prev command was moveto
 
         // Get the current (x, y) coordinates of the path
@@ -143,7 +180,7 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
         path.append(s, true);
 
         makeRoom(7);
-        types [numSeg++]  = ExtendedPathIterator.SEG_ARCTO;
+        types [numSeg++]  = ARCTO;
         values[numVals++] = rx;
         values[numVals++] = ry;
         values[numVals++] = angle;
@@ -266,6 +303,7 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
      */
     public synchronized void moveTo(float x, float y) {
         // Don't add moveto to general path unless there is a reason.
+        changed();
         makeRoom(2);
         types [numSeg++]  = PathIterator.SEG_MOVETO;
         cx = mx = values[numVals++] = x;
@@ -277,8 +315,10 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
      * Delegates to the enclosed <code>GeneralPath</code>.
      */
     public synchronized void lineTo(float x, float y) {
+        changed();
         checkMoveTo();  // check if prev command was moveto
-        path.lineTo(x, y);
+        if (path != null)
+            path.lineTo(x, y);
 
         makeRoom(2);
         types [numSeg++]  = PathIterator.SEG_LINETO;
@@ -290,8 +330,10 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
      * Delegates to the enclosed <code>GeneralPath</code>.
      */
     public synchronized void quadTo(float x1, float y1, float x2, float y2) {
+        changed();
         checkMoveTo();  // check if prev command was moveto
-        path.quadTo(x1, y1, x2, y2);
+        if (path != null)
+            path.quadTo(x1, y1, x2, y2);
 
         makeRoom(4);
         types [numSeg++]  = PathIterator.SEG_QUADTO;
@@ -307,8 +349,10 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
     public synchronized void curveTo(float x1, float y1,
                                      float x2, float y2,
                                      float x3, float y3) {
+        changed();
         checkMoveTo();   // check if prev command was moveto
-        path.curveTo(x1, y1, x2, y2, x3, y3);
+        if (path != null)
+            path.curveTo(x1, y1, x2, y2, x3, y3);
 
         makeRoom(6);
         types [numSeg++]  = PathIterator.SEG_CUBICTO;
@@ -328,8 +372,10 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
         if ((numSeg != 0) && (types[numSeg-1] == PathIterator.SEG_CLOSE))
             return;
 
+        changed();
         // Only close path if the previous command wasn't a moveto
-        if ((numSeg != 0) && (types[numSeg-1] != PathIterator.SEG_MOVETO))
+        if ((path != null) && (numSeg != 0) &&
+            (types[numSeg-1] != PathIterator.SEG_MOVETO))
             path.closePath();
 
         makeRoom(0);
@@ -343,6 +389,15 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
      * skipping a close command (if present).
      */
     protected void checkMoveTo() {
+        if (path == null) {
+            // The moveto is added by the iterators, just fail like
+            // GeneralPath would without one.
+            if ((numSeg == 0) ||
+                ((numSeg == 1) && (types[0] == PathIterator.SEG_CLOSE)))
+                throw new IllegalPathStateException
+                    ("missing initial moveto in path definition");
+            return;
+        }
         if (numSeg == 0) return;
 
         switch(types[numSeg-1]) {
@@ -362,6 +417,59 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
         }
     }
 
+    /**
+     * Creates the enclosed <code>GeneralPath</code> from the segments
+     * added so far, none of which is an arc.
+     */
+    protected void createPath() {
+        path = new GeneralPath(windingRule);
+        path.append(new PI(null), false);
+    }
+
+    /**
+     * Forgets the cached bounds and length.
+     */
+    protected void changed() {
+        bounds = null;
+        pathLength = null;
+    }
+
+    /**
+     * Tells whether the segment at <code>seg</code> is part of the
+     * Java2D view of a path without arcs, which (like the enclosed
+     * <code>GeneralPath</code>) drops movetos that aren't followed by
+     * a line or a curve, and closes that follow a moveto.
+     */
+    boolean isDrawn(int seg) {
+        switch (types[seg]) {
+        case PathIterator.SEG_MOVETO:
+            if (seg + 1 == numSeg) return false;
+            if (types[seg+1] == PathIterator.SEG_CLOSE) {
+                if (seg + 2 == numSeg) return false;
+                return types[seg+2] != PathIterator.SEG_MOVETO;
+            }
+            return types[seg+1] != PathIterator.SEG_MOVETO;
+        case PathIterator.SEG_CLOSE:
+            return (seg != 0) && (types[seg-1] != PathIterator.SEG_MOVETO);
+        default:
+            return true;
+        }
+    }
+
+    /**
+     * Returns the number of values of a segment type.
+     */
+    static int numValues(int type) {
+        switch (type) {
+        case PathIterator.SEG_MOVETO:
+        case PathIterator.SEG_LINETO:  return 2;
+        case PathIterator.SEG_QUADTO:  return 4;
+        case PathIterator.SEG_CUBICTO: return 6;
+        case ARCTO:                    return 7;
+        default:                       return 0;
+        }
+    }
+
     /**
      * Delegates to the enclosed <code>GeneralPath</code>.
      */
@@ -466,14 +574,20 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
      * Delegates to the enclosed <code>GeneralPath</code>.
      */
     public synchronized int getWindingRule() {
-        return path.getWindingRule();
+        return windingRule;
     }
 
     /**
      * Delegates to the enclosed <code>GeneralPath</code>.
      */
-    public void setWindingRule(int rule) {
-        path.setWindingRule(rule);
+    public synchronized void setWindingRule(int rule) {
+        if ((rule != PathIterator.WIND_EVEN_ODD) &&
+            (rule != PathIterator.WIND_NON_ZERO))
+            throw new IllegalArgumentException
+                ("winding rule must be WIND_EVEN_ODD or WIND_NON_ZERO");
+        windingRule = rule;
+        if (path != null)
+            path.setWindingRule(rule);
     }
 
     /**
@@ -488,7 +602,8 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
      * Delegates to the enclosed <code>GeneralPath</code>.
      */
     public synchronized void reset() {
-        path.reset();
+        path = null;
+        changed();
 
         numSeg = 0;
         numVals = 0;
@@ -509,77 +624,169 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
      * Delegates to the enclosed <code>GeneralPath</code>.
      */
     public synchronized Shape createTransformedShape(AffineTransform at) {
-        return path.createTransformedShape(at);
+        if (path != null)
+            return path.createTransformedShape(at);
+        GeneralPath gp = new GeneralPath(windingRule);
+        gp.append(new PI(at), false);
+        return gp;
     }
 
     /**
-     * Delegates to the enclosed <code>GeneralPath</code>.
+     * Returns the bounds of the path.
      */
-    public synchronized Rectangle getBounds() {
-        return path.getBounds();
+    public Rectangle getBounds() {
+        return getBounds2D().getBounds();
     }
 
     /**
-     * Delegates to the enclosed <code>GeneralPath</code>.
+     * Returns the bounds of the path, computed once.
      */
     public synchronized Rectangle2D getBounds2D() {
-        return path.getBounds2D();
+        if (bounds == null) {
+            if (path != null) {
+                bounds = path.getBounds2D();
+            } else {
+                // Left to Java2D, whose bounds of curves depend on
+                // the JDK: control points before 19, tight since.
+                GeneralPath gp = new GeneralPath(windingRule);
+                gp.append(new PI(null), false);
+                bounds = gp.getBounds2D();
+            }
+        }
+        return (Rectangle2D)bounds.clone();
+    }
+
+    /**
+     * Returns a {@link PathLength} for this path.  It is created the
+     * first time it is asked for and kept until the path changes, so
+     * the path is only flattened once.  The returned object is shared
+     * and must not be modified.
+     */
+    public synchronized PathLength getPathLength() {
+        if (pathLength == null)
+            pathLength = new PathLength(this);
+        return pathLength;
     }
 
     /**
      * Delegates to the enclosed <code>GeneralPath</code>.
      */
     public boolean contains(double x, double y) {
-        return path.contains(x, y);
+        if (path != null)
+            return path.contains(x, y);
+        return Path2D.contains(new PI(null), x, y);
     }
 
     /**
      * Delegates to the enclosed <code>GeneralPath</code>.
      */
     public boolean contains(Point2D p) {
-        return path.contains(p);
+        return contains(p.getX(), p.getY());
     }
 
     /**
      * Delegates to the enclosed <code>GeneralPath</code>.
      */
     public boolean contains(double x, double y, double w, double h) {
-        return path.contains(x, y, w, h);
+        if (path != null)
+            return path.contains(x, y, w, h);
+        return Path2D.contains(new PI(null), x, y, w, h);
     }
 
     /**
      * Delegates to the enclosed <code>GeneralPath</code>.
      */
     public boolean contains(Rectangle2D r) {
-        return path.contains(r);
+        return contains(r.getX(), r.getY(), r.getWidth(), r.getHeight());
     }
 
     /**
      * Delegates to the enclosed <code>GeneralPath</code>.
      */
     public boolean intersects(double x, double y, double w, double h) {
-        return path.intersects(x, y, w, h);
+        if (path != null)
+            return path.intersects(x, y, w, h);
+        return Path2D.intersects(new PI(null), x, y, w, h);
     }
 
     /**
      * Delegates to the enclosed <code>GeneralPath</code>.
      */
     public boolean intersects(Rectangle2D r) {
-        return path.intersects(r);
+        return intersects(r.getX(), r.getY(), r.getWidth(), r.getHeight());
     }
 
     /**
      * Delegates to the enclosed <code>GeneralPath</code>.
      */
     public PathIterator getPathIterator(AffineTransform at) {
-        return path.getPathIterator(at);
+        if (path != null)
+            return path.getPathIterator(at);
+        return new PI(at);
     }
 
     /**
      * Delegates to the enclosed <code>GeneralPath</code>.
      */
     public PathIterator getPathIterator(AffineTransform at, double flatness) {
-        return path.getPathIterator(at, flatness);
+        if (path != null)
+            return path.getPathIterator(at, flatness);
+        return new FlatteningPathIterator(new PI(at), flatness);
+    }
+
+    /**
+     * Iterates over the Java2D view of a path without arcs.
+     */
+    class PI implements PathIterator {
+        AffineTransform at;
+        int segNum = 0;
+        int valsIdx = 0;
+
+        PI(AffineTransform at) {
+            this.at = at;
+            skip();
+        }
+
+        /**
+         * Moves to the next segment that is part of the view.
+         */
+        void skip() {
+            while ((segNum < numSeg) && !isDrawn(segNum)) {
+                valsIdx += numValues(types[segNum++]);
+            }
+        }
+
+        public int currentSegment(double[] coords) {
+            int type = types[segNum];
+            int n = numValues(type);
+            for (int i = 0; i < n; i++)
+                coords[i] = values[valsIdx+i];
+            if (at != null)
+                at.transform(coords, 0, coords, 0, n / 2);
+            return type;
+        }
+
+        public int currentSegment(float[] coords) {
+            int type = types[segNum];
+            int n = numValues(type);
+            System.arraycopy(values, valsIdx, coords, 0, n);
+            if (at != null)
+                at.transform(coords, 0, coords, 0, n / 2);
+            return type;
+        }
+
+        public int getWindingRule() {
+            return windingRule;
+        }
+
+        public boolean isDone() {
+            return segNum >= numSeg;
+        }
+
+        public void next() {
+            valsIdx += numValues(types[segNum++]);
+            skip();
+        }
     }
 
     /**
@@ -594,11 +801,12 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
         int valsIdx = 0;
 
         public int currentSegment() {
-            return types[segNum];
+            int ret = types[segNum];
+            return (ret == ARCTO) ? SEG_ARCTO : ret;
         }
 
         public int currentSegment(double[] coords) {
-            int ret = types[segNum];
+            int ret = currentSegment();
             switch (ret) {
             case SEG_CLOSE: break;
             case SEG_MOVETO:
@@ -637,7 +845,7 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
         }
 
         public int currentSegment(float[] coords) {
-            int ret = types[segNum];
+            int ret = currentSegment();
             switch (ret) {
             case SEG_CLOSE: break;
             case SEG_MOVETO:
@@ -659,21 +867,13 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
         }
 
         public int getWindingRule() {
-            return path.getWindingRule();
+            return windingRule;
         }
         public boolean isDone() {
             return segNum == numSeg;
         }
         public void next() {
-            int type = types[segNum++];
-            switch (type) {
-            case SEG_CLOSE: break;
-            case SEG_MOVETO:                   // fallthrough is intended
-            case SEG_LINETO: valsIdx+=2; break;
-            case SEG_QUADTO: valsIdx+=4; break;
-            case SEG_CUBICTO:valsIdx+=6; break;
-            case SEG_ARCTO:  valsIdx+=7; break;
-            }
+            valsIdx += numValues(types[segNum++]);
         }
     }
 
@@ -683,7 +883,10 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
     public Object clone() {
         try {
             ExtendedGeneralPath result = (ExtendedGeneralPath) super.clone();
-            result.path = (GeneralPath) path.clone();
+            if (path != null)
+                result.path = (GeneralPath) path.clone();
+            result.bounds = null;
+            result.pathLength = null;
 
             if ( values != null ){
                 result.values = new float[values.length];
@@ -692,7 +895,7 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
             result.numVals = numVals;
 
             if ( types != null ){
-                result.types = new int[types.length];
+                result.types = new byte[types.length];
                 System.arraycopy(types, 0, result.types, 0, types.length);
             }
             result.numSeg = numSeg;
@@ -712,7 +915,7 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
     private void makeRoom(int numValues) {
         if (values == null) {
             values = new float[2*numValues];
-            types  = new int[2];
+            types  = new byte[2];
             numVals = 0;
             numSeg  = 0;
             return;
@@ -730,7 +933,7 @@ public class ExtendedGeneralPath implements ExtendedShape, Cloneable {
         }
 
         if (numSeg == types.length) {
-            int [] ntypes = new int[types.length*2];
+            byte [] ntypes = new byte[types.length*2];
             System.arraycopy(types, 0, ntypes, 0, types.length);
             types = ntypes;
         }
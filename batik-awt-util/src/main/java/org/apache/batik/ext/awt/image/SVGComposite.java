@@ -318,6 +318,14 @@ public class SVGComposite
             final int  dstInAdjust =  dstInScanStride - w;
             final int dstOutAdjust = dstOutScanStride - w;
 
+            if ((srcAdjust == 0) && (dstInAdjust == 0) && (dstOutAdjust == 0)) {
+                // All three rasters are contiguous over the region so
+                // run the kernel as a single long scanline, this gives
+                // the JIT one long counted loop to unroll/vectorize.
+                w *= h;
+                h  = 1;
+            }
+
             precompose_INT_PACK(w, h,
                                 srcPixels,    srcAdjust,    srcBase,
                                 dstInPixels,  dstInAdjust,  dstInBase,
@@ -434,19 +442,22 @@ public class SVGComposite
              final int [] dstInPixels,  final int dstInAdjust,  int dstInSp,
              final int [] dstOutPixels, final int dstOutAdjust, int dstOutSp) {
 
+            final int srcStride    = width + srcAdjust;
+            final int dstInStride  = width + dstInAdjust;
+            final int dstOutStride = width + dstOutAdjust;
+
             final int norm = (1<<24)/255;
             final int pt5  = (1<<23);
 
             int srcP, dstInP, dstM;
 
             for (int y = 0; y<height; y++) {
-                final int end = dstOutSp+width;
-                while (dstOutSp<end) {
-                    srcP   = srcPixels  [srcSp++];
-                    dstInP = dstInPixels[dstInSp++];
+                for (int i = 0; i<width; i++) {
+                    srcP   = srcPixels  [srcSp+i];
+                    dstInP = dstInPixels[dstInSp+i];
 
                     dstM = (255-(srcP>>>24))*norm;
-                    dstOutPixels[dstOutSp++] =
+                    dstOutPixels[dstOutSp+i] =
                         (((     srcP & 0xFF000000) +
                           (((((dstInP>>>24)     )*dstM+pt5)&0xFF000000)     ))|
                          ((     srcP & 0x00FF0000) +
@@ -456,9 +467,9 @@ public class SVGComposite
                          ((     srcP & 0x000000FF) +
                           (((((dstInP     )&0xFF)*dstM+pt5)         )>>>24)));
                 }
-                srcSp    += srcAdjust;
-                dstInSp  += dstInAdjust;
-                dstOutSp += dstOutAdjust;
+                srcSp    += srcStride;
+                dstInSp  += dstInStride;
+                dstOutSp += dstOutStride;
             }
         }
     }
@@ -479,19 +490,22 @@ public class SVGComposite
              final int [] dstInPixels,  final int dstInAdjust,  int dstInSp,
              final int [] dstOutPixels, final int dstOutAdjust, int dstOutSp) {
 
+            final int srcStride    = width + srcAdjust;
+            final int dstInStride  = width + dstInAdjust;
+            final int dstOutStride = width + dstOutAdjust;
+
             final int norm = (1<<24)/255;
             final int pt5  = (1<<23);
 
             int srcP, dstInP, dstM;
 
             for (int y = 0; y<height; y++) {
-                final int end = dstOutSp+width;
-                while (dstOutSp<end) {
-                    srcP   = srcPixels  [srcSp++];
-                    dstInP = dstInPixels[dstInSp++];
+                for (int i = 0; i<width; i++) {
+                    srcP   = srcPixels  [srcSp+i];
+                    dstInP = dstInPixels[dstInSp+i];
 
                     dstM = (255-(srcP>>>24))*norm;
-                    dstOutPixels[dstOutSp++] =
+                    dstOutPixels[dstOutSp+i] =
                         (((     srcP & 0x00FF0000) +
                           (((((dstInP>> 16)&0xFF)*dstM+pt5)&0xFF000000)>>> 8))|
                          ((     srcP & 0x0000FF00) +
@@ -499,9 +513,9 @@ public class SVGComposite
                          ((     srcP & 0x000000FF) +
                           (((((dstInP     )&0xFF)*dstM+pt5)         )>>>24)));
                 }
-                srcSp    += srcAdjust;
-                dstInSp  += dstInAdjust;
-                dstOutSp += dstOutAdjust;
+                srcSp    += srcStride;
+                dstInSp  += dstInStride;
+                dstOutSp += dstOutStride;
             }
         }
     }
@@ -546,21 +560,24 @@ public class SVGComposite
              final int [] dstInPixels,  final int dstInAdjust,  int dstInSp,
              final int [] dstOutPixels, final int dstOutAdjust, int dstOutSp) {
 
+            final int srcStride    = width + srcAdjust;
+            final int dstInStride  = width + dstInAdjust;
+            final int dstOutStride = width + dstOutAdjust;
+
             final int norm = (1<<24)/255;
             final int pt5  = (1<<23);
 
             int srcP, srcM, dstP, dstM;
 
             for (int y = 0; y<height; y++) {
-                final int end = dstOutSp+width;
-                while (dstOutSp<end) {
-                    srcP   = srcPixels  [srcSp++];
-                    dstP = dstInPixels[dstInSp++];
+                for (int i = 0; i<width; i++) {
+                    srcP   = srcPixels  [srcSp+i];
+                    dstP = dstInPixels[dstInSp+i];
 
                     srcM = (    (srcP>>>24))*norm;
                     dstM = (255-(srcP>>>24))*norm;
 
-                    dstOutPixels[dstOutSp++] =
+                    dstOutPixels[dstOutSp+i] =
                         ((((( srcP&0xFF000000)      +
                             ((dstP>>>24)     )*dstM + pt5)&0xFF000000)     ) |
                          (((((srcP>> 16)&0xFF)*srcM +
@@ -570,9 +587,9 @@ public class SVGComposite
                          (((((srcP     )&0xFF)*srcM +
                             ((dstP     )&0xFF)*dstM + pt5)           )>>>24));
                 }
-                srcSp    += srcAdjust;
-                dstInSp  += dstInAdjust;
-                dstOutSp += dstOutAdjust;
+                srcSp    += srcStride;
+                dstInSp  += dstInStride;
+                dstOutSp += dstOutStride;
             }
         }
     }
@@ -627,25 +644,28 @@ public class SVGComposite
              final int [] dstInPixels,  final int dstInAdjust,  int dstInSp,
              final int [] dstOutPixels, final int dstOutAdjust, int dstOutSp) {
 
+            final int srcStride    = width + srcAdjust;
+            final int dstInStride  = width + dstInAdjust;
+            final int dstOutStride = width + dstOutAdjust;
+
             final int norm = (1<<24)/255;
             final int pt5  = (1<<23);
 
             int srcP, srcM;
 
             for (int y = 0; y<height; y++) {
-                final int end = dstOutSp+width;
-                while (dstOutSp<end) {
-                    srcM = (dstInPixels[dstInSp++]>>>24)*norm;
-                    srcP = srcPixels   [srcSp++];
-                    dstOutPixels[dstOutSp++] =
+                for (int i = 0; i<width; i++) {
+                    srcM = (dstInPixels[dstInSp+i]>>>24)*norm;
+                    srcP = srcPixels   [srcSp+i];
+                    dstOutPixels[dstOutSp+i] =
                         ((((((srcP>>>24)     )*srcM + pt5)&0xFF000000)     ) |
                          (((((srcP>> 16)&0xFF)*srcM + pt5)&0xFF000000)>>> 8) |
                          (((((srcP>>  8)&0xFF)*srcM + pt5)&0xFF000000)>>>16) |
                          (((((srcP     )&0xFF)*srcM + pt5)           )>>>24));
                 }
-                srcSp    += srcAdjust;
-                dstInSp  += dstInAdjust;
-                dstOutSp += dstOutAdjust;
+                srcSp    += srcStride;
+                dstInSp  += dstInStride;
+                dstOutSp += dstOutStride;
             }
         }
     }
@@ -700,25 +720,28 @@ public class SVGComposite
              final int [] dstInPixels,  final int dstInAdjust,  int dstInSp,
              final int [] dstOutPixels, final int dstOutAdjust, int dstOutSp) {
 
+            final int srcStride    = width + srcAdjust;
+            final int dstInStride  = width + dstInAdjust;
+            final int dstOutStride = width + dstOutAdjust;
+
             final int norm = (1<<24)/255;
             final int pt5  = (1<<23);
 
             int srcP, srcM;
 
             for (int y = 0; y<height; y++) {
-                final int end = dstOutSp+width;
-                while (dstOutSp<end) {
-                    srcM = (255-(dstInPixels[dstInSp++]>>>24))*norm;
-                    srcP = srcPixels   [srcSp++];
-                    dstOutPixels[dstOutSp++] =
+                for (int i = 0; i<width; i++) {
+                    srcM = (255-(dstInPixels[dstInSp+i]>>>24))*norm;
+                    srcP = srcPixels   [srcSp+i];
+                    dstOutPixels[dstOutSp+i] =
                         ((((((srcP>>>24)     )*srcM + pt5)&0xFF000000)     ) |
                          (((((srcP>> 16)&0xFF)*srcM + pt5)&0xFF000000)>>> 8) |
                          (((((srcP>>  8)&0xFF)*srcM + pt5)&0xFF000000)>>>16) |
                          (((((srcP     )&0xFF)*srcM + pt5)           )>>>24));
                 }
-                srcSp    += srcAdjust;
-                dstInSp  += dstInAdjust;
-                dstOutSp += dstOutAdjust;
+                srcSp    += srcStride;
+                dstInSp  += dstInStride;
+                dstOutSp += dstOutStride;
             }
         }
     }
@@ -776,21 +799,24 @@ public class SVGComposite
              final int [] dstInPixels,  final int dstInAdjust,  int dstInSp,
              final int [] dstOutPixels, final int dstOutAdjust, int dstOutSp) {
 
+            final int srcStride    = width + srcAdjust;
+            final int dstInStride  = width + dstInAdjust;
+            final int dstOutStride = width + dstOutAdjust;
+
             final int norm = (1<<24)/255;
             final int pt5  = (1<<23);
 
             int srcP, srcM, dstP, dstM;
 
             for (int y = 0; y<height; y++) {
-                final int end = dstOutSp+width;
-                while (dstOutSp<end) {
-                    srcP = srcPixels  [srcSp++];
-                    dstP = dstInPixels[dstInSp++];
+                for (int i = 0; i<width; i++) {
+                    srcP = srcPixels  [srcSp+i];
+                    dstP = dstInPixels[dstInSp+i];
 
                     srcM = (     dstP>>>24) *norm;
                     dstM = (255-(srcP>>>24))*norm;
 
-                    dstOutPixels[dstOutSp++] =
+                    dstOutPixels[dstOutSp+i] =
                         ((dstP&0xFF000000)                                   |
                          (((((srcP>> 16)&0xFF)*srcM +
                             ((dstP>> 16)&0xFF)*dstM + pt5)&0xFF000000)>>> 8) |
@@ -799,9 +825,9 @@ public class SVGComposite
                          (((((srcP     )&0xFF)*srcM +
                             ((dstP     )&0xFF)*dstM + pt5)           )>>>24));
                 }
-                srcSp    += srcAdjust;
-                dstInSp  += dstInAdjust;
-                dstOutSp += dstOutAdjust;
+                srcSp    += srcStride;
+                dstInSp  += dstInStride;
+                dstOutSp += dstOutStride;
             }
         }
     }
@@ -863,21 +889,24 @@ public class SVGComposite
              final int [] dstInPixels,  final int dstInAdjust,  int dstInSp,
              final int [] dstOutPixels, final int dstOutAdjust, int dstOutSp) {
 
+            final int srcStride    = width + srcAdjust;
+            final int dstInStride  = width + dstInAdjust;
+            final int dstOutStride = width + dstOutAdjust;
+
             final int norm = (1<<24)/255;
             final int pt5  = (1<<23);
 
             int srcP, srcM, dstP, dstM;
 
             for (int y = 0; y<height; y++) {
-                final int end = dstOutSp+width;
-                while (dstOutSp<end) {
-                    srcP = srcPixels  [srcSp++];
-                    dstP = dstInPixels[dstInSp++];
+                for (int i = 0; i<width; i++) {
+                    srcP = srcPixels  [srcSp+i];
+                    dstP = dstInPixels[dstInSp+i];
 
                     srcM = (255-(dstP>>>24))*norm;
                     dstM = (255-(srcP>>>24))*norm;
 
-                    dstOutPixels[dstOutSp++] =
+                    dstOutPixels[dstOutSp+i] =
                         ((((((srcP>>>24)     )*srcM +
                             ((dstP>>>24)     )*dstM + pt5)&0xFF000000)     ) |
                          (((((srcP>> 16)&0xFF)*srcM +
@@ -887,9 +916,9 @@ public class SVGComposite
                          (((((srcP     )&0xFF)*srcM +
                             ((dstP     )&0xFF)*dstM + pt5)           )>>>24));
                 }
-                srcSp    += srcAdjust;
-                dstInSp  += dstInAdjust;
-                dstOutSp += dstOutAdjust;
+                srcSp    += srcStride;
+                dstInSp  += dstInStride;
+                dstOutSp += dstOutStride;
             }
         }
     }
@@ -973,13 +1002,16 @@ public class SVGComposite
              final int [] dstInPixels,  final int dstInAdjust,  int dstInSp,
              final int [] dstOutPixels, final int dstOutAdjust, int dstOutSp) {
 
+            final int srcStride    = width + srcAdjust;
+            final int dstInStride  = width + dstInAdjust;
+            final int dstOutStride = width + dstOutAdjust;
+
             int srcP, dstP, a, r, g, b;
 
             for (int y = 0; y<height; y++) {
-                final int end = dstOutSp+width;
-                while (dstOutSp<end) {
-                    srcP = srcPixels   [srcSp++];
-                    dstP = dstInPixels   [dstInSp++];
+                for (int i = 0; i<width; i++) {
+                    srcP = srcPixels   [srcSp+i];
+                    dstP = dstInPixels   [dstInSp+i];
                     a = (int)((srcP>>>24)*(dstP>>>24)*k1 +
                               (srcP>>>24)*k2 + (dstP>>>24)*k3 + k4);
                     if ((a & 0xFFFFFF00) != 0)
@@ -992,7 +1024,7 @@ public class SVGComposite
                     if ((r & 0xFFFFFF00) != 0)
                         if ((r & 0x80000000) != 0) r = 0;
                         else                       r = 255;
-                    if (a < r) a = r;
+                    a = Math.max(a, r);
 
                     g = (int)(((srcP>>  8)&0xFF)*((dstP>>  8)&0xFF)*k1 +
                               ((srcP>>  8)&0xFF)*k2 +
@@ -1000,21 +1032,21 @@ public class SVGComposite
                     if ((g & 0xFFFFFF00) != 0)
                         if ((g & 0x80000000) != 0) g = 0;
                         else                       g = 255;
-                    if (a < g) a = g;
+                    a = Math.max(a, g);
 
                     b = (int)((srcP&0xFF)*(dstP&0xFF)*k1 +
                               (srcP&0xFF)*k2 + (dstP&0xFF)*k3 + k4);
                     if ((b & 0xFFFFFF00) != 0)
                         if ((b & 0x80000000) != 0) b = 0;
                         else                       b = 255;
-                    if (a < b) a = b;
+                    a = Math.max(a, b);
 
-                    dstOutPixels[dstOutSp++]
+                    dstOutPixels[dstOutSp+i]
                         = ((a<<24) | (r<<16) | (g<<8) | b);
                 }
-                srcSp    += srcAdjust;
-                dstInSp  += dstInAdjust;
-                dstOutSp += dstOutAdjust;
+                srcSp    += srcStride;
+                dstInSp  += dstInStride;
+                dstOutSp += dstOutStride;
             }
             // long endTime = System.currentTimeMillis();
             // System.out.println("Arith Time: " + (endTime-startTime));
@@ -1049,26 +1081,29 @@ public class SVGComposite
              final int [] dstInPixels,  final int dstInAdjust,  int dstInSp,
              final int [] dstOutPixels, final int dstOutAdjust, int dstOutSp) {
 
+            final int srcStride    = width + srcAdjust;
+            final int dstInStride  = width + dstInAdjust;
+            final int dstOutStride = width + dstOutAdjust;
+
             byte[] workTbl = lut;   // local is cheaper
             int srcP, dstP;
             for (int y = 0; y<height; y++) {
-                final int end = dstOutSp+width;
-                while (dstOutSp<end) {
-                    srcP = srcPixels  [srcSp++];
-                    dstP = dstInPixels[dstInSp++];
+                for (int i = 0; i<width; i++) {
+                    srcP = srcPixels  [srcSp+i];
+                    dstP = dstInPixels[dstInSp+i];
 
                     int a = 0xFF & workTbl[(((srcP>> 16)&0xFF00)|((dstP>>>24)       ))];
                     int r = 0xFF & workTbl[(((srcP>>  8)&0xFF00)|((dstP>> 16)&0x00FF))];
                     int g = 0xFF & workTbl[(((srcP     )&0xFF00)|((dstP>>  8)&0x00FF))];
                     int b = 0xFF & workTbl[(((srcP<<  8)&0xFF00)|((dstP     )&0x00FF))];
-                    if (r>a) a = r;
-                    if (g>a) a = g;
-                    if (b>a) a = b;
-                    dstOutPixels[dstOutSp++] = (a<<24)|(r<<16)|(g<<8)|(b);
+                    a = Math.max(a, r);
+                    a = Math.max(a, g);
+                    a = Math.max(a, b);
+                    dstOutPixels[dstOutSp+i] = (a<<24)|(r<<16)|(g<<8)|(b);
                 }
-                srcSp    += srcAdjust;
-                dstInSp  += dstInAdjust;
-                dstOutSp += dstOutAdjust;
+                srcSp    += srcStride;
+                dstInSp  += dstInStride;
+                dstOutSp += dstOutStride;
             }
             // long endTime = System.currentTimeMillis();
             // System.out.println("ArithLut Time: " + (endTime-startTime));
@@ -1142,6 +1177,10 @@ public class SVGComposite
              final int [] dstInPixels,  final int dstInAdjust,  int dstInSp,
              final int [] dstOutPixels, final int dstOutAdjust, int dstOutSp) {
 
+            final int srcStride    = width + srcAdjust;
+            final int dstInStride  = width + dstInAdjust;
+            final int dstOutStride = width + dstOutAdjust;
+
             final int norm = (1<<24)/255;
             final int pt5  = (1<<23);
 
@@ -1149,10 +1188,9 @@ public class SVGComposite
             int dstP, dstA, dstR, dstG, dstB, dstM;
 
             for (int y = 0; y<height; y++) {
-                final int end = dstOutSp+width;
-                while (dstOutSp<end) {
-                    srcP = srcPixels  [srcSp++];
-                    dstP = dstInPixels[dstInSp++];
+                for (int i = 0; i<width; i++) {
+                    srcP = srcPixels  [srcSp+i];
+                    dstP = dstInPixels[dstInSp+i];
 
                     srcA = (srcP>>>24);
                     dstA = (dstP>>>24);
@@ -1166,7 +1204,7 @@ public class SVGComposite
                     srcM = 255-dstA;
                     dstM = 255-srcA;
 
-                    dstOutPixels[dstOutSp++] =
+                    dstOutPixels[dstOutSp+i] =
                         (((((srcR*srcM + dstR*dstM + srcR*dstR)
                             *norm + pt5)&0xFF000000)>>> 8) |
                          ((((srcG*srcM + dstG*dstM + srcG*dstG)
@@ -1175,9 +1213,9 @@ public class SVGComposite
                             *norm + pt5)           )>>>24) |
                          ((srcA + dstA - ((srcA*dstA*norm + pt5)>>>24))<<24));
                 }
-                srcSp    += srcAdjust;
-                dstInSp  += dstInAdjust;
-                dstOutSp += dstOutAdjust;
+                srcSp    += srcStride;
+                dstInSp  += dstInStride;
+                dstOutSp += dstOutStride;
             }
         }
     }
@@ -1249,6 +1287,10 @@ public class SVGComposite
              final int [] dstInPixels,  final int dstInAdjust,  int dstInSp,
              final int [] dstOutPixels, final int dstOutAdjust, int dstOutSp) {
 
+            final int srcStride    = width + srcAdjust;
+            final int dstInStride  = width + dstInAdjust;
+            final int dstOutStride = width + dstOutAdjust;
+
             final int norm = (1<<24)/255;
             final int pt5  = (1<<23);
 
@@ -1256,10 +1298,9 @@ public class SVGComposite
             int dstP, dstA, dstR, dstG, dstB;
 
             for (int y = 0; y<height; y++) {
-                final int end = dstOutSp+width;
-                while (dstOutSp<end) {
-                    srcP = srcPixels  [srcSp++];
-                    dstP = dstInPixels[dstInSp++];
+                for (int i = 0; i<width; i++) {
+                    srcP = srcPixels  [srcSp+i];
+                    dstP = dstInPixels[dstInSp+i];
 
                     srcA = (srcP>>>24);
                     dstA = (dstP>>>24);
@@ -1270,15 +1311,15 @@ public class SVGComposite
                     srcB = (srcP     )&0xFF;
                     dstB = (dstP     )&0xFF;
 
-                    dstOutPixels[dstOutSp++] =
+                    dstOutPixels[dstOutSp+i] =
                         (((srcR + dstR - ((srcR*dstR*norm + pt5)>>>24))<<16)|
                          ((srcG + dstG - ((srcG*dstG*norm + pt5)>>>24))<< 8)|
                          ((srcB + dstB - ((srcB*dstB*norm + pt5)>>>24))    )|
                          ((srcA + dstA - ((srcA*dstA*norm + pt5)>>>24))<<24));
                 }
-                srcSp    += srcAdjust;
-                dstInSp  += dstInAdjust;
-                dstOutSp += dstOutAdjust;
+                srcSp    += srcStride;
+                dstInSp  += dstInStride;
+                dstOutSp += dstOutStride;
             }
         }
     }
@@ -1354,6 +1395,10 @@ public class SVGComposite
              final int [] dstInPixels,  final int dstInAdjust,  int dstInSp,
              final int [] dstOutPixels, final int dstOutAdjust, int dstOutSp) {
 
+            final int srcStride    = width + srcAdjust;
+            final int dstInStride  = width + dstInAdjust;
+            final int dstOutStride = width + dstOutAdjust;
+
             final int norm = (1<<24)/255;
             final int pt5  = (1<<23);
 
@@ -1363,10 +1408,9 @@ public class SVGComposite
             int srcV, dstV, tmp;
 
             for (int y = 0; y<height; y++) {
-                final int end = dstOutSp+width;
-                while (dstOutSp<end) {
-                    srcP = srcPixels  [srcSp++];
-                    dstP = dstInPixels[dstInSp++];
+                for (int i = 0; i<width; i++) {
+                    srcP = srcPixels  [srcSp+i];
+                    dstP = dstInPixels[dstInSp+i];
 
                     srcV = (srcP>>>24);
                     dstV = (dstP>>>24);
@@ -1378,32 +1422,32 @@ public class SVGComposite
                     dstV = (dstP>> 16)&0xFF;
                     dstR = ((srcM*srcV + pt5)>>>24) + dstV;
                     tmp  = ((dstM*dstV + pt5)>>>24) + srcV;
-                    if (dstR > tmp) dstR = tmp;
+                    dstR = Math.min(dstR, tmp);
 
                     srcV = (srcP>>  8)&0xFF;
                     dstV = (dstP>>  8)&0xFF;
                     dstG = ((srcM*srcV + pt5)>>>24) + dstV;
                     tmp  = ((dstM*dstV + pt5)>>>24) + srcV;
-                    if (dstG > tmp) dstG = tmp;
+                    dstG = Math.min(dstG, tmp);
 
 
                     srcV = (srcP     )&0xFF;
                     dstV = (dstP     )&0xFF;
                     dstB = ((srcM*srcV + pt5)>>>24) + dstV;
                     tmp  = ((dstM*dstV + pt5)>>>24) + srcV;
-                    if (dstB > tmp) dstB = tmp;
+                    dstB = Math.min(dstB, tmp);
 
                     dstA &= 0xFF; // trim to 8 bit
                     dstR &= 0xFF;
                     dstG &= 0xFF;
                     dstB &= 0xFF;
 
-                    dstOutPixels[dstOutSp++] =
+                    dstOutPixels[dstOutSp+i] =
                         ((dstA<<24) | (dstR<<16) | (dstG<< 8) | dstB);
                 }
-                srcSp    += srcAdjust;
-                dstInSp  += dstInAdjust;
-                dstOutSp += dstOutAdjust;
+                srcSp    += srcStride;
+                dstInSp  += dstInStride;
+                dstOutSp += dstOutStride;
             }
         }
     }
@@ -1479,6 +1523,10 @@ public class SVGComposite
              final int [] dstInPixels,  final int dstInAdjust,  int dstInSp,
              final int [] dstOutPixels, final int dstOutAdjust, int dstOutSp) {
 
+            final int srcStride    = width + srcAdjust;
+            final int dstInStride  = width + dstInAdjust;
+            final int dstOutStride = width + dstOutAdjust;
+
             final int norm = (1<<24)/255;
             final int pt5  = (1<<23);
 
@@ -1488,10 +1536,9 @@ public class SVGComposite
             int srcV, dstV, tmp;
 
             for (int y = 0; y<height; y++) {
-                final int end = dstOutSp+width;
-                while (dstOutSp<end) {
-                    srcP = srcPixels  [srcSp++];
-                    dstP = dstInPixels[dstInSp++];
+                for (int i = 0; i<width; i++) {
+                    srcP = srcPixels  [srcSp+i];
+                    dstP = dstInPixels[dstInSp+i];
 
                     srcV = (srcP>>>24);
                     dstV = (dstP>>>24);
@@ -1503,32 +1550,32 @@ public class SVGComposite
                     dstV = (dstP>> 16)&0xFF;
                     dstR = ((srcM*srcV + pt5)>>>24) + dstV;
                     tmp  = ((dstM*dstV + pt5)>>>24) + srcV;
-                    if (dstR < tmp) dstR = tmp;
+                    dstR = Math.max(dstR, tmp);
 
                     srcV = (srcP>>  8)&0xFF;
                     dstV = (dstP>>  8)&0xFF;
                     dstG = ((srcM*srcV + pt5)>>>24) + dstV;
                     tmp  = ((dstM*dstV + pt5)>>>24) + srcV;
-                    if (dstG < tmp) dstG = tmp;
+                    dstG = Math.max(dstG, tmp);
 
 
                     srcV = (srcP     )&0xFF;
                     dstV = (dstP     )&0xFF;
                     dstB = ((srcM*srcV + pt5)>>>24) + dstV;
                     tmp  = ((dstM*dstV + pt5)>>>24) + srcV;
-                    if (dstB < tmp) dstB = tmp;
+                    dstB = Math.max(dstB, tmp);
 
                     dstA &= 0xFF; // trim to 8 bit
                     dstR &= 0xFF;
                     dstG &= 0xFF;
                     dstB &= 0xFF;
 
-                    dstOutPixels[dstOutSp++] =
+                    dstOutPixels[dstOutSp+i] =
                         ((dstA<<24) | (dstR<<16) | (dstG<< 8) | dstB);
                 }
-                srcSp    += srcAdjust;
-                dstInSp  += dstInAdjust;
-                dstOutSp += dstOutAdjust;
+                srcSp    += srcStride;
+                dstInSp  += dstInStride;
+                dstOutSp += dstOutStride;
             }
         }
     }
@@ -16,16 +16,20 @@
    limitations under the License.
 
 */
-
 package org.apache.batik.ext.awt.image;
 
+import java.awt.geom.Rectangle2D;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.batik.ext.awt.image.renderable.DeferRable;
 import org.apache.batik.ext.awt.image.renderable.Filter;
 import org.apache.batik.util.ParsedURL;
-import org.apache.batik.util.SoftReferenceCache;
 
 /**
- * This class manages a cache of soft references to Images that
- * we have already loaded.
+ * This class manages a cache of the Images that we have already loaded.
  *
  * <p>
  *   Adding an image is two fold. First you add the ParsedURL, this lets
@@ -34,51 +38,133 @@ import org.apache.batik.util.SoftReferenceCache;
  * </p>
  * <p>
  *   If someone requests a ParsedURL after it has been added but before it has
- *   been put they will be blocked until the put.
+ *   been put they will be blocked until the put, so each URL is only
+ *   loaded once no matter how many threads ask for it.  Requests for
+ *   other URLs are not held up while they wait.
+ * </p>
+ * <p>
+ *   The cache keeps the images it holds until their estimated size
+ *   (four bytes per pixel) goes over its byte budget, then drops the
+ *   least recently used ones.  The budget of the caches built with the
+ *   default constructor is an eighth of the maximum heap size, or the
+ *   value of the <code>org.apache.batik.image_cache_size</code> system
+ *   property (in bytes).  Sizes of images that are still being decoded
+ *   are counted once they are known.
  * </p>
  *
  * @author <a href="mailto:thomas.deweese@kodak.com">Thomas DeWeese</a>
  * @version $Id$
  */
-public class URLImageCache extends SoftReferenceCache {
+public class URLImageCache {
+
+    /**
+     * The byte budget of caches built with the default constructor.
+     */
+    public static final long DEFAULT_MAX_SIZE;
+
+    static {
+        long value = Runtime.getRuntime().maxMemory() / 8;
+        try {
+            String s = System.getProperty("org.apache.batik.image_cache_size");
+            if (s != null)
+                value = Long.parseLong(s);
+        } catch (SecurityException se) {
+        } catch (NumberFormatException nfe) {
+        } finally {
+            DEFAULT_MAX_SIZE = value;
+        }
+    }
 
     static URLImageCache theCache = new URLImageCache();
 
     public static URLImageCache getDefaultCache() { return theCache; }
 
+    /**
+     * The cached images, least recently used first.
+     */
+    protected final LinkedHashMap entries = new LinkedHashMap(16, .75f, true);
+
+    /**
+     * The URLs someone is on the hook for.
+     */
+    protected final Map pending = new HashMap();
+
+    protected final long maxSize;
+    protected long size;
+
+    /**
+     * The number of entries whose size isn't known yet.
+     */
+    protected int unsized;
+
+    protected long hitCount;
+    protected long missCount;
+    protected long evictionCount;
+    protected long loadCount;
+    protected long loadTime;
+
     /**
      * Let people create there own caches.
      */
-    public URLImageCache() { }
+    public URLImageCache() {
+        this(DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Creates a cache that holds on to at most about
+     * <code>maxSize</code> bytes of images.
+     */
+    public URLImageCache(long maxSize) {
+        this.maxSize = maxSize;
+    }
 
     /**
      * Check if <code>request(url)</code> will return with a Filter
      * (not putting you on the hook for it).  Note that it is possible
      * that this will return true but between this call and the call
-     * to request the soft-reference will be cleared.  So it
-     * is still possible for request to return NULL, just much less
-     * likely (you can always call 'clear' in that case). 
+     * to request the entry will be evicted.  So it is still possible
+     * for request to return NULL, just much less likely (you can
+     * always call 'clear' in that case).
      */
     public synchronized boolean isPresent(ParsedURL purl) {
-        return super.isPresentImpl(purl);
+        return entries.containsKey(purl) || pending.containsKey(purl);
     }
 
     /**
      * Check if <code>request(url)</code> will return immediately with the
      * Filter.  Note that it is possible that this will return
      * true but between this call and the call to request the
-     * soft-reference will be cleared.
+     * entry will be evicted.
      */
     public synchronized boolean isDone(ParsedURL purl) {
-        return super.isDoneImpl(purl);
+        return entries.containsKey(purl);
     }
 
     /**
      * If this returns null then you are now 'on the hook'.
      * to put the Filter associated with ParsedURL into the
      * cache.  */
-    public synchronized Filter request(ParsedURL purl) {
-        return (Filter)super.requestImpl(purl);
+    public Filter request(ParsedURL purl) {
+        while (true) {
+            Load load;
+            synchronized (this) {
+                Entry e = (Entry)entries.get(purl);
+                if (e != null) {
+                    hitCount++;
+                    return e.filter;
+                }
+                load = (Load)pending.get(purl);
+                if (load == null) {
+                    // So now the caller get's the hot potato.
+                    missCount++;
+                    pending.put(purl, new Load());
+                    return null;
+                }
+            }
+            // Someone else is loading it, when they put or clear
+            // we will be notified.
+            load.await();
+        }
     }
 
     /**
@@ -87,17 +173,188 @@ public class URLImageCache extends SoftReferenceCache {
      * if you didn't indend to get on it.
      */
     public synchronized void clear(ParsedURL purl) {
-        super.clearImpl(purl);
+        Entry e = (Entry)entries.remove(purl);
+        if (e != null)
+            removed(e);
+        Load load = (Load)pending.remove(purl);
+        if (load != null)
+            load.done();
     }
 
     /**
-     * Associate bi with purl.  bi is only referenced through
-     * a soft reference so don't rely on the cache to keep it
-     * around.  If the map no longer contains our purl it was
-     * probably cleared or flushed since we were put on the hook
-     * for it, so in that case we will do nothing.
+     * Associate filt with purl.  If the cache no longer expects
+     * purl it was probably cleared or flushed since we were put on
+     * the hook for it, so in that case we will do nothing.
      */
     public synchronized void put(ParsedURL purl, Filter filt) {
-        super.putImpl(purl, filt);
+        Load load = (Load)pending.remove(purl);
+        if (load == null)
+            return;
+
+        loadCount++;
+        loadTime += System.currentTimeMillis() - load.start;
+        if (filt != null) {
+            Entry e = new Entry(filt);
+            if (e.size < 0)
+                unsized++;
+            else
+                size += e.size;
+            entries.put(purl, e);
+            trim();
+        }
+        load.done();
+    }
+
+    /**
+     * Removes all the images from the cache.
+     */
+    public synchronized void flush() {
+        entries.clear();
+        size = 0;
+        unsized = 0;
+        Iterator i = pending.values().iterator();
+        while (i.hasNext())
+            ((Load)i.next()).done();
+        pending.clear();
+    }
+
+    /**
+     * Drops the least recently used images until the cache fits in
+     * its budget.  The most recent entry is always kept.
+     */
+    protected void trim() {
+        if (unsized > 0) {
+            Iterator i = entries.values().iterator();
+            while (i.hasNext()) {
+                Entry e = (Entry)i.next();
+                if (e.size < 0) {
+                    e.size = estimateSize(e.filter);
+                    if (e.size >= 0) {
+                        unsized--;
+                        size += e.size;
+                    }
+                }
+            }
+        }
+
+        Iterator i = entries.values().iterator();
+        while ((size > maxSize) && (entries.size() > 1)) {
+            Entry e = (Entry)i.next();
+            i.remove();
+            removed(e);
+            evictionCount++;
+        }
+    }
+
+    /**
+     * Updates the accounting for an entry that left the cache.
+     */
+    protected void removed(Entry e) {
+        if (e.size < 0)
+            unsized--;
+        else
+            size -= e.size;
+    }
+
+    /**
+     * Returns the number of bytes an image holds, or -1 if that isn't
+     * known yet.
+     */
+    protected static long estimateSize(Filter filt) {
+        Rectangle2D r;
+        if (filt instanceof DeferRable) {
+            r = ((DeferRable)filt).getKnownBounds();
+            if (r == null)
+                return -1;
+        } else {
+            r = filt.getBounds2D();
+        }
+        return 4 * (long)Math.ceil(r.getWidth())
+                 * (long)Math.ceil(r.getHeight());
+    }
+
+    /**
+     * Returns the byte budget of this cache.
+     */
+    public long getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Returns the estimated number of bytes held by the cache.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Returns the number of requests answered from the cache.
+     */
+    public synchronized long getHitCount() {
+        return hitCount;
+    }
+
+    /**
+     * Returns the number of requests that put the caller on the hook.
+     */
+    public synchronized long getMissCount() {
+        return missCount;
+    }
+
+    /**
+     * Returns the number of images dropped to stay within the budget.
+     */
+    public synchronized long getEvictionCount() {
+        return evictionCount;
+    }
+
+    /**
+     * Returns the number of images put in the cache after a miss.
+     */
+    public synchronized long getLoadCount() {
+        return loadCount;
+    }
+
+    /**
+     * Returns the total time, in milliseconds, between misses and
+     * the matching puts.
+     */
+    public synchronized long getTotalLoadTime() {
+        return loadTime;
+    }
+
+    /**
+     * A cached image.
+     */
+    protected static class Entry {
+        public final Filter filter;
+        public long size;
+
+        public Entry(Filter filter) {
+            this.filter = filter;
+            this.size = estimateSize(filter);
+        }
+    }
+
+    /**
+     * Lets the threads waiting for a URL sleep until it has been
+     * put or cleared.
+     */
+    protected static class Load {
+        public final long start = System.currentTimeMillis();
+        protected boolean done;
+
+        public synchronized void done() {
+            done = true;
+            notifyAll();
+        }
+
+        public synchronized void await() {
+            while (!done) {
+                try {
+                    wait();
+                } catch (InterruptedException ie) { }
+            }
+        }
     }
 }
@@ -121,8 +121,18 @@ public class AffineRable8Bit
 
         // Map the area of interest to our input...
         Shape aoi = rc.getAreaOfInterest();
-        if (aoi != null)
+        if (aoi != null) {
+            // Nothing outside of our bounds needs to be rendered.
+            Rectangle2D aoiR   = aoi.getBounds2D();
+            Rectangle2D bounds = getBounds2D();
+            if ( ! bounds.intersects(aoiR) )
+                return null;
+            if ( ! bounds.contains(aoiR) ) {
+                Rectangle2D.intersect(aoiR, bounds, aoiR);
+                aoi = aoiR;
+            }
             aoi = invAffine.createTransformedShape(aoi);
+        }
 
         // update the current affine transform
         AffineTransform at = rc.getTransform();
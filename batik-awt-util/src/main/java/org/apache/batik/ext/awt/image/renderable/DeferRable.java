@@ -91,6 +91,16 @@ public class DeferRable implements Filter {
         notifyAll();
     }
 
+    /**
+     * Returns the bounds if they are already known, or null.  Unlike
+     * <code>getBounds2D</code> this never blocks.
+     */
+    public synchronized Rectangle2D getKnownBounds() {
+        if (src != null)
+            return src.getBounds2D();
+        return bounds;
+    }
+
     public long getTimeStamp() {
         return getSource().getTimeStamp();
     }
@@ -233,6 +233,16 @@ public class GaussianBlurRable8Bit
         Shape aoi = rc.getAreaOfInterest();
         if(aoi == null)
             aoi = getBounds2D();
+        else {
+            // Nothing is drawn outside our bounds so don't blur (or
+            // ask our source for) anything beyond them.
+            Rectangle2D aoiR   = aoi.getBounds2D();
+            Rectangle2D bounds = getBounds2D();
+            if ( ! bounds.intersects(aoiR) )
+                return null;
+            Rectangle2D.intersect(aoiR, bounds, aoiR);
+            aoi = aoiR;
+        }
 
         Shape devShape = srcAt.createTransformedShape(aoi);
         Rectangle devRect = devShape.getBounds();
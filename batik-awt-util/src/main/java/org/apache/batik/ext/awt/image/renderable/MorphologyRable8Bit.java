@@ -195,6 +195,19 @@ public class MorphologyRable8Bit
         Shape aoi = rc.getAreaOfInterest();
         if(aoi == null) {
             aoi = getBounds2D();
+        } else {
+            // Dilation can reach radius pixels beyond our source,
+            // anything further away is always transparent.
+            Rectangle2D aoiR   = aoi.getBounds2D();
+            Rectangle2D bounds = getBounds2D();
+            bounds = new Rectangle2D.Double(bounds.getX()-radX/scaleX,
+                                            bounds.getY()-radY/scaleY,
+                                            bounds.getWidth() +2*radX/scaleX,
+                                            bounds.getHeight()+2*radY/scaleY);
+            if ( ! bounds.intersects(aoiR) )
+                return null;
+            Rectangle2D.intersect(aoiR, bounds, aoiR);
+            aoi = aoiR;
         }
  
         Rectangle2D r = aoi.getBounds2D();
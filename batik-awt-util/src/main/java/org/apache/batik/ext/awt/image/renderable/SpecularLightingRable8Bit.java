@@ -289,10 +289,18 @@ public class SpecularLightingRable8Bit
 
         // System.out.println("scaleX / scaleY : " + scaleX + "/" + scaleY);
 
+        // Share the bump map of another lighting primitive reading
+        // the same rendering of the same source.
+        Filter src = getSource();
+        long stamp = src.getTimeStamp();
+        BumpMap bumpMap = BumpMap.getBumpMap(src, stamp, rc, surfaceScale,
+                                             scaleX, scaleY);
         CachableRed cr;
-        cr = GraphicsUtil.wrap(getSource().createRendering(rc));
-
-        BumpMap bumpMap = new BumpMap(cr, surfaceScale, scaleX, scaleY);
+        if (bumpMap == null) {
+            cr = GraphicsUtil.wrap(src.createRendering(rc));
+            bumpMap = new BumpMap(cr, surfaceScale, scaleX, scaleY);
+            BumpMap.putBumpMap(bumpMap, src, stamp, rc);
+        }
 
         cr = new SpecularLightingRed(ks, specularExponent, light, bumpMap,
                                      devRect, 1/scaleX, 1/scaleY,
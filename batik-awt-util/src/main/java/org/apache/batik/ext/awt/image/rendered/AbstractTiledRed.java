@@ -22,14 +22,17 @@ import java.awt.Point;
 import java.awt.Rectangle;
 import java.awt.image.ColorModel;
 import java.awt.image.DataBufferInt;
+import java.awt.image.MultiPixelPackedSampleModel;
 import java.awt.image.Raster;
 import java.awt.image.SampleModel;
 import java.awt.image.WritableRaster;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.batik.ext.awt.image.GraphicsUtil;
 import org.apache.batik.util.HaltingThread;
+import org.apache.batik.util.WorkerPool;
 
 /**
  * This is an abstract base class that takes care of most of the
@@ -433,12 +436,13 @@ public abstract class AbstractTiledRed
         }
 
         // Check If we should halt early.
-        Thread currentThread = Thread.currentThread();
         if (HaltingThread.hasBeenHalted())
             return;
 
         idx = 0;
         // Fill in the ones that weren't in the cache.
+        int numEdge = 0;
+        int [] edge = new int[got.length];
         for (ty=ty0; ty<=ty1; ty++) {
 
             for (tx=tx0; tx<=tx1; tx++) {
@@ -463,21 +467,14 @@ public abstract class AbstractTiledRed
                 else {
                     if (got[idx++]) continue;
 
-                    // System.out.println("Computing : " + x + "," + y);
-
-                    ras = getTile(tx, ty);// Compute the tile..
-                    // Check If we should halt early.
-                    if (HaltingThread.hasBeenHalted( currentThread ))
-                        return;
-
-                    if (is_INT_PACK)
-                        GraphicsUtil.copyData_INT_PACK(ras, wr);
-                    else
-                        GraphicsUtil.copyData_FALLBACK(ras, wr);
+                    // Remember the tile, they are computed below.
+                    edge[numEdge++] = (tx-tx0)+(ty-ty0)*(tx1-tx0+1);
                 }
             }
         }
 
+        drawEdgeTiles(edge, numEdge, tx0, ty0, tx1-tx0+1, wr);
+
         // System.out.println("Ending Computation: " + this);
     }
 
@@ -601,38 +598,160 @@ public abstract class AbstractTiledRed
     }
 
 
-    protected void drawBlockInPlace( TileBlock [] blocks, WritableRaster wr ) {
+    protected void drawBlockInPlace( TileBlock [] blocks,
+                                     final WritableRaster wr ) {
         // System.out.println("Ending Splits: " + blocks.length);
 
         // cache for reuse in hasBeenHalted()
-        Thread currentThread = Thread.currentThread();
+        final Thread currentThread = Thread.currentThread();
 
-        int workTileWidth = tileWidth;    // local is cheaper
-        int workTileHeight = tileHeight;  // local is cheaper
+        final int workTileWidth = tileWidth;    // local is cheaper
+        final int workTileHeight = tileHeight;  // local is cheaper
 
-        for ( int i = 0; i < blocks.length; i++ ) {
-            TileBlock curr = blocks[ i ];
+        boolean parallel = canDrawInParallel( wr );
+        if ( parallel ) {
+            blocks = splitForWorkers( blocks );
+        }
+
+        final TileBlock [] work = blocks;
+        WorkerPool.RangeTask task = new WorkerPool.RangeTask() {
+            public void run( int start, int end ) {
+                for ( int i = start; i < end; i++ ) {
+                    // Check If we should halt early.
+                    if ( HaltingThread.hasBeenHalted( currentThread ) ) {
+                        return;
+                    }
 
-            // System.out.println("Block " + i + ":\n" + curr);
+                    TileBlock curr = work[ i ];
 
-            int xloc = curr.getXLoc() * workTileWidth + tileGridXOff;
-            int yloc = curr.getYLoc() * workTileHeight + tileGridYOff;
-            Rectangle tb = new Rectangle( xloc, yloc,
-                    curr.getWidth() * workTileWidth,
-                    curr.getHeight() * workTileHeight );
-            tb = tb.intersection( bounds );
+                    // System.out.println("Block " + i + ":\n" + curr);
 
-            WritableRaster child =
-                    wr.createWritableChild( tb.x, tb.y, tb.width, tb.height,
-                            tb.x, tb.y, null );
-            // System.out.println("Computing : " + child);
-            genRect( child );
+                    int xloc = curr.getXLoc() * workTileWidth + tileGridXOff;
+                    int yloc = curr.getYLoc() * workTileHeight + tileGridYOff;
+                    Rectangle tb = new Rectangle( xloc, yloc,
+                            curr.getWidth() * workTileWidth,
+                            curr.getHeight() * workTileHeight );
+                    tb = tb.intersection( bounds );
 
-            // Check If we should halt early.
-            if ( HaltingThread.hasBeenHalted( currentThread ) ) {
-                return;
+                    WritableRaster child =
+                            wr.createWritableChild( tb.x, tb.y, tb.width, tb.height,
+                                    tb.x, tb.y, null );
+                    // System.out.println("Computing : " + child);
+                    genRect( child );
+                }
+            }
+        };
+
+        if ( parallel ) {
+            WorkerPool.parallelFor( 0, work.length, 1, task );
+        } else {
+            task.run( 0, work.length );
+        }
+    }
+
+    /**
+     * Computes the tiles listed in <code>edge</code> (as offsets in
+     * a <code>stride</code> wide grid of tiles starting at
+     * <code>tx0</code>, <code>ty0</code>) and copies them into
+     * <code>wr</code>.  The tiles are spread across the worker pool
+     * when that is safe; the tile store makes sure a tile another
+     * thread is already computing is not computed again.
+     */
+    protected void drawEdgeTiles( final int [] edge, int numEdge,
+                                  final int tx0, final int ty0,
+                                  final int stride,
+                                  final WritableRaster wr ) {
+        final boolean is_INT_PACK =
+            GraphicsUtil.is_INT_PACK_Data(getSampleModel(), false);
+        final Thread currentThread = Thread.currentThread();
+
+        WorkerPool.RangeTask task = new WorkerPool.RangeTask() {
+            public void run( int start, int end ) {
+                for ( int i = start; i < end; i++ ) {
+                    // Check If we should halt early.
+                    if ( HaltingThread.hasBeenHalted( currentThread ) ) {
+                        return;
+                    }
+
+                    int tx = tx0 + edge[ i ] % stride;
+                    int ty = ty0 + edge[ i ] / stride;
+                    Raster ras = getTile( tx, ty ); // Compute the tile..
+                    if ( is_INT_PACK ) {
+                        GraphicsUtil.copyData_INT_PACK( ras, wr );
+                    } else {
+                        GraphicsUtil.copyData_FALLBACK( ras, wr );
+                    }
+                }
+            }
+        };
+
+        if ( canDrawInParallel( wr ) ) {
+            WorkerPool.parallelFor( 0, numEdge, 1, task );
+        } else {
+            task.run( 0, numEdge );
+        }
+    }
+
+    /**
+     * Returns true if <code>genRect</code> may be called from several
+     * threads at once (for disjoint regions).  This is false by
+     * default since most sources (GVT rendering in particular) are
+     * not thread safe, subclasses that compute their pixels from
+     * immutable state should override it.
+     */
+    protected boolean canGenRectConcurrently() {
+        return false;
+    }
+
+    /**
+     * Returns true if disjoint regions of <code>wr</code> can be
+     * computed by different threads.  This needs the cooperation of
+     * <code>genRect</code> and isn't possible when several pixels
+     * share a data element (packed bit rasters).
+     */
+    protected boolean canDrawInParallel( WritableRaster wr ) {
+        return ( canGenRectConcurrently() &&
+                 WorkerPool.isParallel() &&
+                 !WorkerPool.isWorkerThread() &&
+                 !( wr.getSampleModel() instanceof MultiPixelPackedSampleModel ) );
+    }
+
+    /**
+     * Cuts <code>blocks</code> into bands of whole tile rows until
+     * there are roughly as many blocks as worker threads, so a single
+     * large request still keeps all the workers busy.
+     */
+    protected TileBlock [] splitForWorkers( TileBlock [] blocks ) {
+        int want = WorkerPool.PARALLELISM;
+        if ( blocks.length >= want ) {
+            return blocks;
+        }
+
+        int rows = 0;
+        for ( int i = 0; i < blocks.length; i++ ) {
+            rows += blocks[ i ].h;
+        }
+        if ( rows <= blocks.length ) {
+            return blocks;
+        }
+
+        List split = new ArrayList();
+        for ( int i = 0; i < blocks.length; i++ ) {
+            TileBlock curr = blocks[ i ];
+            int bands = ( int ) Math.round( ( double ) want * curr.h / rows );
+            if ( bands < 1 ) bands = 1;
+            if ( bands > curr.h ) bands = curr.h;
+            for ( int b = 0; b < bands; b++ ) {
+                int y0 = ( curr.h * b ) / bands;
+                int y1 = ( curr.h * ( b + 1 ) ) / bands;
+                split.add( new TileBlock( curr.occX, curr.occY,
+                                          curr.occW, curr.occH,
+                                          curr.occupied,
+                                          curr.xOff, curr.yOff + y0,
+                                          curr.w, y1 - y0 ) );
             }
         }
+        return ( TileBlock [] ) split.toArray( new TileBlock[ split.size() ] );
     }
 }
 
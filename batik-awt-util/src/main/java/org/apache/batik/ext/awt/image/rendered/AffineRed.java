@@ -143,54 +143,56 @@ public class AffineRed extends AbstractRed {
 
         if ( ! srcR.intersects(src.getBounds()) )
             return;
-        Raster srcRas = src.getData(srcR.intersection(src.getBounds()));
-
-        if (srcRas == null)
-            return;
+        WritableRaster srcWR = RasterPool.allocate
+            (src.getSampleModel(), srcR.intersection(src.getBounds()));
+        try {
+            src.copyData(srcWR);
 
-        // This works around the problem that the buffered ops
-        // completely ignore the coords of the Rasters passed in.
-        AffineTransform aff = (AffineTransform)src2me.clone();
+            // This works around the problem that the buffered ops
+            // completely ignore the coords of the Rasters passed in.
+            AffineTransform aff = (AffineTransform)src2me.clone();
 
-        // Translate what is at 0,0 (which will be what our current
-        // minX/Y is) to our current minX,minY.
-        aff.concatenate(AffineTransform.getTranslateInstance
-                        (srcRas.getMinX(), srcRas.getMinY()));
+            // Translate what is at 0,0 (which will be what our current
+            // minX/Y is) to our current minX,minY.
+            aff.concatenate(AffineTransform.getTranslateInstance
+                            (srcWR.getMinX(), srcWR.getMinY()));
 
-        Point2D srcPt = new Point2D.Float(wr.getMinX(), wr.getMinY());
-        srcPt         = me2src.transform(srcPt, null);
+            Point2D srcPt = new Point2D.Float(wr.getMinX(), wr.getMinY());
+            srcPt         = me2src.transform(srcPt, null);
 
-        Point2D destPt = new Point2D.Double(srcPt.getX()-srcRas.getMinX(),
-                                            srcPt.getY()-srcRas.getMinY());
+            Point2D destPt = new Point2D.Double(srcPt.getX()-srcWR.getMinX(),
+                                                srcPt.getY()-srcWR.getMinY());
 
-        destPt = aff.transform(destPt, null);
+            destPt = aff.transform(destPt, null);
 
 
-        // Translate what will be at minX,minY to zero, zero
-        // which where java2d will think the real minX,minY is.
-        aff.preConcatenate(AffineTransform.getTranslateInstance
-                           (-destPt.getX(), -destPt.getY()));
+            // Translate what will be at minX,minY to zero, zero
+            // which where java2d will think the real minX,minY is.
+            aff.preConcatenate(AffineTransform.getTranslateInstance
+                               (-destPt.getX(), -destPt.getY()));
 
-        AffineTransformOp op = new AffineTransformOp(aff, hints);
+            AffineTransformOp op = new AffineTransformOp(aff, hints);
 
-        BufferedImage srcBI, myBI;
-        ColorModel srcCM = src.getColorModel();
-        ColorModel myCM = getColorModel();
+            BufferedImage srcBI, myBI;
+            ColorModel srcCM = src.getColorModel();
+            ColorModel myCM = getColorModel();
 
-        WritableRaster srcWR = (WritableRaster)srcRas;
-        // If the output buffer is not premultiplied in certain cases
-        // it fails to properly divide out the Alpha (it always does
-        // the affine on premultiplied data). We help it out by
-        // premultiplying for it.
-        srcCM = GraphicsUtil.coerceData(srcWR, srcCM, true);
-        srcBI = new BufferedImage(srcCM,
-                                  srcWR.createWritableTranslatedChild(0,0),
-                                  srcCM.isAlphaPremultiplied(), null);
+            // If the output buffer is not premultiplied in certain cases
+            // it fails to properly divide out the Alpha (it always does
+            // the affine on premultiplied data). We help it out by
+            // premultiplying for it.
+            srcCM = GraphicsUtil.coerceData(srcWR, srcCM, true);
+            srcBI = new BufferedImage(srcCM,
+                                      srcWR.createWritableTranslatedChild(0,0),
+                                      srcCM.isAlphaPremultiplied(), null);
 
-        myBI = new BufferedImage(myCM,wr.createWritableTranslatedChild(0,0),
-                                 myCM.isAlphaPremultiplied(), null);
+            myBI = new BufferedImage(myCM,wr.createWritableTranslatedChild(0,0),
+                                     myCM.isAlphaPremultiplied(), null);
 
-        op.filter(srcBI, myBI);
+            op.filter(srcBI, myBI);
+        } finally {
+            RasterPool.release(srcWR);
+        }
 
         // if ((count % 40) == 0) {
         //     org.apache.batik.ImageDisplay.showImage("Src: " , srcBI);
@@ -45,6 +45,13 @@ public class Any2LsRGBRed extends AbstractRed {
 
     boolean srcIssRGB = false;
 
+    /**
+     * Set when our source is a conversion from linear sRGB to sRGB,
+     * see <code>Any2sRGBRed.roundTripSrc</code>.
+     */
+    CachableRed roundTripSrc;
+    int []      roundTripLut;
+
     /**
      * Construct a luminace image from src.
      *
@@ -63,6 +70,15 @@ public class Any2LsRGBRed extends AbstractRed {
         ColorSpace srcCS = srcCM.getColorSpace();
         if (srcCS == ColorSpace.getInstance(ColorSpace.CS_sRGB))
             srcIssRGB = true;
+
+        if (srcIssRGB && (src instanceof Any2sRGBRed)) {
+            Any2sRGBRed nonLin = (Any2sRGBRed)src;
+            if (nonLin.srcIsLsRGB) {
+                roundTripSrc = (CachableRed)nonLin.getSources().get(0);
+                roundTripLut = Any2sRGBRed.composeLut
+                    (Any2sRGBRed.linearToSRGBLut, sRGBToLsRGBLut);
+            }
+        }
     }
 
     /**
@@ -84,7 +100,7 @@ public class Any2LsRGBRed extends AbstractRed {
      * linearToLinear table is used when the values are considered to
      * be on the sRGB scale to begin with.
      */
-    private static final int[] sRGBToLsRGBLut = new int[256];
+    static final int[] sRGBToLsRGBLut = new int[256];
     static {
         final double scale = 1.0/255;
 
@@ -106,10 +122,13 @@ public class Any2LsRGBRed extends AbstractRed {
         // Fast case, SRGB source, INT Pack writable raster...
         if (srcIssRGB &&
             Any2sRGBRed.is_INT_PACK_COMP(wr.getSampleModel())) {
-            src.copyData(wr);
-            if (srcCM.hasAlpha())
-                GraphicsUtil.coerceData(wr, srcCM, false);
-            Any2sRGBRed.applyLut_INT(wr, sRGBToLsRGBLut);
+            if (roundTripSrc != null) {
+                // linear -> sRGB -> linear, read the linear data
+                // directly and do both conversions at once.
+                Any2sRGBRed.applyLut(wr, roundTripSrc, roundTripLut);
+            } else {
+                Any2sRGBRed.applyLut(wr, src, sRGBToLsRGBLut);
+            }
             return wr;
         }
 
@@ -191,39 +210,43 @@ public class Any2LsRGBRed extends AbstractRed {
             // lead to out of range values.
             ColorModel srcBICM = srcCM;
             WritableRaster srcWr;
-            if ( srcCM.hasAlpha() && srcCM.isAlphaPremultiplied() ) {
+            boolean unpremult =
+                srcCM.hasAlpha() && srcCM.isAlphaPremultiplied();
+            if ( unpremult ) {
                 Rectangle wrR = wr.getBounds();
                 SampleModel sm = srcCM.createCompatibleSampleModel
                     (wrR.width, wrR.height);
 
-                srcWr = Raster.createWritableRaster
-                    (sm, new Point(wrR.x, wrR.y));
-                src.copyData(srcWr);
-                srcBICM = GraphicsUtil.coerceData(srcWr, srcCM, false);
+                srcWr = RasterPool.allocate(sm, wrR);
             } else {
-                Raster srcRas = src.getData(wr.getBounds());
-                srcWr = GraphicsUtil.makeRasterWritable(srcRas);
+                srcWr = RasterPool.allocate(srcSM, wr.getBounds());
+            }
+            try {
+                src.copyData(srcWr);
+                if ( unpremult )
+                    srcBICM = GraphicsUtil.coerceData(srcWr, srcCM, false);
+
+                BufferedImage srcBI;
+                srcBI = new BufferedImage
+                    (srcBICM, srcWr.createWritableTranslatedChild(0,0),
+                     false, null);
+
+                /*
+                 * System.out.println("src: " + srcBI.getWidth() + "x" +
+                 *                    srcBI.getHeight());
+                 * System.out.println("dst: " + dstBI.getWidth() + "x" +
+                 *                    dstBI.getHeight());
+                 */
+
+                ColorConvertOp op = new ColorConvertOp(null);
+                op.filter(srcBI, dstBI);
+
+                if (dstCM.hasAlpha())
+                    copyBand(srcWr, srcSM.getNumBands()-1,
+                             wr,    getSampleModel().getNumBands()-1);
+            } finally {
+                RasterPool.release(srcWr);
             }
-
-            BufferedImage srcBI;
-            srcBI = new BufferedImage(srcBICM,
-                                      srcWr.createWritableTranslatedChild(0,0),
-                                      false,
-                                      null);
-
-            /*
-             * System.out.println("src: " + srcBI.getWidth() + "x" +
-             *                    srcBI.getHeight());
-             * System.out.println("dst: " + dstBI.getWidth() + "x" +
-             *                    dstBI.getHeight());
-             */
-
-            ColorConvertOp op = new ColorConvertOp(null);
-            op.filter(srcBI, dstBI);
-
-            if (dstCM.hasAlpha())
-                copyBand(srcWr, srcSM.getNumBands()-1,
-                         wr,    getSampleModel().getNumBands()-1);
         }
         return wr;
     }
@@ -32,6 +32,7 @@ import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
 
 import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.util.WorkerPool;
 
 /**
  * This function will tranform an image from any colorspace into a
@@ -45,6 +46,15 @@ public class Any2sRGBRed extends AbstractRed {
 
     boolean srcIsLsRGB = false;
 
+    /**
+     * When our source is itself a conversion from sRGB to linear sRGB
+     * this is that conversion's source, and <code>roundTripLut</code>
+     * is the composition of both tables.  The round trip is then done
+     * in a single pass straight from the sRGB data.
+     */
+    CachableRed roundTripSrc;
+    int []      roundTripLut;
+
     /**
      * Construct a luminance image from src.
      *
@@ -63,6 +73,15 @@ public class Any2sRGBRed extends AbstractRed {
         ColorSpace srcCS = srcCM.getColorSpace();
         if (srcCS == ColorSpace.getInstance(ColorSpace.CS_LINEAR_RGB))
             srcIsLsRGB = true;
+
+        if (srcIsLsRGB && (src instanceof Any2LsRGBRed)) {
+            Any2LsRGBRed lin = (Any2LsRGBRed)src;
+            if (lin.srcIssRGB) {
+                roundTripSrc = (CachableRed)lin.getSources().get(0);
+                roundTripLut = composeLut(Any2LsRGBRed.sRGBToLsRGBLut,
+                                          linearToSRGBLut);
+            }
+        }
     }
 
     public static boolean is_INT_PACK_COMP(SampleModel sm) {
@@ -96,7 +115,7 @@ public class Any2sRGBRed extends AbstractRed {
      * linearToLinear table is used when the values are considered to
      * be on the sRGB scale to begin with.
      */
-    private static final int[] linearToSRGBLut = new int[256];
+    static final int[] linearToSRGBLut = new int[256];
 
     static {
         final double scale = 1.0/255;
@@ -115,8 +134,51 @@ public class Any2sRGBRed extends AbstractRed {
         // System.out.println("");
     }
 
+    /*
+     * Minimum number of rows handed to a worker thread.  Converting a
+     * pixel is only a few table lookups so this is larger than for
+     * the filter kernels.
+     */
+    static final int GRAIN = 64;
+
+    /**
+     * Fixed point reciprocals of alpha, the same values
+     * GraphicsUtil uses to divide out premultiplied alpha.
+     */
+    private static final int[] alphaDivLut = new int[256];
+
+    static {
+        for (int a=1; a<256; a++)
+            alphaDivLut[a] = (0x00FF0000/a);
+    }
+
+    /**
+     * Returns the table applying <code>first</code> then
+     * <code>second</code>.
+     */
+    static int [] composeLut(int [] first, int [] second) {
+        int [] ret = new int[256];
+        for (int i=0; i<256; i++)
+            ret[i] = second[first[i]];
+        return ret;
+    }
+
     public static WritableRaster applyLut_INT(WritableRaster wr,
                                               final int []lut) {
+        return applyLut_INT(wr, lut, false);
+    }
+
+    /**
+     * Applies <code>lut</code> to the color components of an INT_PACK
+     * raster in place, leaving alpha untouched.  If
+     * <code>divideAlpha</code> is true the data is taken to be alpha
+     * premultiplied and the alpha is divided out in the same pass,
+     * with the same rounding as <code>GraphicsUtil.coerceData</code>.
+     * Rows are spread over the {@link WorkerPool}.
+     */
+    public static WritableRaster applyLut_INT(WritableRaster wr,
+                                              final int []lut,
+                                              final boolean divideAlpha) {
         SinglePixelPackedSampleModel sm =
             (SinglePixelPackedSampleModel)wr.getSampleModel();
         DataBufferInt db = (DataBufferInt)wr.getDataBuffer();
@@ -131,11 +193,28 @@ public class Any2sRGBRed extends AbstractRed {
         final int height     = wr.getHeight();
         final int scanStride = sm.getScanlineStride();
 
-        int end, pix;
+        WorkerPool.parallelFor(0, height, GRAIN, new WorkerPool.RangeTask() {
+                public void run(int y0, int y1) {
+                    if (divideAlpha)
+                        divideLutRows(pixels, srcBase, scanStride,
+                                      width, y0, y1, lut);
+                    else
+                        lutRows(pixels, srcBase, scanStride,
+                                width, y0, y1, lut);
+                }
+            });
 
-        // For alpha premult we need to multiply all comps.
-        for (int y=0; y<height; y++) {
-            int sp  = srcBase + y*scanStride;
+        return wr;
+    }
+
+    /**
+     * Applies <code>lut</code> to rows [y0, y1).
+     */
+    static void lutRows(int [] pixels, int base, int scanStride,
+                        int width, int y0, int y1, int [] lut) {
+        int end, pix;
+        for (int y=y0; y<y1; y++) {
+            int sp  = base + y*scanStride;
             end = sp + width;
 
             while (sp<end) {
@@ -148,8 +227,43 @@ public class Any2sRGBRed extends AbstractRed {
                 sp++;
             }
         }
+    }
 
-        return wr;
+    /**
+     * Divides out alpha and applies <code>lut</code> to rows [y0, y1).
+     * Fully transparent pixels become transparent white, as they do
+     * in <code>GraphicsUtil.divideAlpha</code>.
+     */
+    static void divideLutRows(int [] pixels, int base, int scanStride,
+                              int width, int y0, int y1, int [] lut) {
+        final int white = (lut[255]<<16) | (lut[255]<<8) | lut[255];
+        int end, pix, a, aFP;
+        for (int y=y0; y<y1; y++) {
+            int sp  = base + y*scanStride;
+            end = sp + width;
+
+            while (sp<end) {
+                pix = pixels[sp];
+                a   = pix>>>24;
+                if (a == 255) {
+                    pixels[sp] =
+                        ((     pix      &0xFF000000)|
+                         (lut[(pix>>>16)&0xFF]<<16) |
+                         (lut[(pix>>> 8)&0xFF]<< 8) |
+                         (lut[(pix     )&0xFF]    ));
+                } else if (a == 0) {
+                    pixels[sp] = white;
+                } else {
+                    aFP = alphaDivLut[a];
+                    pixels[sp] =
+                        ((a << 24) |
+                         (lut[((((pix>>>16)&0xFF)*aFP)&0xFF0000)>>>16]<<16) |
+                         (lut[((((pix>>> 8)&0xFF)*aFP)&0xFF0000)>>>16]<< 8) |
+                         (lut[((((pix     )&0xFF)*aFP)&0xFF0000)>>>16]    ));
+                }
+                sp++;
+            }
+        }
     }
 
     public WritableRaster copyData(WritableRaster wr) {
@@ -163,10 +277,13 @@ public class Any2sRGBRed extends AbstractRed {
         // Fast case, Linear SRGB source, INT Pack writable raster...
         if (srcIsLsRGB &&
             is_INT_PACK_COMP(wr.getSampleModel())) {
-            src.copyData(wr);
-            if (srcCM.hasAlpha())
-                GraphicsUtil.coerceData(wr, srcCM, false);
-            applyLut_INT(wr, linearToSRGBLut);
+            if (roundTripSrc != null) {
+                // sRGB -> linear -> sRGB, read the sRGB data directly
+                // and do both conversions at once.
+                applyLut(wr, roundTripSrc, roundTripLut);
+            } else {
+                applyLut(wr, src, linearToSRGBLut);
+            }
             return wr;
         }
 
@@ -256,41 +373,61 @@ public class Any2sRGBRed extends AbstractRed {
             return wr;
         }
 
-        Raster srcRas = src.getData(wr.getBounds());
-        WritableRaster srcWr  = (WritableRaster)srcRas;
+        WritableRaster srcWr = RasterPool.allocate(srcSM, wr.getBounds());
+        try {
+            src.copyData(srcWr);
 
-        // Divide out alpha if we have it.  We need to do this since
-        // the color convert may not be a linear operation which may
-        // lead to out of range values.
-        ColorModel srcBICM = srcCM;
-        if (srcCM.hasAlpha())
-            srcBICM = GraphicsUtil.coerceData(srcWr, srcCM, false);
+            // Divide out alpha if we have it.  We need to do this since
+            // the color convert may not be a linear operation which may
+            // lead to out of range values.
+            ColorModel srcBICM = srcCM;
+            if (srcCM.hasAlpha())
+                srcBICM = GraphicsUtil.coerceData(srcWr, srcCM, false);
 
-        BufferedImage srcBI, dstBI;
-        srcBI = new BufferedImage(srcBICM,
-                                  srcWr.createWritableTranslatedChild(0,0),
-                                  false,
-                                  null);
+            BufferedImage srcBI, dstBI;
+            srcBI = new BufferedImage(srcBICM,
+                                      srcWr.createWritableTranslatedChild(0,0),
+                                      false,
+                                      null);
 
-        // System.out.println("src: " + srcBI.getWidth() + "x" +
-        //                    srcBI.getHeight());
+            // System.out.println("src: " + srcBI.getWidth() + "x" +
+            //                    srcBI.getHeight());
 
-        ColorConvertOp op = new ColorConvertOp(dstCM.getColorSpace(),
-                                               null);
-        dstBI = op.filter(srcBI, null);
+            ColorConvertOp op = new ColorConvertOp(dstCM.getColorSpace(),
+                                                   null);
+            dstBI = op.filter(srcBI, null);
 
-        // System.out.println("After filter:");
+            // System.out.println("After filter:");
 
-        WritableRaster wr00 = wr.createWritableTranslatedChild(0,0);
-        for (int i=0; i<dstCM.getColorSpace().getNumComponents(); i++)
-            copyBand(dstBI.getRaster(), i, wr00,    i);
+            WritableRaster wr00 = wr.createWritableTranslatedChild(0,0);
+            for (int i=0; i<dstCM.getColorSpace().getNumComponents(); i++)
+                copyBand(dstBI.getRaster(), i, wr00,    i);
 
-        if (dstCM.hasAlpha())
-            copyBand(srcWr, srcSM.getNumBands()-1,
-                     wr,    getSampleModel().getNumBands()-1);
+            if (dstCM.hasAlpha())
+                copyBand(srcWr, srcSM.getNumBands()-1,
+                         wr,    getSampleModel().getNumBands()-1);
+        } finally {
+            RasterPool.release(srcWr);
+        }
         return wr;
     }
 
+    /**
+     * Copies <code>src</code> into the INT_PACK raster <code>wr</code>
+     * and applies <code>lut</code>, dividing out alpha on the way if
+     * <code>src</code> is premultiplied.
+     */
+    static void applyLut(WritableRaster wr, CachableRed src, int [] lut) {
+        ColorModel srcCM = src.getColorModel();
+        src.copyData(wr);
+        boolean premult = srcCM.hasAlpha() && srcCM.isAlphaPremultiplied();
+        if (premult && (wr.getNumBands() != 4)) {
+            GraphicsUtil.coerceData(wr, srcCM, false);
+            premult = false;
+        }
+        applyLut_INT(wr, lut, premult);
+    }
+
     /**
      * This function 'fixes' the source's color model.  Right now
      * it just selects if it should have one or two bands based on
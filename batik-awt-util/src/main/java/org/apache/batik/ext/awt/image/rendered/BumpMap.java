@@ -18,14 +18,34 @@
  */
 package org.apache.batik.ext.awt.image.rendered;
 
+import java.awt.Point;
 import java.awt.Rectangle;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
 import java.awt.image.DataBufferInt;
 import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
 import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.renderable.RenderContext;
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
 
 /**
- * Default BumpMap implementation.
+ * Default BumpMap implementation.  The normals are computed in blocks
+ * of NORMAL_TILE_SIZE pixels that are kept (softly) so lighting
+ * primitives sharing the BumpMap, or asking for the same area again,
+ * don't compute them twice.  Each block reads a one pixel border of
+ * the texture around it (the radius of the Sobel kernels), so the
+ * normals along the block edges are the same as when the whole area
+ * is computed at once: the blocks don't add seams.
  *
  * @author <a href="mailto:vincent.hardy@eng.sun.com">Vincent Hardy</a>
  * @version $Id$
@@ -47,6 +67,23 @@ public final class BumpMap {
      */
     private double scaleX, scaleY;
 
+    /**
+     * Size of the blocks the normals are computed and cached in.
+     */
+    static final int NORMAL_TILE_SIZE = 64;
+
+    /**
+     * Maps tile locations (Point) to SoftReferences of the packed
+     * normals of that tile.
+     */
+    private final Map tiles = new HashMap();
+
+    /**
+     * Maps the sources of lighting primitives to a List of the
+     * Entries describing the BumpMaps built on their renderings.
+     */
+    private static final Map shared = new WeakHashMap();
+
     /**
      * Stores the normals for this bumpMap.
      * scaleX and scaleY are the user space to device
@@ -70,15 +107,235 @@ public final class BumpMap {
         return surfaceScale;
     }
 
+    /**
+     * Returns the BumpMap registered with {@link #putBumpMap} for a
+     * rendering of <code>source</code> with the same surface scale,
+     * transform and rendering hints, whose area of interest contains
+     * the one of <code>rc</code>, or null if there is none.  The
+     * source then doesn't have to be rendered again and the normals
+     * are computed only once for all the lighting primitives that
+     * read it.
+     *
+     * <p>The hints are compared by identity: a new RenderingHints
+     * object is made for each paint, so a BumpMap is only shared
+     * between the primitives of one rendering and never outlives a
+     * change to the document.</p>
+     *
+     * @param source the object the texture is rendered from,
+     *               usually the source Filter of the primitive
+     * @param stamp  the modification time stamp of the source
+     * @param rc     the context the texture is rendered with
+     */
+    public static BumpMap getBumpMap(Object source, long stamp,
+                                     RenderContext rc,
+                                     double surfaceScale,
+                                     double scaleX, double scaleY) {
+        Rectangle2D aoi = getAreaOfInterest(rc);
+        if (aoi == null)
+            return null;
+
+        synchronized (shared) {
+            List l = (List)shared.get(source);
+            if (l == null)
+                return null;
+            Iterator i = l.iterator();
+            while (i.hasNext()) {
+                Entry e = (Entry)i.next();
+                BumpMap bm = (BumpMap)e.bumpMap.get();
+                if ((bm == null) || (e.hints.get() == null)) {
+                    i.remove();
+                    continue;
+                }
+                if ((bm.surfaceScale == surfaceScale) &&
+                    (bm.scaleX       == scaleX)       &&
+                    (bm.scaleY       == scaleY)       &&
+                    e.matches(stamp, rc) &&
+                    e.aoi.contains(aoi))
+                    return bm;
+            }
+            if (l.isEmpty())
+                shared.remove(source);
+        }
+        return null;
+    }
+
+    /**
+     * Registers <code>bm</code>, built on the rendering of
+     * <code>source</code> with <code>rc</code>, so that other lighting
+     * primitives can get it from {@link #getBumpMap}.  Nothing is
+     * registered when <code>rc</code> has no rendering hints or no
+     * area of interest.
+     */
+    public static void putBumpMap(BumpMap bm, Object source, long stamp,
+                                  RenderContext rc) {
+        Rectangle2D aoi = getAreaOfInterest(rc);
+        if ((aoi == null) || (rc.getRenderingHints() == null))
+            return;
+
+        Entry e = new Entry(bm, stamp, rc, aoi);
+        synchronized (shared) {
+            List l = (List)shared.get(source);
+            if (l == null) {
+                l = new LinkedList();
+                shared.put(source, l);
+            }
+            l.add(e);
+        }
+    }
+
+    private static Rectangle2D getAreaOfInterest(RenderContext rc) {
+        Shape aoi = rc.getAreaOfInterest();
+        if (aoi == null)
+            return null;
+        return aoi.getBounds2D();
+    }
+
+    /**
+     * The rendering a shared BumpMap was built on.
+     */
+    private static final class Entry {
+        final Reference       bumpMap;
+        final Reference       hints;
+        final long            stamp;
+        final AffineTransform at;
+        final Rectangle2D     aoi;
+
+        Entry(BumpMap bm, long stamp, RenderContext rc, Rectangle2D aoi) {
+            this.bumpMap = new WeakReference(bm);
+            this.hints   = new WeakReference(rc.getRenderingHints());
+            this.stamp   = stamp;
+            this.at      = rc.getTransform();
+            this.aoi     = aoi;
+        }
+
+        boolean matches(long stamp, RenderContext rc) {
+            return ((this.stamp == stamp) &&
+                    (hints.get() == rc.getRenderingHints()) &&
+                    at.equals(rc.getTransform()));
+        }
+    }
+
+    /**
+     * Returns the normals of the <code>w</code>x<code>h</code> area
+     * at (<code>x</code>, <code>y</code>) packed in one array, four
+     * values per pixel in row order: the x, y and z components of the
+     * unit normal followed by the surface height.  Pixels outside the
+     * texture are all zero.  The array must not be modified.
+     */
+    public double[] getNormals(final int x, final int y,
+                               final int w, final int h) {
+        if ((w <= 0) || (h <= 0))
+            return new double[0];
+
+        final int tx0 = getTile(x,     texture.getMinX());
+        final int ty0 = getTile(y,     texture.getMinY());
+        final int tx1 = getTile(x+w-1, texture.getMinX());
+        final int ty1 = getTile(y+h-1, texture.getMinY());
+
+        if ((tx0 == tx1) && (ty0 == ty1)) {
+            double [] t = getNormalTile(tx0, ty0);
+            int tox = texture.getMinX() + tx0*NORMAL_TILE_SIZE;
+            int toy = texture.getMinY() + ty0*NORMAL_TILE_SIZE;
+            if ((x == tox) && (y == toy) &&
+                (w == NORMAL_TILE_SIZE) && (h == NORMAL_TILE_SIZE))
+                return t;
+        }
+
+        final double [] N = new double[w*h*4];
+        for (int ty=ty0; ty<=ty1; ty++) {
+            int toy = texture.getMinY() + ty*NORMAL_TILE_SIZE;
+            int y0 = Math.max(y,     toy);
+            int y1 = Math.min(y+h,   toy+NORMAL_TILE_SIZE);
+            for (int tx=tx0; tx<=tx1; tx++) {
+                int tox = texture.getMinX() + tx*NORMAL_TILE_SIZE;
+                int x0 = Math.max(x,     tox);
+                int x1 = Math.min(x+w,   tox+NORMAL_TILE_SIZE);
+                double [] t = getNormalTile(tx, ty);
+                int len = (x1-x0)*4;
+                for (int yy=y0; yy<y1; yy++) {
+                    System.arraycopy
+                        (t, ((yy-toy)*NORMAL_TILE_SIZE + (x0-tox))*4,
+                         N, ((yy-y)*w + (x0-x))*4, len);
+                }
+            }
+        }
+        return N;
+    }
+
     /**
      * @param x x-axis coordinate for which the normal is computed
      * @param y y-axis coordinate for which the normal is computed
+     * @return the normals as an array of rows of pixels, see
+     *         {@link #getNormals} for the content of each pixel.
      */
     public double[][][] getNormalArray
         (final int x, final int y,
          final int w, final int h)
     {
-        final double[][][] N = new double[h][w][4];
+        final double[][][] NA = new double[h][w][4];
+        final double[] N = getNormals(x, y, w, h);
+        int n = 0;
+        for (int i=0; i<h; i++)
+            for (int j=0; j<w; j++, n+=4)
+                System.arraycopy(N, n, NA[i][j], 0, 4);
+        return NA;
+    }
+
+    private static int getTile(int v, int origin) {
+        int d = v - origin;
+        if (d >= 0) return d/NORMAL_TILE_SIZE;
+        return -((NORMAL_TILE_SIZE-1-d)/NORMAL_TILE_SIZE);
+    }
+
+    /**
+     * Returns the normals of a tile, computing them if they are not
+     * cached.
+     */
+    private double[] getNormalTile(int tx, int ty) {
+        Point pt = new Point(tx, ty);
+        synchronized (tiles) {
+            Reference ref = (Reference)tiles.get(pt);
+            double [] t = (ref == null) ? null : (double [])ref.get();
+            if (t != null) return t;
+        }
+        final int sz  = NORMAL_TILE_SIZE;
+        final int tox = texture.getMinX() + tx*sz;
+        final int toy = texture.getMinY() + ty*sz;
+        Rectangle r = new Rectangle(tox, toy, sz, sz);
+        r = r.intersection(new Rectangle
+                           (texture.getMinX(), texture.getMinY(),
+                            texture.getWidth(), texture.getHeight()));
+        double [] t;
+        if ((r.width == sz) && (r.height == sz)) {
+            t = computeNormals(tox, toy, sz, sz);
+        } else {
+            // Edge tile, only compute the part inside the texture
+            // (the rest stays zero).
+            t = new double[sz*sz*4];
+            if (!r.isEmpty()) {
+                double [] c = computeNormals(r.x, r.y, r.width, r.height);
+                for (int i=0; i<r.height; i++)
+                    System.arraycopy
+                        (c, i*r.width*4,
+                         t, ((r.y-toy+i)*sz + (r.x-tox))*4, r.width*4);
+            }
+        }
+        synchronized (tiles) {
+            tiles.put(pt, new SoftReference(t));
+        }
+        return t;
+    }
+
+    /**
+     * Computes the normals (and heights) of the given area, packed
+     * as described in {@link #getNormals}.  The pixels just outside
+     * the area are read as well, only the texture's own edges use
+     * the edge kernels.
+     */
+    double[] computeNormals(final int x, final int y,
+                                    final int w, final int h)
+    {
+        final double[] N = new double[w*h*4];
 
         Rectangle srcRect = new Rectangle(x-1, y-1, w+2, h+2);
         Rectangle srcBound = new Rectangle
@@ -89,7 +346,12 @@ public final class BumpMap {
             return N;
 
         srcRect = srcRect.intersection(srcBound);
-        final Raster r = texture.getData(srcRect);
+        // The texture may not be thread safe (it is often GVT
+        // rendering), only the normal computation runs concurrently.
+        final Raster r;
+        synchronized (this) {
+            r = texture.getData(srcRect);
+        }
 
         srcRect = r.getBounds();
 
@@ -148,7 +410,7 @@ public final class BumpMap {
         if (yloc == srcRect.y) {
             if (yloc == yEnd) {
                 // Only one row of pixels...
-                final double [][] NRow = N[yloc-y];
+                final int nRow = (yloc-y)*w*4;
                 int xloc=x;
                 if (xloc < srcRect.x)
                     xloc = srcRect.x;
@@ -164,14 +426,14 @@ public final class BumpMap {
                     // Top left pixel, in src (0, 0);
                     crnc = (pixels[p+1] >>> 24)*pixelScale;
 
-                    final double [] n = NRow[xloc-x];
+                    final int n = nRow + (xloc-x)*4;
 
-                    n[0] = 2*surfaceScaleX*(crcc - crnc);
-                    invNorm = 1.0/Math.sqrt(n[0]*n[0] + 1);
-                    n[0] *= invNorm;
-                    n[1]  = 0;
-                    n[2]  = invNorm;
-                    n[3]  = crcc*surfaceScale;
+                    N[n+0] = 2*surfaceScaleX*(crcc - crnc);
+                    invNorm = 1.0/Math.sqrt(N[n+0]*N[n+0] + 1);
+                    N[n+0] *= invNorm;
+                    N[n+1]  = 0;
+                    N[n+2]  = invNorm;
+                    N[n+3]  = crcc*surfaceScale;
                     p++;
                     xloc++;
                     crpc = crcc;
@@ -184,14 +446,14 @@ public final class BumpMap {
                 for (; xloc<xEnd; xloc++) {
                     // Middle Top row...
                     crnc = (pixels[p+1] >>> 24)*pixelScale;
-                    final double [] n = NRow[xloc-x];
-
-                    n[0] = surfaceScaleX * (crpc - crnc );
-                    invNorm = 1.0/Math.sqrt(n[0]*n[0] + 1);
-                    n[0] *= invNorm;
-                    n[1]  = 0;
-                    n[2]  = invNorm;
-                    n[3]  = crcc*surfaceScale;
+                    final int n = nRow + (xloc-x)*4;
+
+                    N[n+0] = surfaceScaleX * (crpc - crnc );
+                    invNorm = 1.0/Math.sqrt(N[n+0]*N[n+0] + 1);
+                    N[n+0] *= invNorm;
+                    N[n+1]  = 0;
+                    N[n+2]  = invNorm;
+                    N[n+3]  = crcc*surfaceScale;
                     p++;
                     crpc = crcc;
                     crcc = crnc;
@@ -200,19 +462,19 @@ public final class BumpMap {
                 if ((xloc < x+w) &&
                     (xloc == srcRect.x+srcRect.width-1)) {
                     // Last pixel of top row
-                    final double [] n = NRow[xloc-x];
-
-                    n[0] = 2*surfaceScaleX*(crpc - crcc);
-                    invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                    n[0] *= invNorm;
-                    n[1] *= invNorm;
-                    n[2]  = invNorm;
-                    n[3]  = crcc*surfaceScale;
+                    final int n = nRow + (xloc-x)*4;
+
+                    N[n+0] = 2*surfaceScaleX*(crpc - crcc);
+                    invNorm = 1.0/Math.sqrt(N[n+0]*N[n+0] + N[n+1]*N[n+1] + 1);
+                    N[n+0] *= invNorm;
+                    N[n+1] *= invNorm;
+                    N[n+2]  = invNorm;
+                    N[n+3]  = crcc*surfaceScale;
                 }
                 return N;
             }
 
-            final double [][] NRow = N[yloc-y];
+            final int nRow = (yloc-y)*w*4;
             int p  = offset + scanStride*(yloc-srcRect.y);
             int xloc=x;
             if (xloc < srcRect.x)
@@ -231,17 +493,17 @@ public final class BumpMap {
                 crnc = (pixels[p+1] >>> 24)*pixelScale;
                 nrnc = (pixels[p + scanStridePP] >>> 24)*pixelScale;
 
-                final double [] n = NRow[xloc-x];
+                final int n = nRow + (xloc-x)*4;
 
-                n[0] = - twoThirdSurfaceScaleX *
+                N[n+0] = - twoThirdSurfaceScaleX *
                     ((2*crnc + nrnc - 2*crcc - nrcc));
-                n[1] = - twoThirdSurfaceScaleY *
+                N[n+1] = - twoThirdSurfaceScaleY *
                     ((2*nrcc + nrnc - 2*crcc - crnc));
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
+                invNorm = 1.0/Math.sqrt(N[n+0]*N[n+0] + N[n+1]*N[n+1] + 1);
+                N[n+0] *= invNorm;
+                N[n+1] *= invNorm;
+                N[n+2]  = invNorm;
+                N[n+3]  = crcc*surfaceScale;
                 p++;
                 xloc++;
                 crpc = crcc;
@@ -259,18 +521,18 @@ public final class BumpMap {
                 crnc = (pixels[p+1] >>> 24)*pixelScale;
                 nrnc = (pixels[p + scanStridePP] >>> 24)*pixelScale;
 
-                final double [] n = NRow[xloc-x];
+                final int n = nRow + (xloc-x)*4;
 
-                n[0] = - thirdSurfaceScaleX * (( 2*crnc + nrnc)
+                N[n+0] = - thirdSurfaceScaleX * (( 2*crnc + nrnc)
                                                - (2*crpc + nrpc));
-                n[1] = - halfSurfaceScaleY *(( nrpc + 2*nrcc + nrnc)
+                N[n+1] = - halfSurfaceScaleY *(( nrpc + 2*nrcc + nrnc)
                                              - (crpc + 2*crcc + crnc));
 
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
+                invNorm = 1.0/Math.sqrt(N[n+0]*N[n+0] + N[n+1]*N[n+1] + 1);
+                N[n+0] *= invNorm;
+                N[n+1] *= invNorm;
+                N[n+2]  = invNorm;
+                N[n+3]  = crcc*surfaceScale;
                 p++;
                 crpc = crcc;
                 nrpc = nrcc;
@@ -281,24 +543,24 @@ public final class BumpMap {
             if ((xloc < x+w) &&
                 (xloc == srcRect.x+srcRect.width-1)) {
                 // Last pixel of top row
-                final double [] n = NRow[xloc-x];
+                final int n = nRow + (xloc-x)*4;
 
-                n[0] = - twoThirdSurfaceScaleX *(( 2*crcc + nrcc)
+                N[n+0] = - twoThirdSurfaceScaleX *(( 2*crcc + nrcc)
                                                  - (2*crpc + nrpc));
-                n[1] = - twoThirdSurfaceScaleY *(( 2*nrcc + nrpc)
+                N[n+1] = - twoThirdSurfaceScaleY *(( 2*nrcc + nrpc)
                                                  - (2*crcc + crpc));
 
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
+                invNorm = 1.0/Math.sqrt(N[n+0]*N[n+0] + N[n+1]*N[n+1] + 1);
+                N[n+0] *= invNorm;
+                N[n+1] *= invNorm;
+                N[n+2]  = invNorm;
+                N[n+3]  = crcc*surfaceScale;
             }
             yloc++;
         }
 
         for (; yloc<yEnd; yloc++) {
-            final double [][] NRow = N[yloc-y];
+            final int nRow = (yloc-y)*w*4;
             int p  = offset + scanStride*(yloc-srcRect.y);
 
             int xloc=x;
@@ -322,18 +584,18 @@ public final class BumpMap {
                 prnc = (pixels[p - scanStrideMM] >>> 24)*pixelScale;
                 nrnc = (pixels[p + scanStridePP] >>> 24)*pixelScale;
 
-                final double [] n = NRow[xloc-x];
+                final int n = nRow + (xloc-x)*4;
 
-                n[0] = - halfSurfaceScaleX *(( prnc + 2*crnc + nrnc)
+                N[n+0] = - halfSurfaceScaleX *(( prnc + 2*crnc + nrnc)
                                              - (prcc + 2*crcc + nrcc));
-                n[1] = - thirdSurfaceScaleY *(( 2*prcc + prnc)
+                N[n+1] = - thirdSurfaceScaleY *(( 2*prcc + prnc)
                                               - ( 2*crcc + crnc));
 
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
+                invNorm = 1.0/Math.sqrt(N[n+0]*N[n+0] + N[n+1]*N[n+1] + 1);
+                N[n+0] *= invNorm;
+                N[n+1] *= invNorm;
+                N[n+2]  = invNorm;
+                N[n+3]  = crcc*surfaceScale;
 
                 p++;
                 xloc++;
@@ -357,18 +619,18 @@ public final class BumpMap {
                 crnc = (pixels[p+1] >>> 24)*pixelScale;
                 nrnc = (pixels[p + scanStridePP] >>> 24)*pixelScale;
 
-                final double [] n = NRow[xloc-x];
+                final int n = nRow + (xloc-x)*4;
 
-                n[0] = - quarterSurfaceScaleX *(( prnc + 2*crnc + nrnc)
+                N[n+0] = - quarterSurfaceScaleX *(( prnc + 2*crnc + nrnc)
                                                 - (prpc + 2*crpc + nrpc));
-                n[1] = - quarterSurfaceScaleY *(( nrpc + 2*nrcc + nrnc)
+                N[n+1] = - quarterSurfaceScaleY *(( nrpc + 2*nrcc + nrnc)
                                                 - (prpc + 2*prcc + prnc));
 
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
+                invNorm = 1.0/Math.sqrt(N[n+0]*N[n+0] + N[n+1]*N[n+1] + 1);
+                N[n+0] *= invNorm;
+                N[n+1] *= invNorm;
+                N[n+2]  = invNorm;
+                N[n+3]  = crcc*surfaceScale;
 
                 p++;
                 prpc = prcc;
@@ -382,24 +644,24 @@ public final class BumpMap {
             if ((xloc < x+w) &&
                 (xloc == srcRect.x+srcRect.width-1)) {
                 // Now, proces right column, from (w-1, 1) to (w-1, h-1)
-                final double [] n = NRow[xloc-x];
+                final int n = nRow + (xloc-x)*4;
 
-                n[0] = - halfSurfaceScaleX *( (prcc + 2*crcc + nrcc)
+                N[n+0] = - halfSurfaceScaleX *( (prcc + 2*crcc + nrcc)
                                              -(prpc + 2*crpc + nrpc));
-                n[1] = - thirdSurfaceScaleY *(( nrpc + 2*nrcc)
+                N[n+1] = - thirdSurfaceScaleY *(( nrpc + 2*nrcc)
                                               - ( prpc + 2*prcc));
 
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
+                invNorm = 1.0/Math.sqrt(N[n+0]*N[n+0] + N[n+1]*N[n+1] + 1);
+                N[n+0] *= invNorm;
+                N[n+1] *= invNorm;
+                N[n+2]  = invNorm;
+                N[n+3]  = crcc*surfaceScale;
             }
         }
 
         if ((yloc < y+h) &&
             (yloc == srcRect.y+srcRect.height-1)) {
-            final double [][] NRow = N[yloc-y];
+            final int nRow = (yloc-y)*w*4;
             int p  = offset + scanStride*(yloc-srcRect.y);
             int xloc=x;
             if (xloc < srcRect.x)
@@ -419,15 +681,15 @@ public final class BumpMap {
                 crnc = (pixels[p + 1] >>> 24)*pixelScale;
                 prnc = (pixels[p - scanStrideMM] >>> 24)*pixelScale;
 
-                final double [] n = NRow[xloc-x];
+                final int n = nRow + (xloc-x)*4;
 
-                n[0] = - twoThirdSurfaceScaleX * ((2*crnc + prnc - 2*crcc - prcc));
-                n[1] = - twoThirdSurfaceScaleY * ((2*crcc + crnc - 2*prcc - prnc));
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
+                N[n+0] = - twoThirdSurfaceScaleX * ((2*crnc + prnc - 2*crcc - prcc));
+                N[n+1] = - twoThirdSurfaceScaleY * ((2*crcc + crnc - 2*prcc - prnc));
+                invNorm = 1.0/Math.sqrt(N[n+0]*N[n+0] + N[n+1]*N[n+1] + 1);
+                N[n+0] *= invNorm;
+                N[n+1] *= invNorm;
+                N[n+2]  = invNorm;
+                N[n+3]  = crcc*surfaceScale;
 
                 p++;
                 xloc++;
@@ -450,18 +712,18 @@ public final class BumpMap {
                 //                    prpc + "," + prcc + "," + prnc + "  " +
                 //                    crpc + "," + crcc + "," + crnc );
 
-                final double [] n = NRow[xloc-x];
+                final int n = nRow + (xloc-x)*4;
 
-                n[0] = - thirdSurfaceScaleX *(( 2*crnc + prnc)
+                N[n+0] = - thirdSurfaceScaleX *(( 2*crnc + prnc)
                                               - (2*crpc + prpc));
-                n[1] = - halfSurfaceScaleY *(( crpc + 2*crcc + crnc)
+                N[n+1] = - halfSurfaceScaleY *(( crpc + 2*crcc + crnc)
                                              - (prpc + 2*prcc + prnc));
 
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
+                invNorm = 1.0/Math.sqrt(N[n+0]*N[n+0] + N[n+1]*N[n+1] + 1);
+                N[n+0] *= invNorm;
+                N[n+1] *= invNorm;
+                N[n+2]  = invNorm;
+                N[n+3]  = crcc*surfaceScale;
 
                 p++;
                 crpc = crcc;
@@ -473,18 +735,18 @@ public final class BumpMap {
             if ((xloc < x+w) &&
                 (xloc == srcRect.x+srcRect.width-1)) {
                 // Bottom right corner
-                final double [] n = NRow[xloc-x];
+                final int n = nRow + (xloc-x)*4;
 
-                n[0] = - twoThirdSurfaceScaleX *(( 2*crcc + prcc)
+                N[n+0] = - twoThirdSurfaceScaleX *(( 2*crcc + prcc)
                                                  - (2*crpc + prpc));
-                n[1] = - twoThirdSurfaceScaleY *(( 2*crcc + crpc)
+                N[n+1] = - twoThirdSurfaceScaleY *(( 2*crcc + crpc)
                                                  - (2*prcc + prpc));
 
-                invNorm = 1.0/Math.sqrt(n[0]*n[0] + n[1]*n[1] + 1);
-                n[0] *= invNorm;
-                n[1] *= invNorm;
-                n[2]  = invNorm;
-                n[3]  = crcc*surfaceScale;
+                invNorm = 1.0/Math.sqrt(N[n+0]*N[n+0] + N[n+1]*N[n+1] + 1);
+                N[n+0] *= invNorm;
+                N[n+1] *= invNorm;
+                N[n+2]  = invNorm;
+                N[n+3]  = crcc*surfaceScale;
             }
         }
         return N;
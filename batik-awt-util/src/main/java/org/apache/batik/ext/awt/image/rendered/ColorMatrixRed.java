@@ -26,6 +26,7 @@ import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
 
 import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.util.WorkerPool;
 
 /**
  *
@@ -38,6 +39,44 @@ public class ColorMatrixRed extends AbstractRed{
      */
     private float[][] matrix;
 
+    /**
+     * The matrix in 32.32 fixed point, row by row, with the offsets
+     * already in code values.  Null if the matrix holds values too
+     * large for the fixed point kernels, the float kernel is used then.
+     */
+    private long[] fixedMatrix;
+
+    /**
+     * True if the matrix leaves pixels unchanged.
+     */
+    private boolean identity;
+
+    /**
+     * True if the matrix only changes alpha.
+     */
+    private boolean alphaOnly;
+
+    /**
+     * Number of fractional bits of <code>fixedMatrix</code>.
+     */
+    private static final int FIXED_SHIFT = 32;
+
+    /**
+     * Added to the fixed point sums so that results which are exact
+     * integers don't fall one code value short.  The matrix is given
+     * in floats, whose rounding can leave the sum for a white pixel
+     * a few 1e-5 below 255 (the rounding to 32.32 adds less than
+     * 1e-7).  The bias is 2^-14, about 6e-5 of a code value, so
+     * it covers both and only moves sums that are that close to the
+     * next integer.
+     */
+    private static final long FIXED_BIAS = 1L << (FIXED_SHIFT-14);
+
+    /*
+     * Minimum number of rows handed to a worker thread.
+     */
+    static final int GRAIN = 32;
+
     public float[][] getMatrix(){
         return copyMatrix(matrix);
     }
@@ -59,6 +98,32 @@ public class ColorMatrixRed extends AbstractRed{
             }
         }
         this.matrix = matrix;
+
+        identity  = true;
+        alphaOnly = true;
+        for (int i=0; i<4; i++) {
+            for (int j=0; j<5; j++) {
+                if (matrix[i][j] != ((i == j) ? 1 : 0)) {
+                    identity = false;
+                    if (i != 3) alphaOnly = false;
+                }
+            }
+        }
+
+        fixedMatrix = new long[20];
+        for (int i=0; i<4; i++) {
+            double range = Math.abs(matrix[i][4]);
+            for (int j=0; j<4; j++)
+                range += Math.abs(matrix[i][j])*255;
+            if (range >= 0x7FFF) {
+                fixedMatrix = null;
+                break;
+            }
+            for (int j=0; j<5; j++)
+                fixedMatrix[i*5+j] = Math.round
+                    (matrix[i][j]*(double)(1L << FIXED_SHIFT));
+            fixedMatrix[i*5+4] += FIXED_BIAS;
+        }
     }
 
     private float[][] copyMatrix(float[][] m){
@@ -104,23 +169,19 @@ public class ColorMatrixRed extends AbstractRed{
 
 
     public WritableRaster copyData(WritableRaster wr){
-        //System.out.println("Getting data for : " + wr.getWidth() + "/" + wr.getHeight() + "/" + wr.getMinX() + "/" + wr.getMinY());
-
         //
         // First, get source data
         //
         CachableRed src = (CachableRed)getSources().get(0);
-        // System.out.println("Hello");
-        // System.out.println("src class : " + src.getClass().getName());
-        // System.out.println("this : " + this);
         wr = src.copyData(wr);
-        // System.out.println("Hi");
-        //System.out.println("Source was : " + wr.getWidth() + "/" + wr.getHeight()+ "/" + wr.getMinX() + "/" + wr.getMinY());
 
         // Unpremultiply data if required
         ColorModel cm = src.getColorModel();
         GraphicsUtil.coerceData(wr, cm, false);
 
+        if (identity)
+            return wr;
+
         //
         // Now, process pixel values
         //
@@ -139,22 +200,115 @@ public class ColorMatrixRed extends AbstractRed{
              sppsm.getOffset(minX-wr.getSampleModelTranslateX(),
                              minY-wr.getSampleModelTranslateY()));
 
-        // final int offset = dbf.getOffset();
+        final int scanStride = sppsm.getScanlineStride();
+
+        WorkerPool.parallelFor(0, h, GRAIN, new WorkerPool.RangeTask() {
+                public void run(int y0, int y1) {
+                    int p = offset + y0*scanStride;
+                    int n = y1-y0;
+                    if (fixedMatrix == null)
+                        floatRows(pixels, p, scanStride, w, n);
+                    else if (alphaOnly)
+                        alphaRows(pixels, p, scanStride, w, n);
+                    else
+                        fixedRows(pixels, p, scanStride, w, n);
+                }
+            });
 
-        final int scanStride =
-            ((SinglePixelPackedSampleModel)wr.getSampleModel())
-            .getScanlineStride();
+        return wr;
+    }
+
+    /**
+     * Applies the matrix to <code>h</code> rows starting at
+     * <code>p</code>, in 32.32 fixed point.
+     */
+    private void fixedRows(int [] pixels, int p, int scanStride,
+                           int w, int h) {
+        final long[] m = fixedMatrix;
+        final long a00=m[ 0], a01=m[ 1], a02=m[ 2], a03=m[ 3], a04=m[ 4];
+        final long a10=m[ 5], a11=m[ 6], a12=m[ 7], a13=m[ 8], a14=m[ 9];
+        final long a20=m[10], a21=m[11], a22=m[12], a23=m[13], a24=m[14];
+        final long a30=m[15], a31=m[16], a32=m[17], a33=m[18], a34=m[19];
+        final int adjust = scanStride - w;
+
+        for(int i=0; i<h; i++){
+            for(int j=0; j<w; j++){
+                int pel = pixels[p];
+
+                int a = pel >>> 24;
+                int r = (pel >> 16) & 0xff;
+                int g = (pel >> 8 ) & 0xff;
+                int b =  pel        & 0xff;
+
+                int dr = (int)((a00*r + a01*g + a02*b + a03*a + a04)
+                               >> FIXED_SHIFT);
+                int dg = (int)((a10*r + a11*g + a12*b + a13*a + a14)
+                               >> FIXED_SHIFT);
+                int db = (int)((a20*r + a21*g + a22*b + a23*a + a24)
+                               >> FIXED_SHIFT);
+                int da = (int)((a30*r + a31*g + a32*b + a33*a + a34)
+                               >> FIXED_SHIFT);
+
+                // If any high bits are set we are not in range.
+                // If the highest bit is set then we are negative so
+                // clamp to zero else we are > 255 so clamp to 255.
+                if ((dr & 0xFFFFFF00) != 0)
+                    dr = ((dr & 0x80000000) != 0)?0:255;
+                if ((dg & 0xFFFFFF00) != 0)
+                    dg = ((dg & 0x80000000) != 0)?0:255;
+                if ((db & 0xFFFFFF00) != 0)
+                    db = ((db & 0x80000000) != 0)?0:255;
+                if ((da & 0xFFFFFF00) != 0)
+                    da = ((da & 0x80000000) != 0)?0:255;
+
+                pixels[p++] = (da << 24 | dr << 16 | dg << 8 | db);
+            }
+            p += adjust;
+        }
+    }
+
+    /**
+     * Same as <code>fixedRows</code> for matrices that only change
+     * alpha (such as luminanceToAlpha's last row over identity rows).
+     */
+    private void alphaRows(int [] pixels, int p, int scanStride,
+                           int w, int h) {
+        final long[] m = fixedMatrix;
+        final long a30=m[15], a31=m[16], a32=m[17], a33=m[18], a34=m[19];
+        final int adjust = scanStride - w;
+
+        for(int i=0; i<h; i++){
+            for(int j=0; j<w; j++){
+                int pel = pixels[p];
+                int da = (int)((a30*((pel >> 16) & 0xff) +
+                                a31*((pel >> 8 ) & 0xff) +
+                                a32*( pel        & 0xff) +
+                                a33*( pel >>> 24       ) + a34)
+                               >> FIXED_SHIFT);
+                if ((da & 0xFFFFFF00) != 0)
+                    da = ((da & 0x80000000) != 0)?0:255;
+                pixels[p++] = (da << 24) | (pel & 0xFFFFFF);
+            }
+            p += adjust;
+        }
+    }
+
+    /**
+     * Applies the matrix to <code>h</code> rows starting at
+     * <code>p</code>, in floating point.  Used when the matrix
+     * coefficients are too large for <code>fixedRows</code>.
+     */
+    private void floatRows(int [] pixels, int p, int scanStride,
+                           int w, int h) {
         final int adjust = scanStride - w;
-        int p = offset;
-        int i=0, j=0;
 
         final float a00=matrix[0][0]/255f, a01=matrix[0][1]/255f, a02=matrix[0][2]/255f, a03=matrix[0][3]/255f, a04=matrix[0][4]/255f;
         final float a10=matrix[1][0]/255f, a11=matrix[1][1]/255f, a12=matrix[1][2]/255f, a13=matrix[1][3]/255f, a14=matrix[1][4]/255f;
         final float a20=matrix[2][0]/255f, a21=matrix[2][1]/255f, a22=matrix[2][2]/255f, a23=matrix[2][3]/255f, a24=matrix[2][4]/255f;
         final float a30=matrix[3][0]/255f, a31=matrix[3][1]/255f, a32=matrix[3][2]/255f, a33=matrix[3][3]/255f, a34=matrix[3][4]/255f;
 
-        for(i=0; i<h; i++){
-            for(j=0; j<w; j++){
+        for(int i=0; i<h; i++){
+            for(int j=0; j<w; j++){
                 int pel = pixels[p];
 
                 int a = pel >>> 24;
@@ -167,15 +321,6 @@ public class ColorMatrixRed extends AbstractRed{
                 int db = (int)((a20*r + a21*g + a22*b + a23*a + a24)*255.0f);
                 int da = (int)((a30*r + a31*g + a32*b + a33*a + a34)*255.0f);
 
-                /*dr = dr > 255 ? 255 : dr < 0 ? 0 : dr;
-                dg = dg > 255 ? 255 : dg < 0 ? 0 : dg;
-                db = db > 255 ? 255 : db < 0 ? 0 : db;
-                da = da > 255 ? 255 : da < 0 ? 0 : da;*/
-
-
-                // If any high bits are set we are not in range.
-                // If the highest bit is set then we are negative so
-                // clamp to zero else we are > 255 so clamp to 255.
                 if ((dr & 0xFFFFFF00) != 0)
                     dr = ((dr & 0x80000000) != 0)?0:255;
                 if ((dg & 0xFFFFFF00) != 0)
@@ -185,20 +330,10 @@ public class ColorMatrixRed extends AbstractRed{
                 if ((da & 0xFFFFFF00) != 0)
                     da = ((da & 0x80000000) != 0)?0:255;
 
-                pixels[p++] = (da << 24
-                               |
-                               dr << 16
-                               |
-                               dg << 8
-                               |
-                               db);
-
+                pixels[p++] = (da << 24 | dr << 16 | dg << 8 | db);
             }
             p += adjust;
         }
-
-        //System.out.println("Result is : " + wr.getWidth() + "/" + wr.getHeight()+ "/" + wr.getMinX() + "/" + wr.getMinY());
-        return wr;
     }
 
 }
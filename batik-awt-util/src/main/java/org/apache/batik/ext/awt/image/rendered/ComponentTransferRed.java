@@ -20,11 +20,14 @@ package org.apache.batik.ext.awt.image.rendered;
 
 import java.awt.RenderingHints;
 import java.awt.image.ByteLookupTable;
+import java.awt.image.DataBufferInt;
 import java.awt.image.LookupOp;
+import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
 
 import org.apache.batik.ext.awt.image.GraphicsUtil;
 import org.apache.batik.ext.awt.image.TransferFunction;
+import org.apache.batik.util.WorkerPool;
 
 /**
  *
@@ -34,6 +37,23 @@ import org.apache.batik.ext.awt.image.TransferFunction;
 public class ComponentTransferRed extends AbstractRed {
     LookupOp operation;
 
+    /**
+     * The four tables as ints, red in [0,256), green in [256,512),
+     * blue in [512,768) and alpha in [768,1024).  Used directly on
+     * INT_PACK data instead of going through <code>operation</code>.
+     */
+    int [] lut;
+
+    /**
+     * True if the red, green and blue tables are all identities.
+     */
+    boolean alphaOnly;
+
+    /**
+     * True if all four tables are identities.
+     */
+    boolean identity;
+
     /**
      * The constructor will instantiate a LookupOp instance using
      * a LookupOp, which is built using the four LUT
@@ -64,18 +84,96 @@ public class ComponentTransferRed extends AbstractRed {
         // at least it works....
         operation  =  new LookupOp(new ByteLookupTable(0, tableData), hints)
             { };
+
+        lut = new int[4*256];
+        boolean [] ident = new boolean[4];
+        for (int b=0; b<4; b++) {
+            ident[b] = true;
+            for (int i=0; i<256; i++) {
+                int v = tableData[b][i]&0xFF;
+                lut[(b<<8)+i] = v;
+                if (v != i) ident[b] = false;
+            }
+        }
+        alphaOnly = ident[0] && ident[1] && ident[2];
+        identity  = alphaOnly && ident[3];
+    }
+
+    /**
+     * Returns true if <code>wr</code> holds ARGB pixels packed in ints.
+     */
+    static boolean isINT_ARGB(WritableRaster wr) {
+        return (GraphicsUtil.is_INT_PACK_Data(wr.getSampleModel(), true) &&
+                (wr.getNumBands() == 4));
     }
 
     public WritableRaster copyData(WritableRaster wr){
         CachableRed src = (CachableRed)getSources().get(0);
 
+        if (!isINT_ARGB(wr)) {
+            wr = src.copyData(wr);
+            GraphicsUtil.coerceData(wr, src.getColorModel(), false);
+
+            WritableRaster srcWR = wr.createWritableTranslatedChild(0,0);
+
+            operation.filter(srcWR, srcWR);
+
+            return wr;
+        }
+
         wr = src.copyData(wr);
         GraphicsUtil.coerceData(wr, src.getColorModel(), false);
 
-        WritableRaster srcWR = wr.createWritableTranslatedChild(0,0);
-
-        operation.filter(srcWR, srcWR);
+        if (!identity)
+            applyLut(wr, lut, alphaOnly);
 
         return wr;
     }
+
+    /**
+     * Applies a four band table (see <code>lut</code>) to an INT ARGB
+     * raster in place.  If <code>alphaOnly</code> is true the color
+     * bands are left alone.
+     */
+    static void applyLut(WritableRaster wr, final int [] lut,
+                         final boolean alphaOnly) {
+        SinglePixelPackedSampleModel sppsm;
+        sppsm = (SinglePixelPackedSampleModel)wr.getSampleModel();
+        DataBufferInt db = (DataBufferInt)wr.getDataBuffer();
+
+        final int base
+            = (db.getOffset() +
+               sppsm.getOffset(wr.getMinX()-wr.getSampleModelTranslateX(),
+                               wr.getMinY()-wr.getSampleModelTranslateY()));
+        final int[] pixels   = db.getBankData()[0];
+        final int width      = wr.getWidth();
+        final int scanStride = sppsm.getScanlineStride();
+
+        WorkerPool.parallelFor(0, wr.getHeight(), Any2sRGBRed.GRAIN,
+                               new WorkerPool.RangeTask() {
+                public void run(int y0, int y1) {
+                    for (int y=y0; y<y1; y++) {
+                        int sp = base + y*scanStride;
+                        final int end = sp + width;
+                        if (alphaOnly) {
+                            while (sp < end) {
+                                int pel = pixels[sp];
+                                pixels[sp++] =
+                                    ((lut[768+(pel>>>24)]<<24) |
+                                     (pel&0xFFFFFF));
+                            }
+                        } else {
+                            while (sp < end) {
+                                int pel = pixels[sp];
+                                pixels[sp++] =
+                                    ((lut[768+( pel>>>24       )]<<24) |
+                                     (lut[    ((pel>>>16)&0xFF)]<<16) |
+                                     (lut[256+((pel>>> 8)&0xFF)]<< 8) |
+                                     (lut[512+( pel      &0xFF)]    ));
+                            }
+                        }
+                    }
+                }
+            });
+    }
 }
@@ -185,12 +185,18 @@ public class CompositeRed extends AbstractRed {
                 Rectangle crR = cr.getBounds();
                 if (crR.intersects(r)) {
                     Rectangle smR = crR.intersection(r);
-                    Raster ras = cr.getData(smR);
-                    WritableRaster smWR = wr.createWritableChild
-                        (smR.x, smR.y, smR.width, smR.height,
-                         smR.x, smR.y, null);
-
-                    contexts[idx].compose(ras, smWR, smWR);
+                    WritableRaster ras = RasterPool.allocate
+                        (cr.getSampleModel(), smR);
+                    try {
+                        cr.copyData(ras);
+                        WritableRaster smWR = wr.createWritableChild
+                            (smR.x, smR.y, smR.width, smR.height,
+                             smR.x, smR.y, null);
+
+                        contexts[idx].compose(ras, smWR, smWR);
+                    } finally {
+                        RasterPool.release(ras);
+                    }
                 }
             }
 
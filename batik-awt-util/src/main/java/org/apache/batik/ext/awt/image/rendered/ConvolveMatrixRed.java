@@ -0,0 +1,395 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.color.ColorSpace;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DirectColorModel;
+import java.awt.image.Kernel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.ext.awt.image.PadMode;
+import org.apache.batik.util.WorkerPool;
+
+/**
+ * Convolves its source with an arbitrary kernel as described by the
+ * SVG feConvolveMatrix filter primitive.  The edge modes are handled
+ * while fetching the source so no padded copy of the source is
+ * needed, the convolution works on premultiplied data (unpremultiplied
+ * color when <code>preserveAlpha</code> is set) and the rows of a
+ * tile are split across the worker threads.
+ *
+ * @version $Id$
+ */
+public class ConvolveMatrixRed extends AbstractRed {
+
+    /**
+     * Minimum number of rows handed to a worker thread.
+     */
+    static final int GRAIN = 16;
+
+    int kw, kh;
+    float [] weights;
+    int targetX, targetY;
+    float bias;
+    PadMode edgeMode;
+    boolean preserveAlpha;
+
+    /**
+     * Construct a convolved version of <code>src</code>.
+     * @param src The source image to convolve, the edge modes apply
+     *            at the bounds of this image.
+     * @param bounds The area covered by the result.
+     * @param kernel The kernel matrix (already divided by the divisor).
+     * @param target The position of the kernel's target pixel.
+     * @param bias The value added to each result (0 to 1).
+     * @param edgeMode How to extend the source beyond its bounds.
+     * @param preserveAlpha If true only the color channels are convolved.
+     */
+    public ConvolveMatrixRed(CachableRed src, Rectangle bounds,
+                             Kernel kernel, Point target, float bias,
+                             PadMode edgeMode, boolean preserveAlpha) {
+        super(); // Remember to call super.init()
+
+        this.kw            = kernel.getWidth();
+        this.kh            = kernel.getHeight();
+        this.targetX       = target.x;
+        this.targetY       = target.y;
+        this.bias          = bias;
+        this.edgeMode      = edgeMode;
+        this.preserveAlpha = preserveAlpha;
+
+        // The SVG formula walks the kernel matrix backwards, flipping
+        // it once here lets the inner loops walk both forward.
+        float [] kd = kernel.getKernelData(null);
+        weights = new float[kd.length];
+        for (int i=0; i<kd.length; i++)
+            weights[i] = kd[kd.length-1-i];
+
+        ColorModel cm = fixColorModel(src);
+        src = FormatRed.construct(src, cm);
+
+        SampleModel sm = src.getSampleModel();
+        int tw = sm.getWidth();
+        int th = sm.getHeight();
+        if (tw > bounds.width)  tw = bounds.width;
+        if (th > bounds.height) th = bounds.height;
+        if (tw < 1) tw = 1;
+        if (th < 1) th = 1;
+        sm = cm.createCompatibleSampleModel(tw, th);
+
+        init(src, bounds, cm, sm,
+             src.getTileGridXOffset(), src.getTileGridYOffset(), null);
+    }
+
+    /**
+     * Returns a premultiplied INT_PACK ARGB ColorModel in the same
+     * ColorSpace as <code>src</code>.
+     */
+    protected static ColorModel fixColorModel(CachableRed src) {
+        ColorSpace cs = src.getColorModel().getColorSpace();
+        if (cs.getNumComponents() != 3)
+            throw new IllegalArgumentException
+                ("ConvolveMatrixRed only supports RGB images");
+        return new DirectColorModel(cs, 32,
+                                    0x00FF0000, 0x0000FF00,
+                                    0x000000FF, 0xFF000000,
+                                    true, DataBuffer.TYPE_INT);
+    }
+
+    public WritableRaster copyData(WritableRaster wr) {
+        final int w  = wr.getWidth();
+        final int h  = wr.getHeight();
+        final int pw = w + kw - 1;
+        final int ph = h + kh - 1;
+
+        // The planes hold the source pixels the result depends on,
+        // already extended according to the edge mode.
+        final float [][] planes = new float[4][pw*ph];
+        WritableRaster srcWR = getSourcePixels(wr.getMinX()-targetX,
+                                               wr.getMinY()-targetY, pw, ph);
+        try {
+            final int [] src = ((DataBufferInt)srcWR.getDataBuffer()).getData();
+            WorkerPool.parallelFor(0, ph, GRAIN, new WorkerPool.RangeTask() {
+                    public void run(int y0, int y1) {
+                        unpack(src, planes, y0*pw, y1*pw, preserveAlpha);
+                    }
+                });
+        } finally {
+            RasterPool.release(srcWR);
+        }
+
+        WritableRaster dst = wr;
+        if (!GraphicsUtil.is_INT_PACK_Data(wr.getSampleModel(), true))
+            dst = RasterPool.allocate(getSampleModel(), 0, 0, w, h);
+
+        try {
+            SinglePixelPackedSampleModel sppsm =
+                (SinglePixelPackedSampleModel)dst.getSampleModel();
+            final int stride = sppsm.getScanlineStride();
+            final int off = (dst.getDataBuffer().getOffset() +
+                             sppsm.getOffset
+                             (dst.getMinX()-dst.getSampleModelTranslateX(),
+                              dst.getMinY()-dst.getSampleModelTranslateY()));
+            final int [] pixels = ((DataBufferInt)dst.getDataBuffer())
+                .getBankData()[0];
+
+            WorkerPool.parallelFor(0, h, GRAIN, new WorkerPool.RangeTask() {
+                    public void run(int y0, int y1) {
+                        float [][] acc = new float[4][w];
+                        for (int y=y0; y<y1; y++) {
+                            convolveRow(planes, pw, y, w, acc);
+                            if (preserveAlpha)
+                                packPreserveAlpha
+                                    (acc, planes[3],
+                                     (y+targetY)*pw+targetX,
+                                     pixels, off+y*stride, w);
+                            else
+                                pack(acc, pixels, off+y*stride, w);
+                        }
+                    }
+                });
+
+            if (dst != wr)
+                GraphicsUtil.copyData
+                    (dst.createWritableTranslatedChild(wr.getMinX(),
+                                                       wr.getMinY()), wr);
+        } finally {
+            if (dst != wr)
+                RasterPool.release(dst);
+        }
+        return wr;
+    }
+
+    /**
+     * Accumulates the kernel for row <code>y</code> of the result.
+     * The loops are ordered so the innermost one runs along the row,
+     * the same weight being applied to consecutive pixels.
+     */
+    private void convolveRow(float [][] planes, int pw, int y, int w,
+                             float [][] acc) {
+        final int bands = preserveAlpha ? 3 : 4;
+        for (int b=0; b<bands; b++) {
+            final float [] a = acc[b];
+            final float [] p = planes[b];
+            for (int x=0; x<w; x++)
+                a[x] = 0;
+            for (int i=0; i<kh; i++) {
+                final int row = (y+i)*pw;
+                for (int j=0; j<kw; j++) {
+                    final float k = weights[i*kw+j];
+                    if (k == 0) continue;
+                    final int sp = row+j;
+                    for (int x=0; x<w; x++)
+                        a[x] += k*p[sp+x];
+                }
+            }
+        }
+    }
+
+    /**
+     * Stores premultiplied results, raising alpha where needed so
+     * the pixels stay valid premultiplied values (negative weights
+     * or a bias can push a color above its alpha).
+     */
+    private void pack(float [][] acc, int [] pixels, int dp, int w) {
+        final float offset = bias*255f + 0.5f;
+        final float [] ra = acc[0], ga = acc[1], ba = acc[2], aa = acc[3];
+        for (int x=0; x<w; x++) {
+            int r = clamp((int)(ra[x]+offset));
+            int g = clamp((int)(ga[x]+offset));
+            int b = clamp((int)(ba[x]+offset));
+            int a = clamp((int)(aa[x]+offset));
+            a = Math.max(a, Math.max(r, Math.max(g, b)));
+            pixels[dp+x] = (a<<24) | (r<<16) | (g<<8) | b;
+        }
+    }
+
+    /**
+     * Stores unpremultiplied color results along with the source
+     * alpha of the target pixels, premultiplying on the way.
+     */
+    private void packPreserveAlpha(float [][] acc, float [] alpha, int ap,
+                                   int [] pixels, int dp, int w) {
+        final float offset = bias*255f + 0.5f;
+        final float [] ra = acc[0], ga = acc[1], ba = acc[2];
+        for (int x=0; x<w; x++) {
+            int a = (int)alpha[ap+x];
+            int r = clamp((int)(ra[x]+offset));
+            int g = clamp((int)(ga[x]+offset));
+            int b = clamp((int)(ba[x]+offset));
+            if (a < 255) {
+                // Rounded division by 255.
+                r = ((r*a + 128)*257)>>16;
+                g = ((g*a + 128)*257)>>16;
+                b = ((b*a + 128)*257)>>16;
+            }
+            pixels[dp+x] = (a<<24) | (r<<16) | (g<<8) | b;
+        }
+    }
+
+    private static int clamp(int v) {
+        return (v < 0) ? 0 : ((v > 255) ? 255 : v);
+    }
+
+    /**
+     * Splits packed ARGB pixels [sp, end) into the four planes
+     * (R, G, B, A), optionally dividing out alpha from the colors.
+     */
+    static void unpack(int [] src, float [][] planes, int sp, int end,
+                       boolean unpremultiply) {
+        final float [] r = planes[0], g = planes[1];
+        final float [] b = planes[2], a = planes[3];
+        for (int i=sp; i<end; i++) {
+            final int pixel = src[i];
+            final int pa = pixel>>>24;
+            int pr = (pixel>>16)&0xFF;
+            int pg = (pixel>> 8)&0xFF;
+            int pb = (pixel    )&0xFF;
+            if (unpremultiply && (pa < 255)) {
+                if (pa == 0) {
+                    pr = pg = pb = 0;
+                } else {
+                    int aFP = (0x00FF0000/pa);
+                    pr = (pr*aFP)>>>16;
+                    pg = (pg*aFP)>>>16;
+                    pb = (pb*aFP)>>>16;
+                }
+            }
+            r[i] = pr;
+            g[i] = pg;
+            b[i] = pb;
+            a[i] = pa;
+        }
+    }
+
+    /**
+     * Returns a raster holding the premultiplied ARGB source pixels
+     * for the <code>w</code> x <code>h</code> area at <code>x</code>,
+     * <code>y</code>, pixels outside the source are generated
+     * according to the edge mode.  The pixels start at offset 0 of
+     * the data array and rows are <code>w</code> pixels apart.  The
+     * raster comes from the {@link RasterPool}.
+     */
+    protected WritableRaster getSourcePixels(int x, int y, int w, int h) {
+        CachableRed src = (CachableRed)getSources().get(0);
+        Rectangle sb = src.getBounds();
+
+        int [] xmap = edgeMap(x, w, sb.x, sb.width,  edgeMode);
+        int [] ymap = edgeMap(y, h, sb.y, sb.height, edgeMode);
+
+        SampleModel sm = getSampleModel();
+        WritableRaster ret = RasterPool.allocate(sm, x, y, w, h);
+        if ((xmap == null) && (ymap == null)) {
+            // Everything is inside the source, just fetch it.
+            src.copyData(ret);
+            return ret;
+        }
+
+        int [] xr = mapRange(xmap, x-sb.x, w);
+        int [] yr = mapRange(ymap, y-sb.y, h);
+        if ((xr == null) || (yr == null))
+            return ret;  // Only 'none' pixels.
+
+        // Fetch the part of the source the maps refer to and scatter it.
+        int fw = xr[1]-xr[0]+1;
+        int fh = yr[1]-yr[0]+1;
+        WritableRaster wr;
+        wr = RasterPool.allocate(sm, sb.x+xr[0], sb.y+yr[0], fw, fh);
+        try {
+            src.copyData(wr);
+            int [] fetched = ((DataBufferInt)wr.getDataBuffer()).getData();
+            int [] pixels  = ((DataBufferInt)ret.getDataBuffer()).getData();
+
+            for (int j=0; j<h; j++) {
+                int sy = (ymap == null) ? (y-sb.y+j) : ymap[j];
+                if (sy < 0) continue;
+                int sp = (sy-yr[0])*fw - xr[0];
+                int dp = j*w;
+                for (int i=0; i<w; i++) {
+                    int sx = (xmap == null) ? (x-sb.x+i) : xmap[i];
+                    if (sx >= 0)
+                        pixels[dp+i] = fetched[sp+sx];
+                }
+            }
+        } finally {
+            RasterPool.release(wr);
+        }
+        return ret;
+    }
+
+    /**
+     * Maps the <code>len</code> coordinates starting at
+     * <code>start</code> onto the source range [srcStart,
+     * srcStart+srcLen) according to <code>mode</code>.  The result
+     * holds offsets from <code>srcStart</code>, or -1 for pixels that
+     * are transparent black.  Returns null if no coordinate falls
+     * outside the source.
+     */
+    static int [] edgeMap(int start, int len, int srcStart, int srcLen,
+                          PadMode mode) {
+        if ((start >= srcStart) && (start+len <= srcStart+srcLen))
+            return null;
+
+        int [] map = new int[len];
+        for (int i=0; i<len; i++) {
+            int v = start+i-srcStart;
+            if ((v < 0) || (v >= srcLen)) {
+                if (srcLen <= 0)
+                    v = -1;
+                else if (mode == PadMode.REPLICATE)
+                    v = (v < 0) ? 0 : srcLen-1;
+                else if (mode == PadMode.WRAP)
+                    v = ((v % srcLen) + srcLen) % srcLen;
+                else
+                    v = -1;
+            }
+            map[i] = v;
+        }
+        return map;
+    }
+
+    /**
+     * Returns the smallest and largest offsets used by
+     * <code>map</code> (or by the identity map starting at
+     * <code>start</code> if <code>map</code> is null), or null if
+     * it refers to no source pixel at all.
+     */
+    private static int [] mapRange(int [] map, int start, int len) {
+        if (map == null)
+            return new int[] { start, start+len-1 };
+        int min = Integer.MAX_VALUE;
+        int max = -1;
+        for (int i=0; i<len; i++) {
+            int v = map[i];
+            if (v < 0) continue;
+            if (v < min) min = v;
+            if (v > max) max = v;
+        }
+        if (max < 0) return null;
+        return new int[] { min, max };
+    }
+}
@@ -27,6 +27,7 @@ import java.awt.image.WritableRaster;
 
 import org.apache.batik.ext.awt.image.GraphicsUtil;
 import org.apache.batik.ext.awt.image.Light;
+import org.apache.batik.util.WorkerPool;
 
 /**
  * 
@@ -65,6 +66,10 @@ public class DiffuseLightingRed extends AbstractRed{
      */
     private boolean linear;
 
+    /**
+     * Number of rows given to a worker at once.
+     */
+    static final int GRAIN = 16;
 
     public DiffuseLightingRed(double kd,
                               Light light,
@@ -114,32 +119,53 @@ public class DiffuseLightingRed extends AbstractRed{
                              minY-wr.getSampleModelTranslateY()));
 
         final int scanStride = sppsm.getScanlineStride();
-        final int adjust = scanStride - w;
-        int p = offset;
-        int r=0, g=0, b=0;
-        int i=0, j=0;
 
         // System.out.println("Getting diffuse red : " + minX + "/" + minY + "/" + w + "/" + h);
-        double x = scaleX*minX;
-        double y = scaleY*minY;
+        final double x = scaleX*minX;
+        final double y = scaleY*minY;
+
+        final double[] N = bumpMap.getNormals(minX, minY, w, h);
+
+        WorkerPool.parallelFor(0, h, GRAIN, new WorkerPool.RangeTask() {
+                public void run(int start, int end) {
+                    lightRows(N, w, start, end, x, y, pixels,
+                              offset, scanStride, lightColor);
+                }
+            });
+
+        return wr;
+    }
+
+    /**
+     * Lights rows <code>i0</code> to <code>i1</code> (exclusive) of
+     * the <code>w</code> wide area whose normals are <code>N</code>.
+     * The light is evaluated pixel by pixel, exactly like
+     * Light.getLightRow would.
+     */
+    protected void lightRows(final double[] N, final int w,
+                             final int i0, final int i1,
+                             final double x, final double y,
+                             final int[] pixels, final int offset,
+                             final int scanStride,
+                             final double[] lightColor) {
+        final double scaleX = this.scaleX;
+        final double scaleY = this.scaleY;
+        final double[] L = new double[3];
+        int r=0, g=0, b=0;
         double NL = 0;
 
-        // final double[] L = new double[3];
-        final double[][][] NA = bumpMap.getNormalArray(minX, minY, w, h);
         if(!light.isConstant()){
-            final double[][] LA = new double[w][3];
-
-            for(i=0; i<h; i++){
-                final double [][] NR = NA[i];
-                light.getLightRow(x, y+i*scaleY, scaleX, w, NR, LA);
-                for(j=0; j<w; j++){
-                    // Get Normal 
-                    final double [] N = NR[j];
-                    
+            for (int i=i0; i<i1; i++){
+                int p = offset + i*scanStride;
+                int n = i*w*4;
+                double lx = x;
+                final double ly = y+i*scaleY;
+                for (int j=0; j<w; j++, n+=4){
                     // Get Light Vector
-                    final double [] L = LA[j];
+                    light.getLight(lx, ly, N[n+3], L);
+                    lx += scaleX;
                     
-                    NL = 255.*kd*(N[0]*L[0] + N[1]*L[1] + N[2]*L[2]);
+                    NL = 255.*kd*(N[n]*L[0] + N[n+1]*L[1] + N[n+2]*L[2]);
                     
                     r = (int)(NL*lightColor[0]);
                     g = (int)(NL*lightColor[1]);
@@ -164,22 +190,18 @@ public class DiffuseLightingRed extends AbstractRed{
                                    b);
                     
                 }
-                p += adjust;
             }
         }
         else{
             // System.out.println(">>>>>>>> Processing constant light ...");
             // Constant light
-            final double[] L = new double[3];
             light.getLight(0, 0, 0, L);
 
-            for(i=0; i<h; i++){
-                final double [][] NR = NA[i];
-                for(j=0; j<w; j++){
-                    // Get Normal 
-                    final double[] N = NR[j];
-                    
-                    NL = 255.*kd*(N[0]*L[0] + N[1]*L[1] + N[2]*L[2]);
+            for (int i=i0; i<i1; i++){
+                int p = offset + i*scanStride;
+                int n = i*w*4;
+                for (int j=0; j<w; j++, n+=4){
+                    NL = 255.*kd*(N[n]*L[0] + N[n+1]*L[1] + N[n+2]*L[2]);
                     
                     r = (int)(NL*lightColor[0]);
                     g = (int)(NL*lightColor[1]);
@@ -203,11 +225,8 @@ public class DiffuseLightingRed extends AbstractRed{
                                    |
                                    b);
                 }
-                p += adjust;
             }
         }
-        
-        return wr;
     }
 
 }
@@ -18,7 +18,6 @@
  */
 package org.apache.batik.ext.awt.image.rendered;
 
-import java.awt.image.Raster;
 import java.awt.image.SampleModel;
 import java.awt.image.WritableRaster;
 
@@ -60,9 +59,14 @@ public class FilterAlphaRed extends AbstractRed {
             return srcRed.copyData(wr);
 
         PadRed.ZeroRecter.zeroRect(wr);
-        Raster srcRas = srcRed.getData(wr.getBounds());
-        AbstractRed.copyBand(srcRas, srcRas.getNumBands()-1, wr, 
-                             wr.getNumBands()-1);
+        WritableRaster srcRas = RasterPool.allocate(sm, wr.getBounds());
+        try {
+            srcRed.copyData(srcRas);
+            AbstractRed.copyBand(srcRas, srcRas.getNumBands()-1, wr, 
+                                 wr.getNumBands()-1);
+        } finally {
+            RasterPool.release(srcRas);
+        }
         return wr;
     }
 
@@ -19,7 +19,6 @@
 package org.apache.batik.ext.awt.image.rendered;
 
 
-import java.awt.Point;
 import java.awt.Transparency;
 import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
@@ -28,7 +27,6 @@ import java.awt.image.ComponentColorModel;
 import java.awt.image.ComponentSampleModel;
 import java.awt.image.DataBuffer;
 import java.awt.image.DirectColorModel;
-import java.awt.image.Raster;
 import java.awt.image.SampleModel;
 import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
@@ -107,22 +105,22 @@ public class FormatRed extends AbstractRed {
         ColorModel  cm    = getColorModel();
         CachableRed cr    = getSource();
         ColorModel  srcCM = cr.getColorModel();
-        SampleModel srcSM = cr.getSampleModel();
-        srcSM = srcSM.createCompatibleSampleModel(wr.getWidth(),
-                                                  wr.getHeight());
-        WritableRaster srcWR;
-        srcWR = Raster.createWritableRaster(srcSM, new Point(wr.getMinX(),
-                                                             wr.getMinY()));
-        getSource().copyData(srcWR);
-
-        BufferedImage srcBI = new BufferedImage
-            (srcCM, srcWR.createWritableTranslatedChild(0,0),
-             srcCM.isAlphaPremultiplied(), null);
-        BufferedImage dstBI = new BufferedImage
-            (cm, wr.createWritableTranslatedChild(0,0),
-             cm.isAlphaPremultiplied(), null);
-
-        GraphicsUtil.copyData(srcBI, dstBI);
+        WritableRaster srcWR = RasterPool.allocate
+            (cr.getSampleModel(), wr.getBounds());
+        try {
+            getSource().copyData(srcWR);
+
+            BufferedImage srcBI = new BufferedImage
+                (srcCM, srcWR.createWritableTranslatedChild(0,0),
+                 srcCM.isAlphaPremultiplied(), null);
+            BufferedImage dstBI = new BufferedImage
+                (cm, wr.createWritableTranslatedChild(0,0),
+                 cm.isAlphaPremultiplied(), null);
+
+            GraphicsUtil.copyData(srcBI, dstBI);
+        } finally {
+            RasterPool.release(srcWR);
+        }
 
         return wr;
     }
@@ -22,17 +22,16 @@ import java.awt.Rectangle;
 import java.awt.RenderingHints;
 import java.awt.color.ColorSpace;
 import java.awt.image.ColorModel;
-import java.awt.image.ConvolveOp;
 import java.awt.image.DataBuffer;
 import java.awt.image.DataBufferInt;
 import java.awt.image.DirectColorModel;
-import java.awt.image.Kernel;
 import java.awt.image.Raster;
 import java.awt.image.SampleModel;
 import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
 
 import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.util.WorkerPool;
 
 /**
  * This implementation of RenderableImage will render its input
@@ -46,9 +45,14 @@ public class GaussianBlurRed8Bit extends AbstractRed {
     int xinset, yinset;
     double stdDevX, stdDevY;
     RenderingHints hints;
-    ConvolveOp [] convOp = new ConvolveOp [2];
+    int [] kernelX, kernelY;
     int dX, dY;
 
+    /**
+     * Minimum number of rows (or columns) handed to a worker thread.
+     */
+    static final int GRAIN = 16;
+
     /**
      * Construct a blurred version of <code>src</code>, by blurring with a
      * gaussian kernel with standard Deviation of <code>stdDev</code> pixels.
@@ -110,13 +114,17 @@ public class GaussianBlurRed8Bit extends AbstractRed {
                                (hints.get(RenderingHints.KEY_RENDERING)));
 
         // System.out.println("StdDev: " + stdDevX + "x" + stdDevY);
+        // Three box passes approximate the gaussian at a constant
+        // cost per pixel.  Small deviations, and any deviation when
+        // quality is asked for, use the real kernel instead, whose
+        // cost grows with its length.
         if ((xinset != 0) && ((stdDevX < 2) || highQuality))
-            convOp[0] = new ConvolveOp(makeQualityKernelX(xinset*2+1));
+            kernelX = makeQualityKernel(xinset*2+1, stdDevX);
         else
             dX = (int)Math.floor(DSQRT2PI*stdDevX+0.5f);
 
         if ((yinset != 0) && ((stdDevY < 2) || highQuality))
-            convOp[1] = new ConvolveOp(makeQualityKernelY(yinset*2+1));
+            kernelY = makeQualityKernel(yinset*2+1, stdDevY);
         else
             dY = (int)Math.floor(DSQRT2PI*stdDevY+0.5f);
     }
@@ -200,12 +208,22 @@ public class GaussianBlurRed8Bit extends AbstractRed {
         return kernelData;
     }
 
-    private Kernel makeQualityKernelX(int len) {
-        return new Kernel(len, 1, computeQualityKernelData(len, stdDevX));
-    }
-
-    private Kernel makeQualityKernelY(int len) {
-        return new Kernel(1, len, computeQualityKernelData(len, stdDevY));
+    /**
+     * Converts the kernel data to 12.20 fixed point weights.  If
+     * rounding makes the weights sum to more than 1.0 the center weight
+     * is trimmed, so a convolved band can never overflow a byte.
+     */
+    private int [] makeQualityKernel(int len, double stdDev) {
+        float [] data = computeQualityKernelData(len, stdDev);
+        int [] kernel = new int[len];
+        int sum = 0;
+        for (int i=0; i<len; i++) {
+            kernel[i] = (int)(data[i]*(1<<20) + 0.5f);
+            sum += kernel[i];
+        }
+        if (sum > (1<<20))
+            kernel[len/2] -= sum - (1<<20);
+        return kernel;
     }
 
     public WritableRaster copyData(WritableRaster wr) {
@@ -223,90 +241,255 @@ public class GaussianBlurRed8Bit extends AbstractRed {
 
         ColorModel srcCM = src.getColorModel();
 
-        WritableRaster tmpR1=null, tmpR2=null;
+        // All the passes below work in place, so this is the only
+        // raster sized buffer we need.
+        WritableRaster tmpR1;
+
+        tmpR1 = RasterPool.allocate
+            (srcCM.createCompatibleSampleModel(r.width, r.height),
+             0, 0, r.width, r.height);
+        // The passes return the raster they were given.
+        WritableRaster pooled = tmpR1;
+        try {
+            {
+                WritableRaster fill;
+                fill = tmpR1.createWritableTranslatedChild(r.x, r.y);
+                src.copyData(fill);
+            }
+            if (srcCM.hasAlpha() && !srcCM.isAlphaPremultiplied())
+                GraphicsUtil.coerceData(tmpR1, srcCM, true);
+
+            // this lets the Vertical conv know how much is junk, so it
+            // doesn't bother to convolve the top and bottom edges
+            int skipX;
+            // long t1 = System.currentTimeMillis();
+            if (xinset == 0) {
+                skipX = 0;
+            } else if (kernelX != null) {
+                tmpR1 = convolveH(tmpR1, kernelX);
+                skipX = kernelX.length/2;
+            } else {
+                if ((dX&0x01) == 0){
+                    tmpR1 = boxFilterH(tmpR1, tmpR1, 0,    0,   dX,   dX/2);
+                    tmpR1 = boxFilterH(tmpR1, tmpR1, dX/2, 0,   dX,   dX/2-1);
+                    tmpR1 = boxFilterH(tmpR1, tmpR1, dX-1, 0,   dX+1, dX/2);
+                    skipX = dX-1 + dX/2;
+                } else {
+                    tmpR1 = boxFilterH(tmpR1, tmpR1, 0,    0,   dX, dX/2);
+                    tmpR1 = boxFilterH(tmpR1, tmpR1, dX/2, 0,   dX, dX/2);
+                    tmpR1 = boxFilterH(tmpR1, tmpR1, dX-2, 0,   dX, dX/2);
+                    skipX = dX-2 + dX/2;
+                }
+            }
 
-        tmpR1 = srcCM.createCompatibleWritableRaster(r.width, r.height);
-        {
-            WritableRaster fill;
-            fill = tmpR1.createWritableTranslatedChild(r.x, r.y);
-            src.copyData(fill);
-        }
-        if (srcCM.hasAlpha() && !srcCM.isAlphaPremultiplied())
-            GraphicsUtil.coerceData(tmpR1, srcCM, true);
-
-        // For the blur box approx we can use dest as our intermediate
-        // otherwise we let it default to null which means we create a new
-        // one...
-
-        // this lets the Vertical conv know how much is junk, so it
-        // doesn't bother to convolve the top and bottom edges
-        int skipX;
-        // long t1 = System.currentTimeMillis();
-        if (xinset == 0) {
-            skipX = 0;
-        } else if (convOp[0] != null) {
-            tmpR2 = getColorModel().createCompatibleWritableRaster
-                (r.width, r.height);
-            tmpR2 = convOp[0].filter(tmpR1, tmpR2);
-            skipX = convOp[0].getKernel().getXOrigin();
-
-            // Swap them...
-            WritableRaster tmp = tmpR1;
-            tmpR1 = tmpR2;
-            tmpR2 = tmp;
-        } else {
-            if ((dX&0x01) == 0){
-                tmpR1 = boxFilterH(tmpR1, tmpR1, 0,    0,   dX,   dX/2);
-                tmpR1 = boxFilterH(tmpR1, tmpR1, dX/2, 0,   dX,   dX/2-1);
-                tmpR1 = boxFilterH(tmpR1, tmpR1, dX-1, 0,   dX+1, dX/2);
-                skipX = dX-1 + dX/2;
+            if (yinset == 0) {
+                // Nothing to do.
+            } else if (kernelY != null) {
+                tmpR1 = convolveV(tmpR1, skipX, kernelY);
             } else {
-                tmpR1 = boxFilterH(tmpR1, tmpR1, 0,    0,   dX, dX/2);
-                tmpR1 = boxFilterH(tmpR1, tmpR1, dX/2, 0,   dX, dX/2);
-                tmpR1 = boxFilterH(tmpR1, tmpR1, dX-2, 0,   dX, dX/2);
-                skipX = dX-2 + dX/2;
+                if ((dY&0x01) == 0){
+                    tmpR1 = boxFilterV(tmpR1, tmpR1, skipX, 0,    dY,   dY/2);
+                    tmpR1 = boxFilterV(tmpR1, tmpR1, skipX, dY/2, dY,   dY/2-1);
+                    tmpR1 = boxFilterV(tmpR1, tmpR1, skipX, dY-1, dY+1, dY/2);
+                }
+                else {
+                    tmpR1 = boxFilterV(tmpR1, tmpR1, skipX, 0,    dY, dY/2);
+                    tmpR1 = boxFilterV(tmpR1, tmpR1, skipX, dY/2, dY, dY/2);
+                    tmpR1 = boxFilterV(tmpR1, tmpR1, skipX, dY-2, dY, dY/2);
+                }
             }
+            // long t2 = System.currentTimeMillis();
+            // System.out.println("Time: " + (t2-t1) +
+            //                       (((kernelX != null) || (kernelY != null))?
+            //                        " Kernel":""));
+            // System.out.println("Rasters  WR :" + wr.getBounds());
+            // System.out.println("         tmp:" + tmpR1.getBounds());
+            // System.out.println("      bounds:" + getBounds());
+            // System.out.println("       skipX:" + skipX +
+            //                    " dx:" + dX + " Dy: " + dY);
+            tmpR1 = tmpR1.createWritableTranslatedChild(r.x, r.y);
+            GraphicsUtil.copyData(tmpR1, wr);
+        } finally {
+            RasterPool.release(pooled);
         }
 
-        if (yinset == 0) {
-            tmpR2 = tmpR1;
-        } else if (convOp[1] != null) {
-            if (tmpR2 == null) {
-                tmpR2 = getColorModel().createCompatibleWritableRaster
-                    (r.width, r.height);
-            }
-            tmpR2 = convOp[1].filter(tmpR1, tmpR2);
-        } else {
-            if ((dY&0x01) == 0){
-                tmpR1 = boxFilterV(tmpR1, tmpR1, skipX, 0,    dY,   dY/2);
-                tmpR1 = boxFilterV(tmpR1, tmpR1, skipX, dY/2, dY,   dY/2-1);
-                tmpR1 = boxFilterV(tmpR1, tmpR1, skipX, dY-1, dY+1, dY/2);
-            }
-            else {
-                tmpR1 = boxFilterV(tmpR1, tmpR1, skipX, 0,    dY, dY/2);
-                tmpR1 = boxFilterV(tmpR1, tmpR1, skipX, dY/2, dY, dY/2);
-                tmpR1 = boxFilterV(tmpR1, tmpR1, skipX, dY-2, dY, dY/2);
+        return wr;
+    }
+
+    /**
+     * Returns the offset of the first pixel of <code>ras</code> in its
+     * data array.
+     */
+    private static int getDataOffset(Raster ras) {
+        SinglePixelPackedSampleModel sppsm =
+            (SinglePixelPackedSampleModel)ras.getSampleModel();
+        return (ras.getDataBuffer().getOffset() +
+                sppsm.getOffset
+                (ras.getMinX()-ras.getSampleModelTranslateX(),
+                 ras.getMinY()-ras.getSampleModelTranslateY()));
+    }
+
+    /**
+     * Convolves each row of <code>wr</code> with <code>kernel</code> in
+     * place.  The <code>kernel.length/2</code> columns on each side are
+     * left untouched (they are junk after this pass).  Rows are split
+     * across the worker threads.
+     */
+    private WritableRaster convolveH(WritableRaster wr, final int [] kernel) {
+        final int w = wr.getWidth();
+        final int h = wr.getHeight();
+        if (w < kernel.length) return wr;
+
+        final int stride =
+            ((SinglePixelPackedSampleModel)wr.getSampleModel())
+            .getScanlineStride();
+        final int off = getDataOffset(wr);
+        final int [] pixels = ((DataBufferInt)wr.getDataBuffer())
+            .getBankData()[0];
+
+        WorkerPool.parallelFor(0, h, GRAIN, new WorkerPool.RangeTask() {
+                public void run(int y0, int y1) {
+                    final int len = w-kernel.length+1;
+                    int [][] bands = new int[8][w];
+                    for (int y=y0; y<y1; y++) {
+                        int sp = off+y*stride;
+                        unpack(pixels, sp, 1, w, bands, 0);
+                        convolveBands(bands, kernel, 1, len, 0);
+                        pack(bands, pixels, sp+kernel.length/2, len);
+                    }
+                }
+            });
+        return wr;
+    }
+
+    /**
+     * Convolves each column of <code>wr</code>, except the
+     * <code>skipX</code> junk columns on each side, with
+     * <code>kernel</code> in place.  The columns are processed in
+     * strips of {@link #GRAIN} so the inner loops walk along rows,
+     * strips are split across the worker threads.
+     */
+    private WritableRaster convolveV(WritableRaster wr, int skipX,
+                                     final int [] kernel) {
+        final int w = wr.getWidth();
+        final int h = wr.getHeight();
+        if ((h < kernel.length) || (w < 2*skipX)) return wr;
+
+        final int stride =
+            ((SinglePixelPackedSampleModel)wr.getSampleModel())
+            .getScanlineStride();
+        final int off = getDataOffset(wr);
+        final int [] pixels = ((DataBufferInt)wr.getDataBuffer())
+            .getBankData()[0];
+
+        WorkerPool.parallelFor(skipX, w-skipX, GRAIN,
+                               new WorkerPool.RangeTask() {
+                public void run(int x0, int x1) {
+                    int [][] bands = new int[8][];
+                    for (int b=0; b<4; b++) {
+                        bands[b]   = new int[GRAIN*h];
+                        bands[b+4] = new int[GRAIN];
+                    }
+                    final int rows = h-kernel.length+1;
+                    for (int x=x0; x<x1; x+=GRAIN) {
+                        final int n = Math.min(GRAIN, x1-x);
+                        for (int y=0; y<h; y++)
+                            unpack(pixels, off+y*stride+x, 1, n,
+                                   bands, y*n);
+
+                        int dp = off+(kernel.length/2)*stride+x;
+                        for (int y=0; y<rows; y++, dp+=stride) {
+                            convolveBands(bands, kernel, n, n, y*n);
+                            pack(bands, pixels, dp, n);
+                        }
+                    }
+                }
+            });
+        return wr;
+    }
+
+    /**
+     * Unpacks <code>len</code> packed pixels, <code>step</code> apart
+     * from <code>sp</code>, into the first four (A, R, G, B) arrays of
+     * <code>bands</code> starting at <code>bp</code>.
+     */
+    static void unpack(int [] pixels, int sp, int step, int len,
+                       int [][] bands, int bp) {
+        final int [] a = bands[0];
+        final int [] r = bands[1];
+        final int [] g = bands[2];
+        final int [] b = bands[3];
+        for (int i=0; i<len; i++, sp+=step) {
+            final int pel = pixels[sp];
+            a[bp+i] = (pel>>>24);
+            r[bp+i] = (pel>> 16)&0xFF;
+            g[bp+i] = (pel>>  8)&0xFF;
+            b[bp+i] = (pel     )&0xFF;
+        }
+    }
+
+    /**
+     * Convolves the unpacked band data with the 12.20 fixed point
+     * <code>kernel</code>, leaving the results in the last four arrays
+     * of <code>bands</code>.  Taps are <code>tapStep</code> apart in
+     * the source arrays, starting from <code>bp</code>.  This computes
+     * <code>len</code> outputs; the loops are arranged so the innermost
+     * one is a simple multiply/add over adjacent elements that the JIT
+     * can vectorize.
+     */
+    static void convolveBands(int [][] bands, int [] kernel,
+                              int tapStep, int len, int bp) {
+        final int [] a  = bands[0];
+        final int [] r  = bands[1];
+        final int [] g  = bands[2];
+        final int [] b  = bands[3];
+        final int [] sa = bands[4];
+        final int [] sr = bands[5];
+        final int [] sg = bands[6];
+        final int [] sb = bands[7];
+
+        int kv = kernel[0];
+        for (int i=0; i<len; i++) {
+            sa[i] = kv*a[bp+i];
+            sr[i] = kv*r[bp+i];
+            sg[i] = kv*g[bp+i];
+            sb[i] = kv*b[bp+i];
+        }
+        for (int k=1; k<kernel.length; k++) {
+            kv = kernel[k];
+            final int tp = bp+k*tapStep;
+            for (int i=0; i<len; i++) {
+                sa[i] += kv*a[tp+i];
+                sr[i] += kv*r[tp+i];
+                sg[i] += kv*g[tp+i];
+                sb[i] += kv*b[tp+i];
             }
-            tmpR2 = tmpR1;
         }
-        // long t2 = System.currentTimeMillis();
-        // System.out.println("Time: " + (t2-t1) +
-        //                       (((convOp[0] != null) || (convOp[1] != null))?
-        //                        " ConvOp":""));
-        // System.out.println("Rasters  WR :" + wr.getBounds());
-        // System.out.println("         tmp:" + tmpR2.getBounds());
-        // System.out.println("      bounds:" + getBounds());
-        // System.out.println("       skipX:" + skipX +
-        //                    " dx:" + dX + " Dy: " + dY);
-        tmpR2 = tmpR2.createWritableTranslatedChild(r.x, r.y);
-        GraphicsUtil.copyData(tmpR2, wr);
+    }
 
-        return wr;
+    /**
+     * Packs <code>len</code> convolved results from <code>bands</code>
+     * back into <code>pixels</code> starting at <code>dp</code>,
+     * rounding them to the nearest integer.  The weights sum to at
+     * most 1.0 so the rounded values still fit in a byte.
+     */
+    static void pack(int [][] bands, int [] pixels, int dp, int len) {
+        final int [] sa = bands[4];
+        final int [] sr = bands[5];
+        final int [] sg = bands[6];
+        final int [] sb = bands[7];
+        final int pt5 = (1<<19);
+        for (int i=0; i<len; i++) {
+            pixels[dp+i] = ((((sa[i]+pt5)>>>20)<<24) |
+                            (((sr[i]+pt5)>>>20)<<16) |
+                            (((sg[i]+pt5)>>>20)<< 8) |
+                             ((sb[i]+pt5)>>>20));
+        }
     }
 
     private WritableRaster boxFilterH(Raster src, WritableRaster dest,
-                                      int skipX, int skipY,
-                                      int boxSz, int loc) {
+                                      final int skipX, int skipY,
+                                      final int boxSz, final int loc) {
 
         final int w = src.getWidth();
         final int h = src.getHeight();
@@ -331,27 +514,13 @@ public class GaussianBlurRed8Bit extends AbstractRed {
         DataBufferInt dstDB = (DataBufferInt)dest.getDataBuffer();
 
         // Offset defines where in the stack the real data begin
-        final int srcOff
-            = (srcDB.getOffset() +
-               srcSPPSM.getOffset
-               (src.getMinX()-src.getSampleModelTranslateX(),
-                src.getMinY()-src.getSampleModelTranslateY()));
-        final int dstOff
-            = (dstDB.getOffset() +
-               dstSPPSM.getOffset
-               (dest.getMinX()-dest.getSampleModelTranslateX(),
-                dest.getMinY()-dest.getSampleModelTranslateY()));
+        final int srcOff = getDataOffset(src);
+        final int dstOff = getDataOffset(dest);
 
         // Access the pixel value array
         final int[] srcPixels  = srcDB.getBankData()[0];
         final int[] destPixels = dstDB.getBankData()[0];
 
-        final int [] buffer = new int [boxSz];
-        int curr, prev;
-
-          // Fixed point normalization factor (8.24)
-        int scale = (1<<24)/boxSz;
-
         /*
          * System.out.println("Info: srcOff: " + srcOff +
          *                    " x: " + skipX +
@@ -362,69 +531,23 @@ public class GaussianBlurRed8Bit extends AbstractRed {
          *                    " srcStride: " + srcScanStride);
          */
 
-        for (int y=skipY; y<(h-skipY); y++) {
-            int sp     = srcOff + y*srcScanStride;
-            int dp     = dstOff + y*dstScanStride;
-            int rowEnd = sp + (w-skipX);
-
-            int k    = 0;
-            int sumA = 0;
-            int sumR = 0;
-            int sumG = 0;
-            int sumB = 0;
-
-            sp += skipX;
-            int end  = sp+boxSz;
-
-            while (sp < end) {
-                curr = buffer[k] = srcPixels[sp];
-                sumA += (curr>>> 24);
-                sumR += (curr >> 16)&0xFF;
-                sumG += (curr >>  8)&0xFF;
-                sumB += (curr      )&0xFF;
-                k++;
-                sp++;
-            }
-
-            dp += skipX + loc;
-            prev = destPixels[dp] = (( (sumA*scale)&0xFF000000)       |
-                                     (((sumR*scale)&0xFF000000)>>>8)  |
-                                     (((sumG*scale)&0xFF000000)>>>16) |
-                                     (((sumB*scale)&0xFF000000)>>>24));
-            dp++;
-            k=0;
-            while (sp < rowEnd) {
-                curr = buffer[k];
-                if (curr == srcPixels[sp]) {
-                    destPixels[dp] = prev;
-                } else {
-                    sumA -= (curr>>> 24);
-                    sumR -= (curr >> 16)&0xFF;
-                    sumG -= (curr >>  8)&0xFF;
-                    sumB -= (curr      )&0xFF;
-
-                    curr = buffer[k] = srcPixels[sp];
-
-                    sumA += (curr>>> 24);
-                    sumR += (curr >> 16)&0xFF;
-                    sumG += (curr >>  8)&0xFF;
-                    sumB += (curr      )&0xFF;
-                    prev = destPixels[dp] = (( (sumA*scale)&0xFF000000)       |
-                                             (((sumR*scale)&0xFF000000)>>>8)  |
-                                             (((sumG*scale)&0xFF000000)>>>16) |
-                                             (((sumB*scale)&0xFF000000)>>>24));
+        // Each row is independent, hand blocks of them to the workers.
+        WorkerPool.parallelFor(skipY, h-skipY, GRAIN,
+                               new WorkerPool.RangeTask() {
+                public void run(int y0, int y1) {
+                    boxFilterLines(srcPixels,  srcOff + y0*srcScanStride,
+                                   srcScanStride, 1,
+                                   destPixels, dstOff + y0*dstScanStride,
+                                   dstScanStride, 1,
+                                   y1-y0, w, skipX, boxSz, loc);
                 }
-                k = (k+1)%boxSz;
-                sp++;
-                dp++;
-            }
-        }
+            });
         return dest;
     }
 
     private WritableRaster boxFilterV(Raster src, WritableRaster dest,
-                                      int skipX, int skipY,
-                                      int boxSz, int loc) {
+                                      int skipX, final int skipY,
+                                      final int boxSz, final int loc) {
 
         final int w = src.getWidth();
         final int h = src.getHeight();
@@ -449,28 +572,13 @@ public class GaussianBlurRed8Bit extends AbstractRed {
         DataBufferInt dstDB = (DataBufferInt)dest.getDataBuffer();
 
         // Offset defines where in the stack the real data begin
-        final int srcOff
-            = (srcDB.getOffset() +
-               srcSPPSM.getOffset
-               (src.getMinX()-src.getSampleModelTranslateX(),
-                src.getMinY()-src.getSampleModelTranslateY()));
-        final int dstOff
-            = (dstDB.getOffset() +
-               dstSPPSM.getOffset
-               (dest.getMinX()-dest.getSampleModelTranslateX(),
-                dest.getMinY()-dest.getSampleModelTranslateY()));
-
+        final int srcOff = getDataOffset(src);
+        final int dstOff = getDataOffset(dest);
 
         // Access the pixel value array
         final int[] srcPixels  = srcDB.getBankData()[0];
         final int[] destPixels = dstDB.getBankData()[0];
 
-        final int [] buffer = new int [boxSz];
-        int curr, prev;
-
-          // Fixed point normalization factor (8.24)
-        final int scale = (1<<24)/boxSz;
-
         /*
          * System.out.println("Info: srcOff: " + srcOff +
          *                    " x: " + skipX +
@@ -481,19 +589,55 @@ public class GaussianBlurRed8Bit extends AbstractRed {
          *                    " srcStride: " + srcScanStride);
          */
 
-        for (int x=skipX; x<(w-skipX); x++) {
-            int sp = srcOff + x;
-            int dp = dstOff + x;
-            int colEnd = sp + (h-skipY)*srcScanStride;
+        // Each column is independent, hand blocks of them to the workers.
+        WorkerPool.parallelFor(skipX, w-skipX, GRAIN,
+                               new WorkerPool.RangeTask() {
+                public void run(int x0, int x1) {
+                    boxFilterLines(srcPixels,  srcOff + x0,
+                                   1, srcScanStride,
+                                   destPixels, dstOff + x0,
+                                   1, dstScanStride,
+                                   x1-x0, h, skipY, boxSz, loc);
+                }
+            });
+        return dest;
+    }
+
+    /**
+     * Runs a sliding box filter of <code>boxSz</code> pixels along
+     * <code>lines</code> lines of <code>len</code> pixels.  Lines start
+     * <code>srcLineStep</code> (<code>dstLineStep</code>) apart and
+     * pixels within a line are <code>srcStep</code>
+     * (<code>dstStep</code>) apart, which lets the same code do both the
+     * horizontal and the vertical pass.  The first and last
+     * <code>skip</code> pixels of each line are junk and are ignored.
+     */
+    static void boxFilterLines(final int [] srcPixels,  int srcLine,
+                               final int srcLineStep, final int srcStep,
+                               final int [] destPixels, int dstLine,
+                               final int dstLineStep, final int dstStep,
+                               int lines, int len, int skip,
+                               int boxSz, int loc) {
+        final int [] buffer = new int [boxSz];
+        int curr, prev;
 
-            int k=0;
+          // Fixed point normalization factor (8.24)
+        final int scale = (1<<24)/boxSz;
+
+        for (int l=0; l<lines; l++) {
+            int sp      = srcLine + skip*srcStep;
+            int dp      = dstLine + (skip+loc)*dstStep;
+            int lineEnd = srcLine + (len-skip)*srcStep;
+            srcLine += srcLineStep;
+            dstLine += dstLineStep;
+
+            int k    = 0;
             int sumA = 0;
             int sumR = 0;
             int sumG = 0;
             int sumB = 0;
 
-            sp += skipY*srcScanStride;
-            int end  = sp+(boxSz*srcScanStride);
+            int end  = sp+boxSz*srcStep;
 
             while (sp < end) {
                 curr = buffer[k] = srcPixels[sp];
@@ -502,18 +646,16 @@ public class GaussianBlurRed8Bit extends AbstractRed {
                 sumG += (curr >>  8)&0xFF;
                 sumB += (curr      )&0xFF;
                 k++;
-                sp+=srcScanStride;
+                sp+=srcStep;
             }
 
-
-            dp += (skipY + loc)*dstScanStride;
             prev = destPixels[dp] = (( (sumA*scale)&0xFF000000)       |
                                      (((sumR*scale)&0xFF000000)>>>8)  |
                                      (((sumG*scale)&0xFF000000)>>>16) |
                                      (((sumB*scale)&0xFF000000)>>>24));
-            dp+=dstScanStride;
+            dp+=dstStep;
             k=0;
-            while (sp < colEnd) {
+            while (sp < lineEnd) {
                 curr = buffer[k];
                 if (curr == srcPixels[sp]) {
                     destPixels[dp] = prev;
@@ -534,12 +676,11 @@ public class GaussianBlurRed8Bit extends AbstractRed {
                                              (((sumG*scale)&0xFF000000)>>>16) |
                                              (((sumB*scale)&0xFF000000)>>>24));
                 }
-                k = (k+1)%boxSz;
-                sp+=srcScanStride;
-                dp+=dstScanStride;
+                if (++k == boxSz) k = 0;
+                sp+=srcStep;
+                dp+=dstStep;
             }
         }
-        return dest;
     }
 
     protected static ColorModel fixColorModel(CachableRed src) {
@@ -18,9 +18,37 @@
  */
 package org.apache.batik.ext.awt.image.rendered;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.apache.batik.util.DoublyLinkedList;
+import org.apache.batik.util.WorkerPool;
 
 /**
+ * A cache of objects that keeps the most recently used ones.  The
+ * cache is bounded both by a number of entries and by a number of
+ * bytes (for objects implementing {@link SizedLRUObj}).
+ *
+ * <p>The entries are spread over several independently locked LRU
+ * lists (stripes) so threads touching different objects rarely
+ * contend.  The bounds are global: when they are exceeded entries
+ * are evicted from the tail of the stripes, the recency order is
+ * therefore only approximately global.  A lookup that hits the cache
+ * only locks the stripe of the object, the totals and statistics are
+ * atomic counters.</p>
+ *
+ * <p>When choosing what to evict the cache first looks for entries
+ * of owners holding more than their fair share of the cache (the
+ * byte bound divided by the number of owners with entries), so one
+ * large image can't push everything else out.  Otherwise the
+ * eviction policy picks either the least recently used entry
+ * ({@link #EVICT_LRU}) or, among the few least recently used ones,
+ * the entry that is cheapest to recreate per byte
+ * ({@link #EVICT_COST}).</p>
  *
  * @version $Id$
  */
@@ -31,7 +59,7 @@ public class LRUCache {
      * inform the object of key events in the status of the object in
      * the LRU cache.
      */
-        public interface LRUObj {
+    public interface LRUObj {
         /**
          * Called when the object first becomes active in the LRU cache.
          * @param nde The LRU cache node associated with this object.
@@ -48,114 +76,428 @@ public class LRUCache {
          * Called to inform the object that it is no longer in the cache.
          */
         void    lruRemove();
-        }
+    }
+
+    /**
+     * Implemented by objects that can tell the cache what they cost.
+     */
+    public interface SizedLRUObj extends LRUObj {
+        /**
+         * Returns the number of bytes this object holds on to.
+         */
+        long lruSize();
+        /**
+         * Returns an estimate of the cost of recreating this object
+         * (typically the time it took to create it), 0 if unknown.
+         */
+        long lruCost();
+        /**
+         * Returns the owner of this object, used to share the cache
+         * fairly between owners, or null.
+         */
+        Object lruOwner();
+    }
+
+    /**
+     * Implemented by objects with more work to do when they leave the
+     * cache (such as writing themselves out) than should be done with
+     * a lock of the cache held.
+     */
+    public interface DeferredLRUObj extends LRUObj {
+        /**
+         * Called after <code>lruRemove</code>, once the cache holds
+         * none of its locks.  The object may already have been added
+         * back to the cache.
+         */
+        void lruRemoved();
+    }
 
     /**
      * Interface for nodes in the LRU cache, basicly nodes in a doubly
      * linked list.
      */
-        public class LRUNode extends DoublyLinkedList.Node {
-                private   LRUObj  obj  = null;
-                public    LRUObj  getObj ()               { return obj; }
-                protected void    setObj (LRUObj  newObj) {
-                        if (obj != null) obj.lruRemove();
+    public class LRUNode extends DoublyLinkedList.Node {
+        private   LRUObj  obj  = null;
+        long   size;
+        Object owner;
 
-                        obj = newObj;
-                        if (obj != null) obj.lruSet(this);
-                }
+        public    LRUObj  getObj ()               { return obj; }
+        protected void    setObj (LRUObj  newObj) {
+            if (obj != null) obj.lruRemove();
+
+            obj = newObj;
+            if (obj != null) obj.lruSet(this);
         }
+    }
+
+    /**
+     * Evict the least recently used entry.
+     */
+    public static final int EVICT_LRU  = 0;
+
+    /**
+     * Evict the entry that is cheapest to recreate per byte among the
+     * least recently used ones.
+     */
+    public static final int EVICT_COST = 1;
+
+    /**
+     * Number of entries, from the tail of a stripe, considered when
+     * choosing what to evict.
+     */
+    static final int EVICTION_SCAN = 8;
+
+    /**
+     * One independently locked LRU list.
+     */
+    static class Stripe {
+        final DoublyLinkedList used = new DoublyLinkedList();
+        int count;
+    }
+
+    private final Stripe [] stripes;
+
+    private volatile int  maxSize;
+    private volatile long maxBytes;
+    private volatile int  policy = EVICT_LRU;
+
+    // Totals over all the stripes.
+    private final AtomicInteger used      = new AtomicInteger();
+    private final AtomicLong    usedBytes = new AtomicLong();
+
+    // Bytes held by each owner (owner -> long[1]), guarded by itself.
+    private final Map owners = new HashMap();
+
+    private final AtomicLong    hits       = new AtomicLong();
+    private final AtomicLong    misses     = new AtomicLong();
+    private final AtomicLong    evictions  = new AtomicLong();
+    private final AtomicInteger nextStripe = new AtomicInteger();
+
+    public LRUCache(int size) {
+        this(size, Long.MAX_VALUE);
+    }
+
+    /**
+     * Creates a cache holding at most <code>size</code> entries and
+     * <code>maxBytes</code> bytes.
+     */
+    public LRUCache(int size, long maxBytes) {
+        if (size <= 0) size=1;
+        this.maxSize  = size;
+        this.maxBytes = (maxBytes <= 0) ? 1 : maxBytes;
+
+        int n = 1;
+        while (n < 2*WorkerPool.PARALLELISM) n <<= 1;
+        stripes = new Stripe[n];
+        for (int i=0; i<n; i++)
+            stripes[i] = new Stripe();
+    }
+
+    public int getUsed() {
+        return used.get();
+    }
+
+    /**
+     * Returns the number of bytes held by the cached objects.
+     */
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    public void setSize(int newSz) {
+        if (newSz <= 0) newSz = 1;
+        maxSize = newSz;
+        evict(null);
+    }
 
-        private DoublyLinkedList free    = null;
-        private DoublyLinkedList used    = null;
-        private int     maxSize = 0;
+    public int getSize() {
+        return maxSize;
+    }
 
-        public LRUCache(int size) {
-                if (size <= 0) size=1;
-                maxSize = size;
+    /**
+     * Sets the maximum number of bytes the cached objects may hold.
+     */
+    public void setMaxBytes(long newMax) {
+        maxBytes = (newMax <= 0) ? 1 : newMax;
+        evict(null);
+    }
 
-                free = new DoublyLinkedList();
-                used = new DoublyLinkedList();
+    public long getMaxBytes() {
+        return maxBytes;
+    }
 
-                while (size > 0) {
-                        free.add(new LRUNode());
-                        size--;
+    /**
+     * Sets the eviction policy, one of {@link #EVICT_LRU} or
+     * {@link #EVICT_COST}.
+     */
+    public void setEvictionPolicy(int policy) {
+        if ((policy != EVICT_LRU) && (policy != EVICT_COST))
+            throw new IllegalArgumentException
+                ("Unknown eviction policy: " + policy);
+        this.policy = policy;
+    }
+
+    public int getEvictionPolicy() {
+        return policy;
+    }
+
+    public void flush() {
+        for (int i=0; i<stripes.length; i++) {
+            Stripe s = stripes[i];
+            List gone = new ArrayList();
+            synchronized (s) {
+                while (s.used.getSize() > 0) {
+                    LRUNode nde = (LRUNode)s.used.pop();
+                    unlinked(s, nde);
+                    gone.add(nde.getObj());
+                    nde.setObj(null);
                 }
+            }
+            for (int j=0; j<gone.size(); j++)
+                removed((LRUObj)gone.get(j));
+        }
+    }
+
+    public void remove(LRUObj obj) {
+        Stripe s = getStripe(obj);
+        synchronized (s) {
+            LRUNode nde = obj.lruGet();
+            if (nde == null) return;
+            s.used.remove(nde);
+            unlinked(s, nde);
+            nde.setObj(null);
         }
+        removed(obj);
+    }
 
-        public int getUsed() {
-                return used.getSize();
+    public void touch(LRUObj obj) {
+        Stripe s = getStripe(obj);
+        synchronized (s) {
+            LRUNode nde = obj.lruGet();
+            if (nde == null) return;
+            s.used.touch(nde);
         }
+    }
 
-        public synchronized void setSize(int newSz) {
+    public void add(LRUObj obj) {
+        Stripe s = getStripe(obj);
+        long   size  = 0;
+        Object owner = null;
+        if (obj instanceof SizedLRUObj) {
+            SizedLRUObj sobj = (SizedLRUObj)obj;
+            size  = sobj.lruSize();
+            owner = sobj.lruOwner();
+        }
 
-                if (maxSize < newSz) {  // list grew...
+        synchronized (s) {
+            LRUNode nde = obj.lruGet();
+            if (nde != null) {
+                // already linked in, the object may have been given
+                // a new value though...
+                s.used.touch(nde);
+                if (nde.size == size)
+                    return;
+                account(nde.owner, size-nde.size, 0);
+                nde.size = size;
+            } else {
+                nde = new LRUNode();
+                nde.size   = size;
+                nde.owner  = owner;
+                nde.setObj(obj);
+                s.used.add(nde);
+                s.count++;
+                account(owner, size, 1);
+            }
+        }
+        evict(obj);
+    }
 
-                        for (int i=maxSize; i<newSz; i++)
-                                free.add(new LRUNode());
+    /**
+     * Records that a lookup was satisfied by a cached object.
+     */
+    public void recordHit() {
+        hits.incrementAndGet();
+    }
 
-                } else if (maxSize > newSz) {
+    /**
+     * Records that a lookup had to recreate the object.
+     */
+    public void recordMiss() {
+        misses.incrementAndGet();
+    }
 
-                        for (int i=used.getSize(); i>newSz; i--) {
-                                LRUNode nde = (LRUNode)used.getTail();
-                                used.remove(nde);
-                                nde.setObj(null);
-                        }
-                }
+    public long getHitCount() {
+        return hits.get();
+    }
+
+    public long getMissCount() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of objects dropped to respect the bounds.
+     */
+    public long getEvictionCount() {
+        return evictions.get();
+    }
 
-                maxSize = newSz;
+    public void resetStatistics() {
+        hits.set(0);
+        misses.set(0);
+        evictions.set(0);
+    }
+
+    /**
+     * Lets <code>obj</code> finish leaving the cache, must be called
+     * without any lock of the cache held.
+     */
+    private static void removed(LRUObj obj) {
+        if (obj instanceof DeferredLRUObj)
+            ((DeferredLRUObj)obj).lruRemoved();
+    }
+
+    private Stripe getStripe(LRUObj obj) {
+        int h = System.identityHashCode(obj);
+        h ^= (h >>> 16);
+        return stripes[h & (stripes.length-1)];
+    }
+
+    /**
+     * Updates the totals.  Only entries with an owner lock 'owners',
+     * and only when they are linked, unlinked or change size.
+     */
+    private void account(Object owner, long bytes, int count) {
+        if (count != 0)
+            used.addAndGet(count);
+        if (bytes != 0)
+            usedBytes.addAndGet(bytes);
+        if (owner == null)
+            return;
+        synchronized (owners) {
+            long [] ob = (long [])owners.get(owner);
+            if (ob == null) {
+                ob = new long[1];
+                owners.put(owner, ob);
+            }
+            ob[0] += bytes;
+            if ((ob[0] <= 0) && (count < 0))
+                owners.remove(owner);
         }
+    }
+
+    /**
+     * Called, with the stripe locked, once <code>nde</code> has been
+     * removed from the stripe's list.
+     */
+    private void unlinked(Stripe s, LRUNode nde) {
+        s.count--;
+        account(nde.owner, -nde.size, -1);
+    }
+
+    private boolean overBounds() {
+        return (used.get() > maxSize) || (usedBytes.get() > maxBytes);
+    }
 
-        public synchronized void flush() {
-                while (used.getSize() > 0) {
-                        LRUNode nde = (LRUNode)used.pop();
-                        nde.setObj(null);
-                        free.add(nde);
+    /**
+     * Evicts entries until the bounds are respected, never evicting
+     * <code>keep</code> (the object just added).  Each eviction holds
+     * only the lock of the stripe it evicts from.
+     */
+    private void evict(LRUObj keep) {
+        int idle = 0;
+        while (overBounds() && (idle < stripes.length)) {
+            Stripe s = stripes[nextStripe.getAndIncrement() &
+                               (stripes.length-1)];
+            LRUObj gone;
+            synchronized (s) {
+                LRUNode victim = chooseVictim(s, keep);
+                if (victim == null) {
+                    idle++;
+                    continue;
                 }
+                idle = 0;
+                s.used.remove(victim);
+                unlinked(s, victim);
+                gone = victim.getObj();
+                victim.setObj(null);
+            }
+            evictions.incrementAndGet();
+            removed(gone);
         }
+    }
 
-        public synchronized void remove(LRUObj obj) {
-                LRUNode nde = obj.lruGet();
-                if (nde == null) return;
-                used.remove(nde);
-                nde.setObj(null);
-                free.add(nde);
-        }
+    /**
+     * Picks the entry of <code>s</code> to evict, must be called with
+     * the stripe locked.
+     */
+    private LRUNode chooseVictim(Stripe s, LRUObj keep) {
+        if (s.count == 0)
+            return null;
 
-        public synchronized void touch(LRUObj obj) {
-                LRUNode nde = obj.lruGet();
-                if (nde == null) return;
-                used.touch(nde);
+        long fairShare;
+        synchronized (owners) {
+            int n = owners.size();
+            fairShare = (n > 1) ? maxBytes/n : Long.MAX_VALUE;
         }
 
-        public synchronized void add(LRUObj obj) {
-                LRUNode nde = obj.lruGet();
+        LRUNode best = null;
+        double  bestScore = 0;
+        LRUNode nde = (LRUNode)s.used.getTail();
+        for (int i=0; i<EVICTION_SCAN; i++) {
+            LRUObj obj = nde.getObj();
+            if (obj != keep) {
+                if ((nde.owner != null) && overShare(nde.owner, fairShare))
+                    return nde;
 
-                // already linked in...
-                if (nde != null) {
-                        used.touch(nde);
-                        return;
+                if (best == null) {
+                    best = nde;
+                    bestScore = score(nde);
+                } else if (policy == EVICT_COST) {
+                    double score = score(nde);
+                    if (score < bestScore) {
+                        best = nde;
+                        bestScore = score;
+                    }
                 }
+            }
+            if (nde == s.used.getHead())
+                break;
+            nde = (LRUNode)nde.getPrev();
+        }
+        return best;
+    }
 
-                if (free.getSize() > 0) {
-                        nde = (LRUNode)free.pop();
-                        nde.setObj(obj);
-                        used.add(nde);
-                } else {
-                        nde = (LRUNode)used.getTail();
-                        nde.setObj(obj);
-                        used.touch(nde);
-                }
+    private boolean overShare(Object owner, long fairShare) {
+        synchronized (owners) {
+            long [] ob = (long [])owners.get(owner);
+            return (ob != null) && (ob[0] > fairShare);
         }
+    }
 
-        protected synchronized void print() {
-                System.out.println("In Use: " + used.getSize() +
-                                                   " Free: " + free.getSize());
-                LRUNode nde = (LRUNode)used.getHead();
-                if (nde == null) return;
+    /**
+     * The cost of recreating an entry, per byte it frees.
+     */
+    private static double score(LRUNode nde) {
+        LRUObj obj = nde.getObj();
+        long cost = 0;
+        if (obj instanceof SizedLRUObj)
+            cost = ((SizedLRUObj)obj).lruCost();
+        return cost / (double)(nde.size+1);
+    }
+
+    protected void print() {
+        for (int i=0; i<stripes.length; i++) {
+            Stripe s = stripes[i];
+            synchronized (s) {
+                System.out.println("Stripe " + i + " In Use: " + s.count);
+                if (s.count == 0) continue;
+                LRUNode nde = (LRUNode)s.used.getHead();
                 do {
-                        System.out.println(nde.getObj());
-                        nde = (LRUNode)nde.getNext();
-                } while (nde != used.getHead());
+                    System.out.println(nde.getObj());
+                    nde = (LRUNode)nde.getNext();
+                } while (nde != s.used.getHead());
+            }
         }
-
+        System.out.println("Bytes: " + getUsedBytes());
+    }
 }
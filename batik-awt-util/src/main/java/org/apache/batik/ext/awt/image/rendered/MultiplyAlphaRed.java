@@ -28,7 +28,6 @@ import java.awt.image.DataBuffer;
 import java.awt.image.DataBufferByte;
 import java.awt.image.DataBufferInt;
 import java.awt.image.PixelInterleavedSampleModel;
-import java.awt.image.Raster;
 import java.awt.image.SampleModel;
 import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
@@ -104,70 +103,75 @@ public class MultiplyAlphaRed extends AbstractRed {
         Rectangle rgn = wr.getBounds();
         rgn = rgn.intersection(alphaRed.getBounds());
 
-        Raster r = alphaRed.getData(rgn);
+        WritableRaster r = RasterPool.allocate(alphaRed.getSampleModel(), rgn);
+        try {
+            alphaRed.copyData(r);
 
-        ComponentSampleModel csm;
-        csm = (ComponentSampleModel)r.getSampleModel();
-        final int alpScanStride = csm.getScanlineStride();
+            ComponentSampleModel csm;
+            csm = (ComponentSampleModel)r.getSampleModel();
+            final int alpScanStride = csm.getScanlineStride();
 
-        DataBufferByte alpDB   = (DataBufferByte)r.getDataBuffer();
-        final int      alpBase
-            = (alpDB.getOffset() +
-               csm.getOffset(rgn.x-r.getSampleModelTranslateX(),
-                             rgn.y-r.getSampleModelTranslateY()));
+            DataBufferByte alpDB   = (DataBufferByte)r.getDataBuffer();
+            final int      alpBase
+                = (alpDB.getOffset() +
+                   csm.getOffset(rgn.x-r.getSampleModelTranslateX(),
+                                 rgn.y-r.getSampleModelTranslateY()));
 
 
-          // Access the pixel data array
-        final byte[] alpPixels = alpDB.getBankData()[0];
+              // Access the pixel data array
+            final byte[] alpPixels = alpDB.getBankData()[0];
 
-        SinglePixelPackedSampleModel sppsm;
-        sppsm = (SinglePixelPackedSampleModel)wr.getSampleModel();
-        final int srcScanStride = sppsm.getScanlineStride();
+            SinglePixelPackedSampleModel sppsm;
+            sppsm = (SinglePixelPackedSampleModel)wr.getSampleModel();
+            final int srcScanStride = sppsm.getScanlineStride();
 
-        DataBufferInt srcDB   = (DataBufferInt)wr.getDataBuffer();
-        final int     srcBase
-            = (srcDB.getOffset() +
-               sppsm.getOffset(rgn.x-wr.getSampleModelTranslateX(),
-                               rgn.y-wr.getSampleModelTranslateY()));
+            DataBufferInt srcDB   = (DataBufferInt)wr.getDataBuffer();
+            final int     srcBase
+                = (srcDB.getOffset() +
+                   sppsm.getOffset(rgn.x-wr.getSampleModelTranslateX(),
+                                   rgn.y-wr.getSampleModelTranslateY()));
 
-          // Access the pixel data array
-        final int[] srcPixels = srcDB.getBankData()[0];
+              // Access the pixel data array
+            final int[] srcPixels = srcDB.getBankData()[0];
 
-        ColorModel cm = srcRed.getColorModel();
+            ColorModel cm = srcRed.getColorModel();
 
-        if (cm.isAlphaPremultiplied()) {
-            // For alpha premult we need to multiply all comps.
-            for (int y=0; y<rgn.height; y++) {
-                int sp = srcBase + y*srcScanStride;
-                int ap = alpBase + y*alpScanStride;
-                int end = sp + rgn.width;
-
-                while (sp<end) {
-                    int a = ((int)alpPixels[ap++])&0xFF;
-                    final int pix = srcPixels[sp];
-                    srcPixels[sp] =
-                        ((((((pix>>>24)     ) *a)&0xFF00)<<16) |
-                         (((((pix>>>16)&0xFF) *a)&0xFF00)<<8 ) |
-                         (((((pix>>> 8)&0xFF) *a)&0xFF00)    ) |
-                         (((((pix     )&0xFF) *a)&0xFF00)>>8 ));
-                    sp++;
+            if (cm.isAlphaPremultiplied()) {
+                // For alpha premult we need to multiply all comps.
+                for (int y=0; y<rgn.height; y++) {
+                    int sp = srcBase + y*srcScanStride;
+                    int ap = alpBase + y*alpScanStride;
+                    int end = sp + rgn.width;
+
+                    while (sp<end) {
+                        int a = ((int)alpPixels[ap++])&0xFF;
+                        final int pix = srcPixels[sp];
+                        srcPixels[sp] =
+                            ((((((pix>>>24)     ) *a)&0xFF00)<<16) |
+                             (((((pix>>>16)&0xFF) *a)&0xFF00)<<8 ) |
+                             (((((pix>>> 8)&0xFF) *a)&0xFF00)    ) |
+                             (((((pix     )&0xFF) *a)&0xFF00)>>8 ));
+                        sp++;
+                    }
                 }
-            }
 
-        } else {
-              // For non-alpha premult we only need to multiply alpha.
-            for (int y=0; y<rgn.height; y++) {
-                int sp = srcBase + y*srcScanStride;
-                int ap = alpBase + y*alpScanStride;
-                int end = sp + rgn.width;
-                while (sp<end) {
-                    int a = ((int)alpPixels[ap++])&0xFF;
-                    int sa = srcPixels[sp]>>>24;
-                    srcPixels[sp] = ((((sa*a) & 0xFF00)<<16)|
-                                     srcPixels[sp]&0x00FFFFFF);
-                    sp++;
+            } else {
+                  // For non-alpha premult we only need to multiply alpha.
+                for (int y=0; y<rgn.height; y++) {
+                    int sp = srcBase + y*srcScanStride;
+                    int ap = alpBase + y*alpScanStride;
+                    int end = sp + rgn.width;
+                    while (sp<end) {
+                        int a = ((int)alpPixels[ap++])&0xFF;
+                        int sa = srcPixels[sp]>>>24;
+                        srcPixels[sp] = ((((sa*a) & 0xFF00)<<16)|
+                                         srcPixels[sp]&0x00FFFFFF);
+                        sp++;
+                    }
                 }
             }
+        } finally {
+            RasterPool.release(r);
         }
 
         return wr;
@@ -196,56 +200,63 @@ public class MultiplyAlphaRed extends AbstractRed {
             int [] wrData    = null;
             int [] alphaData = null;
 
-            Raster r = alphaRed.getData(rgn);
-            int    w = rgn.width;
-
-            final int bands = wr.getSampleModel().getNumBands();
-
-            if (cm.isAlphaPremultiplied()) {
-                for (int y=rgn.y; y<rgn.y+rgn.height; y++) {
-                    wrData    = wr.getPixels (rgn.x, y, w, 1, wrData);
-                    alphaData = r .getSamples(rgn.x, y, w, 1, 0, alphaData);
-                    int i=0, a, b;
-                          // 4 is the most common case.
-                          // 2 is probably next most common...
-                    switch (bands) {
-                    case 2:
-                        for (int x=0; x<alphaData.length; x++) {
-                            a = alphaData[x]&0xFF;
-                            wrData[i] = ((wrData[i]&0xFF)*a)>>8; ++i;
-                            wrData[i] = ((wrData[i]&0xFF)*a)>>8; ++i;
-                        }
-                        break;
-                    case 4:
-                        for (int x=0; x<alphaData.length; x++) {
-                            a = alphaData[x]&0xFF;
-                            wrData[i] = ((wrData[i]&0xFF)*a)>>8; ++i;
-                            wrData[i] = ((wrData[i]&0xFF)*a)>>8; ++i;
-                            wrData[i] = ((wrData[i]&0xFF)*a)>>8; ++i;
-                            wrData[i] = ((wrData[i]&0xFF)*a)>>8; ++i;
-                        }
-                        break;
-                    default:
-                        for (int x=0; x<alphaData.length; x++) {
-                            a = alphaData[x]&0xFF;
-                            for (b=0; b<bands; b++) {
-                                wrData[i] = ((wrData[i]&0xFF)*a)>>8;
-                                ++i;
+            WritableRaster r = RasterPool.allocate
+                (alphaRed.getSampleModel(), rgn);
+            try {
+                alphaRed.copyData(r);
+                int w = rgn.width;
+
+                final int bands = wr.getSampleModel().getNumBands();
+
+                if (cm.isAlphaPremultiplied()) {
+                    for (int y=rgn.y; y<rgn.y+rgn.height; y++) {
+                        wrData    = wr.getPixels (rgn.x, y, w, 1, wrData);
+                        alphaData = r .getSamples(rgn.x, y, w, 1, 0, alphaData);
+                        int i=0, a, b;
+                              // 4 is the most common case.
+                              // 2 is probably next most common...
+                        switch (bands) {
+                        case 2:
+                            for (int x=0; x<alphaData.length; x++) {
+                                a = alphaData[x]&0xFF;
+                                wrData[i] = ((wrData[i]&0xFF)*a)>>8; ++i;
+                                wrData[i] = ((wrData[i]&0xFF)*a)>>8; ++i;
+                            }
+                            break;
+                        case 4:
+                            for (int x=0; x<alphaData.length; x++) {
+                                a = alphaData[x]&0xFF;
+                                wrData[i] = ((wrData[i]&0xFF)*a)>>8; ++i;
+                                wrData[i] = ((wrData[i]&0xFF)*a)>>8; ++i;
+                                wrData[i] = ((wrData[i]&0xFF)*a)>>8; ++i;
+                                wrData[i] = ((wrData[i]&0xFF)*a)>>8; ++i;
+                            }
+                            break;
+                        default:
+                            for (int x=0; x<alphaData.length; x++) {
+                                a = alphaData[x]&0xFF;
+                                for (b=0; b<bands; b++) {
+                                    wrData[i] = ((wrData[i]&0xFF)*a)>>8;
+                                    ++i;
+                                }
                             }
                         }
+                        wr.setPixels(rgn.x, y, w, 1, wrData);
                     }
-                    wr.setPixels(rgn.x, y, w, 1, wrData);
-                }
-            } else {
-                int b = srcRed.getSampleModel().getNumBands()-1;
-                for (int y=rgn.y; y<rgn.y+rgn.height; y++) {
-                    wrData    = wr.getSamples(rgn.x, y, w, 1, b, wrData);
-                    alphaData = r .getSamples(rgn.x, y, w, 1, 0, alphaData);
-                    for (int i=0; i<wrData.length; i++) {
-                        wrData[i] = ((wrData[i]&0xFF)*(alphaData[i]&0xFF))>>8;
+                } else {
+                    int b = srcRed.getSampleModel().getNumBands()-1;
+                    for (int y=rgn.y; y<rgn.y+rgn.height; y++) {
+                        wrData    = wr.getSamples(rgn.x, y, w, 1, b, wrData);
+                        alphaData = r .getSamples(rgn.x, y, w, 1, 0, alphaData);
+                        for (int i=0; i<wrData.length; i++) {
+                            wrData[i] =
+                                ((wrData[i]&0xFF)*(alphaData[i]&0xFF))>>8;
+                        }
+                        wr.setSamples(rgn.x, y, w, 1, b, wrData);
                     }
-                    wr.setSamples(rgn.x, y, w, 1, b, wrData);
                 }
+            } finally {
+                RasterPool.release(r);
             }
 
             return wr;
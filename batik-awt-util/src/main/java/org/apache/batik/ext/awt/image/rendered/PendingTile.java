@@ -0,0 +1,63 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.image.Raster;
+
+/**
+ * Marks a tile that is currently being generated by some thread so
+ * that other threads asking a TileStore for the same tile wait for
+ * that computation rather than starting their own.
+ *
+ * @version $Id$
+ */
+class PendingTile {
+    private Raster  ras;
+    private boolean done;
+
+    /**
+     * Called by the generating thread once it is finished with the
+     * tile.  <code>ras</code> is null if the tile could not be
+     * generated (exception or halted thread), waiting threads will
+     * then generate the tile themselves.
+     */
+    synchronized void finish(Raster ras) {
+        this.ras  = ras;
+        this.done = true;
+        notifyAll();
+    }
+
+    /**
+     * Waits for the generating thread to finish and returns the tile
+     * it produced, or null if the caller should generate it.
+     */
+    synchronized Raster await() {
+        boolean interrupted = false;
+        while (!done) {
+            try {
+                wait();
+            } catch (InterruptedException ie) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        return ras;
+    }
+}
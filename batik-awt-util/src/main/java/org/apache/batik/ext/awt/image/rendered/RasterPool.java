@@ -0,0 +1,450 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.MultiPixelPackedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.lang.ref.SoftReference;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import org.apache.batik.util.WorkerPool;
+
+/**
+ * A pool of the data buffers behind the temporary rasters the
+ * <code>*Red</code> classes need while computing a tile.  Rasters
+ * obtained with {@link #allocate} should be handed back with
+ * {@link #release} once they are no longer referenced, the buffer is
+ * then reused by the next allocation of a similar size.
+ *
+ * <p>Buffers are kept in size buckets (powers of two and the half
+ * steps in between) and the pool is split in stripes selected by the
+ * calling thread, so concurrent filter chains rarely contend.  The
+ * number of bytes kept is bounded by the
+ * <code>org.apache.batik.raster_pool_size</code> system property
+ * (in bytes, default 32MB, 0 disables pooling).</p>
+ *
+ * <p>Only single bank <code>int</code> and <code>byte</code> buffers
+ * are pooled, other requests are simply allocated.  The pool only
+ * takes back the buffers it handed out, and only keeps them softly
+ * reachable, so they are dropped when memory runs low.</p>
+ *
+ * @version $Id$
+ */
+public final class RasterPool {
+
+    /**
+     * Smallest pooled buffer (in array elements), smaller requests
+     * are cheap enough to allocate.
+     */
+    static final int MIN_BUCKET_BITS = 10;
+
+    /**
+     * Largest pooled buffer (in array elements).
+     */
+    static final int MAX_BUCKET_BITS = 24;
+
+    static final int NUM_BUCKETS = 2*(MAX_BUCKET_BITS-MIN_BUCKET_BITS)+1;
+
+    private static long maxBytes;
+
+    static {
+        long value = 32L*1024*1024;
+        try {
+            String s = System.getProperty
+                ("org.apache.batik.raster_pool_size", String.valueOf(value));
+            value = Long.parseLong(s);
+        } catch (SecurityException se) {
+        } catch (NumberFormatException nfe) {
+        } finally {
+            maxBytes = (value < 0) ? 0 : value;
+        }
+    }
+
+    private static final Stripe [] stripes;
+    private static final int stripeMask;
+
+    static {
+        int n = 1;
+        while (n < WorkerPool.PARALLELISM) n <<= 1;
+        stripes = new Stripe[n];
+        for (int i=0; i<n; i++)
+            stripes[i] = new Stripe();
+        stripeMask = n-1;
+    }
+
+    /**
+     * No instances.
+     */
+    private RasterPool() { }
+
+    /**
+     * Returns a zeroed raster covering <code>r</code> whose
+     * SampleModel is compatible with <code>sm</code>.
+     */
+    public static WritableRaster allocate(SampleModel sm, Rectangle r) {
+        return allocate(sm, r.x, r.y, r.width, r.height);
+    }
+
+    /**
+     * Returns a zeroed raster at <code>x</code>, <code>y</code> of
+     * size <code>w</code>x<code>h</code> whose SampleModel is
+     * compatible with <code>sm</code>.
+     */
+    public static WritableRaster allocate(SampleModel sm,
+                                          int x, int y, int w, int h) {
+        sm = sm.createCompatibleSampleModel(w, h);
+        Point pt = new Point(x, y);
+
+        int size = getBufferSize(sm);
+        int bucket = getBucket(size);
+        int type = sm.getDataType();
+        if ((bucket < 0) || (maxBytes == 0) ||
+            ((type != DataBuffer.TYPE_INT) && (type != DataBuffer.TYPE_BYTE)))
+            return Raster.createWritableRaster(sm, pt);
+
+        int len = getBucketSize(bucket);
+        Stripe s = getStripe();
+        Object array;
+        synchronized (s) {
+            array = s.take(type, bucket);
+            if (array != null) s.hits++;
+            else               s.misses++;
+        }
+
+        DataBuffer db;
+        if (type == DataBuffer.TYPE_INT) {
+            int [] data = (int [])array;
+            if (data == null) data = new int[len];
+            else              Arrays.fill(data, 0, size, 0);
+            db = new DataBufferInt(data, len);
+            array = data;
+        } else {
+            byte [] data = (byte [])array;
+            if (data == null) data = new byte[len];
+            else              Arrays.fill(data, 0, size, (byte)0);
+            db = new DataBufferByte(data, len);
+            array = data;
+        }
+        synchronized (s) {
+            s.lent.put(array, Boolean.TRUE);
+        }
+        return Raster.createWritableRaster(sm, db, pt);
+    }
+
+    /**
+     * Hands the buffer behind <code>ras</code> back to the pool.
+     * Neither <code>ras</code> nor any raster sharing its data may be
+     * used afterwards.  Rasters that were not obtained from
+     * {@link #allocate} are ignored.
+     */
+    public static void release(Raster ras) {
+        if ((ras == null) || (maxBytes == 0))
+            return;
+
+        DataBuffer db = ras.getDataBuffer();
+        if ((db.getNumBanks() != 1) || (db.getOffset() != 0))
+            return;
+
+        Object array;
+        int len;
+        if (db instanceof DataBufferInt) {
+            int [] data = ((DataBufferInt)db).getData();
+            array = data;
+            len = data.length;
+        } else if (db instanceof DataBufferByte) {
+            byte [] data = ((DataBufferByte)db).getData();
+            array = data;
+            len = data.length;
+        } else {
+            return;
+        }
+
+        int bucket = getBucket(len);
+        if ((bucket < 0) || (getBucketSize(bucket) != len))
+            return;
+
+        Stripe s = getStripe();
+        if (!returned(s, array))
+            return;   // Not ours, or already released.
+
+        long bytes = (long)len*DataBuffer.getDataTypeSize(db.getDataType())/8;
+        synchronized (s) {
+            long max = maxBytes/stripes.length;
+            if (s.bytes + bytes > max)
+                s.purge();
+            if (s.bytes + bytes > max) {
+                s.discards++;
+                return;
+            }
+            s.put(db.getDataType(), bucket, array, bytes);
+            s.releases++;
+        }
+    }
+
+    /**
+     * Forgets that <code>array</code> was handed out, looking first in
+     * the stripe <code>s</code> of the releasing thread (usually the
+     * one that allocated it).  Returns false if the pool didn't hand
+     * it out.
+     */
+    private static boolean returned(Stripe s, Object array) {
+        synchronized (s) {
+            if (s.lent.remove(array) != null)
+                return true;
+        }
+        for (int i=0; i<stripes.length; i++) {
+            Stripe o = stripes[i];
+            if (o == s)
+                continue;
+            synchronized (o) {
+                if (o.lent.remove(array) != null)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Drops all the pooled buffers.
+     */
+    public static void clear() {
+        for (int i=0; i<stripes.length; i++) {
+            Stripe s = stripes[i];
+            synchronized (s) {
+                s.clear();
+            }
+        }
+    }
+
+    /**
+     * Sets the maximum number of bytes kept by the pool.  Zero
+     * disables pooling.
+     */
+    public static void setMaxBytes(long bytes) {
+        maxBytes = (bytes < 0) ? 0 : bytes;
+        if (maxBytes == 0)
+            clear();
+    }
+
+    public static long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Returns the number of bytes currently held by the pool.
+     */
+    public static long getPooledBytes()  { return sum(BYTES);    }
+
+    /**
+     * Returns the number of allocations served from the pool.
+     */
+    public static long getHitCount()     { return sum(HITS);     }
+
+    /**
+     * Returns the number of allocations that needed a new buffer.
+     */
+    public static long getMissCount()    { return sum(MISSES);   }
+
+    /**
+     * Returns the number of buffers handed back and kept.
+     */
+    public static long getReleaseCount() { return sum(RELEASES); }
+
+    /**
+     * Returns the number of buffers handed back but dropped because
+     * the pool was full.
+     */
+    public static long getDiscardCount() { return sum(DISCARDS); }
+
+    public static void resetStatistics() {
+        for (int i=0; i<stripes.length; i++) {
+            Stripe s = stripes[i];
+            synchronized (s) {
+                s.hits = s.misses = s.releases = s.discards = 0;
+            }
+        }
+    }
+
+    private static final int BYTES    = 0;
+    private static final int HITS     = 1;
+    private static final int MISSES   = 2;
+    private static final int RELEASES = 3;
+    private static final int DISCARDS = 4;
+
+    private static long sum(int counter) {
+        long ret = 0;
+        for (int i=0; i<stripes.length; i++) {
+            Stripe s = stripes[i];
+            synchronized (s) {
+                switch (counter) {
+                case BYTES:    ret += s.bytes;    break;
+                case HITS:     ret += s.hits;     break;
+                case MISSES:   ret += s.misses;   break;
+                case RELEASES: ret += s.releases; break;
+                default:       ret += s.discards; break;
+                }
+            }
+        }
+        return ret;
+    }
+
+    private static Stripe getStripe() {
+        long id = Thread.currentThread().getId();
+        return stripes[(int)(id ^ (id >>> 16)) & stripeMask];
+    }
+
+    /**
+     * Returns the number of array elements the data buffer of
+     * <code>sm</code> needs, or -1 if it can't be pooled.
+     */
+    static int getBufferSize(SampleModel sm) {
+        int h = sm.getHeight();
+        if (sm instanceof SinglePixelPackedSampleModel) {
+            SinglePixelPackedSampleModel sppsm;
+            sppsm = (SinglePixelPackedSampleModel)sm;
+            return sppsm.getScanlineStride()*h;
+        }
+        if (sm instanceof ComponentSampleModel) {
+            ComponentSampleModel csm = (ComponentSampleModel)sm;
+            int [] banks = csm.getBankIndices();
+            for (int i=0; i<banks.length; i++)
+                if (banks[i] != 0)
+                    return -1;
+            return csm.getScanlineStride()*h;
+        }
+        if (sm instanceof MultiPixelPackedSampleModel) {
+            MultiPixelPackedSampleModel mppsm;
+            mppsm = (MultiPixelPackedSampleModel)sm;
+            return mppsm.getScanlineStride()*h;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the smallest bucket holding at least <code>size</code>
+     * elements, or -1 if the size isn't pooled.
+     */
+    static int getBucket(int size) {
+        if ((size <= 0) || (size > (1<<MAX_BUCKET_BITS)))
+            return -1;
+        for (int b=0; b<NUM_BUCKETS; b++)
+            if (getBucketSize(b) >= size)
+                return b;
+        return -1;
+    }
+
+    /**
+     * Buckets alternate between powers of two and the point halfway
+     * to the next one: 1024, 1536, 2048, 3072...
+     */
+    static int getBucketSize(int bucket) {
+        int pow = 1 << (MIN_BUCKET_BITS + (bucket>>1));
+        if ((bucket&1) != 0)
+            pow += pow>>1;
+        return pow;
+    }
+
+    /**
+     * One independently locked part of the pool.
+     */
+    static class Stripe {
+        final List [] intBuffers  = new List[NUM_BUCKETS];
+        final List [] byteBuffers = new List[NUM_BUCKETS];
+
+        /**
+         * The arrays allocated from this stripe that haven't been
+         * released.  Arrays compare by identity, so this is an
+         * identity set that doesn't keep them alive.
+         */
+        final Map lent = new WeakHashMap();
+
+        long bytes;
+        long hits, misses, releases, discards;
+
+        List getList(int type, int bucket) {
+            List [] lists = ((type == DataBuffer.TYPE_INT) ?
+                             intBuffers : byteBuffers);
+            List l = lists[bucket];
+            if (l == null)
+                l = lists[bucket] = new ArrayList();
+            return l;
+        }
+
+        Object take(int type, int bucket) {
+            List l = getList(type, bucket);
+            while (!l.isEmpty()) {
+                SoftReference ref = (SoftReference)l.remove(l.size()-1);
+                bytes -= getBucketSize(bucket) *
+                    DataBuffer.getDataTypeSize(type)/8;
+                Object ret = ref.get();
+                if (ret != null)
+                    return ret;
+            }
+            return null;
+        }
+
+        void put(int type, int bucket, Object array, long sz) {
+            List l = getList(type, bucket);
+            l.add(new SoftReference(array));
+            bytes += sz;
+        }
+
+        /**
+         * Forgets the buffers the garbage collector reclaimed.
+         */
+        void purge() {
+            purge(intBuffers,  DataBuffer.TYPE_INT);
+            purge(byteBuffers, DataBuffer.TYPE_BYTE);
+        }
+
+        private void purge(List [] lists, int type) {
+            for (int b=0; b<lists.length; b++) {
+                List l = lists[b];
+                if (l == null)
+                    continue;
+                for (int i=l.size()-1; i>=0; i--) {
+                    if (((SoftReference)l.get(i)).get() == null) {
+                        l.remove(i);
+                        bytes -= getBucketSize(b) *
+                            DataBuffer.getDataTypeSize(type)/8;
+                    }
+                }
+            }
+        }
+
+        void clear() {
+            Arrays.fill(intBuffers,  null);
+            Arrays.fill(byteBuffers, null);
+            bytes = 0;
+        }
+    }
+}
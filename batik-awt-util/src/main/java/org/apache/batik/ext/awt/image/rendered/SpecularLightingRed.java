@@ -28,6 +28,7 @@ import java.awt.image.WritableRaster;
 import org.apache.batik.ext.awt.image.GraphicsUtil;
 import org.apache.batik.ext.awt.image.Light;
 import org.apache.batik.ext.awt.image.SpotLight;
+import org.apache.batik.util.WorkerPool;
 
 /**
  * 
@@ -70,7 +71,23 @@ public class SpecularLightingRed extends AbstractTiledRed{
      * true if calculations should be performed in linear sRGB
      */
     private boolean linear;
-     
+
+    /**
+     * Number of rows given to a worker at once.
+     */
+    static final int GRAIN = 16;
+
+    /**
+     * Number of intervals in the table of powers of [0, 1].
+     */
+    static final int POW_TABLE_SIZE = 4096;
+
+    /**
+     * v^specularExponent for v = i/POW_TABLE_SIZE (one extra entry
+     * so interpolation at 1 doesn't need a special case).
+     */
+    private final double[] powTable = new double[POW_TABLE_SIZE+2];
+
 
     public SpecularLightingRed(double ks,
                                double specularExponent,
@@ -88,6 +105,10 @@ public class SpecularLightingRed extends AbstractTiledRed{
         this.scaleY = scaleY;
         this.linear = linear;
 
+        for (int i=0; i<=POW_TABLE_SIZE; i++)
+            powTable[i] = Math.pow(i/(double)POW_TABLE_SIZE, specularExponent);
+        powTable[POW_TABLE_SIZE+1] = powTable[POW_TABLE_SIZE];
+
         ColorModel cm;
         if (linear)
             cm = GraphicsUtil.Linear_sRGB_Unpre;
@@ -110,6 +131,14 @@ public class SpecularLightingRed extends AbstractTiledRed{
         return wr;
     }
 
+    /**
+     * The lights are immutable and the bump map serializes access to
+     * its texture, so disjoint blocks can be lit in parallel.
+     */
+    protected boolean canGenRectConcurrently() {
+        return true;
+    }
+
     public void genRect(WritableRaster wr) {
         // Copy variable on stack for faster access in tight loop
         final double scaleX = this.scaleX;
@@ -134,14 +163,9 @@ public class SpecularLightingRed extends AbstractTiledRed{
                              minY-wr.getSampleModelTranslateY()));
         // int offset = db.getOffset();
         final int scanStride = sppsm.getScanlineStride();
-        final int adjust = scanStride - w;
-        int p = offset;
-        int a=0, i=0, j=0;
 
-        // x and y are in user space
-        double x = scaleX*minX;
-        double y = scaleY*minY;
-        double norm = 0;
+        final double x = scaleX*minX;
+        final double y = scaleY*minY;
 
         int pixel = 0, tmp;
         double mult;
@@ -159,22 +183,49 @@ public class SpecularLightingRed extends AbstractTiledRed{
 
         // System.out.println("Pixel: 0x" + Integer.toHexString(pixel));
 
-        final double[][][] NA = bumpMap.getNormalArray(minX, minY, w, h);
+        final double[] N = bumpMap.getNormals(minX, minY, w, h);
+        final int    color = pixel;
+        final double amult = mult;
+
+        WorkerPool.parallelFor(0, h, GRAIN, new WorkerPool.RangeTask() {
+                public void run(int start, int end) {
+                    lightRows(N, w, start, end, x, y, pixels,
+                              offset, scanStride, color, amult);
+                }
+            });
+    }
+
+    /**
+     * Lights rows <code>i0</code> to <code>i1</code> (exclusive) of
+     * the <code>w</code> wide area whose normals are <code>N</code>.
+     * The light is evaluated pixel by pixel, exactly like
+     * Light.getLightRow would.
+     */
+    protected void lightRows(final double[] N, final int w,
+                             final int i0, final int i1,
+                             final double x, final double y,
+                             final int[] pixels, final int offset,
+                             final int scanStride,
+                             final int pixel, final double mult) {
+        final double scaleX = this.scaleX;
+        final double scaleY = this.scaleY;
+        final double[] L = new double[4];
+        double norm;
+        int a;
 
         // System.out.println("Entering Specular Lighting");
         if (light instanceof SpotLight) {
             SpotLight slight = (SpotLight)light;
-            final double[][] LA = new double[w][4];
-            for(i=0; i<h; i++){
+            for (int i=i0; i<i1; i++){
                 // System.out.println("Row: " + i);
-                final double [][] NR = NA[i];
-                slight.getLightRow4(x, y+i*scaleY, scaleX, w, NR, LA);
-                for (j=0; j<w; j++){
-                    // Get Normal 
-                    final double [] N = NR[j];
-                    
+                int p = offset + i*scanStride;
+                int n = i*w*4;
+                double lx = x;
+                final double ly = y+i*scaleY;
+                for (int j=0; j<w; j++, n+=4){
                     // Get Light Vector
-                    final double [] L = LA[j];
+                    slight.getLight4(lx, ly, N[n+3], L);
+                    lx += scaleX;
                     double vs = L[3];
                     if (vs == 0) {
                         a = 0;
@@ -182,45 +233,41 @@ public class SpecularLightingRed extends AbstractTiledRed{
                         L[2] += 1;
                         norm = L[0]*L[0] + L[1]*L[1] + L[2]*L[2];
                         norm = Math.sqrt(norm);
-                        double dot = N[0]*L[0] + N[1]*L[1] + N[2]*L[2];
-                        vs = vs*Math.pow(dot/norm, specularExponent);
+                        double dot = N[n]*L[0] + N[n+1]*L[1] + N[n+2]*L[2];
+                        vs = vs*pow(dot/norm);
                         a = (int)(mult*vs + 0.5);
                         if ((a & 0xFFFFFF00) != 0)
                             a = ((a & 0x80000000) != 0)?0:255;
                     }
                     pixels[p++] = (a << 24 | pixel);
                 }
-                p += adjust;
             }
         } else if(!light.isConstant()){
-            final double[][] LA = new double[w][4];
-            for(i=0; i<h; i++){
+            for (int i=i0; i<i1; i++){
                 // System.out.println("Row: " + i);
-                final double [][] NR = NA[i];
-                light.getLightRow(x, y+i*scaleY, scaleX, w, NR, LA);
-                for (j=0; j<w; j++){
-                    // Get Normal 
-                    final double [] N = NR[j];
-                    
+                int p = offset + i*scanStride;
+                int n = i*w*4;
+                double lx = x;
+                final double ly = y+i*scaleY;
+                for (int j=0; j<w; j++, n+=4){
                     // Get Light Vector
-                    final double [] L = LA[j];
+                    light.getLight(lx, ly, N[n+3], L);
+                    lx += scaleX;
                     L[2] += 1;
                     norm = L[0]*L[0] + L[1]*L[1] + L[2]*L[2];
                     norm = Math.sqrt(norm);
-                    double dot = N[0]*L[0] + N[1]*L[1] + N[2]*L[2];
+                    double dot = N[n]*L[0] + N[n+1]*L[1] + N[n+2]*L[2];
                     // vs = vs/norm;
-                    norm = Math.pow(dot/norm, specularExponent);
+                    norm = pow(dot/norm);
                     a = (int)(mult*norm + 0.5);
                     if ((a & 0xFFFFFF00) != 0)
                         a = ((a & 0x80000000) != 0)?0:255;
                     pixels[p++] = (a << 24 | pixel);
                 }
-                p += adjust;
             }
         }
         else{
             // Get constant light vector
-            final double[] L = new double[3];
             light.getLight(0, 0, 0, L);
 
             // Compute Half-way vector
@@ -232,23 +279,35 @@ public class SpecularLightingRed extends AbstractTiledRed{
                 L[2] /= norm;
             }
 
-            for(i=0; i<h; i++){
-                final double [][] NR = NA[i];
-                for(j=0; j<w; j++){
-                    // Get Normal 
-                    final double [] N = NR[j];
-                    
-                    a = (int)(mult*Math.pow(N[0]*L[0] + N[1]*L[1] + N[2]*L[2], 
-                                            specularExponent) + 0.5);
+            for (int i=i0; i<i1; i++){
+                int p = offset + i*scanStride;
+                int n = i*w*4;
+                for (int j=0; j<w; j++, n+=4){
+                    a = (int)(mult*pow(N[n]*L[0] + N[n+1]*L[1] + N[n+2]*L[2])
+                              + 0.5);
                     
                     if ((a & 0xFFFFFF00) != 0)
                         a = ((a & 0x80000000) != 0)?0:255;
 
                     pixels[p++] = (a << 24 | pixel);
                 }
-                p += adjust;
             }
         }
         // System.out.println("Exiting Specular Lighting");
     }
+
+    /**
+     * Returns <code>v</code> raised to the specular exponent.  Values
+     * in [0, 1] (the usual case, the cosine between two unit vectors)
+     * are interpolated from a table.
+     */
+    private double pow(double v) {
+        if ((v >= 0) && (v <= 1)) {
+            final double f = v*POW_TABLE_SIZE;
+            final int    i = (int)f;
+            final double p = powTable[i];
+            return p + (f-i)*(powTable[i+1]-p);
+        }
+        return Math.pow(v, specularExponent);
+    }
 }
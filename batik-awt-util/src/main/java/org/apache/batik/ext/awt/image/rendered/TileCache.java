@@ -21,26 +21,87 @@ package org.apache.batik.ext.awt.image.rendered;
 import java.awt.image.RenderedImage;
 
 /**
+ * The process wide cache of computed tiles.  It is bounded by the
+ * number of bytes the tiles hold (the
+ * <code>org.apache.batik.tile_cache_size</code> system property, in
+ * bytes, default 32MB).  The
+ * <code>org.apache.batik.tile_cache_policy</code> system property
+ * selects what is evicted first: <code>lru</code> (the default) or
+ * <code>cost</code> to favor keeping tiles that were expensive to
+ * compute.  See {@link LRUCache} for details.  Evicted tiles can be
+ * kept in a scratch file rather than dropped, see {@link TileSpill}.
  *
  * @version $Id$
  */
 public class TileCache {
-        private static LRUCache cache = new LRUCache(50);
 
-        public static void setSize(int sz) { cache.setSize(sz); }
+    private static LRUCache cache;
 
-        public static TileStore getTileGrid(int minTileX, int minTileY,
-                                       int xSz, int ySz, TileGenerator src) {
-                return new TileGrid(minTileX, minTileY, xSz, ySz, src, cache);
+    static {
+        long size = 32L*1024*1024;
+        int policy = LRUCache.EVICT_LRU;
+        try {
+            String s = System.getProperty
+                ("org.apache.batik.tile_cache_policy");
+            if ("cost".equals(s))
+                policy = LRUCache.EVICT_COST;
+            s = System.getProperty
+                ("org.apache.batik.tile_cache_size", String.valueOf(size));
+            size = Long.parseLong(s);
+        } catch (SecurityException se) {
+        } catch (NumberFormatException nfe) {
+        } finally {
+            cache = new LRUCache(Integer.MAX_VALUE, size);
+            cache.setEvictionPolicy(policy);
         }
+    }
 
-        public static TileStore getTileGrid(RenderedImage img,
-                                            TileGenerator src) {
-                return new TileGrid(img.getMinTileX(),  img.getMinTileY(),
+    /**
+     * Sets the maximum number of tiles kept (in addition to the bound
+     * on bytes).
+     */
+    public static void setSize(int sz) { cache.setSize(sz); }
+
+    /**
+     * Sets the maximum number of bytes the cached tiles may hold.
+     */
+    public static void setMaxBytes(long sz) { cache.setMaxBytes(sz); }
+
+    /**
+     * Sets the eviction policy, one of {@link LRUCache#EVICT_LRU} or
+     * {@link LRUCache#EVICT_COST}.
+     */
+    public static void setEvictionPolicy(int policy) {
+        cache.setEvictionPolicy(policy);
+    }
+
+    /**
+     * Sets the size (in bytes) of the scratch file evicted tiles are
+     * spilled to, 0 disables spilling.
+     */
+    public static void setSpillSize(long sz) {
+        TileSpill.getDefault().setMaxBytes(sz);
+    }
+
+    /**
+     * Returns the cache shared by all the tile stores, mostly useful
+     * to read its statistics.
+     */
+    public static LRUCache getCache() { return cache; }
+
+    public static TileStore getTileGrid(int minTileX, int minTileY,
+                                        int xSz, int ySz, TileGenerator src) {
+        return new TileGrid(minTileX, minTileY, xSz, ySz, src, cache);
+    }
+
+    public static TileStore getTileGrid(RenderedImage img,
+                                        TileGenerator src) {
+        return new TileGrid(img.getMinTileX(),  img.getMinTileY(),
                             img.getNumXTiles(), img.getNumYTiles(),
                             src, cache);
-        }
-        public static TileStore getTileMap(TileGenerator src) {
-                return new TileMap(src, cache);
-        }
+    }
+
+    public static TileStore getTileMap(TileGenerator src) {
+        return new TileMap(src, cache);
+    }
 }
@@ -18,7 +18,9 @@
  */
 package org.apache.batik.ext.awt.image.rendered;
 
+import  java.awt.Point;
 import  java.awt.image.Raster;
+import  java.util.HashMap;
 
 import org.apache.batik.util.HaltingThread;
 
@@ -27,6 +29,10 @@ import org.apache.batik.util.HaltingThread;
  * This makes it pretty quick, but it can use a fair amount of
  * memory for large tile grids.
  *
+ * <p>The grid may be used from several threads at once.  When two
+ * threads ask for the same missing tile only one of them generates it,
+ * the other waits for the result.</p>
+ *
  * @version $Id$
  */
 public class TileGrid implements TileStore {
@@ -39,6 +45,18 @@ public class TileGrid implements TileStore {
     private TileGenerator source = null;
     private LRUCache      cache = null;
 
+    /**
+     * Identifies this grid's tiles in the cache (a separate object so
+     * the cache doesn't keep the grid alive).
+     */
+    private final Object  owner = new Object();
+
+    /**
+     * Maps the Point of each tile currently being generated to its
+     * PendingTile.
+     */
+    private final HashMap inFlight = new HashMap();
+
     public TileGrid(int minTileX, int minTileY,
                     int xSz, int ySz,
                     TileGenerator source,
@@ -59,32 +77,24 @@ public class TileGrid implements TileStore {
         if ((x<0) || (x>=xSz)) return;
         if ((y<0) || (y>=ySz)) return;
 
-        TileLRUMember [] row = rasters[y];
         TileLRUMember item;
-        if (ras == null) {
-            // Clearing entry.
-            if (row == null) return;
-            item = row[x];
-            if (item == null) return;
-
-            row[x] = null;
-            cache.remove(item);
-            return;
-        }
-
-        if (row != null) {
-            item = row[x];
-            if (item == null) {
-                item = new TileLRUMember();
-                row[x] = item;
+        synchronized (this) {
+            TileLRUMember [] row = rasters[y];
+            if (ras == null) {
+                // Clearing entry.
+                if (row == null) return;
+                item = row[x];
+                if (item == null) return;
+
+                row[x] = null;
+                item.discard();
+                cache.remove(item);
+                return;
             }
-        } else {
-            row = new TileLRUMember[xSz];
-            item = new TileLRUMember();
-            row[x] = item;
-            rasters[y] = row;
+
+            item = getMember(x, y);
+            item.setRaster(ras);
         }
-        item.setRaster(ras);
 
         cache.add(item);
 
@@ -100,13 +110,17 @@ public class TileGrid implements TileStore {
         if ((x<0) || (x>=xSz)) return null;
         if ((y<0) || (y>=ySz)) return null;
 
-        TileLRUMember [] row = rasters[y];
-        if (row == null)
-            return null;
-        TileLRUMember item = row[x];
-        if (item == null)
-            return null;
-        Raster ret = item.retrieveRaster();
+        TileLRUMember item;
+        Raster ret;
+        synchronized (this) {
+            TileLRUMember [] row = rasters[y];
+            if (row == null)
+                return null;
+            item = row[x];
+            if (item == null)
+                return null;
+            ret = item.retrieveRaster();
+        }
         if (ret != null)
             cache.add(item);
         return ret;
@@ -122,43 +136,102 @@ public class TileGrid implements TileStore {
                                       (y+minTileY) + ")");
         if (COUNT) synchronized (TileGrid.class) { requests++; }
 
-        Raster       ras  = null;
-        TileLRUMember [] row  = rasters[y];
-        TileLRUMember    item = null;
-        if (row != null) {
-            item = row[x];
-            if (item != null)
-                ras = item.retrieveRaster();
-            else {
-                item = new TileLRUMember();
-                row[x] = item;
+        while (true) {
+            Raster        ras;
+            TileLRUMember item;
+            PendingTile   pending;
+            boolean       generate = false;
+            Point         pt = new Point(x, y);
+            synchronized (this) {
+                item = getMember(x, y);
+                ras  = item.retrieveRaster();
+                pending = null;
+                if (ras == null) {
+                    pending = (PendingTile)inFlight.get(pt);
+                    if (pending == null) {
+                        // Nobody is working on this tile, so we will.
+                        pending = new PendingTile();
+                        inFlight.put(pt, pending);
+                        generate = true;
+                    }
+                }
             }
-        } else {
-            row = new TileLRUMember[xSz];
-            rasters[y] = row;
-            item = new TileLRUMember();
-            row[x] = item;
-        }
 
-        if (ras == null) {
-            if (DEBUG) System.out.println("Generating: ("+(x+minTileX)+", "+
-                                          (y+minTileY) + ")");
-            if (COUNT) synchronized (TileGrid.class) { misses++; }
-            ras = source.genTile(x+minTileX, y+minTileY);
+            if (ras != null) {
+                cache.recordHit();
+                // Update the item's position in the cache..
+                cache.add(item);
+                return ras;
+            }
 
-            // In all likelyhood the contents of this tile is junk!
-            // So don't cache it (returning is probably fine since it
-            // won't come back to haunt us...
-            if (HaltingThread.hasBeenHalted())
+            if (!generate) {
+                // Another thread is generating this tile, use its
+                // result (or try again if it didn't produce one).
+                ras = pending.await();
+                if (ras == null)
+                    continue;
+                cache.recordHit();
                 return ras;
+            }
 
-            item.setRaster(ras);
+            Raster result = null;
+            try {
+                if (DEBUG) System.out.println("Generating: ("+(x+minTileX)+
+                                              ", "+(y+minTileY) + ")");
+                if (COUNT) synchronized (TileGrid.class) { misses++; }
+                cache.recordMiss();
+                long start = System.nanoTime();
+                ras = source.genTile(x+minTileX, y+minTileY);
+                long cost = System.nanoTime()-start;
+
+                // In all likelyhood the contents of this tile is junk!
+                // So don't cache it (returning is probably fine since it
+                // won't come back to haunt us...
+                if (HaltingThread.hasBeenHalted())
+                    return ras;
+
+                synchronized (this) {
+                    item.setRaster(ras);
+                    item.setCost(cost);
+                }
+                result = ras;
+            } finally {
+                synchronized (this) {
+                    inFlight.remove(pt);
+                }
+                pending.finish(result);
+            }
+
+            // Update the item's position in the cache..
+            cache.add(item);
+
+            return ras;
         }
+    }
 
-        // Update the item's position in the cache..
-        cache.add(item);
+    /**
+     * Returns the member for tile (x, y) (relative to the grid's
+     * origin), creating it if needed.  Must be called with the lock
+     * on this grid held.
+     */
+    private TileLRUMember getMember(int x, int y) {
+        TileLRUMember [] row = rasters[y];
+        if (row == null) {
+            row = new TileLRUMember[xSz];
+            rasters[y] = row;
+        }
+        TileLRUMember item = row[x];
+        if (item == null) {
+            item = newMember();
+            row[x] = item;
+        }
+        return item;
+    }
 
-        return ras;
+    private TileLRUMember newMember() {
+        TileLRUMember item = new TileLRUMember();
+        item.setOwner(owner);
+        return item;
     }
 
     static int requests;
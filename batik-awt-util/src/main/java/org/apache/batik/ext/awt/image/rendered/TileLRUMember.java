@@ -18,6 +18,7 @@
  */
 package org.apache.batik.ext.awt.image.rendered;
 
+import  java.awt.image.DataBuffer;
 import  java.awt.image.Raster;
 import  java.lang.ref.Reference;
 import  java.lang.ref.SoftReference;
@@ -27,16 +28,41 @@ import  java.lang.ref.SoftReference;
  * an LRU Cache.  When this object drops out of the LRU cache it
  * removes it's hard reference to the tile, but retains it's soft
  * reference allowing for the recovery of the tile when the JVM is
- * not under memory pressure
+ * not under memory pressure.  If the {@link TileSpill} is enabled the
+ * tile is also written there, once the cache has let go of its locks,
+ * so it can be recovered after the soft reference is cleared.
  *
  * @version $Id$
  */
-public class TileLRUMember implements LRUCache.LRUObj {
+public class TileLRUMember
+    implements LRUCache.SizedLRUObj, LRUCache.DeferredLRUObj {
     private static final boolean DEBUG = false;
 
-        protected LRUCache.LRUNode myNode  = null;
-        protected Reference        wRaster = null;
-        protected Raster           hRaster = null;
+        // hRaster may be dropped by the cache (lruRemove) while
+        // another thread is retrieving it, hence volatile.
+        protected volatile LRUCache.LRUNode myNode  = null;
+        protected volatile Reference        wRaster = null;
+        protected volatile Raster           hRaster = null;
+
+        /**
+         * The number of bytes of the last raster set.
+         */
+        protected long   size;
+
+        /**
+         * The time it took to generate the raster (in nanoseconds).
+         */
+        protected long   cost;
+
+        /**
+         * Identifies the TileStore this tile belongs to.
+         */
+        protected Object owner;
+
+        /**
+         * The copy of the raster in the TileSpill, if any.
+         */
+        private TileSpill.Entry spilled;
 
         public TileLRUMember() { }
 
@@ -44,38 +70,128 @@ public class TileLRUMember implements LRUCache.LRUObj {
             setRaster(ras);
         }
 
-        public void setRaster(Raster ras) {
+        public synchronized void setRaster(Raster ras) {
+            dropSpilled();
             hRaster = ras;
             wRaster = new SoftReference(ras);
+            size    = getRasterSize(ras);
         }
 
-        public boolean checkRaster() {
-            if (hRaster != null) return true;
+        public void setCost(long cost)      { this.cost  = cost;  }
+        public void setOwner(Object owner)  { this.owner = owner; }
+
+        public long   lruSize()  { return size;  }
+        public long   lruCost()  { return cost;  }
+        public Object lruOwner() { return owner; }
+
+        /**
+         * Returns the number of bytes held by the data of
+         * <code>ras</code>.
+         */
+        public static long getRasterSize(Raster ras) {
+            if (ras == null) return 0;
+            DataBuffer db = ras.getDataBuffer();
+            return ((long)db.getSize() * db.getNumBanks() *
+                    DataBuffer.getDataTypeSize(db.getDataType()) / 8);
+        }
+
+        /**
+         * Forgets the raster for good (unlike dropping out of the
+         * cache, nothing is spilled).
+         */
+        public synchronized void discard() {
+            dropSpilled();
+            hRaster = null;
+            wRaster = null;
+        }
 
-            if ((wRaster       != null) &&
-            (wRaster.get() != null)) return true;
+        /**
+         * Returns true if a copy of the raster is in the TileSpill.
+         */
+        public synchronized boolean isSpilled() {
+            return spilled != null;
+        }
 
-            return false;
+        /**
+         * Releases the copy of the raster in the TileSpill.
+         */
+        protected synchronized void dropSpilled() {
+            if (spilled == null) return;
+            TileSpill.release(spilled);
+            spilled = null;
         }
 
-        public Raster retrieveRaster() {
-            if (hRaster != null) return hRaster;
-            if (wRaster == null) return null;
+        public synchronized boolean checkRaster() {
+            if (hRaster != null) return true;
+            if (spilled != null) return true;
 
-            hRaster = (Raster)wRaster.get();
+            Reference ref = wRaster;
+            if ((ref       != null) &&
+            (ref.get() != null)) return true;
 
-            if (hRaster == null)  // didn't manage to retrieve it...
-            wRaster = null;
+            return false;
+        }
 
-            return hRaster;
+        public synchronized Raster retrieveRaster() {
+            Raster ras = hRaster;
+            if (ras != null) return ras;
+            Reference ref = wRaster;
+            if (ref != null) {
+                ras = (Raster)ref.get();
+                hRaster = ras;
+
+                if (ras == null)  // didn't manage to retrieve it...
+                wRaster = null;
+            }
+
+            if ((ras == null) && (spilled != null)) {
+                ras = TileSpill.load(spilled);
+                if (ras == null)  // dropped from the spill file.
+                    spilled = null;
+                hRaster = ras;
+            }
+            return ras;
         }
 
         public LRUCache.LRUNode lruGet()         { return myNode; }
         public void lruSet(LRUCache.LRUNode nde) { myNode = nde; }
-        public void lruRemove()                  {
+        public synchronized void lruRemove()     {
             myNode  = null;
             hRaster = null;
             if (DEBUG) System.out.println("Removing");
         }
+
+        /**
+         * Writes the raster to the TileSpill, unless it was brought
+         * back into the cache in the mean time.  The copy is made
+         * without holding this object's lock.
+         */
+        public void lruRemoved() {
+            TileSpill spill = TileSpill.getDefault();
+            if (!spill.isEnabled()) return;
+
+            Raster ras;
+            synchronized (this) {
+                if ((myNode != null) || (hRaster != null) ||
+                    (spilled != null))
+                    return;
+                Reference ref = wRaster;
+                ras = (ref == null) ? null : (Raster)ref.get();
+            }
+            if (ras == null) return;
+
+            TileSpill.Entry e = spill.store(ras, this);
+            if (e == null) return;
+            synchronized (this) {
+                Reference ref = wRaster;
+                if ((spilled == null) && (ref != null) &&
+                    (ref.get() == ras)) {
+                    spilled = e;
+                    return;
+                }
+            }
+            // The raster was replaced or spilled by someone else.
+            TileSpill.release(e);
+        }
 }
 
@@ -27,6 +27,12 @@ import org.apache.batik.util.CleanerThread;
 import org.apache.batik.util.HaltingThread;
 
 /**
+ * A HashMap based implementation of the TileStore.  It only uses
+ * memory for the tiles that have actually been requested.
+ *
+ * <p>The map may be used from several threads at once.  When two
+ * threads ask for the same missing tile only one of them generates it,
+ * the other waits for the result.</p>
  *
  * @version $Id$
  */
@@ -45,8 +51,15 @@ public class TileMap implements TileStore {
             public void cleared() {
                 if (DEBUG) System.err.println("Cleaned: " + this);
                 TileMap tm = (TileMap)parent.get();
-                if (tm != null)
-                    tm.rasters.remove(pt);
+                if (tm != null) {
+                    synchronized (tm) {
+                        // Keep members whose tile can still be
+                        // read back from the spill file.
+                        if ((tm.rasters.get(pt) == TileMapLRUMember.this) &&
+                            !isSpilled())
+                            tm.rasters.remove(pt);
+                    }
+                }
             }
         }
 
@@ -56,15 +69,29 @@ public class TileMap implements TileStore {
             this.pt     = pt;
         }
 
-        public void setRaster(Raster ras) {
+        public synchronized void setRaster(Raster ras) {
+            dropSpilled();
             hRaster = ras;
             wRaster = new RasterSoftRef(ras);
+            size    = getRasterSize(ras);
         }
     }
 
     private TileGenerator source = null;
     private LRUCache      cache = null;
 
+    /**
+     * Identifies this store's tiles in the cache (a separate object so
+     * the cache doesn't keep the store alive).
+     */
+    private final Object  owner = new Object();
+
+    /**
+     * Maps the Point of each tile currently being generated to its
+     * PendingTile.
+     */
+    private final HashMap inFlight = new HashMap();
+
     public TileMap(TileGenerator source,
                    LRUCache cache) {
         this.cache    = cache;
@@ -74,22 +101,27 @@ public class TileMap implements TileStore {
     public void setTile(int x, int y, Raster ras) {
         Point pt = new Point(x, y);
 
-        if (ras == null) {
-            // Clearing entry...
-            Object o = rasters.remove(pt);
-            if (o != null)
-                cache.remove((TileMapLRUMember)o);
-            return;
-        }
-
-        Object o = rasters.get(pt);
         TileMapLRUMember item;
-        if (o == null) {
-            item = new TileMapLRUMember(this, pt, ras);
-            rasters.put(pt, item);
-        } else {
-            item = (TileMapLRUMember)o;
-            item.setRaster(ras);
+        synchronized (this) {
+            if (ras == null) {
+                // Clearing entry...
+                Object o = rasters.remove(pt);
+                if (o != null) {
+                    ((TileMapLRUMember)o).discard();
+                    cache.remove((TileMapLRUMember)o);
+                }
+                return;
+            }
+
+            Object o = rasters.get(pt);
+            if (o == null) {
+                item = new TileMapLRUMember(this, pt, ras);
+                item.setOwner(owner);
+                rasters.put(pt, item);
+            } else {
+                item = (TileMapLRUMember)o;
+                item.setRaster(ras);
+            }
         }
 
         cache.add(item);
@@ -100,12 +132,16 @@ public class TileMap implements TileStore {
     // If it is not currently in the cache it returns null.
     public Raster getTileNoCompute(int x, int y) {
         Point pt = new Point(x, y);
-        Object o = rasters.get(pt);
-        if (o == null)
-            return null;
+        TileMapLRUMember item;
+        Raster ret;
+        synchronized (this) {
+            Object o = rasters.get(pt);
+            if (o == null)
+                return null;
 
-        TileMapLRUMember item = (TileMapLRUMember)o;
-        Raster ret = item.retrieveRaster();
+            item = (TileMapLRUMember)o;
+            ret = item.retrieveRaster();
+        }
         if (ret != null)
             cache.add(item);
         return ret;
@@ -116,39 +152,87 @@ public class TileMap implements TileStore {
                                       (y) + ')' );
         if (COUNT) synchronized (TileMap.class) { requests++; }
 
-        Raster       ras  = null;
         Point pt = new Point(x, y);
-        Object o = rasters.get(pt);
-        TileMapLRUMember item = null;
-        if (o != null) {
-            item = (TileMapLRUMember)o;
-            ras = item.retrieveRaster();
-        }
+        while (true) {
+            Raster           ras  = null;
+            TileMapLRUMember item = null;
+            PendingTile      pending = null;
+            boolean          generate = false;
+            synchronized (this) {
+                Object o = rasters.get(pt);
+                if (o != null) {
+                    item = (TileMapLRUMember)o;
+                    ras = item.retrieveRaster();
+                }
+                if (ras == null) {
+                    pending = (PendingTile)inFlight.get(pt);
+                    if (pending == null) {
+                        // Nobody is working on this tile, so we will.
+                        pending = new PendingTile();
+                        inFlight.put(pt, pending);
+                        generate = true;
+                    }
+                }
+            }
 
-        if (ras == null) {
-            if (DEBUG) System.out.println("Generating: ("+(x)+", "+
-                                          (y) + ")");
-            if (COUNT) synchronized (TileMap.class) { misses++; }
-            ras = source.genTile(x, y);
+            if (ras != null) {
+                cache.recordHit();
+                // Update the item's position in the cache..
+                cache.add(item);
+                return ras;
+            }
 
-            // In all likelyhood the contents of this tile is junk!
-            // So don't cache it (returning is probably fine since it
-            // shouldn't come back to haunt us...)
-            if (HaltingThread.hasBeenHalted())
+            if (!generate) {
+                // Another thread is generating this tile, use its
+                // result (or try again if it didn't produce one).
+                ras = pending.await();
+                if (ras == null)
+                    continue;
+                cache.recordHit();
                 return ras;
+            }
 
-            if (item != null)
-                item.setRaster(ras);
-            else  {
-                item = new TileMapLRUMember(this, pt, ras);
-                rasters.put(pt, item);
+            Raster result = null;
+            try {
+                if (DEBUG) System.out.println("Generating: ("+(x)+", "+
+                                              (y) + ")");
+                if (COUNT) synchronized (TileMap.class) { misses++; }
+                cache.recordMiss();
+                long start = System.nanoTime();
+                ras = source.genTile(x, y);
+                long cost = System.nanoTime()-start;
+
+                // In all likelyhood the contents of this tile is junk!
+                // So don't cache it (returning is probably fine since it
+                // shouldn't come back to haunt us...)
+                if (HaltingThread.hasBeenHalted())
+                    return ras;
+
+                synchronized (this) {
+                    Object o = rasters.get(pt);
+                    if (o != null) {
+                        item = (TileMapLRUMember)o;
+                        item.setRaster(ras);
+                    } else {
+                        item = new TileMapLRUMember(this, pt, ras);
+                        item.setOwner(owner);
+                        rasters.put(pt, item);
+                    }
+                    item.setCost(cost);
+                }
+                result = ras;
+            } finally {
+                synchronized (this) {
+                    inFlight.remove(pt);
+                }
+                pending.finish(result);
             }
-        }
 
-        // Update the item's position in the cache..
-        cache.add(item);
+            // Update the item's position in the cache..
+            cache.add(item);
 
-        return ras;
+            return ras;
+        }
     }
 
     static int requests;
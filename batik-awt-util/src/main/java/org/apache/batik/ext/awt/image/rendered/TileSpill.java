@@ -0,0 +1,623 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Point;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferShort;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.batik.util.CleanerThread;
+
+/**
+ * A second level store for tiles evicted from the {@link TileCache}.
+ * Instead of simply dropping the tile (and computing it again the next
+ * time it is needed) the data is written to a memory mapped scratch
+ * file, outside of the Java heap.  Reading it back is a copy, which is
+ * much cheaper than running a turbulence, lighting or blur chain again
+ * for very large renderings.
+ *
+ * <p>The tile caches use the spill returned by {@link #getDefault}.
+ * Spilling is disabled by default.  It is enabled by giving the
+ * scratch file a size with the
+ * <code>org.apache.batik.tile_spill_size</code> system property (in
+ * bytes) or {@link #setMaxBytes}.  The file is created in the
+ * directory named by <code>org.apache.batik.tile_spill_dir</code>
+ * (default <code>java.io.tmpdir</code>) and only mapped as far as
+ * that size.  When the file is full the oldest spilled tiles make
+ * room for new ones.  {@link #close} (or setting the size to 0) drops
+ * all the spilled tiles and deletes the file, it is otherwise deleted
+ * on exit.</p>
+ *
+ * <p>The spilled data is released once the {@link TileLRUMember} that
+ * owns it is garbage collected.  The tiles are written out by the
+ * thread that evicted them, once it no longer holds any lock of the
+ * {@link LRUCache}.</p>
+ *
+ * @version $Id$
+ */
+public final class TileSpill {
+
+    /**
+     * The scratch file is mapped in chunks of this many bytes, a tile
+     * never straddles two chunks.
+     */
+    static final int CHUNK_SIZE = 64*1024*1024;
+
+    /**
+     * Space is handed out in multiples of this many bytes.
+     */
+    static final int PAGE_SIZE = 4096;
+
+    private static final TileSpill defaultSpill;
+
+    static {
+        long value = 0;
+        String d = null;
+        try {
+            d = System.getProperty("org.apache.batik.tile_spill_dir");
+            String s = System.getProperty
+                ("org.apache.batik.tile_spill_size", String.valueOf(value));
+            value = Long.parseLong(s);
+        } catch (SecurityException se) {
+        } catch (NumberFormatException nfe) {
+        } finally {
+            defaultSpill = new TileSpill
+                (value, (d == null) ? null : new File(d));
+        }
+    }
+
+    /**
+     * Returns the spill shared by the tile caches.
+     */
+    public static TileSpill getDefault() { return defaultSpill; }
+
+    /**
+     * Guards all the state below.
+     */
+    private final Object lock = new Object();
+
+    private volatile long maxBytes;
+    private File dir;
+
+    private File scratch;
+    private RandomAccessFile file;
+
+    /**
+     * The mapped parts of the file (MappedByteBuffer), chunk
+     * <code>i</code> starts at <code>i*CHUNK_SIZE</code>.  The last one
+     * may be shorter than CHUNK_SIZE.
+     */
+    private final List chunks = new ArrayList();
+
+    /**
+     * The end of the space handed out so far.
+     */
+    private long top;
+
+    /**
+     * Maps slot sizes (Integer) to a List of the free slots' offsets
+     * (Long) of that size.
+     */
+    private final Map freeSlots = new HashMap();
+
+    /**
+     * The live entries, oldest first.
+     */
+    private final LinkedHashSet live = new LinkedHashSet();
+
+    private long spilledBytes;
+    private long spills, reloads, discards;
+
+    /**
+     * Creates a spill with a scratch file of at most
+     * <code>maxBytes</code> bytes (0 disables it) in <code>dir</code>
+     * (null for the default temporary directory).
+     */
+    public TileSpill(long maxBytes, File dir) {
+        this.maxBytes = (maxBytes < 0) ? 0 : maxBytes;
+        this.dir      = dir;
+    }
+
+    /**
+     * Describes a tile that was written to the scratch file.
+     */
+    static final class Entry {
+        final TileSpill spill;
+        final SampleModel sm;
+        final int x, y;
+        final int dataType;
+        final int size;
+        final int [] bankSizes;
+        final int [] offsets;
+        long   offset;
+        int    slot;
+        boolean valid = true;
+        Object  ref;
+
+        Entry(TileSpill spill, Raster ras) {
+            DataBuffer db = ras.getDataBuffer();
+            this.spill = spill;
+            sm       = ras.getSampleModel();
+            x        = ras.getSampleModelTranslateX();
+            y        = ras.getSampleModelTranslateY();
+            dataType = db.getDataType();
+            size     = db.getSize();
+            offsets  = db.getOffsets();
+            bankSizes = new int[db.getNumBanks()];
+            for (int b=0; b<bankSizes.length; b++)
+                bankSizes[b] = getBankLength(db, b);
+        }
+
+        long getBytes() {
+            long len = 0;
+            for (int b=0; b<bankSizes.length; b++)
+                len += bankSizes[b];
+            return len * (DataBuffer.getDataTypeSize(dataType)/8);
+        }
+    }
+
+    /**
+     * Sets the size of the scratch file, 0 disables spilling.  Tiles
+     * already spilled beyond the new size are dropped, 0 also closes
+     * the scratch file.
+     */
+    public void setMaxBytes(long bytes) {
+        synchronized (lock) {
+            maxBytes = (bytes < 0) ? 0 : bytes;
+            if (maxBytes == 0) {
+                close();
+                return;
+            }
+            Iterator i = live.iterator();
+            while (i.hasNext()) {
+                Entry e = (Entry)i.next();
+                if (e.offset + e.slot <= maxBytes) continue;
+                i.remove();
+                dropEntry(e);
+            }
+            i = freeSlots.values().iterator();
+            while (i.hasNext()) {
+                List free = (List)i.next();
+                for (int j=free.size()-1; j>=0; j--) {
+                    long off = ((Long)free.get(j)).longValue();
+                    if (off >= maxBytes) free.remove(j);
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the size of the scratch file.
+     */
+    public long getMaxBytes() { return maxBytes; }
+
+    /**
+     * Sets the directory the scratch file is created in (null for the
+     * default temporary directory).  Only used if the file hasn't
+     * been created yet.
+     */
+    public void setDirectory(File d) {
+        synchronized (lock) {
+            dir = d;
+        }
+    }
+
+    /**
+     * Returns true if evicted tiles are spilled.
+     */
+    public boolean isEnabled() { return maxBytes > 0; }
+
+    /**
+     * Returns the number of bytes currently held by spilled tiles.
+     */
+    public long getSpilledBytes() {
+        synchronized (lock) {
+            return spilledBytes;
+        }
+    }
+
+    /**
+     * Returns the number of bytes of the scratch file currently
+     * mapped.
+     */
+    public long getMappedBytes() {
+        synchronized (lock) {
+            long len = 0;
+            for (int i=0; i<chunks.size(); i++)
+                len += ((ByteBuffer)chunks.get(i)).capacity();
+            return len;
+        }
+    }
+
+    /**
+     * Returns the number of tiles written to the scratch file.
+     */
+    public long getSpillCount() {
+        synchronized (lock) {
+            return spills;
+        }
+    }
+
+    /**
+     * Returns the number of tiles read back from the scratch file.
+     */
+    public long getReloadCount() {
+        synchronized (lock) {
+            return reloads;
+        }
+    }
+
+    /**
+     * Returns the number of spilled tiles dropped to make room for
+     * newer ones.
+     */
+    public long getDiscardCount() {
+        synchronized (lock) {
+            return discards;
+        }
+    }
+
+    /**
+     * Resets the statistics counters.
+     */
+    public void resetStatistics() {
+        synchronized (lock) {
+            spills = reloads = discards = 0;
+        }
+    }
+
+    /**
+     * Drops all the spilled tiles, unmaps and deletes the scratch
+     * file.  The spill stays usable, a new file is created when the
+     * next tile is spilled.
+     */
+    public void close() {
+        synchronized (lock) {
+            Iterator i = live.iterator();
+            while (i.hasNext()) {
+                Entry e = (Entry)i.next();
+                e.valid = false;
+                e.ref   = null;
+            }
+            live.clear();
+            freeSlots.clear();
+            // The mappings go away once the buffers are collected.
+            chunks.clear();
+            top          = 0;
+            spilledBytes = 0;
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException ioe) {
+                }
+                file = null;
+            }
+            if (scratch != null) {
+                try {
+                    scratch.delete();
+                } catch (SecurityException se) {
+                }
+                scratch = null;
+            }
+        }
+    }
+
+    /**
+     * Writes <code>ras</code> to the scratch file.  Returns null if
+     * the raster can't be spilled (spilling disabled, unsupported
+     * data or no room).  The space is released when
+     * <code>owner</code> is garbage collected or when
+     * {@link #release} is called.
+     */
+    Entry store(Raster ras, Object owner) {
+        if (maxBytes == 0) return null;
+        if (!canSpill(ras)) return null;
+
+        Entry e = new Entry(this, ras);
+        long bytes = e.getBytes();
+        if (bytes > CHUNK_SIZE) return null;
+        int slot = (int)((bytes+PAGE_SIZE-1)/PAGE_SIZE)*PAGE_SIZE;
+
+        synchronized (lock) {
+            if (!allocate(e, slot))
+                return null;
+
+            DataBuffer db = ras.getDataBuffer();
+            ByteBuffer bb = getBuffer(e);
+            for (int b=0; b<e.bankSizes.length; b++) {
+                int len = e.bankSizes[b];
+                switch (e.dataType) {
+                case DataBuffer.TYPE_INT:
+                    bb.asIntBuffer().put
+                        (((DataBufferInt)db).getData(b), 0, len);
+                    bb.position(bb.position()+len*4);
+                    break;
+                case DataBuffer.TYPE_BYTE:
+                    bb.put(((DataBufferByte)db).getData(b), 0, len);
+                    break;
+                case DataBuffer.TYPE_USHORT:
+                    bb.asShortBuffer().put
+                        (((DataBufferUShort)db).getData(b), 0, len);
+                    bb.position(bb.position()+len*2);
+                    break;
+                case DataBuffer.TYPE_SHORT:
+                    bb.asShortBuffer().put
+                        (((DataBufferShort)db).getData(b), 0, len);
+                    bb.position(bb.position()+len*2);
+                    break;
+                }
+            }
+            e.ref = new EntryRef(owner, e);
+            live.add(e);
+            spilledBytes += slot;
+            spills++;
+        }
+        return e;
+    }
+
+    /**
+     * Reads a spilled tile back.  Returns null if the entry was
+     * dropped in the mean time.
+     */
+    static Raster load(Entry e) {
+        return e.spill.read(e);
+    }
+
+    private Raster read(Entry e) {
+        DataBuffer db;
+        synchronized (lock) {
+            if (!e.valid) return null;
+
+            ByteBuffer bb = getBuffer(e);
+            int nb = e.bankSizes.length;
+            switch (e.dataType) {
+            case DataBuffer.TYPE_INT: {
+                int [][] data = new int[nb][];
+                for (int b=0; b<nb; b++) {
+                    data[b] = new int[e.bankSizes[b]];
+                    bb.asIntBuffer().get(data[b]);
+                    bb.position(bb.position()+data[b].length*4);
+                }
+                db = new DataBufferInt(data, e.size, e.offsets);
+                break;
+            }
+            case DataBuffer.TYPE_BYTE: {
+                byte [][] data = new byte[nb][];
+                for (int b=0; b<nb; b++) {
+                    data[b] = new byte[e.bankSizes[b]];
+                    bb.get(data[b]);
+                }
+                db = new DataBufferByte(data, e.size, e.offsets);
+                break;
+            }
+            case DataBuffer.TYPE_USHORT: {
+                short [][] data = new short[nb][];
+                for (int b=0; b<nb; b++) {
+                    data[b] = new short[e.bankSizes[b]];
+                    bb.asShortBuffer().get(data[b]);
+                    bb.position(bb.position()+data[b].length*2);
+                }
+                db = new DataBufferUShort(data, e.size, e.offsets);
+                break;
+            }
+            default: {
+                short [][] data = new short[nb][];
+                for (int b=0; b<nb; b++) {
+                    data[b] = new short[e.bankSizes[b]];
+                    bb.asShortBuffer().get(data[b]);
+                    bb.position(bb.position()+data[b].length*2);
+                }
+                db = new DataBufferShort(data, e.size, e.offsets);
+                break;
+            }
+            }
+            reloads++;
+        }
+        return Raster.createWritableRaster(e.sm, db, new Point(e.x, e.y));
+    }
+
+    /**
+     * Releases the space held by <code>e</code>.
+     */
+    static void release(Entry e) {
+        e.spill.drop(e);
+    }
+
+    private void drop(Entry e) {
+        synchronized (lock) {
+            if (!e.valid) return;
+            live.remove(e);
+            dropEntry(e);
+        }
+    }
+
+    /**
+     * Returns true if <code>ras</code> is a raster this class can
+     * write out and read back: a whole (non child) raster over one of
+     * the standard integral DataBuffers.
+     */
+    static boolean canSpill(Raster ras) {
+        if (ras.getParent() != null) return false;
+        SampleModel sm = ras.getSampleModel();
+        if ((ras.getWidth()  != sm.getWidth()) ||
+            (ras.getHeight() != sm.getHeight()))
+            return false;
+        DataBuffer db = ras.getDataBuffer();
+        if (db instanceof DataBufferInt)    return true;
+        if (db instanceof DataBufferByte)   return true;
+        if (db instanceof DataBufferUShort) return true;
+        if (db instanceof DataBufferShort)  return true;
+        return false;
+    }
+
+    private static int getBankLength(DataBuffer db, int b) {
+        if (db instanceof DataBufferInt)
+            return ((DataBufferInt)db).getData(b).length;
+        if (db instanceof DataBufferByte)
+            return ((DataBufferByte)db).getData(b).length;
+        if (db instanceof DataBufferUShort)
+            return ((DataBufferUShort)db).getData(b).length;
+        return ((DataBufferShort)db).getData(b).length;
+    }
+
+    /**
+     * Finds room for <code>slot</code> bytes: a free slot of that
+     * size, fresh space at the end of the file or, when the file is
+     * full, the oldest entry of that size.  Called with 'lock' held.
+     */
+    private boolean allocate(Entry e, int slot) {
+        Integer key = new Integer(slot);
+        List free = (List)freeSlots.get(key);
+        if ((free != null) && (free.size() > 0)) {
+            e.offset = ((Long)free.remove(free.size()-1)).longValue();
+            e.slot   = slot;
+            return true;
+        }
+
+        long off = top;
+        if ((off % CHUNK_SIZE) + slot > CHUNK_SIZE)
+            off = (off/CHUNK_SIZE + 1)*CHUNK_SIZE;
+        if (off + slot <= maxBytes) {
+            if (!ensureMapped(off + slot))
+                return false;
+            top      = off + slot;
+            e.offset = off;
+            e.slot   = slot;
+            return true;
+        }
+
+        // Full, recycle the oldest spilled tile of the same size.
+        Iterator i = live.iterator();
+        while (i.hasNext()) {
+            Entry old = (Entry)i.next();
+            if (old.slot != slot) continue;
+            i.remove();
+            old.valid = false;
+            old.ref   = null;
+            spilledBytes -= slot;
+            discards++;
+            e.offset = old.offset;
+            e.slot   = slot;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Marks <code>e</code> invalid and puts its slot on the free list.
+     * <code>e</code> must already have been removed from the live set.
+     * Called with 'lock' held.
+     */
+    private void dropEntry(Entry e) {
+        e.valid = false;
+        e.ref   = null;
+        spilledBytes -= e.slot;
+        if (e.offset + e.slot > maxBytes)
+            return;   // Beyond the current size, don't reuse.
+        Integer key = new Integer(e.slot);
+        List free = (List)freeSlots.get(key);
+        if (free == null) {
+            free = new ArrayList();
+            freeSlots.put(key, free);
+        }
+        free.add(new Long(e.offset));
+    }
+
+    /**
+     * Makes sure the file is mapped up to <code>end</code>, which is
+     * at most maxBytes.  Chunks are only mapped as far as maxBytes
+     * and mapped again, larger, if maxBytes grows.  Closes the spill
+     * and disables spilling if the scratch file can't be created or
+     * grown.  Called with 'lock' held.
+     */
+    private boolean ensureMapped(long end) {
+        int last = (int)((end - 1)/CHUNK_SIZE);
+        try {
+            for (int c=0; c<=last; c++) {
+                long pos = (long)c*CHUNK_SIZE;
+                long need = Math.min(CHUNK_SIZE, end - pos);
+                if ((c < chunks.size()) &&
+                    (((ByteBuffer)chunks.get(c)).capacity() >= need))
+                    continue;
+
+                if (file == null) {
+                    scratch = File.createTempFile("batik-tiles", ".tmp", dir);
+                    scratch.deleteOnExit();
+                    file = new RandomAccessFile(scratch, "rw");
+                }
+                long len = Math.min(CHUNK_SIZE, maxBytes - pos);
+                MappedByteBuffer mbb = file.getChannel().map
+                    (FileChannel.MapMode.READ_WRITE, pos, len);
+                mbb.order(ByteOrder.nativeOrder());
+                if (c < chunks.size()) chunks.set(c, mbb);
+                else                   chunks.add(mbb);
+            }
+            return true;
+        } catch (IOException ioe) {
+        } catch (SecurityException se) {
+        }
+        close();
+        maxBytes = 0;
+        return false;
+    }
+
+    /**
+     * Returns a buffer positioned at the start of <code>e</code>'s
+     * slot.  Called with 'lock' held.
+     */
+    private ByteBuffer getBuffer(Entry e) {
+        int c = (int)(e.offset / CHUNK_SIZE);
+        ByteBuffer bb = ((ByteBuffer)chunks.get(c)).duplicate();
+        bb.order(ByteOrder.nativeOrder());
+        bb.position((int)(e.offset % CHUNK_SIZE));
+        return bb;
+    }
+
+    /**
+     * Releases an entry once the object that owns it is collected.
+     */
+    static class EntryRef extends CleanerThread.WeakReferenceCleared {
+        Entry entry;
+        EntryRef(Object owner, Entry entry) {
+            super(owner);
+            this.entry = entry;
+        }
+        public void cleared() {
+            release(entry);
+        }
+    }
+}
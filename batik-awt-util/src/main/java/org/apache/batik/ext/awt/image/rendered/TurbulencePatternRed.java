@@ -29,6 +29,11 @@ import java.awt.image.DataBufferInt;
 import java.awt.image.DirectColorModel;
 import java.awt.image.SinglePixelPackedSampleModel;
 import java.awt.image.WritableRaster;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.batik.util.WorkerPool;
+
 /**
  * This class creates a RenderedImage in conformance to the one
  * defined for the feTurbulence filter of the SVG specification.  What
@@ -210,8 +215,59 @@ public final class TurbulencePatternRed extends AbstractRed {
     private static final int BSize = 0x100;
     private static final int BM = 0xff;
     private static final double PerlinN = 0x1000;
-    private final int[] latticeSelector = new int[BSize + 1];
-    private final double[] gradient = new double[(BSize+1)*8];
+    private final int[] latticeSelector;
+    private final double[] gradient;
+
+    /**
+     * Number of lattices kept by {@link #getLattice}.
+     */
+    static final int LATTICE_CACHE_SIZE = 16;
+
+    /**
+     * The initialized lattices of the most recently used seeds
+     * (Integer to Lattice), in access order.
+     */
+    private static final Map lattices =
+        new LinkedHashMap(LATTICE_CACHE_SIZE, .75f, true) {
+            protected boolean removeEldestEntry(Map.Entry eldest) {
+                return size() > LATTICE_CACHE_SIZE;
+            }
+        };
+
+    /**
+     * Number of rows given to a worker at once.
+     */
+    static final int GRAIN = 16;
+
+    /**
+     * The lattice selector and gradient tables built from a seed.
+     * They are never modified once built so they can be shared by all
+     * the instances using that seed, across threads.
+     */
+    static final class Lattice {
+        final int[]    latticeSelector = new int[BSize + 1];
+        final double[] gradient        = new double[(BSize+1)*8];
+
+        Lattice(int seed) {
+            initLattice(seed, latticeSelector, gradient);
+        }
+    }
+
+    /**
+     * Returns the lattice for <code>seed</code>, building it if it
+     * isn't among the recently used ones.
+     */
+    static Lattice getLattice(int seed) {
+        Integer key = new Integer(seed);
+        synchronized (lattices) {
+            Lattice l = (Lattice)lattices.get(key);
+            if (l == null) {
+                l = new Lattice(seed);
+                lattices.put(key, l);
+            }
+            return l;
+        }
+    }
 
     public double getBaseFrequencyX(){
         return baseFrequencyX;
@@ -246,26 +302,35 @@ public final class TurbulencePatternRed extends AbstractRed {
     }
 
     public final int setupSeed(int seed) {
+        return initSeed(seed);
+    }
+
+    public final int random(int seed) {
+        return nextRandom(seed);
+    }
+
+    private static int initSeed(int seed) {
         if (seed <= 0) seed = -(seed % (RAND_m - 1)) + 1;
         if (seed > RAND_m - 1) seed = RAND_m - 1;
         return seed;
     }
 
-    public final int random(int seed) {
+    private static int nextRandom(int seed) {
       int result = RAND_a * (seed % RAND_q) - RAND_r * (seed / RAND_q);
         if (result <= 0) result += RAND_m;
         return result;
     }
 
-    private void initLattice(int seed) {
+    private static void initLattice(int seed, int[] latticeSelector,
+                                    double[] gradient) {
         double u, v, s;
         int i, j, k, s1, s2;
-        seed = setupSeed(seed);
+        seed = initSeed(seed);
 
         for(k = 0; k < 4; k++){
             for(i = 0; i < BSize; i++){
-                u = (((seed = random(seed)) % (BSize + BSize)) - BSize);
-                v = (((seed = random(seed)) % (BSize + BSize)) - BSize);
+                u = (((seed = nextRandom(seed)) % (BSize + BSize)) - BSize);
+                v = (((seed = nextRandom(seed)) % (BSize + BSize)) - BSize);
 
                 s = 1/Math.sqrt(u*u + v*v);
                 gradient[i*8 + k*2    ] = u*s;
@@ -278,7 +343,7 @@ public final class TurbulencePatternRed extends AbstractRed {
 
         while(--i > 0){
             k = latticeSelector[i];
-            j = (seed = random(seed)) % BSize;
+            j = (seed = nextRandom(seed)) % BSize;
             latticeSelector[i] = latticeSelector[j];
             latticeSelector[j] = k;
 
@@ -1052,24 +1117,71 @@ public final class TurbulencePatternRed extends AbstractRed {
                 ("Cannot generate a noise pattern into a null raster");
 
 
-        int w = dest.getWidth();
-        int h = dest.getHeight();
+        final int w = dest.getWidth();
+        final int h = dest.getHeight();
 
         // Access the integer buffer for the destination Raster
         DataBufferInt dstDB = (DataBufferInt)dest.getDataBuffer();
         SinglePixelPackedSampleModel sppsm;
-        int minX = dest.getMinX();
-        int minY = dest.getMinY();
+        final int minX = dest.getMinX();
+        final int minY = dest.getMinY();
         sppsm = (SinglePixelPackedSampleModel)dest.getSampleModel();
-        int dstOff = dstDB.getOffset() +
+        final int dstOff = dstDB.getOffset() +
             sppsm.getOffset(minX - dest.getSampleModelTranslateX(),
                             minY - dest.getSampleModelTranslateY());
 
         final int[] destPixels = dstDB.getBankData()[0];
-        int dstAdjust = sppsm.getScanlineStride() - w;
+        final int scanStride = sppsm.getScanlineStride();
+
+        // The points are stepped from the transformed origin, one
+        // pixel at a time.  The start of each row is found the same
+        // way here (it only takes additions), so the blocks of rows
+        // evaluated in parallel see exactly the points of a single
+        // pass over the raster.
+        final double[] rowStart = new double[2*h];
+        double[] p = {minX, minY};
+        txf.transform(p, 0, p, 0, 1);
+        double point_0 = p[0];
+        double point_1 = p[1];
+        final double tx0 = tx[0];
+        final double tx1 = tx[1];
+        final double ty0 = ty[0]-(w*tx0);
+        final double ty1 = ty[1]-(w*tx1);
+        for (int i=0; i<h; i++) {
+            rowStart[2*i]   = point_0;
+            rowStart[2*i+1] = point_1;
+            for (int j=0; j<w; j++) {
+                point_0 += tx0;
+                point_1 += tx1;
+            }
+            point_0 += ty0;
+            point_1 += ty1;
+        }
+
+        WorkerPool.parallelFor(0, h, GRAIN, new WorkerPool.RangeTask() {
+                public void run(int start, int end) {
+                    fillRows(destPixels, dstOff + start*scanStride,
+                             scanStride, rowStart[2*start],
+                             rowStart[2*start+1], w, end-start);
+                }
+            });
+
+        return dest;
+    }
+
+    /**
+     * Generates <code>h</code> rows of <code>w</code> pixels of noise
+     * into <code>destPixels</code>, starting at <code>dp</code>.  The
+     * first pixel is at (<code>point_0</code>, <code>point_1</code>) in
+     * user space.
+     */
+    void fillRows(final int[] destPixels, int dp, final int scanStride,
+                  double point_0, double point_1,
+                  final int w, final int h) {
+        int dstAdjust = scanStride - w;
 
         // Generate pixel pattern now
-        int i, end, dp=dstOff;
+        int i, end;
         final int[] rgb = new int[4];
         final double[] fSum = {0, 0, 0, 0};
         final double[] noise = {0, 0, 0, 0};
@@ -1082,11 +1194,6 @@ public final class TurbulencePatternRed extends AbstractRed {
         ty0 = ty[0]-(w*tx0);
         ty1 = ty[1]-(w*tx1);
 
-        double[] p = {minX, minY};
-        txf.transform(p, 0, p, 0, 1);
-        double point_0 = p[0];
-        double point_1 = p[1];
-
         if(isFractalNoise){
             if(stitchInfo == null){
                 if (channels.length == 4) {
@@ -1198,8 +1305,6 @@ public final class TurbulencePatternRed extends AbstractRed {
                 }
             }
         }
-
-        return dest;
     }
 
     /**
@@ -1327,7 +1432,9 @@ public final class TurbulencePatternRed extends AbstractRed {
             //                     " maxLatticeY = " + maxLatticeY);
         }
 
-        initLattice(seed);
+        Lattice lattice = getLattice(seed);
+        latticeSelector = lattice.latticeSelector;
+        gradient        = lattice.gradient;
 
         ColorModel cm;
         if (alpha)
@@ -0,0 +1,291 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.geom;
+
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Arc2D;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.IllegalPathStateException;
+import java.awt.geom.PathIterator;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that the Java2D view of an {@link ExtendedGeneralPath} is the
+ * <code>GeneralPath</code> it used to fill as segments were added,
+ * whether or not the path holds arcs.
+ *
+ * @version $Id$
+ */
+public class ExtendedGeneralPathTestCase {
+
+    /**
+     * Fills a <code>GeneralPath</code> the way ExtendedGeneralPath did
+     * before paths without arcs were served from its packed segments.
+     */
+    static class OldPath {
+        GeneralPath path = new GeneralPath();
+        List types = new ArrayList();
+        float lastX, lastY, cx, cy, mx, my;
+
+        int last(int i) {
+            int n = types.size() - 1 - i;
+            return (n < 0) ? -1 : ((Integer)types.get(n)).intValue();
+        }
+
+        void add(int type, float x, float y) {
+            types.add(new Integer(type));
+            cx = lastX = x;
+            cy = lastY = y;
+        }
+
+        void checkMoveTo() {
+            switch (last(0)) {
+            case PathIterator.SEG_MOVETO:
+                path.moveTo(lastX, lastY);
+                break;
+            case PathIterator.SEG_CLOSE:
+                if (last(1) == PathIterator.SEG_MOVETO)
+                    path.moveTo(lastX, lastY);
+                break;
+            default:
+                break;
+            }
+        }
+
+        void moveTo(float x, float y) {
+            add(PathIterator.SEG_MOVETO, x, y);
+            mx = x;
+            my = y;
+        }
+
+        void lineTo(float x, float y) {
+            checkMoveTo();
+            path.lineTo(x, y);
+            add(PathIterator.SEG_LINETO, x, y);
+        }
+
+        void quadTo(float x1, float y1, float x2, float y2) {
+            checkMoveTo();
+            path.quadTo(x1, y1, x2, y2);
+            add(PathIterator.SEG_QUADTO, x2, y2);
+        }
+
+        void curveTo(float x1, float y1, float x2, float y2,
+                     float x3, float y3) {
+            checkMoveTo();
+            path.curveTo(x1, y1, x2, y2, x3, y3);
+            add(PathIterator.SEG_CUBICTO, x3, y3);
+        }
+
+        void closePath() {
+            if (last(0) == PathIterator.SEG_CLOSE)
+                return;
+            if ((last(0) != -1) && (last(0) != PathIterator.SEG_MOVETO))
+                path.closePath();
+            types.add(new Integer(PathIterator.SEG_CLOSE));
+            cx = mx;
+            cy = my;
+        }
+
+        void arcTo(float rx, float ry, float angle, boolean largeArcFlag,
+                   boolean sweepFlag, float x, float y) {
+            if (rx == 0 || ry == 0) {
+                lineTo(x, y);
+                return;
+            }
+            checkMoveTo();
+            if (cx == x && cy == y)
+                return;
+            Arc2D arc = ExtendedGeneralPath.computeArc
+                (cx, cy, rx, ry, angle, largeArcFlag, sweepFlag, x, y);
+            if (arc == null)
+                return;
+            AffineTransform t = AffineTransform.getRotateInstance
+                (Math.toRadians(angle), arc.getCenterX(), arc.getCenterY());
+            path.append(t.createTransformedShape(arc), true);
+            add(ExtendedPathIterator.SEG_ARCTO, x, y);
+        }
+    }
+
+    /**
+     * Adds the segments of <code>d</code>, in a simplified path data
+     * syntax with absolute coordinates only, to both paths.
+     */
+    static void build(String d, ExtendedGeneralPath p, OldPath o) {
+        StringTokenizer st = new StringTokenizer(d);
+        while (st.hasMoreTokens()) {
+            char c = st.nextToken().charAt(0);
+            float [] v = new float[7];
+            int n = "MLQCAZ".indexOf(c);
+            int count = new int [] { 2, 2, 4, 6, 7, 0 }[n];
+            for (int i = 0; i < count; i++)
+                v[i] = Float.parseFloat(st.nextToken());
+            switch (c) {
+            case 'M':
+                p.moveTo(v[0], v[1]);
+                o.moveTo(v[0], v[1]);
+                break;
+            case 'L':
+                p.lineTo(v[0], v[1]);
+                o.lineTo(v[0], v[1]);
+                break;
+            case 'Q':
+                p.quadTo(v[0], v[1], v[2], v[3]);
+                o.quadTo(v[0], v[1], v[2], v[3]);
+                break;
+            case 'C':
+                p.curveTo(v[0], v[1], v[2], v[3], v[4], v[5]);
+                o.curveTo(v[0], v[1], v[2], v[3], v[4], v[5]);
+                break;
+            case 'A':
+                p.arcTo(v[0], v[1], v[2], v[3] != 0, v[4] != 0, v[5], v[6]);
+                o.arcTo(v[0], v[1], v[2], v[3] != 0, v[4] != 0, v[5], v[6]);
+                break;
+            default:
+                p.closePath();
+                o.closePath();
+                break;
+            }
+        }
+    }
+
+    static String segments(Shape s) {
+        StringBuffer sb = new StringBuffer();
+        float [] coords = new float[6];
+        for (PathIterator pi = s.getPathIterator(null);
+             !pi.isDone(); pi.next()) {
+            int type = pi.currentSegment(coords);
+            sb.append("MLQCZ".charAt(type));
+            int n = new int [] { 2, 2, 4, 6, 0 }[type];
+            for (int i = 0; i < n; i++)
+                sb.append(' ').append(coords[i]);
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Checks that the path built from <code>d</code> is seen by
+     * Java2D as the old GeneralPath.
+     */
+    static ExtendedGeneralPath check(String d) {
+        ExtendedGeneralPath p = new ExtendedGeneralPath();
+        OldPath o = new OldPath();
+        build(d, p, o);
+        assertEquals(d, segments(o.path), segments(p));
+        assertEquals(d, o.path.getBounds2D(), p.getBounds2D());
+        // The transformed shape keeps the same segments too.
+        AffineTransform at = AffineTransform.getTranslateInstance(3, 4);
+        assertEquals(d, segments(o.path.createTransformedShape(at)),
+                     segments(p.createTransformedShape(at)));
+        return p;
+    }
+
+    @Test
+    public void testDroppedMoveTo() {
+        check("M 0 0 M 10 10 L 20 10");
+        check("M 0 0 L 10 0 M 5 5 M 6 6 L 7 7 M 30 30");
+        check("M 1 1");
+        check("");
+    }
+
+    @Test
+    public void testDroppedClose() {
+        check("M 0 0 Z");
+        check("M 0 0 Z L 10 10");
+        check("M 0 0 Z M 5 5 L 10 10 Z Z");
+        check("M 0 0 L 10 0 M 5 5 Z M 20 20 L 30 30");
+    }
+
+    @Test
+    public void testLineToAfterClose() {
+        check("M 0 0 L 10 0 L 10 10 Z L 0 10");
+        check("M 0 0 L 10 0 Z C 1 2 3 4 5 6 Z Q 7 8 9 10");
+    }
+
+    @Test
+    public void testArcPromotion() {
+        String start = "M 0 0 M 5 5 L 10 0 Z L 10 10 M 50 50 Z ";
+        ExtendedGeneralPath p = check(start + "A 10 5 30 0 1 30 30");
+        assertTrue(p.path != null);
+        // Segments and arcs after the promotion.
+        check(start + "A 10 5 30 1 0 30 30 M 40 40 Z L 60 60 "
+              + "A 20 20 0 0 0 80 60 Z L 0 90");
+        // An arc right after a move, a close, or its own end point.
+        check("M 0 0 A 5 5 0 0 1 10 0");
+        check("M 0 0 L 5 5 Z A 5 5 0 0 1 10 0");
+        check("M 3 3 A 5 5 0 0 1 3 3 L 8 8");
+        // Zero radii make a line, and don't need the GeneralPath.
+        p = check("M 0 0 A 0 5 0 0 1 10 0 Z");
+        assertTrue(p.path == null);
+    }
+
+    @Test
+    public void testCurveBounds() {
+        // The control points lie far outside of the curves.
+        ExtendedGeneralPath p = check
+            ("M 0 0 C 0 100 100 100 100 0 Q 50 -80 0 0");
+        GeneralPath gp = new GeneralPath();
+        gp.moveTo(0, 0);
+        gp.curveTo(0, 100, 100, 100, 100, 0);
+        gp.quadTo(50, -80, 0, 0);
+        assertEquals(gp.getBounds2D(), p.getBounds2D());
+
+        // The cached bounds follow the changes of the path.
+        p.lineTo(200, 0);
+        gp.lineTo(200, 0);
+        assertEquals(gp.getBounds2D(), p.getBounds2D());
+        p.reset();
+        assertEquals(new GeneralPath().getBounds2D(), p.getBounds2D());
+    }
+
+    @Test
+    public void testContains() {
+        ExtendedGeneralPath p = check("M 0 0 L 10 0 L 10 10 L 0 10 Z");
+        assertTrue(p.contains(5, 5));
+        assertFalse(p.contains(15, 5));
+        assertTrue(p.intersects(8, 8, 5, 5));
+    }
+
+    @Test
+    public void testMissingMoveTo() {
+        ExtendedGeneralPath p = new ExtendedGeneralPath();
+        try {
+            p.lineTo(1, 1);
+            fail("lineTo without moveTo should fail");
+        } catch (IllegalPathStateException ex) {
+        }
+        p = new ExtendedGeneralPath();
+        p.closePath();
+        try {
+            p.curveTo(1, 1, 2, 2, 3, 3);
+            fail("curveTo without moveTo should fail");
+        } catch (IllegalPathStateException ex) {
+        }
+    }
+}
@@ -0,0 +1,293 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image;
+
+import java.awt.CompositeContext;
+import java.awt.Point;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the packed int kernels of {@link SVGComposite} against the
+ * per pixel arithmetic of the kernels they replaced, on full rasters
+ * (composited as one scanline) and on child rasters.
+ *
+ * @version $Id$
+ */
+public class SVGCompositeTestCase {
+
+    static final int W = 23;
+    static final int H = 17;
+
+    static final int norm = (1<<24)/255;
+    static final int pt5  = (1<<23);
+
+    /**
+     * Returns a premultiplied pixel, with some fully transparent and
+     * fully opaque ones.
+     */
+    static int pixel(Random rand, boolean premultiplied) {
+        int a;
+        switch (rand.nextInt(4)) {
+        case 0:  a = 0;   break;
+        case 1:  a = 255; break;
+        default: a = rand.nextInt(256);
+        }
+        int max = premultiplied ? a : 255;
+        return (a << 24) | (rand.nextInt(max + 1) << 16) |
+            (rand.nextInt(max + 1) << 8) | rand.nextInt(max + 1);
+    }
+
+    static WritableRaster createRaster(ColorModel cm, int w, int h,
+                                       long seed, boolean premultiplied) {
+        WritableRaster wr = cm.createCompatibleWritableRaster(w, h);
+        Random rand = new Random(seed);
+        int [] p = new int[1];
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                p[0] = pixel(rand, premultiplied);
+                wr.setDataElements(x, y, p);
+            }
+        }
+        return wr;
+    }
+
+    /**
+     * Builds the lookup table of the arithmetic kernel.
+     */
+    static byte [] arithLut(float k1, float k2, float k3, float k4) {
+        k1 = k1/255.0f;
+        k4 = k4*255.0f+0.5f;
+        byte [] lut = new byte[256*256];
+        for (int i = 0; i < lut.length; i++) {
+            int val = (int)((i>>8)*(i&0xFF)*k1 + (i>>8)*k2 +
+                            (i&0xFF)*k3 + k4);
+            if ((val & 0xFFFFFF00) != 0)
+                if ((val & 0x80000000) != 0) val = 0;
+                else                         val = 255;
+            lut[i] = (byte)val;
+        }
+        return lut;
+    }
+
+    /**
+     * Composites one pixel the way the previous kernels did.
+     */
+    static int previous(int rule, boolean srcPre, byte [] lut,
+                        int srcP, int dstP) {
+        int srcM, dstM;
+        switch (rule) {
+        case CompositeRule.RULE_OVER:
+            dstM = (255-(srcP>>>24))*norm;
+            if (!srcPre) {
+                srcM = (srcP>>>24)*norm;
+                return
+                    ((((( srcP&0xFF000000)      +
+                        ((dstP>>>24)     )*dstM + pt5)&0xFF000000)     ) |
+                     (((((srcP>> 16)&0xFF)*srcM +
+                        ((dstP>> 16)&0xFF)*dstM + pt5)&0xFF000000)>>> 8) |
+                     (((((srcP>>  8)&0xFF)*srcM +
+                        ((dstP>>  8)&0xFF)*dstM + pt5)&0xFF000000)>>>16) |
+                     (((((srcP     )&0xFF)*srcM +
+                        ((dstP     )&0xFF)*dstM + pt5)           )>>>24));
+            }
+            return
+                (((     srcP & 0xFF000000) +
+                  (((((dstP>>>24)     )*dstM+pt5)&0xFF000000)     ))|
+                 ((     srcP & 0x00FF0000) +
+                  (((((dstP>> 16)&0xFF)*dstM+pt5)&0xFF000000)>>> 8))|
+                 ((     srcP & 0x0000FF00) +
+                  (((((dstP>>  8)&0xFF)*dstM+pt5)&0xFF000000)>>>16))|
+                 ((     srcP & 0x000000FF) +
+                  (((((dstP     )&0xFF)*dstM+pt5)         )>>>24)));
+
+        case CompositeRule.RULE_IN:
+        case CompositeRule.RULE_OUT:
+            srcM = (dstP>>>24);
+            if (rule == CompositeRule.RULE_OUT)
+                srcM = 255 - srcM;
+            srcM *= norm;
+            return
+                ((((((srcP>>>24)     )*srcM + pt5)&0xFF000000)     ) |
+                 (((((srcP>> 16)&0xFF)*srcM + pt5)&0xFF000000)>>> 8) |
+                 (((((srcP>>  8)&0xFF)*srcM + pt5)&0xFF000000)>>>16) |
+                 (((((srcP     )&0xFF)*srcM + pt5)           )>>>24));
+
+        case CompositeRule.RULE_ATOP:
+            srcM = (     dstP>>>24) *norm;
+            dstM = (255-(srcP>>>24))*norm;
+            return
+                ((dstP&0xFF000000)                                   |
+                 (((((srcP>> 16)&0xFF)*srcM +
+                    ((dstP>> 16)&0xFF)*dstM + pt5)&0xFF000000)>>> 8) |
+                 (((((srcP>>  8)&0xFF)*srcM +
+                    ((dstP>>  8)&0xFF)*dstM + pt5)&0xFF000000)>>>16) |
+                 (((((srcP     )&0xFF)*srcM +
+                    ((dstP     )&0xFF)*dstM + pt5)           )>>>24));
+
+        case CompositeRule.RULE_XOR:
+            srcM = (255-(dstP>>>24))*norm;
+            dstM = (255-(srcP>>>24))*norm;
+            return
+                ((((((srcP>>>24)     )*srcM +
+                    ((dstP>>>24)     )*dstM + pt5)&0xFF000000)     ) |
+                 (((((srcP>> 16)&0xFF)*srcM +
+                    ((dstP>> 16)&0xFF)*dstM + pt5)&0xFF000000)>>> 8) |
+                 (((((srcP>>  8)&0xFF)*srcM +
+                    ((dstP>>  8)&0xFF)*dstM + pt5)&0xFF000000)>>>16) |
+                 (((((srcP     )&0xFF)*srcM +
+                    ((dstP     )&0xFF)*dstM + pt5)           )>>>24));
+
+        case CompositeRule.RULE_ARITHMETIC: {
+            int a = 0xFF & lut[(((srcP>> 16)&0xFF00)|((dstP>>>24)       ))];
+            int r = 0xFF & lut[(((srcP>>  8)&0xFF00)|((dstP>> 16)&0x00FF))];
+            int g = 0xFF & lut[(((srcP     )&0xFF00)|((dstP>>  8)&0x00FF))];
+            int b = 0xFF & lut[(((srcP<<  8)&0xFF00)|((dstP     )&0x00FF))];
+            if (r>a) a = r;
+            if (g>a) a = g;
+            if (b>a) a = b;
+            return (a<<24)|(r<<16)|(g<<8)|(b);
+        }
+
+        case CompositeRule.RULE_MULTIPLY:
+        case CompositeRule.RULE_SCREEN: {
+            int srcA = (srcP>>>24);
+            int dstA = (dstP>>>24);
+            int srcR = (srcP>> 16)&0xFF;
+            int dstR = (dstP>> 16)&0xFF;
+            int srcG = (srcP>>  8)&0xFF;
+            int dstG = (dstP>>  8)&0xFF;
+            int srcB = (srcP     )&0xFF;
+            int dstB = (dstP     )&0xFF;
+            if (rule == CompositeRule.RULE_SCREEN)
+                return
+                    (((srcR + dstR - ((srcR*dstR*norm + pt5)>>>24))<<16)|
+                     ((srcG + dstG - ((srcG*dstG*norm + pt5)>>>24))<< 8)|
+                     ((srcB + dstB - ((srcB*dstB*norm + pt5)>>>24))    )|
+                     ((srcA + dstA - ((srcA*dstA*norm + pt5)>>>24))<<24));
+            srcM = 255-dstA;
+            dstM = 255-srcA;
+            return
+                (((((srcR*srcM + dstR*dstM + srcR*dstR)
+                    *norm + pt5)&0xFF000000)>>> 8) |
+                 ((((srcG*srcM + dstG*dstM + srcG*dstG)
+                    *norm + pt5)&0xFF000000)>>>16) |
+                 ((((srcB*srcM + dstB*dstM + srcB*dstB)
+                    *norm + pt5)           )>>>24) |
+                 ((srcA + dstA - ((srcA*dstA*norm + pt5)>>>24))<<24));
+        }
+
+        case CompositeRule.RULE_DARKEN:
+        case CompositeRule.RULE_LIGHTEN: {
+            boolean darken = (rule == CompositeRule.RULE_DARKEN);
+            int srcV = (srcP>>>24);
+            int dstV = (dstP>>>24);
+            srcM = (255-dstV)*norm;
+            dstM = (255-srcV)*norm;
+            int dstA = (srcV + dstV - ((srcV*dstV*norm + pt5)>>>24));
+            int result = (dstA & 0xFF) << 24;
+            for (int shift = 16; shift >= 0; shift -= 8) {
+                srcV = (srcP>>shift)&0xFF;
+                dstV = (dstP>>shift)&0xFF;
+                int v   = ((srcM*srcV + pt5)>>>24) + dstV;
+                int tmp = ((dstM*dstV + pt5)>>>24) + srcV;
+                if (darken ? (v > tmp) : (v < tmp)) v = tmp;
+                result |= (v & 0xFF) << shift;
+            }
+            return result;
+        }
+
+        default:
+            throw new IllegalArgumentException("rule " + rule);
+        }
+    }
+
+    static void check(CompositeRule rule, boolean srcPre, int x, int y,
+                      int w, int h) {
+        ColorModel srcCM = srcPre
+            ? GraphicsUtil.sRGB_Pre : GraphicsUtil.sRGB_Unpre;
+        ColorModel dstCM = GraphicsUtil.sRGB_Pre;
+        WritableRaster src   = createRaster(srcCM, W, H, 1, srcPre);
+        WritableRaster dstIn = createRaster(dstCM, W, H, 2, true);
+        WritableRaster out   = dstCM.createCompatibleWritableRaster(W, H);
+        WritableRaster dstOut = out;
+        Raster srcR = src;
+        Raster dstInR = dstIn;
+        if ((w != W) || (h != H)) {
+            // Children placed at the origin of the composited area,
+            // so none of the three is contiguous over it.
+            srcR   = src.createChild(x, y, w, h, 0, 0, null);
+            dstInR = dstIn.createChild(x, y, w, h, 0, 0, null);
+            dstOut = out.createWritableChild(x, y, w, h, 0, 0, null);
+        }
+
+        float [] k = rule.getCoefficients();
+        byte [] lut = (k == null) ? null : arithLut(k[0], k[1], k[2], k[3]);
+        CompositeContext ctx = new SVGComposite(rule).createContext
+            (srcCM, dstCM, null);
+        ctx.compose(srcR, dstInR, dstOut);
+        ctx.dispose();
+
+        int [] s = new int[1];
+        int [] d = new int[1];
+        int [] o = new int[1];
+        for (int j = 0; j < h; j++) {
+            for (int i = 0; i < w; i++) {
+                src.getDataElements(x + i, y + j, s);
+                dstIn.getDataElements(x + i, y + j, d);
+                out.getDataElements(x + i, y + j, o);
+                int expected = previous(rule.getRule(), srcPre, lut,
+                                        s[0], d[0]);
+                if (expected != o[0])
+                    assertEquals(rule + " at " + i + "," + j,
+                                 Integer.toHexString(expected),
+                                 Integer.toHexString(o[0]));
+            }
+        }
+    }
+
+    static void checkAll(int x, int y, int w, int h) {
+        CompositeRule [] rules = {
+            CompositeRule.OVER, CompositeRule.IN, CompositeRule.OUT,
+            CompositeRule.ATOP, CompositeRule.XOR, CompositeRule.MULTIPLY,
+            CompositeRule.SCREEN, CompositeRule.DARKEN,
+            CompositeRule.LIGHTEN,
+            CompositeRule.ARITHMETIC(0.5f, 0.25f, 0.75f, -0.125f),
+            CompositeRule.ARITHMETIC(0, 1, 1, 0),
+        };
+        for (int i = 0; i < rules.length; i++)
+            check(rules[i], true, x, y, w, h);
+        check(CompositeRule.OVER, false, x, y, w, h);
+    }
+
+    @Test
+    public void testFullRaster() {
+        checkAll(0, 0, W, H);
+    }
+
+    @Test
+    public void testChildRaster() {
+        checkAll(3, 5, 11, 7);
+    }
+}
@@ -0,0 +1,189 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image;
+
+import java.awt.Color;
+import java.awt.geom.Rectangle2D;
+import java.util.concurrent.CountDownLatch;
+
+import org.apache.batik.ext.awt.image.renderable.DeferRable;
+import org.apache.batik.ext.awt.image.renderable.Filter;
+import org.apache.batik.ext.awt.image.renderable.FloodRable8Bit;
+import org.apache.batik.util.ParsedURL;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the byte budget of {@link URLImageCache} and that each URL
+ * is loaded by a single thread.
+ *
+ * @version $Id$
+ */
+public class URLImageCacheTestCase {
+
+    static ParsedURL url(String name) {
+        return new ParsedURL("http://example.org/" + name + ".png");
+    }
+
+    /**
+     * Returns an image of w x h pixels, so 4*w*h bytes.
+     */
+    static Filter image(int w, int h) {
+        return new FloodRable8Bit(new Rectangle2D.Double(0, 0, w, h),
+                                  Color.blue);
+    }
+
+    static void load(URLImageCache cache, ParsedURL purl, Filter f) {
+        assertNull(cache.request(purl));
+        cache.put(purl, f);
+    }
+
+    @Test
+    public void testByteBudget() {
+        URLImageCache cache = new URLImageCache(1000);
+        load(cache, url("a"), image(10, 10));
+        load(cache, url("b"), image(10, 10));
+        assertEquals(800, cache.getSize());
+
+        load(cache, url("c"), image(10, 10));
+        assertEquals(800, cache.getSize());
+        assertEquals(1, cache.getEvictionCount());
+        assertFalse(cache.isDone(url("a")));
+        assertTrue(cache.isDone(url("b")));
+        assertTrue(cache.isDone(url("c")));
+
+        cache.clear(url("b"));
+        assertEquals(400, cache.getSize());
+        cache.flush();
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test
+    public void testLeastRecentlyUsed() {
+        URLImageCache cache = new URLImageCache(1000);
+        Filter a = image(10, 10);
+        load(cache, url("a"), a);
+        load(cache, url("b"), image(10, 10));
+        // Using 'a' makes 'b' the oldest.
+        assertSame(a, cache.request(url("a")));
+        load(cache, url("c"), image(10, 10));
+        assertTrue(cache.isDone(url("a")));
+        assertFalse(cache.isDone(url("b")));
+    }
+
+    @Test
+    public void testLargeImage() {
+        URLImageCache cache = new URLImageCache(1000);
+        load(cache, url("a"), image(10, 10));
+        // Larger than the budget on its own, still kept.
+        load(cache, url("big"), image(100, 100));
+        assertTrue(cache.isDone(url("big")));
+        assertFalse(cache.isDone(url("a")));
+        assertEquals(40000, cache.getSize());
+    }
+
+    @Test
+    public void testUnknownSize() {
+        URLImageCache cache = new URLImageCache(1000);
+        DeferRable defer = new DeferRable();
+        load(cache, url("defer"), defer);
+        // Counted once the size is known.
+        assertEquals(0, cache.getSize());
+        defer.setBounds(new Rectangle2D.Double(0, 0, 10, 20));
+        // 800 + 400 bytes, over the budget.
+        load(cache, url("a"), image(10, 10));
+        assertEquals(400, cache.getSize());
+        assertEquals(1, cache.getEvictionCount());
+        assertFalse(cache.isDone(url("defer")));
+    }
+
+    @Test
+    public void testPutAfterFlush() {
+        URLImageCache cache = new URLImageCache(1000);
+        assertNull(cache.request(url("a")));
+        cache.flush();
+        cache.put(url("a"), image(10, 10));
+        assertFalse(cache.isPresent(url("a")));
+        assertEquals(0, cache.getSize());
+    }
+
+    @Test(timeout = 30000)
+    public void testSingleFlight() throws Exception {
+        final URLImageCache cache = new URLImageCache(1000000);
+        final ParsedURL purl = url("shared");
+        assertNull(cache.request(purl));
+
+        final Filter [] results = new Filter[6];
+        Thread [] threads = new Thread[results.length];
+        final CountDownLatch started = new CountDownLatch(threads.length);
+        for (int i = 0; i < threads.length; i++) {
+            final int n = i;
+            threads[i] = new Thread() {
+                    public void run() {
+                        started.countDown();
+                        results[n] = cache.request(purl);
+                    }
+                };
+            threads[i].start();
+        }
+        started.await();
+        // Give the threads time to block on the pending load.
+        Thread.sleep(100);
+        assertTrue(cache.isPresent(purl));
+        assertFalse(cache.isDone(purl));
+
+        Filter f = image(10, 10);
+        cache.put(purl, f);
+        for (int i = 0; i < threads.length; i++)
+            threads[i].join();
+        for (int i = 0; i < results.length; i++)
+            assertSame(f, results[i]);
+        assertEquals(1, cache.getMissCount());
+        assertEquals(results.length, cache.getHitCount());
+        assertEquals(1, cache.getLoadCount());
+    }
+
+    @Test(timeout = 30000)
+    public void testClearHandsOver() throws Exception {
+        final URLImageCache cache = new URLImageCache(1000000);
+        final ParsedURL purl = url("failed");
+        assertNull(cache.request(purl));
+
+        final Filter [] result = { image(1, 1) };
+        Thread t = new Thread() {
+                public void run() {
+                    result[0] = cache.request(purl);
+                }
+            };
+        t.start();
+        Thread.sleep(100);
+        // The first loader gives up, the waiting thread takes over.
+        cache.clear(purl);
+        t.join();
+        assertNull(result[0]);
+        assertEquals(2, cache.getMissCount());
+        assertTrue(cache.isPresent(purl));
+        cache.clear(purl);
+    }
+}
@@ -0,0 +1,95 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.renderable;
+
+import java.awt.Color;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.Kernel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.renderable.RenderContext;
+
+import org.apache.batik.ext.awt.image.PadMode;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link ConvolveMatrixRable8Bit} only skips areas of
+ * interest away from its source when they really are transparent.
+ *
+ * @version $Id$
+ */
+public class ConvolveMatrixRable8BitTestCase {
+
+    static ConvolveMatrixRable8Bit createConvolve(float bias) {
+        // Like the bridge does, the flood is padded to the filter
+        // region.
+        Filter src = new PadRable8Bit
+            (new FloodRable8Bit(new Rectangle2D.Double(0, 0, 20, 20),
+                                Color.red),
+             new Rectangle2D.Double(0, 0, 50, 50), PadMode.ZERO_PAD);
+        float [] k = new float[9];
+        for (int i = 0; i < k.length; i++)
+            k[i] = 1f / 9;
+        ConvolveMatrixRable8Bit cm = new ConvolveMatrixRable8Bit(src);
+        cm.setKernel(new Kernel(3, 3, k));
+        cm.setTarget(new Point(1, 1));
+        cm.setBias(bias);
+        cm.setEdgeMode(PadMode.ZERO_PAD);
+        return cm;
+    }
+
+    static RenderedImage render(Filter f, Rectangle2D aoi) {
+        return f.createRendering
+            (new RenderContext(new AffineTransform(), aoi));
+    }
+
+    @Test
+    public void testTransparentOutside() {
+        ConvolveMatrixRable8Bit cm = createConvolve(0);
+        assertNull(render(cm, new Rectangle2D.Double(100, 100, 10, 10)));
+        // Only the part the kernel reaches is rendered.
+        RenderedImage ri = render
+            (cm, new Rectangle2D.Double(40, 40, 30, 30));
+        assertNotNull(ri);
+        assertTrue(ri.getWidth() < 30);
+        assertTrue(ri.getHeight() < 30);
+    }
+
+    @Test
+    public void testBiasOutside() {
+        ConvolveMatrixRable8Bit cm = createConvolve(0.5f);
+        RenderedImage ri = render
+            (cm, new Rectangle2D.Double(40, 40, 30, 30));
+        assertNotNull(ri);
+        assertEquals(new Rectangle(40, 40, 30, 30),
+                     new Rectangle(ri.getMinX(), ri.getMinY(),
+                                   ri.getWidth(), ri.getHeight()));
+        // The bias applies to the alpha too.
+        Raster r = ri.getData(new Rectangle(65, 65, 1, 1));
+        assertTrue(r.getSample(65, 65, 3) > 0);
+    }
+}
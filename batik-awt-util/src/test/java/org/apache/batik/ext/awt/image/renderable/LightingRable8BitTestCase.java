@@ -0,0 +1,200 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.renderable;
+
+import java.awt.Color;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.renderable.RenderContext;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.batik.ext.awt.image.DistantLight;
+import org.apache.batik.ext.awt.image.PadMode;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the lighting primitives reading the same rendering of a
+ * source share its bump map, and that they render it again when the
+ * source, the transform, the hints or the area of interest change.
+ *
+ * @version $Id$
+ */
+public class LightingRable8BitTestCase {
+
+    static final Rectangle2D REGION = new Rectangle2D.Double(0, 0, 60, 60);
+
+    /**
+     * Counts the renderings of its source.
+     */
+    static class CountingRable extends AbstractRable {
+        int count;
+
+        CountingRable(Filter src) {
+            super(src);
+        }
+
+        public Rectangle2D getBounds2D() {
+            return ((Filter)getSources().get(0)).getBounds2D();
+        }
+
+        public RenderedImage createRendering(RenderContext rc) {
+            count++;
+            return ((Filter)getSources().get(0)).createRendering(rc);
+        }
+    }
+
+    static CountingRable createSource() {
+        // An opaque square in a transparent region, so the surface
+        // has edges to light.
+        return new CountingRable
+            (new PadRable8Bit
+             (new FloodRable8Bit(new Rectangle2D.Double(15, 20, 25, 20),
+                                 Color.white),
+              REGION, PadMode.ZERO_PAD));
+    }
+
+    static Filter createDiffuse(Filter src) {
+        return new DiffuseLightingRable8Bit
+            (src, REGION, new DistantLight(30, 45, Color.white),
+             1.5, 4, null);
+    }
+
+    static Filter createSpecular(Filter src) {
+        return new SpecularLightingRable8Bit
+            (src, REGION, new DistantLight(60, 30, Color.yellow),
+             1, 12, 4, null);
+    }
+
+    static RenderContext createContext(double scale, Rectangle2D aoi,
+                                       RenderingHints hints) {
+        return new RenderContext
+            (AffineTransform.getScaleInstance(scale, scale), aoi, hints);
+    }
+
+    static RenderingHints createHints() {
+        return new RenderingHints(RenderingHints.KEY_RENDERING,
+                                  RenderingHints.VALUE_RENDER_QUALITY);
+    }
+
+    static void assertSameImage(RenderedImage expected,
+                                RenderedImage actual) {
+        assertEquals(expected.getMinX(),   actual.getMinX());
+        assertEquals(expected.getMinY(),   actual.getMinY());
+        assertEquals(expected.getWidth(),  actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        Raster e = expected.getData();
+        Raster a = actual.getData();
+        int [] ep = null, ap = null;
+        for (int y = e.getMinY(); y < e.getMinY() + e.getHeight(); y++) {
+            for (int x = e.getMinX(); x < e.getMinX() + e.getWidth(); x++) {
+                ep = e.getPixel(x, y, ep);
+                ap = a.getPixel(x, y, ap);
+                for (int b = 0; b < ep.length; b++)
+                    assertEquals("pixel " + x + "," + y + " band " + b,
+                                 ep[b], ap[b]);
+            }
+        }
+    }
+
+    @Test
+    public void testShared() {
+        CountingRable src = createSource();
+        Filter diffuse  = createDiffuse(src);
+        Filter specular = createSpecular(src);
+
+        RenderingHints hints = createHints();
+        RenderedImage d = diffuse.createRendering
+            (createContext(1.5, REGION, hints));
+        RenderedImage s = specular.createRendering
+            (createContext(1.5, REGION, hints));
+        assertEquals(1, src.count);
+
+        // A smaller area of interest is in the same texture.
+        RenderedImage s2 = specular.createRendering
+            (createContext(1.5, new Rectangle2D.Double(10, 10, 30, 30),
+                           hints));
+        assertEquals(1, src.count);
+
+        // The shared bump map gives the same pixels as a bump map of
+        // their own.
+        CountingRable alone = createSource();
+        assertSameImage(createDiffuse(alone).createRendering
+                        (createContext(1.5, REGION, createHints())), d);
+        assertSameImage(createSpecular(alone).createRendering
+                        (createContext(1.5, REGION, createHints())), s);
+        assertSameImage(createSpecular(alone).createRendering
+                        (createContext(1.5,
+                                       new Rectangle2D.Double(10, 10, 30, 30),
+                                       createHints())), s2);
+        assertEquals(3, alone.count);
+    }
+
+    @Test
+    public void testNotShared() {
+        CountingRable src = createSource();
+        Filter diffuse  = createDiffuse(src);
+        Filter specular = createSpecular(src);
+
+        // The bump maps are only shared while a rendering using them
+        // is around.
+        List renderings = new ArrayList();
+
+        RenderingHints hints = createHints();
+        renderings.add(diffuse.createRendering
+                       (createContext(1, REGION, hints)));
+        assertEquals(1, src.count);
+
+        // Other hints, as for another paint.
+        renderings.add(specular.createRendering
+                       (createContext(1, REGION, createHints())));
+        assertEquals(2, src.count);
+
+        // Another resolution.
+        renderings.add(specular.createRendering
+                       (createContext(2, REGION, hints)));
+        assertEquals(3, src.count);
+
+        // A larger area of interest.
+        RenderingHints other = createHints();
+        renderings.add(diffuse.createRendering
+                       (createContext(1, new Rectangle2D.Double(5, 5, 10, 10),
+                                      other)));
+        renderings.add(specular.createRendering
+                       (createContext(1, new Rectangle2D.Double(0, 0, 20, 20),
+                                      other)));
+        assertEquals(5, src.count);
+
+        // The source changed.
+        renderings.add(specular.createRendering
+                       (createContext(1, REGION, hints)));
+        assertEquals(5, src.count);
+        src.touch();
+        renderings.add(specular.createRendering
+                       (createContext(1, REGION, hints)));
+        assertEquals(6, src.count);
+
+        assertEquals(7, renderings.size());
+    }
+}
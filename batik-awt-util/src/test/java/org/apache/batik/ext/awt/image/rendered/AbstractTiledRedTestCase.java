@@ -0,0 +1,138 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that {@link AbstractTiledRed} only calls <code>genRect</code>
+ * from several threads at once when the subclass allows it, and that
+ * the pixels come out right either way.
+ *
+ * @version $Id$
+ */
+public class AbstractTiledRedTestCase {
+
+    static int expected(int x, int y) {
+        return 0xFF000000 | (x * 31 + y * 17);
+    }
+
+    /**
+     * Fills its pixels from their coordinates, keeping track of how
+     * many threads are in genRect at once.
+     */
+    static class CountingRed extends AbstractTiledRed {
+        final boolean concurrent;
+        final AtomicInteger active    = new AtomicInteger();
+        final AtomicInteger maxActive = new AtomicInteger();
+
+        CountingRed(Rectangle bounds, boolean concurrent) {
+            super((CachableRed)null, bounds, GraphicsUtil.sRGB_Unpre,
+                  GraphicsUtil.sRGB_Unpre.createCompatibleSampleModel
+                  (64, 64), 0, 0, null);
+            this.concurrent = concurrent;
+        }
+
+        protected boolean canGenRectConcurrently() {
+            return concurrent;
+        }
+
+        public void genRect(WritableRaster wr) {
+            int n = active.incrementAndGet();
+            int max;
+            while ((max = maxActive.get()) < n)
+                if (maxActive.compareAndSet(max, n))
+                    break;
+            try {
+                // Leave other threads a chance to come in.
+                Thread.sleep(1);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+            }
+            int x0 = wr.getMinX();
+            int y0 = wr.getMinY();
+            int w  = wr.getWidth();
+            int [] row = new int[w];
+            for (int y = y0; y < y0 + wr.getHeight(); y++) {
+                for (int i = 0; i < w; i++)
+                    row[i] = expected(x0 + i, y);
+                wr.setDataElements(x0, y, w, 1, row);
+            }
+            active.decrementAndGet();
+        }
+    }
+
+    static void checkPixels(Raster r) {
+        int [] pixel = new int[1];
+        for (int y = r.getMinY(); y < r.getMinY() + r.getHeight(); y++) {
+            for (int x = r.getMinX(); x < r.getMinX() + r.getWidth(); x++) {
+                r.getDataElements(x, y, pixel);
+                if (pixel[0] != expected(x, y))
+                    assertEquals("pixel " + x + "," + y,
+                                 expected(x, y), pixel[0]);
+            }
+        }
+    }
+
+    static WritableRaster draw(CountingRed red) {
+        Rectangle b = red.getBounds();
+        SampleModel sm = red.getSampleModel()
+            .createCompatibleSampleModel(b.width, b.height);
+        WritableRaster wr = Raster.createWritableRaster
+            (sm, new Point(b.x, b.y));
+        red.copyData(wr);
+        return wr;
+    }
+
+    @Test
+    public void testNotConcurrent() {
+        CountingRed red = new CountingRed
+            (new Rectangle(0, 0, 1000, 700), false);
+        checkPixels(draw(red));
+        assertEquals(1, red.maxActive.get());
+    }
+
+    @Test
+    public void testConcurrent() {
+        CountingRed red = new CountingRed
+            (new Rectangle(0, 0, 1000, 700), true);
+        checkPixels(draw(red));
+    }
+
+    @Test
+    public void testPartlyCached() {
+        CountingRed red = new CountingRed
+            (new Rectangle(0, 0, 1000, 700), false);
+        // Some tiles are in the cache, the rest is drawn in place.
+        red.getTile(2, 3);
+        red.getTile(7, 1);
+        checkPixels(draw(red));
+        assertEquals(1, red.maxActive.get());
+    }
+}
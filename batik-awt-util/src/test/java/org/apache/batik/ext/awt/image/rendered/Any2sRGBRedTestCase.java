@@ -0,0 +1,167 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.WritableRaster;
+
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+/**
+ * Checks the single pass conversions of {@link Any2sRGBRed} and
+ * {@link Any2LsRGBRed} against dividing out alpha and applying the
+ * table in two passes, and the fused round trips against the two
+ * conversions chained.
+ *
+ * @version $Id$
+ */
+public class Any2sRGBRedTestCase {
+
+    static final int SIZE = 256;
+
+    /**
+     * Returns an image with every alpha value on a row and every
+     * premultiplied component value up to it across the row.
+     */
+    static BufferedImage createImage(ColorModel cm) {
+        WritableRaster wr = cm.createCompatibleWritableRaster(SIZE, SIZE);
+        int [] pixels = getPixels(wr);
+        for (int a = 0; a < SIZE; a++) {
+            for (int c = 0; c < SIZE; c++) {
+                int r = Math.min(c, a);
+                int g = Math.min((c*7) % 256, a);
+                int b = Math.min(255-c, a);
+                if (!cm.isAlphaPremultiplied()) {
+                    r = c;
+                    g = (c*7) % 256;
+                    b = 255-c;
+                }
+                pixels[a*SIZE + c] = (a<<24) | (r<<16) | (g<<8) | b;
+            }
+        }
+        return new BufferedImage(cm, wr, cm.isAlphaPremultiplied(), null);
+    }
+
+    static int [] getPixels(WritableRaster wr) {
+        return ((DataBufferInt)wr.getDataBuffer()).getBankData()[0];
+    }
+
+    static WritableRaster copy(WritableRaster wr) {
+        WritableRaster ret = wr.createCompatibleWritableRaster();
+        ret.setRect(wr);
+        return ret;
+    }
+
+    static WritableRaster render(CachableRed red) {
+        WritableRaster wr = red.getColorModel()
+            .createCompatibleWritableRaster(SIZE, SIZE);
+        return red.copyData(wr);
+    }
+
+    /**
+     * The conversion as it was done before: divide out the alpha,
+     * then apply the table.
+     */
+    static WritableRaster twoPass(BufferedImage bi, int [] lut) {
+        WritableRaster wr = copy(bi.getRaster());
+        GraphicsUtil.coerceData(wr, bi.getColorModel(), false);
+        Any2sRGBRed.applyLut_INT(wr, lut);
+        return wr;
+    }
+
+    static void check(WritableRaster expected, WritableRaster actual) {
+        int [] e = getPixels(expected);
+        int [] a = getPixels(actual);
+        for (int i = 0; i < SIZE*SIZE; i++) {
+            if (e[i] != a[i])
+                assertEquals("alpha " + (i / SIZE) + " value " + (i % SIZE),
+                             Integer.toHexString(e[i]),
+                             Integer.toHexString(a[i]));
+        }
+    }
+
+    @Test
+    public void testDivideLut() {
+        BufferedImage bi = createImage(GraphicsUtil.Linear_sRGB_Pre);
+        int [][] luts = { Any2sRGBRed.linearToSRGBLut,
+                          Any2LsRGBRed.sRGBToLsRGBLut };
+        for (int i = 0; i < luts.length; i++) {
+            WritableRaster wr = copy(bi.getRaster());
+            Any2sRGBRed.applyLut_INT(wr, luts[i], true);
+            check(twoPass(bi, luts[i]), wr);
+        }
+    }
+
+    @Test
+    public void testConversions() {
+        BufferedImage lin = createImage(GraphicsUtil.Linear_sRGB_Pre);
+        check(twoPass(lin, Any2sRGBRed.linearToSRGBLut),
+              render(new Any2sRGBRed(new BufferedImageCachableRed(lin))));
+
+        BufferedImage srgb = createImage(GraphicsUtil.sRGB_Pre);
+        check(twoPass(srgb, Any2LsRGBRed.sRGBToLsRGBLut),
+              render(new Any2LsRGBRed(new BufferedImageCachableRed(srgb))));
+
+        // Unpremultiplied data only goes through the table.
+        BufferedImage unpre = createImage(GraphicsUtil.Linear_sRGB_Unpre);
+        check(twoPass(unpre, Any2sRGBRed.linearToSRGBLut),
+              render(new Any2sRGBRed(new BufferedImageCachableRed(unpre))));
+    }
+
+    /**
+     * Returns a copy of the output of <code>red</code> that the
+     * converters can't see through.
+     */
+    static CachableRed detach(CachableRed red) {
+        return new BufferedImageCachableRed
+            (new BufferedImage(red.getColorModel(), render(red),
+                               red.getColorModel().isAlphaPremultiplied(),
+                               null));
+    }
+
+    @Test
+    public void testRoundTrip() {
+        BufferedImage lin = createImage(GraphicsUtil.Linear_sRGB_Pre);
+        CachableRed toSRGB = new Any2sRGBRed
+            (new BufferedImageCachableRed(lin));
+
+        Any2LsRGBRed fused = new Any2LsRGBRed(toSRGB);
+        Any2LsRGBRed chained = new Any2LsRGBRed(detach(toSRGB));
+        assertNotNull(fused.roundTripSrc);
+        assertNull(chained.roundTripSrc);
+        check(render(chained), render(fused));
+
+        BufferedImage srgb = createImage(GraphicsUtil.sRGB_Pre);
+        CachableRed toLinear = new Any2LsRGBRed
+            (new BufferedImageCachableRed(srgb));
+
+        Any2sRGBRed fused2 = new Any2sRGBRed(toLinear);
+        Any2sRGBRed chained2 = new Any2sRGBRed(detach(toLinear));
+        assertNotNull(fused2.roundTripSrc);
+        assertNull(chained2.roundTripSrc);
+        check(render(chained2), render(fused2));
+    }
+}
@@ -0,0 +1,80 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.image.BufferedImage;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that the normals {@link BumpMap} computes in blocks match
+ * the ones computed for the whole texture at once, so the blocks
+ * don't show as seams.
+ *
+ * @version $Id$
+ */
+public class BumpMapTestCase {
+
+    static BufferedImage createTexture(int w, int h, long seed) {
+        BufferedImage bi = new BufferedImage
+            (w, h, BufferedImage.TYPE_INT_ARGB);
+        Random rand = new Random(seed);
+        for (int y = 0; y < h; y++)
+            for (int x = 0; x < w; x++)
+                bi.setRGB(x, y, (rand.nextInt(256) << 24) | 0xFFFFFF);
+        return bi;
+    }
+
+    static void check(double [] expected, double [] actual, int w) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            if (expected[i] != actual[i]) {
+                int p = i / 4;
+                assertEquals("pixel " + (p % w) + "," + (p / w) +
+                             " value " + (i % 4),
+                             expected[i], actual[i], 0);
+            }
+        }
+    }
+
+    @Test
+    public void testWholeTexture() {
+        // Several blocks across, with partial blocks on the right
+        // and bottom edges.
+        BufferedImage tex = createTexture(200, 150, 1);
+        BumpMap bm = new BumpMap(tex, 3, 1.5, 0.75);
+        check(bm.computeNormals(0, 0, 200, 150),
+              bm.getNormals(0, 0, 200, 150), 200);
+    }
+
+    @Test
+    public void testSubArea() {
+        BufferedImage tex = createTexture(200, 150, 2);
+        BumpMap bm = new BumpMap(tex, 2, 1, 1);
+        // Straddles block boundaries in both directions.
+        check(bm.computeNormals(37, 61, 100, 70),
+              bm.getNormals(37, 61, 100, 70), 100);
+        // Exactly on block boundaries.
+        int n = BumpMap.NORMAL_TILE_SIZE;
+        check(bm.computeNormals(n - 1, n - 1, 2, 2),
+              bm.getNormals(n - 1, n - 1, 2, 2), 2);
+    }
+}
@@ -0,0 +1,182 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.ext.awt.image.renderable.ColorMatrixRable8Bit;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks the fixed point kernels of {@link ColorMatrixRed} against the
+ * matrix applied in double precision.
+ *
+ * @version $Id$
+ */
+public class ColorMatrixRedTestCase {
+
+    static final int W = 64;
+    static final int H = 80;
+
+    /**
+     * How close to an integer a result must be to count as exact.
+     */
+    static final double EXACT = 1e-5;
+
+    /**
+     * How far below the next integer a result may be rounded up to
+     * it.  This covers the bias of the fixed point kernels.
+     */
+    static final double BIAS = 2e-4;
+
+    /**
+     * Returns unpremultiplied pixels: every gray level at a few
+     * alphas, then random pixels.
+     */
+    static int [] createPixels() {
+        int [] pixels = new int[W*H];
+        int [] alphas = { 255, 0, 128, 37 };
+        int n = 0;
+        for (int i = 0; i < alphas.length; i++)
+            for (int c = 0; c < 256; c++)
+                pixels[n++] = (alphas[i]<<24) | (c<<16) | (c<<8) | c;
+        Random rand = new Random(7);
+        while (n < pixels.length)
+            pixels[n++] = rand.nextInt();
+        return pixels;
+    }
+
+    static int [] apply(float [][] matrix, int [] src) {
+        WritableRaster wr = GraphicsUtil.sRGB_Unpre
+            .createCompatibleWritableRaster(W, H);
+        int [] pixels = ((DataBufferInt)wr.getDataBuffer()).getData();
+        System.arraycopy(src, 0, pixels, 0, pixels.length);
+        BufferedImage bi = new BufferedImage
+            (GraphicsUtil.sRGB_Unpre, wr, false, null);
+
+        ColorMatrixRed red = new ColorMatrixRed
+            (new BufferedImageCachableRed(bi), matrix);
+        WritableRaster dst = red.getColorModel()
+            .createCompatibleWritableRaster(W, H);
+        red.copyData(dst);
+        return ((DataBufferInt)dst.getDataBuffer()).getData();
+    }
+
+    static void check(String name, float [][] matrix) {
+        int [] src = createPixels();
+        int [] dst = apply(matrix, src);
+        int [] shift = { 16, 8, 0, 24 };
+        for (int p = 0; p < src.length; p++) {
+            for (int i = 0; i < 4; i++) {
+                double v = matrix[i][4];
+                for (int j = 0; j < 4; j++)
+                    v += (double)matrix[i][j] *
+                        ((src[p] >>> shift[j]) & 0xFF);
+
+                int actual = (dst[p] >>> shift[i]) & 0xFF;
+                double n = Math.rint(v);
+                int expected;
+                if (Math.abs(v - n) <= EXACT) {
+                    // Exact results must not be truncated one code
+                    // value down.
+                    expected = (int)n;
+                } else {
+                    expected = (int)Math.floor(v);
+                    if ((n > v) && (n - v < BIAS) && (actual == (int)n))
+                        expected = (int)n;
+                }
+                expected = Math.max(0, Math.min(255, expected));
+                if (actual != expected)
+                    assertEquals(name + " pixel " +
+                                 Integer.toHexString(src[p]) +
+                                 " component " + i + " (" + v + ")",
+                                 expected, actual);
+            }
+        }
+    }
+
+    @Test
+    public void testGray() {
+        float t = 1/3f;
+        check("gray", new float[][] {
+            { t, t, t, 0, 0 },
+            { t, t, t, 0, 0 },
+            { t, t, t, 0, 0 },
+            { 0, 0, 0, 1, 0 } });
+
+        // Opaque white stays white.
+        int [] src = new int[W*H];
+        Arrays.fill(src, 0xFFFFFFFF);
+        assertEquals(0xFFFFFFFF, apply(new float[][] {
+            { t, t, t, 0, 0 },
+            { t, t, t, 0, 0 },
+            { t, t, t, 0, 0 },
+            { 0, 0, 0, 1, 0 } }, src)[0]);
+    }
+
+    @Test
+    public void testSepia() {
+        check("sepia", new float[][] {
+            { .393f, .769f, .189f, 0, 0 },
+            { .349f, .686f, .168f, 0, 0 },
+            { .272f, .534f, .131f, 0, 0 },
+            { 0,     0,     0,     1, 0 } });
+    }
+
+    @Test
+    public void testSaturate() {
+        float [] s = { 0, 0.3f, 0.5f, 1.7f };
+        for (int i = 0; i < s.length; i++)
+            check("saturate " + s[i],
+                  ColorMatrixRable8Bit.buildSaturate(s[i]).getMatrix());
+    }
+
+    @Test
+    public void testHueRotate() {
+        float [] a = { 0.1f, (float)Math.PI/6, 2, -1.3f };
+        for (int i = 0; i < a.length; i++)
+            check("hueRotate " + a[i],
+                  ColorMatrixRable8Bit.buildHueRotate(a[i]).getMatrix());
+    }
+
+    @Test
+    public void testOffsets() {
+        // Inverts the colors, the results are exact integers.
+        check("invert", new float[][] {
+            { -1,  0,  0, 0, 255 },
+            {  0, -1,  0, 0, 255 },
+            {  0,  0, -1, 0, 255 },
+            {  0,  0,  0, 1, 0 } });
+        // Only changes alpha.
+        check("alpha", new float[][] {
+            { 1, 0, 0, 0,     0 },
+            { 0, 1, 0, 0,     0 },
+            { 0, 0, 1, 0,     0 },
+            { 0, 0, 0, 0.7f, 12.5f } });
+        check("luminanceToAlpha",
+              ColorMatrixRable8Bit.buildLuminanceToAlpha().getMatrix());
+    }
+}
@@ -0,0 +1,145 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares the gaussian kernel path of {@link GaussianBlurRed8Bit}
+ * with a convolution computed in double precision.
+ *
+ * @version $Id$
+ */
+public class GaussianBlurRed8BitTestCase {
+
+    static final RenderingHints QUALITY = new RenderingHints
+        (RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+
+    static CachableRed createSource(int w, int h, long seed) {
+        WritableRaster wr = GraphicsUtil.sRGB_Pre
+            .createCompatibleWritableRaster(w, h);
+        Random rand = new Random(seed);
+        int [] p = new int[4];
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                // Premultiplied, with opaque and transparent areas.
+                int a = ((x / 8 + y / 8) % 3 == 0) ? 255 : rand.nextInt(256);
+                if ((x / 8) % 5 == 4) a = 0;
+                p[3] = a;
+                for (int b = 0; b < 3; b++)
+                    p[b] = rand.nextInt(a + 1);
+                wr.setPixel(x, y, p);
+            }
+        }
+        return GraphicsUtil.wrap
+            (new BufferedImage(GraphicsUtil.sRGB_Pre, wr, true, null));
+    }
+
+    /**
+     * Returns the normalized kernel of the given radius.
+     */
+    static double [] kernel(int radius, double stdDev) {
+        double [] k = new double[2 * radius + 1];
+        double sum = 0;
+        for (int i = 0; i < k.length; i++) {
+            int d = i - radius;
+            k[i] = Math.exp(-d * d / (2 * stdDev * stdDev));
+            sum += k[i];
+        }
+        for (int i = 0; i < k.length; i++)
+            k[i] /= sum;
+        return k;
+    }
+
+    /**
+     * Checks one blur, returns the mean signed error.
+     */
+    static double check(double stdDevX, double stdDevY,
+                        RenderingHints hints) {
+        CachableRed src = createSource(90, 70, 7);
+        GaussianBlurRed8Bit blur = new GaussianBlurRed8Bit
+            (src, stdDevX, stdDevY, hints);
+        assertTrue(blur.kernelX != null);
+        assertTrue(blur.kernelY != null);
+        int rx = GaussianBlurRed8Bit.surroundPixels(stdDevX, hints);
+        int ry = GaussianBlurRed8Bit.surroundPixels(stdDevY, hints);
+        double [] kx = kernel(rx, stdDevX);
+        double [] ky = kernel(ry, stdDevY);
+
+        Raster in = src.getData();
+        Rectangle r = blur.getBounds();
+        Raster out = blur.getData();
+        assertEquals(new Rectangle(rx, ry, 90 - 2 * rx, 70 - 2 * ry), r);
+
+        double errSum = 0;
+        int n = 0;
+        for (int y = r.y; y < r.y + r.height; y++) {
+            for (int x = r.x; x < r.x + r.width; x++) {
+                for (int b = 0; b < 4; b++) {
+                    double v = 0;
+                    for (int j = -ry; j <= ry; j++) {
+                        double row = 0;
+                        for (int i = -rx; i <= rx; i++)
+                            row += kx[i + rx] * in.getSample(x + i, y + j, b);
+                        v += ky[j + ry] * row;
+                    }
+                    int o = out.getSample(x, y, b);
+                    double err = o - v;
+                    if (Math.abs(err) > 1)
+                        assertEquals("stdDev " + stdDevX + "x" + stdDevY +
+                                     " at " + x + "," + y + " band " + b,
+                                     v, o, 1);
+                    errSum += err;
+                    n++;
+                }
+            }
+        }
+        return errSum / n;
+    }
+
+    @Test
+    public void testSmallDeviations() {
+        double [] devs = { 0.5, 0.8, 1, 1.5, 1.9 };
+        for (int i = 0; i < devs.length; i++) {
+            double bias = check(devs[i], devs[devs.length - 1 - i], null);
+            // Rounded, not truncated.
+            assertEquals("bias at " + devs[i], 0, bias, 0.1);
+        }
+    }
+
+    @Test
+    public void testQuality() {
+        double [] devs = { 1, 2.5, 4 };
+        for (int i = 0; i < devs.length; i++) {
+            double bias = check(devs[i], devs[i], QUALITY);
+            assertEquals("bias at " + devs[i], 0, bias, 0.1);
+        }
+    }
+}
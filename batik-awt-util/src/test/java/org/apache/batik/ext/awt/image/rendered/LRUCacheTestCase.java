@@ -0,0 +1,195 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Point;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the bounds and statistics of {@link LRUCache} and that a
+ * {@link TileGrid} generates a tile only once when several threads
+ * ask for it at the same time.
+ *
+ * @version $Id$
+ */
+public class LRUCacheTestCase {
+
+    static class Item implements LRUCache.SizedLRUObj {
+        long   size;
+        final Object owner;
+        LRUCache.LRUNode node;
+        boolean removed;
+
+        Item(long size, Object owner) {
+            this.size  = size;
+            this.owner = owner;
+        }
+
+        public void lruSet(LRUCache.LRUNode nde) { node = nde; }
+        public LRUCache.LRUNode lruGet()         { return node; }
+        public void lruRemove()  { node = null; removed = true; }
+        public long   lruSize()  { return size;  }
+        public long   lruCost()  { return 0;     }
+        public Object lruOwner() { return owner; }
+    }
+
+    static Raster createTile(int x, int y) {
+        SinglePixelPackedSampleModel sm = new SinglePixelPackedSampleModel
+            (DataBuffer.TYPE_INT, 16, 16,
+             new int [] { 0x00FF0000, 0x0000FF00, 0x000000FF, 0xFF000000 });
+        return Raster.createWritableRaster(sm, new Point(x*16, y*16));
+    }
+
+    @Test
+    public void testEntryBound() {
+        LRUCache cache = new LRUCache(10);
+        Item [] items = new Item[25];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = new Item(0, null);
+            cache.add(items[i]);
+            assertTrue(cache.getUsed() <= 10);
+        }
+        assertEquals(10, cache.getUsed());
+        assertEquals(15, cache.getEvictionCount());
+        // The item just added is never the one evicted.
+        assertFalse(items[items.length-1].removed);
+    }
+
+    @Test
+    public void testByteBound() {
+        LRUCache cache = new LRUCache(1000, 1000);
+        for (int i = 0; i < 50; i++) {
+            cache.add(new Item(100, null));
+            assertTrue(cache.getUsedBytes() <= 1000);
+        }
+        assertEquals(1000, cache.getUsedBytes());
+        assertEquals(10, cache.getUsed());
+
+        cache.setMaxBytes(250);
+        assertEquals(200, cache.getUsedBytes());
+
+        cache.flush();
+        assertEquals(0, cache.getUsed());
+        assertEquals(0, cache.getUsedBytes());
+    }
+
+    @Test
+    public void testResize() {
+        LRUCache cache = new LRUCache(100, 1000);
+        Item a = new Item(100, null);
+        Item b = new Item(300, null);
+        cache.add(a);
+        cache.add(b);
+        assertEquals(400, cache.getUsedBytes());
+
+        // Adding an object again picks up its new size.
+        b.size = 500;
+        cache.add(b);
+        assertEquals(600, cache.getUsedBytes());
+        assertEquals(2, cache.getUsed());
+
+        cache.remove(a);
+        assertTrue(a.removed);
+        assertEquals(500, cache.getUsedBytes());
+        assertEquals(1, cache.getUsed());
+    }
+
+    @Test
+    public void testStatistics() {
+        LRUCache cache = new LRUCache(100);
+        final AtomicInteger generated = new AtomicInteger();
+        TileGrid grid = new TileGrid(0, 0, 4, 4, new TileGenerator() {
+                public Raster genTile(int x, int y) {
+                    generated.incrementAndGet();
+                    return createTile(x, y);
+                }
+            }, cache);
+
+        Raster r = grid.getTile(1, 2);
+        assertSame(r, grid.getTile(1, 2));
+        assertSame(r, grid.getTile(1, 2));
+        grid.getTile(3, 3);
+        assertEquals(2, generated.get());
+        assertEquals(2, cache.getMissCount());
+        assertEquals(2, cache.getHitCount());
+
+        cache.resetStatistics();
+        assertEquals(0, cache.getMissCount());
+        assertEquals(0, cache.getHitCount());
+    }
+
+    @Test(timeout = 30000)
+    public void testSingleFlight() throws Exception {
+        final LRUCache cache = new LRUCache(100);
+        final AtomicInteger generated = new AtomicInteger();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        final TileGrid grid = new TileGrid(0, 0, 2, 2, new TileGenerator() {
+                public Raster genTile(int x, int y) {
+                    generated.incrementAndGet();
+                    entered.countDown();
+                    try {
+                        proceed.await();
+                    } catch (InterruptedException ie) {
+                        throw new RuntimeException(ie);
+                    }
+                    return createTile(x, y);
+                }
+            }, cache);
+
+        final Raster [] results = new Raster[8];
+        Thread [] threads = new Thread[results.length];
+        final CountDownLatch started = new CountDownLatch(threads.length);
+        for (int i = 0; i < threads.length; i++) {
+            final int n = i;
+            threads[i] = new Thread() {
+                    public void run() {
+                        started.countDown();
+                        results[n] = grid.getTile(1, 1);
+                    }
+                };
+            threads[i].start();
+        }
+        started.await();
+        entered.await();
+        // Give the other threads time to find the tile in flight.
+        Thread.sleep(100);
+        proceed.countDown();
+        for (int i = 0; i < threads.length; i++)
+            threads[i].join();
+
+        assertEquals(1, generated.get());
+        assertNotNull(results[0]);
+        for (int i = 1; i < results.length; i++)
+            assertSame(results[0], results[i]);
+        assertEquals(1, cache.getMissCount());
+        assertEquals(results.length-1, cache.getHitCount());
+    }
+}
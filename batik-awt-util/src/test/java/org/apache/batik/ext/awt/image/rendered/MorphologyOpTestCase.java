@@ -0,0 +1,141 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Compares {@link MorphologyOp} with a direct evaluation of the max
+ * (or min) over each window, the window being clipped to the raster.
+ *
+ * @version $Id$
+ */
+public class MorphologyOpTestCase {
+
+    static final int [] MASKS = { 0x00FF0000, 0x0000FF00,
+                                  0x000000FF, 0xFF000000 };
+
+    static WritableRaster createRaster(int w, int h, long seed) {
+        SinglePixelPackedSampleModel sm = new SinglePixelPackedSampleModel
+            (DataBuffer.TYPE_INT, w, h, MASKS);
+        WritableRaster wr = Raster.createWritableRaster(sm, null);
+        Random rand = new Random(seed);
+        int [] pixel = new int[4];
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                // Few distinct values so ties are common.
+                for (int b = 0; b < 4; b++)
+                    pixel[b] = rand.nextInt(6) * 51;
+                wr.setPixel(x, y, pixel);
+            }
+        }
+        return wr;
+    }
+
+    static int [] bruteForce(Raster src, int rx, int ry, boolean dilate) {
+        int w = src.getWidth();
+        int h = src.getHeight();
+        int x0 = src.getMinX();
+        int y0 = src.getMinY();
+        int [] out = new int[w * h * 4];
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                for (int b = 0; b < 4; b++) {
+                    int v = dilate ? 0 : 255;
+                    for (int j = Math.max(0, y - ry);
+                         j <= Math.min(h - 1, y + ry); j++) {
+                        for (int i = Math.max(0, x - rx);
+                             i <= Math.min(w - 1, x + rx); i++) {
+                            int s = src.getSample(x0 + i, y0 + j, b);
+                            v = dilate ? Math.max(v, s) : Math.min(v, s);
+                        }
+                    }
+                    out[(y * w + x) * 4 + b] = v;
+                }
+            }
+        }
+        return out;
+    }
+
+    static void check(Raster src, int rx, int ry, boolean dilate,
+                      boolean inPlace) {
+        int [] expected = bruteForce(src, rx, ry, dilate);
+        MorphologyOp op = new MorphologyOp(rx, ry, dilate);
+        WritableRaster dst;
+        if (inPlace) {
+            dst = (WritableRaster)src;
+            op.filter(src, dst);
+        } else {
+            dst = op.filter(src, null);
+        }
+        int [] actual = dst.getPixels(dst.getMinX(), dst.getMinY(),
+                                      dst.getWidth(), dst.getHeight(),
+                                      (int [])null);
+        for (int i = 0; i < expected.length; i++) {
+            if (expected[i] != actual[i]) {
+                int p = i / 4;
+                assertEquals("rx=" + rx + " ry=" + ry + " dilate=" + dilate +
+                             " pixel " + (p % src.getWidth()) + "," +
+                             (p / src.getWidth()) + " band " + (i % 4),
+                             expected[i], actual[i]);
+            }
+        }
+    }
+
+    @Test
+    public void testRadii() {
+        int [][] radii = { { 1, 1 }, { 2, 1 }, { 1, 4 }, { 3, 3 },
+                           { 7, 2 }, { 40, 40 } };
+        for (int i = 0; i < radii.length; i++) {
+            Raster src = createRaster(37, 29, i);
+            check(src, radii[i][0], radii[i][1], true,  false);
+            check(src, radii[i][0], radii[i][1], false, false);
+        }
+    }
+
+    @Test
+    public void testTall() {
+        // Enough rows and columns to be split over the worker threads.
+        Raster src = createRaster(150, 170, 42);
+        check(src, 5, 9, true,  false);
+        check(src, 5, 9, false, false);
+    }
+
+    @Test
+    public void testChildRaster() {
+        WritableRaster parent = createRaster(60, 50, 7);
+        WritableRaster child = parent.createWritableChild
+            (11, 7, 31, 23, 11, 7, null);
+        check(child, 2, 3, true, false);
+        check(child, 3, 2, false, false);
+    }
+
+    @Test
+    public void testInPlace() {
+        check(createRaster(33, 21, 3), 2, 2, true,  true);
+        check(createRaster(33, 21, 4), 1, 3, false, true);
+    }
+}
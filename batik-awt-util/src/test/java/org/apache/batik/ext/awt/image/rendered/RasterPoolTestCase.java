@@ -0,0 +1,114 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Point;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that {@link RasterPool} only takes back the buffers it
+ * handed out, and hands them out again zeroed.
+ *
+ * @version $Id$
+ */
+public class RasterPoolTestCase {
+
+    static final SampleModel SM = new SinglePixelPackedSampleModel
+        (DataBuffer.TYPE_INT, 64, 32,
+         new int [] { 0x00FF0000, 0x0000FF00, 0x000000FF, 0xFF000000 });
+
+    static int [] data(Raster r) {
+        return ((DataBufferInt)r.getDataBuffer()).getData();
+    }
+
+    @Before
+    public void setUp() {
+        RasterPool.clear();
+    }
+
+    @Test
+    public void testReuse() {
+        WritableRaster wr = RasterPool.allocate(SM, 5, 7, 64, 32);
+        assertEquals(5, wr.getMinX());
+        assertEquals(7, wr.getMinY());
+        int [] array = data(wr);
+        array[0] = array[64*32-1] = -1;
+
+        RasterPool.release(wr);
+        WritableRaster again = RasterPool.allocate(SM, 0, 0, 64, 32);
+        assertSame(array, data(again));
+        assertEquals(0, array[0]);
+        assertEquals(0, array[64*32-1]);
+        RasterPool.release(again);
+    }
+
+    @Test
+    public void testForeignRaster() {
+        // A raster whose buffer has exactly a bucket's size.
+        WritableRaster mine = Raster.createWritableRaster
+            (SM, new Point(0, 0));
+        long releases = RasterPool.getReleaseCount();
+        RasterPool.release(mine);
+        assertEquals(releases, RasterPool.getReleaseCount());
+
+        WritableRaster wr = RasterPool.allocate(SM, 0, 0, 64, 32);
+        assertNotSame(data(mine), data(wr));
+        RasterPool.release(wr);
+    }
+
+    @Test
+    public void testDoubleRelease() {
+        WritableRaster wr = RasterPool.allocate(SM, 0, 0, 64, 32);
+        long releases = RasterPool.getReleaseCount();
+        RasterPool.release(wr);
+        RasterPool.release(wr);
+        assertEquals(releases + 1, RasterPool.getReleaseCount());
+
+        WritableRaster a = RasterPool.allocate(SM, 0, 0, 64, 32);
+        WritableRaster b = RasterPool.allocate(SM, 0, 0, 64, 32);
+        assertNotSame(data(a), data(b));
+        RasterPool.release(a);
+        RasterPool.release(b);
+    }
+
+    @Test
+    public void testOtherThreadRelease() throws Exception {
+        final WritableRaster wr = RasterPool.allocate(SM, 0, 0, 64, 32);
+        long releases = RasterPool.getReleaseCount();
+        Thread t = new Thread() {
+                public void run() {
+                    RasterPool.release(wr);
+                }
+            };
+        t.start();
+        t.join();
+        assertEquals(releases + 1, RasterPool.getReleaseCount());
+    }
+}
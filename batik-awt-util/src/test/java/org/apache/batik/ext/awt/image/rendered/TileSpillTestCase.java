@@ -0,0 +1,169 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Point;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that {@link TileSpill} gives back what was written, keeps
+ * its file within its size and removes it when closed.
+ *
+ * @version $Id$
+ */
+public class TileSpillTestCase {
+
+    static final int TILE_BYTES = 64 * 64 * 4;
+
+    File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("spill", "test");
+        dir.delete();
+        dir.mkdir();
+    }
+
+    @After
+    public void tearDown() {
+        File [] files = dir.listFiles();
+        for (int i = 0; (files != null) && (i < files.length); i++)
+            files[i].delete();
+        dir.delete();
+    }
+
+    static WritableRaster createTile(int seed) {
+        SinglePixelPackedSampleModel sm = new SinglePixelPackedSampleModel
+            (DataBuffer.TYPE_INT, 64, 64,
+             new int [] { 0x00FF0000, 0x0000FF00, 0x000000FF, 0xFF000000 });
+        WritableRaster wr = Raster.createWritableRaster
+            (sm, new Point(64 * seed, 0));
+        int [] data = ((DataBufferInt)wr.getDataBuffer()).getData();
+        for (int i = 0; i < data.length; i++)
+            data[i] = i * 7919 + seed;
+        return wr;
+    }
+
+    static int [] data(Raster r) {
+        return ((DataBufferInt)r.getDataBuffer()).getData();
+    }
+
+    @Test
+    public void testRoundTrip() {
+        TileSpill spill = new TileSpill(4 * TILE_BYTES, dir);
+        Object owner = new Object();
+        Raster tile = createTile(3);
+        TileSpill.Entry e = spill.store(tile, owner);
+        assertNotNull(e);
+        Raster back = TileSpill.load(e);
+        assertEquals(tile.getBounds(), back.getBounds());
+        assertArrayEquals(data(tile), data(back));
+
+        TileSpill.release(e);
+        assertNull(TileSpill.load(e));
+        assertEquals(0, spill.getSpilledBytes());
+        spill.close();
+    }
+
+    @Test
+    public void testMappedSize() {
+        TileSpill spill = new TileSpill(3 * TILE_BYTES, dir);
+        Object owner = new Object();
+        TileSpill.Entry [] e = new TileSpill.Entry[5];
+        for (int i = 0; i < e.length; i++)
+            e[i] = spill.store(createTile(i), owner);
+        // Only as much as the spill may hold is mapped.
+        assertEquals(3 * TILE_BYTES, spill.getMappedBytes());
+        assertEquals(2, spill.getDiscardCount());
+        assertNull(TileSpill.load(e[0]));
+        assertArrayEquals(data(createTile(4)), data(TileSpill.load(e[4])));
+
+        // Growing maps the chunk again, keeping what it held.
+        spill.setMaxBytes(5 * TILE_BYTES);
+        TileSpill.Entry more = spill.store(createTile(5), owner);
+        assertNotNull(more);
+        assertEquals(5 * TILE_BYTES, spill.getMappedBytes());
+        assertArrayEquals(data(createTile(3)), data(TileSpill.load(e[3])));
+        assertArrayEquals(data(createTile(5)), data(TileSpill.load(more)));
+        spill.close();
+    }
+
+    @Test
+    public void testClose() {
+        TileSpill spill = new TileSpill(4 * TILE_BYTES, dir);
+        Object owner = new Object();
+        TileSpill.Entry e = spill.store(createTile(1), owner);
+        assertEquals(1, dir.listFiles().length);
+
+        spill.close();
+        assertNull(TileSpill.load(e));
+        assertEquals(0, spill.getMappedBytes());
+        assertEquals(0, spill.getSpilledBytes());
+        assertTrue(spill.isEnabled());
+
+        // Still usable, with a new file.
+        e = spill.store(createTile(2), owner);
+        assertArrayEquals(data(createTile(2)), data(TileSpill.load(e)));
+        spill.setMaxBytes(0);
+        assertFalse(spill.isEnabled());
+        assertNull(TileSpill.load(e));
+        assertNull(spill.store(createTile(3), owner));
+    }
+
+    @Test
+    public void testEvictedTiles() {
+        TileSpill spill = TileSpill.getDefault();
+        spill.setDirectory(dir);
+        spill.setMaxBytes(16 * TILE_BYTES);
+        try {
+            LRUCache cache = new LRUCache(100, 2 * TILE_BYTES);
+            TileGrid grid = new TileGrid(0, 0, 6, 1, new TileGenerator() {
+                    public Raster genTile(int x, int y) {
+                        return createTile(x);
+                    }
+                }, cache);
+            long spills = spill.getSpillCount();
+            for (int x = 0; x < 6; x++)
+                grid.getTile(x, 0);
+            // Every tile pushed out of the cache went to the spill.
+            assertEquals(4, spill.getSpillCount() - spills);
+            for (int x = 0; x < 6; x++)
+                assertArrayEquals(data(createTile(x)),
+                                  data(grid.getTile(x, 0)));
+        } finally {
+            spill.setMaxBytes(0);
+            spill.setDirectory(null);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.ext.awt.image.rendered;
+
+import java.awt.Rectangle;
+import java.awt.color.ColorSpace;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.DataBufferInt;
+import java.awt.image.WritableRaster;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that {@link TurbulencePatternRed} generates the same pixels
+ * when its rows are split in blocks as in a single pass stepping
+ * across the whole raster.
+ *
+ * @version $Id$
+ */
+public class TurbulencePatternRedTestCase {
+
+    static final Rectangle DEV_RECT = new Rectangle(-13, 7, 41, 150);
+
+    static AffineTransform createTransform() {
+        // A transform whose steps don't add up exactly in doubles.
+        AffineTransform txf = AffineTransform.getRotateInstance(0.3);
+        txf.scale(0.37, 0.29);
+        txf.translate(0.1, 1.0/3);
+        return txf;
+    }
+
+    static TurbulencePatternRed create(boolean fractal, boolean stitch,
+                                       boolean alpha) {
+        Rectangle2D tile = null;
+        if (stitch)
+            tile = new Rectangle2D.Double(-3, 2, 17, 23);
+        return new TurbulencePatternRed
+            (0.07, 0.11, 4, 7, fractal, tile, createTransform(), DEV_RECT,
+             ColorSpace.getInstance(ColorSpace.CS_sRGB), alpha);
+    }
+
+    static int[] getPixels(WritableRaster wr) {
+        return ((DataBufferInt)wr.getDataBuffer()).getBankData()[0];
+    }
+
+    static void check(boolean fractal, boolean stitch, boolean alpha) {
+        TurbulencePatternRed red = create(fractal, stitch, alpha);
+        int w = DEV_RECT.width;
+        int h = DEV_RECT.height;
+
+        WritableRaster wr = red.getColorModel()
+            .createCompatibleWritableRaster(w, h)
+            .createWritableTranslatedChild(DEV_RECT.x, DEV_RECT.y);
+        red.copyData(wr);
+
+        // One pass from the transformed origin, as the rows were
+        // generated before they were split in blocks.
+        double [] p = {DEV_RECT.x, DEV_RECT.y};
+        createTransform().transform(p, 0, p, 0, 1);
+        WritableRaster ref = red.getColorModel()
+            .createCompatibleWritableRaster(w, h);
+        red.fillRows(getPixels(ref), 0, w, p[0], p[1], w, h);
+
+        int [] actual   = getPixels(wr);
+        int [] expected = getPixels(ref);
+        for (int i = 0; i < expected.length; i++) {
+            if (expected[i] != actual[i])
+                assertEquals("pixel " + (i % w) + "," + (i / w),
+                             Integer.toHexString(expected[i]),
+                             Integer.toHexString(actual[i]));
+        }
+    }
+
+    @Test
+    public void testTurbulence() {
+        check(false, false, true);
+        check(false, false, false);
+        check(false, true,  true);
+    }
+
+    @Test
+    public void testFractalNoise() {
+        check(true, false, true);
+        check(true, false, false);
+        check(true, true,  true);
+    }
+}
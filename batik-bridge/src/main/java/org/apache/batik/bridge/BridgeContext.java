@@ -49,6 +49,7 @@ import org.apache.batik.css.engine.CSSEngineEvent;
 import org.apache.batik.css.engine.CSSEngineListener;
 import org.apache.batik.css.engine.CSSEngineUserAgent;
 import org.apache.batik.css.engine.SVGCSSEngine;
+import org.apache.batik.css.engine.StyleSheet;
 import org.apache.batik.css.engine.SystemColorSupport;
 import org.apache.batik.css.engine.value.Value;
 import org.apache.batik.dom.AbstractNode;
@@ -158,6 +159,12 @@ public class BridgeContext implements ErrorConstants, CSSContext {
      */
     protected Map namespaceURIMap;
 
+    /**
+     * The shared registry the bridges missing from namespaceURIMap
+     * are created from, or null.
+     */
+    protected BridgeRegistry bridgeRegistry;
+
     /**
      * Default bridge.
      * When a bridge is requested for an element type that does not have a
@@ -275,6 +282,17 @@ public class BridgeContext implements ErrorConstants, CSSContext {
      */
     private static InterpreterPool sharedPool = new InterpreterPool();
 
+    /**
+     * The URI of the last user style sheet parsed by this context.
+     */
+    protected String userStyleSheetURI;
+
+    /**
+     * The user style sheet parsed from userStyleSheetURI, shared by
+     * the documents this context handles.
+     */
+    protected StyleSheet userStyleSheet;
+
     /**
      * Constructs a new empty bridge context.
      */
@@ -384,12 +402,19 @@ public class BridgeContext implements ErrorConstants, CSSContext {
             eng.setMedia(userAgent.getMedia());
             String uri = userAgent.getUserStyleSheetURI();
             if (uri != null) {
-                try {
-                    ParsedURL url = new ParsedURL(uri);
-                    eng.setUserAgentStyleSheet
-                        (eng.parseStyleSheet(url, "all"));
-                } catch (Exception e) {
-                    userAgent.displayError(e);
+                if (!uri.equals(userStyleSheetURI)) {
+                    userStyleSheetURI = null;
+                    userStyleSheet = null;
+                    try {
+                        ParsedURL url = new ParsedURL(uri);
+                        userStyleSheet = eng.parseStyleSheet(url, "all");
+                        userStyleSheetURI = uri;
+                    } catch (Exception e) {
+                        userAgent.displayError(e);
+                    }
+                }
+                if (userStyleSheet != null) {
+                    eng.setUserAgentStyleSheet(userStyleSheet);
                 }
             }
             eng.setAlternateStyleSheet(userAgent.getAlternateStyleSheet());
@@ -950,17 +975,24 @@ public class BridgeContext implements ErrorConstants, CSSContext {
      * @param element the element
      */
     public boolean hasGraphicsNodeBridge(Element element) {
-        if (namespaceURIMap == null || element == null) {
+        if ((namespaceURIMap == null && bridgeRegistry == null)
+                || element == null) {
             return false;
         }
         String localName = element.getLocalName();
         String namespaceURI = element.getNamespaceURI();
         namespaceURI = ((namespaceURI == null)? "" : namespaceURI);
-        HashMap localNameMap = (HashMap) namespaceURIMap.get(namespaceURI);
-        if (localNameMap == null) {
-            return false;
+        Bridge bridge = null;
+        if (namespaceURIMap != null) {
+            HashMap localNameMap = (HashMap) namespaceURIMap.get(namespaceURI);
+            if (localNameMap != null) {
+                bridge = (Bridge)localNameMap.get(localName);
+            }
+        }
+        if (bridge == null && bridgeRegistry != null) {
+            bridge = bridgeRegistry.getPrototype(namespaceURI, localName);
         }
-        return (localNameMap.get(localName) instanceof GraphicsNodeBridge);
+        return (bridge instanceof GraphicsNodeBridge);
     }
 
     /**
@@ -976,7 +1008,8 @@ public class BridgeContext implements ErrorConstants, CSSContext {
      * @param element the element
      */
     public Bridge getBridge(Element element) {
-        if (namespaceURIMap == null || element == null) {
+        if ((namespaceURIMap == null && bridgeRegistry == null)
+                || element == null) {
             return null;
         }
         String localName = element.getLocalName();
@@ -1000,6 +1033,14 @@ public class BridgeContext implements ErrorConstants, CSSContext {
                 bridge = (Bridge)localNameMap.get(localName);
             }
         }
+        if (bridge == null && bridgeRegistry != null) {
+            // First use of this element type in this context.
+            Bridge proto = bridgeRegistry.getPrototype(namespaceURI, localName);
+            if (proto != null) {
+                bridge = proto.getInstance();
+                putBridge(namespaceURI, localName, bridge);
+            }
+        }
         if (bridge == null
                 && (reservedNamespaceSet == null
                     || !reservedNamespaceSet.contains(namespaceURI))) {
@@ -1059,6 +1100,7 @@ public class BridgeContext implements ErrorConstants, CSSContext {
      * @param localName the local name
      */
     public void removeBridge(String namespaceURI, String localName) {
+        createAllBridges();
         if (namespaceURIMap == null) {
             return;
         }
@@ -1075,6 +1117,35 @@ public class BridgeContext implements ErrorConstants, CSSContext {
         }
     }
 
+    /**
+     * Creates the bridges of the shared registry this context hasn't
+     * created yet, so that namespaceURIMap holds all the bridges.
+     */
+    protected void createAllBridges() {
+        if (bridgeRegistry == null) {
+            return;
+        }
+        BridgeRegistry reg = bridgeRegistry;
+        bridgeRegistry = null;
+        Iterator i = reg.prototypes.entrySet().iterator();
+        while (i.hasNext()) {
+            Map.Entry nse = (Map.Entry)i.next();
+            String namespaceURI = (String)nse.getKey();
+            Iterator j = ((Map)nse.getValue()).entrySet().iterator();
+            while (j.hasNext()) {
+                Map.Entry lne = (Map.Entry)j.next();
+                String localName = (String)lne.getKey();
+                HashMap localNameMap = (namespaceURIMap == null) ? null
+                    : (HashMap)namespaceURIMap.get(namespaceURI);
+                if (localNameMap == null
+                        || !localNameMap.containsKey(localName)) {
+                    putBridge(namespaceURI, localName,
+                              ((Bridge)lne.getValue()).getInstance());
+                }
+            }
+        }
+    }
+
     /**
      * Sets the <code>Bridge</code> object to be used for foreign
      * namespace elements.
@@ -1480,6 +1551,67 @@ public class BridgeContext implements ErrorConstants, CSSContext {
         }        
     }
 
+    /**
+     * Disposes this BridgeContext and brings it back to the state it
+     * had once constructed, so that it can be used for another
+     * document.  This saves creating a context (and its user agent,
+     * document loader...) for each document when many of them are
+     * handled one after the other.
+     *
+     * <p>The user agent, the interpreter pool, the document loader,
+     * the text painter, the animation limiting settings and the parsed
+     * user style sheet are kept.  Everything else is dropped: the
+     * document, the interpreters, the font families, the viewports,
+     * the element/node bindings, the element data, the bridges
+     * (including those set with <code>putBridge</code>), the event
+     * listeners, the update and XBL managers and the child contexts.
+     * The documents cached by the document loader are dropped too.</p>
+     *
+     * <p>Graphics trees built before the reset must not be used to
+     * build more content afterwards, as with {@link #dispose()}.  Only
+     * a primary context can be reset.</p>
+     */
+    public void reset() {
+        if (primaryContext != null) {
+            throw new IllegalStateException
+                ("A child BridgeContext can't be reset");
+        }
+        dispose();
+
+        document = null;
+        isSVG12 = false;
+        gvtBuilder = null;
+        fontFamilyMap = null;
+        viewportMap = new WeakHashMap();
+        viewportMap.put(userAgent, new UserAgentViewport(userAgent));
+        viewportStack = new LinkedList();
+        elementNodeMap = null;
+        nodeElementMap = null;
+        elementDataMap = null;
+        namespaceURIMap = null;
+        bridgeRegistry = null;
+        defaultBridge = null;
+        reservedNamespaceSet = null;
+        extensions = null;
+        documentSize = null;
+        dynamicStatus = STATIC;
+        updateManager = null;
+        xblManager = null;
+        animationEngine = null;
+        synchronized (eventListenerSet) {
+            eventListenerSet.clear();
+        }
+        domCharacterDataModifiedEventListener = null;
+        domAttrModifiedEventListener = null;
+        domNodeInsertedEventListener = null;
+        domNodeRemovedEventListener = null;
+        cssPropertiesChangedListener = null;
+        animatedAttributeListener = null;
+        focusManager = null;
+        cursorManager = new CursorManager(this);
+        documentLoader.dispose();
+    }
+
     /**
      * Returns the SVGContext associated to the specified Node or null if
      * there is none.
@@ -2039,6 +2171,32 @@ public class BridgeContext implements ErrorConstants, CSSContext {
 
     protected List extensions = null;
 
+    /**
+     * Whether the bridges registered by a set of extensions are
+     * recorded once and shared by the contexts using the same
+     * extensions.  Set the <code>org.apache.batik.shared_bridges</code>
+     * system property to <code>false</code> to have every context run
+     * <code>registerTags</code> of its extensions.
+     */
+    protected static final boolean SHARED_BRIDGES;
+
+    static {
+        boolean b = true;
+        try {
+            b = !"false".equals
+                (System.getProperty("org.apache.batik.shared_bridges"));
+        } catch (SecurityException se) {
+        } finally {
+            SHARED_BRIDGES = b;
+        }
+    }
+
+    /**
+     * The shared bridge registries, keyed by the class names of the
+     * extensions that fill them.
+     */
+    protected static Map bridgeRegistries = new HashMap();
+
     /**
      * Registers the bridges to handle SVG 1.0 elements.
      */
@@ -2047,6 +2205,16 @@ public class BridgeContext implements ErrorConstants, CSSContext {
         List ext = getBridgeExtensions(document);
         Iterator iter = ext.iterator();
 
+        if (SHARED_BRIDGES && namespaceURIMap == null
+                && bridgeRegistry == null && defaultBridge == null
+                && reservedNamespaceSet == null) {
+            registerSharedBridges(ext);
+            while (iter.hasNext()) {
+                ua.registerExtension((BridgeExtension)iter.next());
+            }
+            return;
+        }
+
         while(iter.hasNext()) {
             BridgeExtension be = (BridgeExtension)iter.next();
             be.registerTags(this);
@@ -2054,6 +2222,89 @@ public class BridgeContext implements ErrorConstants, CSSContext {
         }
     }
 
+    /**
+     * Sets up this context from the shared registry of the given
+     * extensions, creating the registry if needed.  The bridges
+     * themselves are only created, with {@link Bridge#getInstance()},
+     * when an element of their type is first met.
+     */
+    protected void registerSharedBridges(List ext) {
+        StringBuffer sb = new StringBuffer();
+        Iterator iter = ext.iterator();
+        while (iter.hasNext()) {
+            sb.append(iter.next().getClass().getName()).append(' ');
+        }
+        String key = sb.toString();
+
+        BridgeRegistry reg;
+        synchronized (bridgeRegistries) {
+            reg = (BridgeRegistry)bridgeRegistries.get(key);
+        }
+        if (reg == null) {
+            // Record what the extensions register in this context.
+            iter = ext.iterator();
+            while (iter.hasNext()) {
+                ((BridgeExtension)iter.next()).registerTags(this);
+            }
+            reg = new BridgeRegistry(namespaceURIMap, defaultBridge,
+                                     reservedNamespaceSet);
+            synchronized (bridgeRegistries) {
+                bridgeRegistries.put(key, reg);
+            }
+        }
+
+        namespaceURIMap = null;
+        bridgeRegistry = reg.prototypes.isEmpty() ? null : reg;
+        defaultBridge = (reg.defaultBridge == null) ? null
+            : reg.defaultBridge.getInstance();
+        reservedNamespaceSet = (reg.reservedNamespaces == null) ? null
+            : new HashSet(reg.reservedNamespaces);
+    }
+
+    /**
+     * What a set of bridge extensions registers in a context.  The
+     * registry is never modified once built, its bridges are only
+     * used as prototypes.
+     */
+    protected static class BridgeRegistry {
+
+        /**
+         * Keys are namespace URIs, values are maps from local names
+         * to bridges.
+         */
+        public final Map prototypes;
+        public final Bridge defaultBridge;
+        public final Set reservedNamespaces;
+
+        public BridgeRegistry(Map namespaceURIMap, Bridge defaultBridge,
+                              Set reservedNamespaces) {
+            prototypes = new HashMap();
+            if (namespaceURIMap != null) {
+                Iterator i = namespaceURIMap.entrySet().iterator();
+                while (i.hasNext()) {
+                    Map.Entry e = (Map.Entry)i.next();
+                    prototypes.put(e.getKey(),
+                                   new HashMap((Map)e.getValue()));
+                }
+            }
+            this.defaultBridge = defaultBridge;
+            this.reservedNamespaces = (reservedNamespaces == null) ? null
+                : new HashSet(reservedNamespaces);
+        }
+
+        /**
+         * Returns the prototype of the bridge for the given element
+         * type, or null.
+         */
+        public Bridge getPrototype(String namespaceURI, String localName) {
+            Map localNameMap = (Map)prototypes.get(namespaceURI);
+            if (localNameMap == null) {
+                return null;
+            }
+            return (Bridge)localNameMap.get(localName);
+        }
+    }
+
     public List getBridgeExtensions(Document doc) {
         Element root = ((SVGOMDocument)doc).getRootElement();
         String ver = root.getAttributeNS
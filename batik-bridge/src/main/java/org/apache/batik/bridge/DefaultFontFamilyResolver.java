@@ -20,14 +20,22 @@ package org.apache.batik.bridge;
 
 import java.awt.Font;
 import java.awt.GraphicsEnvironment;
+import java.io.BufferedInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
 import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.apache.batik.gvt.font.AWTFontFamily;
 import org.apache.batik.gvt.font.AWTGVTFont;
@@ -37,6 +45,15 @@ import org.apache.batik.gvt.font.GVTFontFamily;
 /**
  * The is a utility class that is used for resolving UnresolvedFontFamilies.
  *
+ * <p>The list of available fonts is built the first time it is needed
+ * (or by {@link #warmUp}) rather than when the class is loaded.  Asking
+ * AWT for every installed font can take a long time, so the list can
+ * instead be read from an index file named by the
+ * <code>org.apache.batik.font_index</code> system property.  Such a file
+ * is written by {@link #saveFontIndex}; it must be rebuilt when the
+ * installed fonts change.  The resolver may be used from several
+ * threads at once.</p>
+ *
  * @author <a href="mailto:bella.robinson@cmis.csiro.au">Bella Robinson</a>
  * @version $Id$
  */
@@ -47,6 +64,12 @@ public final class DefaultFontFamilyResolver implements FontFamilyResolver {
     private DefaultFontFamilyResolver() {
     }
 
+    /**
+     * The system property holding the name of the font index file.
+     */
+    public static final String FONT_INDEX_PROPERTY =
+        "org.apache.batik.font_index";
+
     /**
      * The default font. This will be used when no font families can
      * be resolved for a particular text chunk/run.
@@ -54,9 +77,16 @@ public final class DefaultFontFamilyResolver implements FontFamilyResolver {
     private static final AWTFontFamily DEFAULT_FONT_FAMILY =
             new AWTFontFamily("SansSerif");
 
+    /**
+     * Stored in the caches for names that can't be resolved, since
+     * they can't hold null.
+     */
+    private static final Object UNRESOLVED = new Object();
+
     /**
      * List of all available fonts on the current system, plus a few common
-     * alternatives.
+     * alternatives.  Only filled in by <code>loadFonts</code>, read only
+     * afterwards.
      */
     protected static final Map fonts = new HashMap();
 
@@ -65,7 +95,13 @@ public final class DefaultFontFamilyResolver implements FontFamilyResolver {
     protected static final List awtFonts = new ArrayList();
 
     /**
-     * This sets up the list of available fonts.
+     * Set once <code>fonts</code>, <code>awtFontFamilies</code> and
+     * <code>awtFonts</code> are complete.
+     */
+    private static volatile boolean fontsLoaded;
+
+    /**
+     * This sets up the generic font names.
      */
     static {
         fonts.put("sans-serif",      "SansSerif");
@@ -77,7 +113,60 @@ public final class DefaultFontFamilyResolver implements FontFamilyResolver {
         fonts.put("monospace",       "Monospaced");
         fonts.put("monospaced",      "Monospaced");
         fonts.put("courier",         "Monospaced");
+    }
+
+    /**
+     * This keeps track of all the resolved font families. This is to hopefully
+     * reduce the number of font family objects used.  Names that could not
+     * be resolved map to <code>UNRESOLVED</code>.
+     */
+    protected static final ConcurrentHashMap resolvedFontFamilies =
+        new ConcurrentHashMap();
+
+    /**
+     * Maps characters to the family returned by
+     * <code>getFamilyThatCanDisplay</code>, or <code>UNRESOLVED</code>.
+     */
+    protected static final Map displayFontFamilies = new ConcurrentHashMap();
+
+    /**
+     * Builds the list of available fonts if that hasn't been done yet.
+     */
+    protected static void loadFonts() {
+        if (fontsLoaded)
+            return;
+        synchronized (fonts) {
+            if (fontsLoaded)
+                return;
+
+            if (!readFontIndex(fonts))
+                scanFonts(fonts);
+
+            // first add the default font
+            awtFontFamilies.add(DEFAULT_FONT_FAMILY);
+            awtFonts.add(new AWTGVTFont(DEFAULT_FONT_FAMILY.getFamilyName(), 0, 12));
+
+            // Several names usually map to the same family.
+            Set families = new HashSet();
+            Collection fontValues = fonts.values();
+            Iterator iter = fontValues.iterator();
+            while(iter.hasNext()) {
+                String fontFamily = (String)iter.next();
+                if (!families.add(fontFamily))
+                    continue;
+                AWTFontFamily awtFontFamily = new AWTFontFamily(fontFamily);
+                awtFontFamilies.add(awtFontFamily);
+                AWTGVTFont font = new AWTGVTFont(fontFamily, 0, 12);
+                awtFonts.add(font);
+            }
+            fontsLoaded = true;
+        }
+    }
 
+    /**
+     * Adds all the fonts AWT knows about to <code>map</code>.
+     */
+    protected static void scanFonts(Map map) {
         //
         // Load all fonts. Work around
         //
@@ -88,7 +177,7 @@ public final class DefaultFontFamilyResolver implements FontFamilyResolver {
 
         int nFonts = fontNames != null ? fontNames.length : 0;
         for(int i=0; i<nFonts; i++){
-            fonts.put(fontNames[i].toLowerCase(), fontNames[i]);
+            map.put(fontNames[i].toLowerCase(), fontNames[i]);
 
             // also add the font name with the spaces removed
             StringTokenizer st = new StringTokenizer(fontNames[i]);
@@ -96,12 +185,12 @@ public final class DefaultFontFamilyResolver implements FontFamilyResolver {
             while (st.hasMoreTokens()) {
                 fontNameWithoutSpaces += st.nextToken();
             }
-            fonts.put(fontNameWithoutSpaces.toLowerCase(), fontNames[i]);
+            map.put(fontNameWithoutSpaces.toLowerCase(), fontNames[i]);
 
             // also add the font name with spaces replaced by dashes
             String fontNameWithDashes = fontNames[i].replace(' ', '-');
             if (!fontNameWithDashes.equals(fontNames[i])) {
-                fonts.put(fontNameWithDashes.toLowerCase(), fontNames[i]);
+                map.put(fontNameWithDashes.toLowerCase(), fontNames[i]);
             }
         }
 
@@ -111,32 +200,75 @@ public final class DefaultFontFamilyResolver implements FontFamilyResolver {
         Font[] allFonts = env.getAllFonts();
         for (int i = 0; i < allFonts.length; i++) {
             Font f = allFonts[i];
-            fonts.put(f.getFontName().toLowerCase(), f.getFontName());
+            map.put(f.getFontName().toLowerCase(), f.getFontName());
         }
+    }
 
-        // first add the default font
-        awtFontFamilies.add(DEFAULT_FONT_FAMILY);
-        awtFonts.add(new AWTGVTFont(DEFAULT_FONT_FAMILY.getFamilyName(), 0, 12));
-
-        Collection fontValues = fonts.values();
-        Iterator iter = fontValues.iterator();
-        while(iter.hasNext()) {
-            String fontFamily = (String)iter.next();
-            AWTFontFamily awtFontFamily = new AWTFontFamily(fontFamily);
-            awtFontFamilies.add(awtFontFamily);
-            AWTGVTFont font = new AWTGVTFont(fontFamily, 0, 12);
-            awtFonts.add(font);
+    /**
+     * Reads the font index named by the <code>org.apache.batik.font_index</code>
+     * system property into <code>map</code>.  Returns false if there is
+     * no such index or it can't be read.
+     */
+    protected static boolean readFontIndex(Map map) {
+        String name = null;
+        try {
+            name = System.getProperty(FONT_INDEX_PROPERTY);
+        } catch (SecurityException se) {
         }
+        if ((name == null) || (name.length() == 0))
+            return false;
+
+        Properties index = new Properties();
+        InputStream in = null;
+        try {
+            in = new BufferedInputStream(new FileInputStream(name));
+            index.load(in);
+        } catch (IOException ioe) {
+            return false;
+        } catch (SecurityException se) {
+            return false;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ioe) {
+                }
+            }
+        }
+        map.putAll(index);
+        return true;
+    }
 
+    /**
+     * Writes the names of the fonts AWT knows about, in the format read
+     * from the file named by the <code>org.apache.batik.font_index</code>
+     * system property.
+     *
+     * @param out where to write the index, left open
+     */
+    public static void saveFontIndex(OutputStream out) throws IOException {
+        Properties index = new Properties();
+        scanFonts(index);
+        index.store(out, "Batik font index");
     }
 
     /**
-     * This keeps track of all the resolved font families. This is to hopefully
-     * reduce the number of font family objects used.
+     * Builds the list of available fonts now rather than on the first
+     * use of this resolver, and resolves the given family names so that
+     * later lookups are simple cache hits.
+     *
+     * @param familyNames the family names to resolve, may be null
      */
-    protected static final Map resolvedFontFamilies = new HashMap();
+    public void warmUp(String[] familyNames) {
+        loadFonts();
+        if (familyNames == null)
+            return;
+        for (int i = 0; i < familyNames.length; i++)
+            resolve(familyNames[i]);
+    }
 
     public AWTFontFamily resolve(String familyName, FontFace fontFace) {
+        loadFonts();
         String fontName = (String)fonts.get(fontFace.getFamilyName().toLowerCase());
         if (fontName == null) {
             return null;
@@ -157,18 +289,25 @@ public final class DefaultFontFamilyResolver implements FontFamilyResolver {
         familyName = familyName.toLowerCase();
 
         // first see if this font family has already been resolved
-        GVTFontFamily resolvedFF =
-                (GVTFontFamily)resolvedFontFamilies.get(familyName);
+        Object resolved = resolvedFontFamilies.get(familyName);
+        if (resolved == UNRESOLVED)
+            return null;
 
+        GVTFontFamily resolvedFF = (GVTFontFamily)resolved;
         if (resolvedFF == null) { // hasn't been resolved yet
             // try to find a matching family name in the list of
             // available fonts
+            loadFonts();
             String awtFamilyName = (String)fonts.get(familyName);
             if (awtFamilyName != null) {
                 resolvedFF = new AWTFontFamily(awtFamilyName);
             }
 
-            resolvedFontFamilies.put(familyName, resolvedFF);
+            // Another thread may have got there first, keep its family.
+            resolved = (resolvedFF == null) ? UNRESOLVED : resolvedFF;
+            Object prev = resolvedFontFamilies.putIfAbsent(familyName, resolved);
+            if ((prev != null) && (prev != UNRESOLVED))
+                resolvedFF = (GVTFontFamily)prev;
         }
 
         //  if (resolvedFF != null) {
@@ -183,16 +322,25 @@ public final class DefaultFontFamilyResolver implements FontFamilyResolver {
 
     /** {@inheritDoc} */
     public GVTFontFamily getFamilyThatCanDisplay(char c) {
+        Character key = Character.valueOf(c);
+        Object cached = displayFontFamilies.get(key);
+        if (cached != null)
+            return (cached == UNRESOLVED) ? null : (GVTFontFamily)cached;
+
+        loadFonts();
+        GVTFontFamily result = null;
         for (int i = 0; i < awtFontFamilies.size(); i++) {
             AWTFontFamily fontFamily = (AWTFontFamily)awtFontFamilies.get(i);
             AWTGVTFont font = (AWTGVTFont)awtFonts.get(i);
             if (font.canDisplay(c) && fontFamily.getFamilyName().indexOf("Song") == -1) {
                 // the awt font for "MS Song" doesn't display chinese glyphs correctly
-                return fontFamily;
+                result = fontFamily;
+                break;
             }
         }
 
-        return null;
+        displayFontFamilies.put(key, (result == null) ? UNRESOLVED : result);
+        return result;
     }
 
     /** {@inheritDoc} */
@@ -0,0 +1,239 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.io.File;
+import java.net.URI;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.apache.batik.dom.util.DocumentDescriptor;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * A process wide cache of parsed documents that can be shared by
+ * several {@link DocumentLoader}s.
+ *
+ * <p>A document given to the cache is copied and the copy is never
+ * handed out nor modified: every <code>get</code> returns a new copy
+ * of it, so each loader (and so each bridge context) still owns the
+ * documents it works with.  Copying a document is much cheaper than
+ * fetching and parsing it again.</p>
+ *
+ * <p>The cache is bounded by the total number of elements of the
+ * documents it holds, the least recently used documents are dropped
+ * first.  The bound of the default cache is the value of the
+ * <code>org.apache.batik.document_cache_size</code> system property,
+ * a value of <code>0</code> disables it.  Documents read from local
+ * files are dropped when the file is modified.</p>
+ *
+ * @version $Id$
+ */
+public class DocumentCache {
+
+    /**
+     * The number of elements the default cache may hold.
+     */
+    public static final int DEFAULT_MAX_SIZE;
+
+    static {
+        int value = 100000;
+        try {
+            String s = System.getProperty
+                ("org.apache.batik.document_cache_size");
+            if (s != null)
+                value = Integer.parseInt(s);
+        } catch (SecurityException se) {
+        } catch (NumberFormatException nfe) {
+        } finally {
+            DEFAULT_MAX_SIZE = value;
+        }
+    }
+
+    static DocumentCache theCache = new DocumentCache(DEFAULT_MAX_SIZE);
+
+    /**
+     * Returns the cache shared by the document loaders.
+     */
+    public static DocumentCache getDefaultCache() {
+        return theCache;
+    }
+
+    /**
+     * The cached documents, least recently used first.
+     */
+    protected LinkedHashMap entries = new LinkedHashMap(16, .75f, true);
+
+    protected int maxSize;
+    protected int size;
+
+    /**
+     * Creates a cache that holds documents totalling at most
+     * <code>maxSize</code> elements.
+     */
+    public DocumentCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns a copy of the document read from <code>uri</code>, or
+     * null.  <code>variant</code> identifies how the document was
+     * parsed (parser, validation...), documents are only shared
+     * between loaders that parse them the same way.  The location of
+     * the elements of the copy are stored in <code>desc</code>.
+     */
+    public Document get(String uri, String variant,
+                        DocumentDescriptor desc) {
+        String key = variant + ' ' + uri;
+        Entry e;
+        synchronized (this) {
+            e = (Entry)entries.get(key);
+            if (e == null)
+                return null;
+            if (e.isStale()) {
+                entries.remove(key);
+                size -= e.size;
+                return null;
+            }
+        }
+        return e.copy(desc);
+    }
+
+    /**
+     * Caches a copy of the document read from <code>uri</code>.
+     * <code>doc</code> is left untouched and may be used freely.
+     */
+    public void put(String uri, String variant, Document doc,
+                    DocumentDescriptor desc) {
+        int n = desc.getNumberOfElements();
+        if (n < 1)
+            n = 1;
+        if (n > maxSize)
+            return;
+
+        Entry e = new Entry(uri, doc, desc, n);
+        synchronized (this) {
+            Entry old = (Entry)entries.put(variant + ' ' + uri, e);
+            if (old != null)
+                size -= old.size;
+            size += n;
+
+            Iterator i = entries.values().iterator();
+            while (size > maxSize) {
+                old = (Entry)i.next();
+                i.remove();
+                size -= old.size;
+            }
+        }
+    }
+
+    /**
+     * Removes all the documents from the cache.
+     */
+    public synchronized void flush() {
+        entries.clear();
+        size = 0;
+    }
+
+    /**
+     * Copies <code>from</code> and returns the copy, the location of
+     * the elements of <code>from</code> in <code>fromDesc</code> are
+     * recorded for their copy in <code>toDesc</code>.
+     */
+    protected static Document copyDocument(Document from,
+                                           DocumentDescriptor fromDesc,
+                                           DocumentDescriptor toDesc) {
+        Document to = (Document)from.cloneNode(true);
+        copyLocations(from, to, fromDesc, toDesc);
+        return to;
+    }
+
+    /**
+     * Copies the location of the elements under <code>from</code> to
+     * the matching elements under <code>to</code>.
+     */
+    protected static void copyLocations(Node from, Node to,
+                                        DocumentDescriptor fromDesc,
+                                        DocumentDescriptor toDesc) {
+        Node a = from.getFirstChild();
+        Node b = to.getFirstChild();
+        while ((a != null) && (b != null)) {
+            if (a.getNodeType() == Node.ELEMENT_NODE) {
+                Element ea = (Element)a;
+                int line = fromDesc.getLocationLine(ea);
+                if (line != 0) {
+                    toDesc.setLocation((Element)b, line,
+                                       fromDesc.getLocationColumn(ea));
+                }
+                copyLocations(a, b, fromDesc, toDesc);
+            }
+            a = a.getNextSibling();
+            b = b.getNextSibling();
+        }
+    }
+
+    /**
+     * The frozen copy of a document.
+     */
+    protected static class Entry {
+        protected Document document;
+        protected DocumentDescriptor desc = new DocumentDescriptor();
+        protected int size;
+        protected File file;
+        protected long lastModified;
+
+        public Entry(String uri, Document doc, DocumentDescriptor docDesc,
+                     int size) {
+            this.document = copyDocument(doc, docDesc, desc);
+            this.size = size;
+
+            if (uri.startsWith("file:")) {
+                try {
+                    file = new File(new URI(uri));
+                    lastModified = file.lastModified();
+                } catch (Exception ex) {
+                    file = null;
+                }
+            }
+        }
+
+        /**
+         * Tells whether the file the document was read from changed.
+         */
+        public boolean isStale() {
+            try {
+                return (file != null) && (file.lastModified() != lastModified);
+            } catch (SecurityException se) {
+                return false;
+            }
+        }
+
+        /**
+         * Returns a new copy of the document.  Copies are made one
+         * at a time since reading a DOM isn't guaranteed to be
+         * safe from several threads.
+         */
+        public synchronized Document copy(DocumentDescriptor toDesc) {
+            return copyDocument(document, desc, toDesc);
+        }
+    }
+}
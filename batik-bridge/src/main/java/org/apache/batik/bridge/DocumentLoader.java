@@ -59,6 +59,17 @@ public class DocumentLoader {
      */
     protected UserAgent userAgent;
 
+    /**
+     * The cache of documents shared with other loaders, or null.
+     */
+    protected DocumentCache sharedCache;
+
+    /**
+     * Identifies the way this loader parses documents in the
+     * shared cache.
+     */
+    protected String sharedCacheVariant;
+
     /**
      * Constructs a new <code>DocumentLoader</code>.
      */
@@ -73,6 +84,9 @@ public class DocumentLoader {
         documentFactory = new SAXSVGDocumentFactory
             (userAgent.getXMLParserClassName(), true);
         documentFactory.setValidating(userAgent.isXMLParserValidating());
+        sharedCache = DocumentCache.getDefaultCache();
+        sharedCacheVariant = userAgent.getXMLParserClassName() + ' '
+            + userAgent.isXMLParserValidating();
     }
 
     public Document checkCache(String uri) {
@@ -103,15 +117,16 @@ public class DocumentLoader {
         if (ret != null)
             return ret;
 
+        ret = checkSharedCache(uri);
+        if (ret != null)
+            return ret;
+
         SVGDocument document = documentFactory.createSVGDocument(uri);
 
         DocumentDescriptor desc = documentFactory.getDocumentDescriptor();
-        DocumentState state = new DocumentState(uri, document, desc);
-        synchronized (cacheMap) {
-            cacheMap.put(uri, state);
-        }
-
-        return state.getDocument();
+        if (sharedCache != null)
+            sharedCache.put(uri, sharedCacheVariant, document, desc);
+        return cacheDocument(uri, document, desc);
     }
 
     /**
@@ -126,14 +141,41 @@ public class DocumentLoader {
         if (ret != null)
             return ret;
 
+        ret = checkSharedCache(uri);
+        if (ret != null)
+            return ret;
+
         SVGDocument document = documentFactory.createSVGDocument(uri, is);
 
         DocumentDescriptor desc = documentFactory.getDocumentDescriptor();
+        if (sharedCache != null)
+            sharedCache.put(uri, sharedCacheVariant, document, desc);
+        return cacheDocument(uri, document, desc);
+    }
+
+    /**
+     * Returns a copy of the document read from <code>uri</code> if it
+     * is in the shared cache, or null.
+     */
+    protected Document checkSharedCache(String uri) {
+        if (sharedCache == null)
+            return null;
+        DocumentDescriptor desc = new DocumentDescriptor();
+        Document document = sharedCache.get(uri, sharedCacheVariant, desc);
+        if (document == null)
+            return null;
+        return cacheDocument(uri, document, desc);
+    }
+
+    /**
+     * Adds a document to the cache of this loader.
+     */
+    protected Document cacheDocument(String uri, Document document,
+                                     DocumentDescriptor desc) {
         DocumentState state = new DocumentState(uri, document, desc);
         synchronized (cacheMap) {
             cacheMap.put(uri, state);
         }
-
         return state.getDocument();
     }
 
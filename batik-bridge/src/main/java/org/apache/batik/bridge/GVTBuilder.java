@@ -18,15 +18,27 @@
  */
 package org.apache.batik.bridge;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.batik.css.engine.CSSEngine;
+import org.apache.batik.css.engine.CSSStylableElement;
+import org.apache.batik.css.engine.SVGCSSEngine;
+import org.apache.batik.css.engine.value.Value;
 import org.apache.batik.gvt.CompositeGraphicsNode;
 import org.apache.batik.gvt.GraphicsNode;
 import org.apache.batik.gvt.RootGraphicsNode;
 import org.apache.batik.util.HaltingThread;
 import org.apache.batik.util.SVGConstants;
+import org.apache.batik.util.WorkerPool;
 
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.Node;
+import org.w3c.dom.css.CSSPrimitiveValue;
+import org.w3c.dom.css.CSSValue;
 
 /**
  * This class is responsible for creating a GVT tree using an SVG DOM tree.
@@ -36,6 +48,71 @@ import org.w3c.dom.Node;
  */
 public class GVTBuilder implements SVGConstants {
 
+    /**
+     * Whether the children of elements whose content is entirely
+     * hidden are only built when needed, in static documents.  Set
+     * the <code>org.apache.batik.lazy_gvt</code> system property to
+     * <code>false</code> to always build them.
+     *
+     * <p>The errors in such content are then only found when it is
+     * built, not by {@link #build}: they are reported to the {@link
+     * UserAgent} when something first asks for the content, and
+     * not at all when nothing does.  A document whose only errors
+     * are in hidden content no longer fails to build.  Turn the
+     * property off to have them fail the build as before.</p>
+     */
+    protected static final boolean LAZY_BUILD;
+
+    static {
+        boolean b = true;
+        try {
+            b = !"false".equals
+                (System.getProperty("org.apache.batik.lazy_gvt"));
+        } catch (SecurityException se) {
+        } finally {
+            LAZY_BUILD = b;
+        }
+    }
+
+    /**
+     * Whether large runs of independent sibling subtrees of static
+     * documents are built on the {@link WorkerPool}.  Set the
+     * <code>org.apache.batik.parallel_gvt</code> system property to
+     * <code>false</code> to always build on the calling thread.
+     */
+    protected static final boolean PARALLEL_BUILD;
+
+    static {
+        boolean b = true;
+        try {
+            b = !"false".equals
+                (System.getProperty("org.apache.batik.parallel_gvt"));
+        } catch (SecurityException se) {
+        } finally {
+            PARALLEL_BUILD = b;
+        }
+    }
+
+    /**
+     * The minimum number of elements a run of siblings must hold for
+     * it to be built in parallel.
+     */
+    protected static final int PARALLEL_THRESHOLD = 1000;
+
+    /**
+     * The thread building a run of siblings in parallel, or null.  The
+     * subtrees it builds itself don't fork again, and the workers stop
+     * building when it is halted.
+     */
+    protected volatile Thread forkingThread;
+
+    /**
+     * The results of <code>prepareIndependent</code> for the elements
+     * already checked by the outermost parallel build of a composite
+     * in progress, or null.
+     */
+    protected Map prepared;
+
     /**
      * Constructs a new builder.
      */
@@ -57,6 +134,9 @@ public class GVTBuilder implements SVGConstants {
         // inform the bridge context the builder to use
         ctx.setGVTBuilder(this);
 
+        // start loading the referenced images while the tree is built
+        ImagePrefetcher.prefetch(ctx, document);
+
         // build the GVT tree
         DocumentBridge dBridge = ctx.getDocumentBridge();
         RootGraphicsNode rootNode = null;
@@ -166,6 +246,10 @@ public class GVTBuilder implements SVGConstants {
     protected void buildComposite(BridgeContext ctx,
                                   Element e,
                                   CompositeGraphicsNode parentNode) {
+        if (canBuildInParallel(ctx)) {
+            buildCompositeInParallel(ctx, e, parentNode);
+            return;
+        }
         for (Node n = e.getFirstChild(); n != null; n = n.getNextSibling()) {
             if (n.getNodeType() == Node.ELEMENT_NODE) {
                 buildGraphicsNode(ctx, (Element)n, parentNode);
@@ -173,6 +257,232 @@ public class GVTBuilder implements SVGConstants {
         }
     }
 
+    /**
+     * Returns true if the children of composites may be built in
+     * parallel: the document is static and nothing is building in
+     * parallel already.
+     */
+    protected boolean canBuildInParallel(BridgeContext ctx) {
+        return PARALLEL_BUILD && (forkingThread == null)
+            && WorkerPool.isParallel()
+            && !WorkerPool.isWorkerThread() && !ctx.isDynamic()
+            && !ctx.isInteractive() && !ctx.isSVG12();
+    }
+
+    /**
+     * Builds the children of a composite element, the runs of
+     * independent siblings that are large enough being built on the
+     * worker pool.  The children are added in document order, and if
+     * building one of them fails the ones before it are still added.
+     */
+    protected void buildCompositeInParallel(BridgeContext ctx,
+                                            Element e,
+                                            CompositeGraphicsNode parentNode) {
+        // The subtrees of the children are checked once for the whole
+        // build, not again for each composite they hold.
+        boolean outermost = (prepared == null);
+        if (outermost)
+            prepared = new HashMap();
+        try {
+            buildChildrenInParallel(ctx, e, parentNode);
+        } finally {
+            if (outermost)
+                prepared = null;
+        }
+    }
+
+    /**
+     * Builds the children of a composite element for
+     * <code>buildCompositeInParallel</code>.
+     */
+    protected void buildChildrenInParallel(BridgeContext ctx,
+                                           Element e,
+                                           CompositeGraphicsNode parentNode) {
+        Node n = e.getFirstChild();
+        while (n != null) {
+            if (n.getNodeType() != Node.ELEMENT_NODE) {
+                n = n.getNextSibling();
+                continue;
+            }
+            // Gather the run of independent siblings starting here.
+            List run = new ArrayList();
+            int size = 0;
+            Node m = n;
+            for (; m != null; m = m.getNextSibling()) {
+                if (m.getNodeType() != Node.ELEMENT_NODE)
+                    continue;
+                int c = prepareIndependent(ctx, (Element)m);
+                if (c < 0)
+                    break;
+                run.add(m);
+                size += c;
+            }
+
+            if ((run.size() > 1) && (size >= PARALLEL_THRESHOLD)) {
+                buildInParallel(ctx, run, parentNode);
+            } else {
+                for (int i = 0; i < run.size(); i++)
+                    buildGraphicsNode(ctx, (Element)run.get(i), parentNode);
+            }
+
+            if (m != null) {
+                // m can't be built in parallel.
+                buildGraphicsNode(ctx, (Element)m, parentNode);
+                m = m.getNextSibling();
+            }
+            n = m;
+        }
+    }
+
+    /**
+     * Builds each element of <code>run</code> on the worker pool and
+     * adds the resulting nodes to <code>parentNode</code>, in order.
+     * If building several elements fails, the error of the first one
+     * in document order is thrown, after the nodes before it are
+     * added.
+     */
+    protected void buildInParallel(final BridgeContext ctx,
+                                   final List run,
+                                   CompositeGraphicsNode parentNode) {
+        int len = run.size();
+        final CompositeGraphicsNode [] holders = new CompositeGraphicsNode[len];
+        final RuntimeException [] errors = new RuntimeException[len];
+        final Thread caller = Thread.currentThread();
+        forkingThread = caller;
+        try {
+            WorkerPool.parallelFor(0, len, 1, new WorkerPool.RangeTask() {
+                    public void run(int start, int end) {
+                        for (int i = start; i < end; i++) {
+                            if (HaltingThread.hasBeenHalted(caller)) {
+                                errors[i] = new InterruptedBridgeException();
+                                return;
+                            }
+                            holders[i] = new CompositeGraphicsNode();
+                            try {
+                                buildGraphicsNode(ctx, (Element)run.get(i),
+                                                  holders[i]);
+                            } catch (RuntimeException ex) {
+                                errors[i] = ex;
+                            }
+                        }
+                    }
+                });
+        } finally {
+            forkingThread = null;
+        }
+
+        List children = parentNode.getChildren();
+        for (int i = 0; i < len; i++) {
+            if (holders[i] != null) {
+                while (!holders[i].isEmpty())
+                    children.add(holders[i].get(0));
+            }
+            if (errors[i] != null)
+                throw errors[i];
+        }
+    }
+
+    /**
+     * Returns the number of elements of the subtree rooted at
+     * <code>e</code> if it can be built independently of the rest of
+     * the document, or -1.  Such a subtree only holds groups and
+     * basic shapes that don't reference anything.  The styles of its
+     * elements are computed right away, so that building it only
+     * reads them.
+     */
+    protected int prepareIndependent(BridgeContext ctx, Element e) {
+        if (prepared == null)
+            return checkIndependent(ctx, e);
+        Integer c = (Integer)prepared.get(e);
+        if (c == null) {
+            c = new Integer(checkIndependent(ctx, e));
+            prepared.put(e, c);
+        }
+        return c.intValue();
+    }
+
+    /**
+     * Computes the result of <code>prepareIndependent</code>.
+     */
+    protected int checkIndependent(BridgeContext ctx, Element e) {
+        Bridge b = ctx.getBridge(e);
+        if (b == null) {
+            // Not rendered, but may hold generic elements.
+            return hasGenericBridges(ctx, e) ? -1 : 0;
+        }
+        if (!(b instanceof SVGShapeElementBridge) &&
+            (b.getClass() != SVGGElementBridge.class))
+            return -1;
+        if (!(e instanceof CSSStylableElement))
+            return -1;
+
+        CSSStylableElement se = (CSSStylableElement)e;
+        CSSEngine eng = CSSUtilities.getCSSEngine(e);
+        int np = eng.getNumberOfProperties();
+        for (int i = 0; i < np; i++)
+            eng.getComputedStyle(se, null, i);
+        if (!CSSUtilities.convertDisplay(e))
+            return hasGenericBridges(ctx, e) ? -1 : 0;
+
+        if (isReference(eng.getComputedStyle(se, null, SVGCSSEngine.FILL_INDEX))
+            || isReference(eng.getComputedStyle
+                           (se, null, SVGCSSEngine.STROKE_INDEX))
+            || isReference(eng.getComputedStyle
+                           (se, null, SVGCSSEngine.FILTER_INDEX))
+            || isReference(eng.getComputedStyle
+                           (se, null, SVGCSSEngine.MASK_INDEX))
+            || isReference(eng.getComputedStyle
+                           (se, null, SVGCSSEngine.CLIP_PATH_INDEX))
+            || isReference(eng.getComputedStyle
+                           (se, null, SVGCSSEngine.MARKER_START_INDEX))
+            || isReference(eng.getComputedStyle
+                           (se, null, SVGCSSEngine.MARKER_MID_INDEX))
+            || isReference(eng.getComputedStyle
+                           (se, null, SVGCSSEngine.MARKER_END_INDEX)))
+            return -1;
+
+        int count = 1;
+        for (Node n = e.getFirstChild(); n != null; n = n.getNextSibling()) {
+            if (n.getNodeType() != Node.ELEMENT_NODE)
+                continue;
+            int c;
+            if (b instanceof SVGShapeElementBridge)
+                c = hasGenericBridges(ctx, (Element)n) ||
+                    (ctx.getBridge((Element)n) instanceof GenericBridge)
+                    ? -1 : 0;
+            else
+                c = prepareIndependent(ctx, (Element)n);
+            if (c < 0)
+                return -1;
+            count += c;
+        }
+        return count;
+    }
+
+    /**
+     * Returns true if a property value may refer to another element
+     * (or to a color profile).
+     */
+    protected static boolean isReference(Value v) {
+        return (v.getCssValueType() != CSSValue.CSS_PRIMITIVE_VALUE)
+            || (v.getPrimitiveType() == CSSPrimitiveValue.CSS_URI);
+    }
+
+    /**
+     * Returns true if <code>e</code> has descendants handled by a
+     * {@link GenericBridge}.
+     */
+    protected boolean hasGenericBridges(BridgeContext ctx, Element e) {
+        for (Node n = e.getFirstChild(); n != null; n = n.getNextSibling()) {
+            if (n.getNodeType() != Node.ELEMENT_NODE)
+                continue;
+            if ((ctx.getBridge((Element)n) instanceof GenericBridge) ||
+                hasGenericBridges(ctx, (Element)n))
+                return true;
+        }
+        return false;
+    }
+
     /**
      * Builds a 'leaf' Element.
      *
@@ -186,12 +496,19 @@ public class GVTBuilder implements SVGConstants {
     protected void buildGraphicsNode(BridgeContext ctx,
                                      Element e,
                                      CompositeGraphicsNode parentNode) {
-        // Check If we should halt early.
-        if (HaltingThread.hasBeenHalted()) {
+        // Check If we should halt early.  Workers check the thread
+        // that handed them the work.
+        if (HaltingThread.hasBeenHalted() ||
+            HaltingThread.hasBeenHalted(forkingThread)) {
             throw new InterruptedBridgeException();
         }
         // get the appropriate bridge according to the specified element
         Bridge bridge = ctx.getBridge(e);
+        if ((bridge != null) && WorkerPool.isWorkerThread()) {
+            // the bridges of static documents are shared, don't let
+            // several threads use the same one
+            bridge = bridge.getInstance();
+        }
         if (bridge instanceof GenericBridge) {
             // If it is a GenericBridge just handle it and any GenericBridge
             // descendents and return.
@@ -216,7 +533,12 @@ public class GVTBuilder implements SVGConstants {
                 parentNode.getChildren().add(gn);
                 // check if the element has children to build
                 if (gnBridge.isComposite()) {
-                    buildComposite(ctx, e, (CompositeGraphicsNode)gn);
+                    if (isHiddenContent(ctx, e)) {
+                        ((CompositeGraphicsNode)gn).getChildren().add
+                            (new LazyCompositeGraphicsNode(ctx, e));
+                    } else {
+                        buildComposite(ctx, e, (CompositeGraphicsNode)gn);
+                    }
                 } else {
                     // if not then still handle the GenericBridges
                     handleGenericBridges(ctx, e);
@@ -240,6 +562,62 @@ public class GVTBuilder implements SVGConstants {
         }
     }
 
+    /**
+     * Returns true if the children of <code>e</code> don't need to be
+     * built until something asks for them: the document is static,
+     * and <code>e</code> and everything it would display is hidden,
+     * without a filter that could paint anyway.
+     *
+     * @param ctx the bridge context
+     * @param e the element whose children should be checked
+     */
+    protected boolean isHiddenContent(BridgeContext ctx, Element e) {
+        if (!LAZY_BUILD || ctx.isDynamic() || ctx.isInteractive())
+            return false;
+        if (!(e instanceof CSSStylableElement) ||
+            CSSUtilities.convertVisibility(e))
+            return false;
+        return isHiddenContent(ctx, e, true, false);
+    }
+
+    /**
+     * Checks the descendants of <code>e</code> for
+     * <code>isHiddenContent</code>.  <code>displayed</code> tells
+     * whether <code>e</code> is built at all, <code>leaf</code> whether
+     * it builds its content itself (text for example).
+     */
+    protected boolean isHiddenContent(BridgeContext ctx, Element e,
+                                      boolean displayed, boolean leaf) {
+        for (Node n = e.getFirstChild(); n != null; n = n.getNextSibling()) {
+            if (n.getNodeType() != Node.ELEMENT_NODE)
+                continue;
+            Element c = (Element)n;
+            Bridge b = ctx.getBridge(c);
+            if (b instanceof GenericBridge)
+                return false;       // must be handled right away
+
+            boolean d = displayed && CSSUtilities.convertDisplay(c)
+                && (leaf || (b instanceof GraphicsNodeBridge));
+            boolean l = leaf;
+            if (d) {
+                // A 'use' displays content that isn't in this subtree.
+                if ((b instanceof SVGUseElementBridge) ||
+                    !(c instanceof CSSStylableElement) ||
+                    CSSUtilities.convertVisibility(c))
+                    return false;
+                if (CSSUtilities.getComputedStyle
+                    (c, SVGCSSEngine.FILTER_INDEX).getPrimitiveType() ==
+                    CSSPrimitiveValue.CSS_URI)
+                    return false;
+                if (b instanceof GraphicsNodeBridge)
+                    l = !((GraphicsNodeBridge)b).isComposite();
+            }
+            if (!isHiddenContent(ctx, c, d, l))
+                return false;
+        }
+        return true;
+    }
+
     /**
      * Handles any GenericBridge elements which are children of the
      * specified element.
@@ -0,0 +1,210 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+
+import org.apache.batik.css.engine.SVGCSSEngine;
+import org.apache.batik.dom.AbstractNode;
+import org.apache.batik.ext.awt.image.renderable.Filter;
+import org.apache.batik.ext.awt.image.spi.ImageTagRegistry;
+import org.apache.batik.util.ParsedURL;
+import org.apache.batik.util.SVGConstants;
+import org.apache.batik.util.WorkerPool;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.NodeList;
+import org.w3c.dom.svg.SVGDocument;
+import org.w3c.dom.svg.SVGImageElement;
+
+/**
+ * Starts loading the raster images referenced by the &lt;image>
+ * elements of a document on the {@link WorkerPool} before the GVT
+ * tree is built.
+ *
+ * <p>The images are read through the {@link ImageTagRegistry} so they
+ * end up in its cache: when the {@link SVGImageElementBridge} later
+ * asks for an image it either gets it right away or waits for the
+ * load already in progress.  Only images that can be identified from
+ * their content are handled here; anything else (SVG documents,
+ * images that need a color profile...) is left to the bridge.</p>
+ *
+ * @version $Id$
+ */
+public class ImagePrefetcher implements SVGConstants {
+
+    /**
+     * No instances.
+     */
+    protected ImagePrefetcher() { }
+
+    /**
+     * Starts loading the images referenced by <code>document</code>.
+     * Does nothing unless the worker pool can run tasks concurrently.
+     */
+    public static void prefetch(BridgeContext ctx, Document document) {
+        if (!WorkerPool.isParallel())
+            return;
+
+        NodeList nl = document.getElementsByTagNameNS(SVG_NAMESPACE_URI,
+                                                      SVG_IMAGE_TAG);
+        int n = nl.getLength();
+        if (n == 0)
+            return;
+
+        ParsedURL pDocURL = null;
+        if (document instanceof SVGDocument) {
+            String docURL = ((SVGDocument)document).getURL();
+            if (docURL != null)
+                pDocURL = new ParsedURL(docURL);
+        }
+
+        UserAgent userAgent = ctx.getUserAgent();
+        Set seen = new HashSet();
+        for (int i = 0; i < n; i++) {
+            if (!(nl.item(i) instanceof SVGImageElement))
+                continue;
+            Element e = (Element)nl.item(i);
+            ParsedURL purl = getImageURL(e);
+            if ((purl == null) || !seen.add(purl))
+                continue;
+
+            // Images with a color profile are cached separately.
+            String cp = CSSUtilities.getComputedStyle
+                (e, SVGCSSEngine.COLOR_PROFILE_INDEX).getStringValue();
+            if (!CSS_AUTO_VALUE.equalsIgnoreCase(cp) && (cp.length() != 0))
+                continue;
+
+            try {
+                userAgent.checkLoadExternalResource(purl, pDocURL);
+            } catch (SecurityException se) {
+                continue;
+            }
+            WorkerPool.submit(new LoadImage(purl));
+        }
+    }
+
+    /**
+     * Returns the URL an &lt;image> element refers to, or null if it
+     * does not refer to an external resource.
+     */
+    protected static ParsedURL getImageURL(Element e) {
+        String uriStr;
+        try {
+            uriStr = ((SVGImageElement)e).getHref().getAnimVal();
+        } catch (RuntimeException ex) {
+            return null;
+        }
+        if ((uriStr.length() == 0) || (uriStr.indexOf('#') != -1))
+            return null;
+
+        String baseURI = AbstractNode.getBaseURI(e);
+        if (baseURI == null)
+            return new ParsedURL(uriStr);
+        return new ParsedURL(baseURI, uriStr);
+    }
+
+    /**
+     * Reads one image into the registry's cache.
+     */
+    protected static class LoadImage implements Callable {
+        protected ParsedURL purl;
+
+        public LoadImage(ParsedURL purl) {
+            this.purl = purl;
+        }
+
+        public Object call() {
+            ImageTagRegistry reg = ImageTagRegistry.getRegistry();
+            // Nothing to do if the image is already in the cache (this
+            // also waits for a load in progress).
+            if (reg.checkCache(purl, null) != null)
+                return null;
+
+            UseTrackingStream is;
+            try {
+                is = new UseTrackingStream
+                    (purl.openStream(reg.getRegisteredMimeTypes().iterator()));
+            } catch (IOException ioe) {
+                return null;
+            }
+
+            Filter img = null;
+            boolean done = false;
+            try {
+                // Don't let the registry reopen the URL, so that
+                // anything it can't recognize is left to the bridge.
+                img = reg.readURL(is, purl, null, false, false);
+                done = true;
+            } catch (RuntimeException ex) {
+            } finally {
+                if (!done) {
+                    // Get off the hook for this URL so the bridge
+                    // doesn't wait for it.
+                    reg.flushImage(purl);
+                }
+                // A decoder that got the stream closes it, the image
+                // may also have come from the cache without reading.
+                if ((img == null) || !is.used) {
+                    try {
+                        is.close();
+                    } catch (IOException ioe) {
+                    }
+                }
+            }
+            return img;
+        }
+    }
+
+    /**
+     * Remembers whether anything was read from a stream.
+     */
+    protected static class UseTrackingStream extends FilterInputStream {
+        protected volatile boolean used;
+
+        public UseTrackingStream(InputStream in) {
+            super(in);
+        }
+
+        public int read() throws IOException {
+            used = true;
+            return super.read();
+        }
+
+        public int read(byte [] b, int off, int len) throws IOException {
+            used = true;
+            return super.read(b, off, len);
+        }
+
+        public long skip(long n) throws IOException {
+            used = true;
+            return super.skip(n);
+        }
+
+        public boolean markSupported() {
+            // Let the registry buffer the stream.
+            return false;
+        }
+    }
+}
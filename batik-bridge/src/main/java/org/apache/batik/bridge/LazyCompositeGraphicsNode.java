@@ -0,0 +1,197 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.Iterator;
+import java.util.List;
+import java.util.ListIterator;
+
+import org.apache.batik.gvt.CompositeGraphicsNode;
+import org.apache.batik.gvt.GraphicsNode;
+import org.w3c.dom.Element;
+
+/**
+ * A composite graphics node standing for the children of an element
+ * whose content is entirely hidden.  The children are only built when
+ * something needs more than the (empty) painting of the node: its
+ * geometry, its sensitive area, its outline or the children
+ * themselves.
+ *
+ * <p>As the build no longer happens within {@link GVTBuilder#build},
+ * an error in the children is reported to the user agent through
+ * {@link UserAgent#displayError(Exception)} instead of being thrown
+ * from the accessor that triggered the build.  The children built
+ * before the error are kept, as a failing build would keep them.
+ * Once the context is reset (see {@link BridgeContext#reset()}) the
+ * children can no longer be built: the node stays empty and that is
+ * reported the same way.</p>
+ *
+ * @version $Id$
+ */
+public class LazyCompositeGraphicsNode extends CompositeGraphicsNode {
+
+    /**
+     * The bridge context used to build the children, null once
+     * they have been built.
+     */
+    protected BridgeContext ctx;
+
+    /**
+     * The element whose children this node holds.
+     */
+    protected Element element;
+
+    /**
+     * Creates a node that will build the children of <code>e</code>
+     * when they are needed.
+     */
+    public LazyCompositeGraphicsNode(BridgeContext ctx, Element e) {
+        this.ctx = ctx;
+        this.element = e;
+    }
+
+    /**
+     * Builds the children if that hasn't been done yet.
+     */
+    protected synchronized void build() {
+        if (ctx == null)
+            return;
+        BridgeContext bc = ctx;
+        ctx = null;
+        GVTBuilder builder = bc.getGVTBuilder();
+        if ((builder == null)
+                || (bc.getDocument() != element.getOwnerDocument())) {
+            // The context was reset: the children can't be built
+            // anymore, the node stays empty.
+            bc.getUserAgent().displayError(new IllegalStateException
+                ("The BridgeContext was reset before the content of a"
+                 + " hidden element was built"));
+            return;
+        }
+        try {
+            builder.buildComposite(bc, element, this);
+        } catch (BridgeException ex) {
+            bc.getUserAgent().displayError(ex);
+        }
+    }
+
+    public List getChildren() {
+        build();
+        return super.getChildren();
+    }
+
+    public Rectangle2D getGeometryBounds() {
+        build();
+        return super.getGeometryBounds();
+    }
+
+    public Rectangle2D getTransformedGeometryBounds(AffineTransform txf) {
+        build();
+        return super.getTransformedGeometryBounds(txf);
+    }
+
+    public Rectangle2D getSensitiveBounds() {
+        build();
+        return super.getSensitiveBounds();
+    }
+
+    public Rectangle2D getTransformedSensitiveBounds(AffineTransform txf) {
+        build();
+        return super.getTransformedSensitiveBounds(txf);
+    }
+
+    public boolean contains(Point2D p) {
+        build();
+        return super.contains(p);
+    }
+
+    public GraphicsNode nodeHitAt(Point2D p) {
+        build();
+        return super.nodeHitAt(p);
+    }
+
+    public Shape getOutline() {
+        build();
+        return super.getOutline();
+    }
+
+    public int size() {
+        build();
+        return super.size();
+    }
+
+    public boolean isEmpty() {
+        build();
+        return super.isEmpty();
+    }
+
+    public boolean contains(Object node) {
+        build();
+        return super.contains(node);
+    }
+
+    public Iterator iterator() {
+        build();
+        return super.iterator();
+    }
+
+    public Object [] toArray() {
+        build();
+        return super.toArray();
+    }
+
+    public Object [] toArray(Object [] a) {
+        build();
+        return super.toArray(a);
+    }
+
+    public Object get(int index) {
+        build();
+        return super.get(index);
+    }
+
+    public int indexOf(Object node) {
+        build();
+        return super.indexOf(node);
+    }
+
+    public int lastIndexOf(Object node) {
+        build();
+        return super.lastIndexOf(node);
+    }
+
+    public ListIterator listIterator() {
+        build();
+        return super.listIterator();
+    }
+
+    public ListIterator listIterator(int index) {
+        build();
+        return super.listIterator(index);
+    }
+
+    public List subList(int fromIndex, int toIndex) {
+        build();
+        return super.subList(fromIndex, toIndex);
+    }
+}
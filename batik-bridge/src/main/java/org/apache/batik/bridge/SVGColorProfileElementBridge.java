@@ -54,6 +54,14 @@ public class SVGColorProfileElementBridge extends AbstractSVGBridge
         return SVG_COLOR_PROFILE_TAG;
     }
 
+    /**
+     * Returns a new instance of this bridge, each document having its
+     * own profile names.
+     */
+    public Bridge getInstance() {
+        return new SVGColorProfileElementBridge();
+    }
+
     /**
      * Creates an ICC_ColorSpace according to the specified parameters.
      * <p>
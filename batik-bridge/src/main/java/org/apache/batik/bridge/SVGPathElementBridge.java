@@ -27,14 +27,13 @@ import org.apache.batik.anim.dom.SVGOMAnimatedPathData;
 import org.apache.batik.anim.dom.SVGOMPathElement;
 import org.apache.batik.css.engine.SVGCSSEngine;
 import org.apache.batik.dom.svg.LiveAttributeException;
-import org.apache.batik.dom.svg.SVGAnimatedPathDataSupport;
 import org.apache.batik.dom.svg.SVGPathContext;
+import org.apache.batik.ext.awt.geom.ExtendedGeneralPath;
 import org.apache.batik.ext.awt.geom.PathLength;
 import org.apache.batik.gvt.ShapeNode;
 import org.apache.batik.parser.AWTPathProducer;
 
 import org.w3c.dom.Element;
-import org.w3c.dom.svg.SVGPathSegList;
 
 /**
  * Bridge class for the &lt;path> element.
@@ -83,17 +82,17 @@ public class SVGPathElementBridge extends SVGDecoratedShapeElementBridge
 
         SVGOMPathElement pe = (SVGOMPathElement) e;
         AWTPathProducer app = new AWTPathProducer();
+        Shape shape = null;
         try {
             // 'd' attribute - required
             SVGOMAnimatedPathData _d = pe.getAnimatedPathData();
-            _d.check();
-            SVGPathSegList p = _d.getAnimatedPathSegList();
             app.setWindingRule(CSSUtilities.convertFillRule(e));
-            SVGAnimatedPathDataSupport.handlePathSegList(p, app);
+            _d.handlePathData(app);
+            shape = app.getShape();
         } catch (LiveAttributeException ex) {
             throw new BridgeException(ctx, ex);
         } finally {
-            shapeNode.setShape(app.getShape());
+            shapeNode.setShape(shape);
         }
     }
 
@@ -142,7 +141,11 @@ public class SVGPathElementBridge extends SVGDecoratedShapeElementBridge
     protected PathLength getPathLengthObj() {
         Shape s = ((ShapeNode)node).getShape();
         if (pathLengthShape != s) {
-            pathLength = new PathLength(s);
+            if (s instanceof ExtendedGeneralPath) {
+                pathLength = ((ExtendedGeneralPath) s).getPathLength();
+            } else {
+                pathLength = new PathLength(s);
+            }
             pathLengthShape = s;
         }
         return pathLength;
@@ -22,17 +22,23 @@ import java.awt.Cursor;
 import java.awt.RenderingHints;
 import java.awt.geom.AffineTransform;
 import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 
 import org.apache.batik.anim.dom.AbstractSVGAnimatedLength;
 import org.apache.batik.anim.dom.AnimatedLiveAttributeValue;
 import org.apache.batik.anim.dom.SVGOMAnimatedLength;
 import org.apache.batik.anim.dom.SVGOMDocument;
 import org.apache.batik.anim.dom.SVGOMUseElement;
+import org.apache.batik.css.engine.CSSEngine;
+import org.apache.batik.css.engine.value.Value;
 import org.apache.batik.dom.events.NodeEventTarget;
 import org.apache.batik.dom.svg.LiveAttributeException;
 import org.apache.batik.dom.svg.SVGOMUseShadowRoot;
 import org.apache.batik.gvt.CompositeGraphicsNode;
 import org.apache.batik.gvt.GraphicsNode;
+import org.apache.batik.gvt.ProxyGraphicsNode;
 import org.apache.batik.util.XMLConstants;
 
 import org.w3c.dom.Attr;
@@ -59,6 +65,25 @@ public class SVGUseElementBridge extends AbstractGraphicsNodeBridge {
      */
     protected ReferencedElementMutationListener l;
 
+    /**
+     * Whether &lt;use> elements of static documents share the tree
+     * built for identical uses of the same element.  Set the
+     * <code>org.apache.batik.use_instancing</code> system property to
+     * <code>false</code> to give each &lt;use> its own copy.
+     */
+    protected static final boolean INSTANCING;
+
+    static {
+        boolean b = true;
+        try {
+            b = !"false".equals
+                (System.getProperty("org.apache.batik.use_instancing"));
+        } catch (SecurityException se) {
+        } finally {
+            INSTANCING = b;
+        }
+    }
+
     /**
      * The bridge context for the referenced document.
      */
@@ -134,7 +159,29 @@ public class SVGUseElementBridge extends AbstractGraphicsNodeBridge {
             subCtx = (BridgeContext)refDocument.getCSSEngine().getCSSContext();
             theCtx = subCtx;
         }
-            
+
+        // In a static document the tree built for an earlier <use> of
+        // the same element, in the same context, can simply be shared.
+        List key = null;
+        if (INSTANCING && !ctx.isInteractive()) {
+            key = getInstanceKey(ctx, ue);
+            GraphicsNode shared = getInstance(ctx, refElement, key);
+            if (shared != null) {
+                if (gn == null) {
+                    gn = new CompositeGraphicsNode();
+                } else {
+                    int s = gn.size();
+                    for (int i=0; i<s; i++)
+                        gn.remove(0);
+                }
+                ProxyGraphicsNode proxy = new ProxyGraphicsNode();
+                proxy.setSource(shared);
+                gn.getChildren().add(proxy);
+                setUseAttributes(ctx, e, gn);
+                return gn;
+            }
+        }
+
         // import or clone the referenced element in current document
         Element localRefElement;
         localRefElement = (Element)document.importNode(refElement, true, true);
@@ -214,28 +261,14 @@ public class SVGUseElementBridge extends AbstractGraphicsNodeBridge {
 
         GVTBuilder builder = ctx.getGVTBuilder();
         GraphicsNode refNode = builder.build(ctx, g);
+        if ((key != null) && (refNode != null))
+            putInstance(ctx, refElement, key, refNode);
 
         ///////////////////////////////////////////////////////////////////////
 
         gn.getChildren().add(refNode);
 
-        gn.setTransform(computeTransform((SVGTransformable) e, ctx));
-
-        // set an affine transform to take into account the (x, y)
-        // coordinates of the <use> element
-
-        // 'visibility'
-        gn.setVisible(CSSUtilities.convertVisibility(e));
-
-        RenderingHints hints = null;
-        hints = CSSUtilities.convertColorRendering(e, hints);
-        if (hints != null)
-            gn.setRenderingHints(hints);
-
-        // 'enable-background'
-        Rectangle2D r = CSSUtilities.convertEnableBackground(e);
-        if (r != null)
-            gn.setBackgroundEnable(r);
+        setUseAttributes(ctx, e, gn);
 
         if (l != null) {
             // Remove event listeners
@@ -297,6 +330,103 @@ public class SVGUseElementBridge extends AbstractGraphicsNodeBridge {
         return gn;
     }
 
+    /**
+     * Sets the transform, visibility, rendering hints and background of
+     * the node built for a &lt;use> element.
+     */
+    protected void setUseAttributes(BridgeContext ctx, Element e,
+                                    CompositeGraphicsNode gn) {
+        gn.setTransform(computeTransform((SVGTransformable) e, ctx));
+
+        // set an affine transform to take into account the (x, y)
+        // coordinates of the <use> element
+
+        // 'visibility'
+        gn.setVisible(CSSUtilities.convertVisibility(e));
+
+        RenderingHints hints = null;
+        hints = CSSUtilities.convertColorRendering(e, hints);
+        if (hints != null)
+            gn.setRenderingHints(hints);
+
+        // 'enable-background'
+        Rectangle2D r = CSSUtilities.convertEnableBackground(e);
+        if (r != null)
+            gn.setBackgroundEnable(r);
+    }
+
+    /**
+     * Returns what, besides the referenced element, the tree built for
+     * <code>ue</code> depends on: the viewport, the width and height
+     * given to a referenced 'svg' or 'symbol', and the computed style
+     * the used content inherits from.
+     */
+    protected List getInstanceKey(BridgeContext ctx, SVGOMUseElement ue) {
+        List key = new ArrayList(4);
+        key.add(ctx.getViewport(ue));
+        try {
+            SVGOMAnimatedLength al = (SVGOMAnimatedLength) ue.getWidth();
+            key.add(al.isSpecified()
+                    ? al.getAnimVal().getValueAsString() : null);
+            al = (SVGOMAnimatedLength) ue.getHeight();
+            key.add(al.isSpecified()
+                    ? al.getAnimVal().getValueAsString() : null);
+        } catch (LiveAttributeException ex) {
+            throw new BridgeException(ctx, ex);
+        }
+
+        // Any property may be 'inherit'ed by the used content.
+        CSSEngine eng = CSSUtilities.getCSSEngine(ue);
+        StringBuffer sb = new StringBuffer();
+        int n = eng.getNumberOfProperties();
+        for (int i = 0; i < n; i++) {
+            Value v = eng.getComputedStyle(ue, null, i);
+            sb.append(v.getCssText());
+            sb.append(';');
+        }
+        key.add(sb.toString());
+        return key;
+    }
+
+    /**
+     * Returns the tree already built for a &lt;use> of
+     * <code>refElement</code> with the given key, or null.
+     */
+    protected static GraphicsNode getInstance(BridgeContext ctx,
+                                              Element refElement,
+                                              List key) {
+        Object o = ctx.getElementData(refElement);
+        if (!(o instanceof InstanceMap))
+            return null;
+        return (GraphicsNode)((InstanceMap)o).get(key);
+    }
+
+    /**
+     * Records the tree built for a &lt;use> of <code>refElement</code>
+     * so later uses with the same key can share it.
+     */
+    protected static void putInstance(BridgeContext ctx, Element refElement,
+                                      List key, GraphicsNode gn) {
+        Object o = ctx.getElementData(refElement);
+        InstanceMap m;
+        if (o instanceof InstanceMap) {
+            m = (InstanceMap)o;
+        } else if (o == null) {
+            m = new InstanceMap();
+            ctx.setElementData(refElement, m);
+        } else {
+            return;         // the element's data is used for something else
+        }
+        m.put(key, gn);
+    }
+
+    /**
+     * The trees built for the uses of an element, keyed by the value
+     * of <code>getInstanceKey</code>.
+     */
+    protected static class InstanceMap extends HashMap {
+    }
+
     public void dispose() {
         if (l != null) {
             // Remove event listeners
@@ -37,6 +37,7 @@ import org.apache.batik.dom.events.AbstractEvent;
 import org.apache.batik.gvt.GraphicsNode;
 import org.apache.batik.gvt.RootGraphicsNode;
 import org.apache.batik.gvt.UpdateTracker;
+import org.apache.batik.gvt.filter.FilterResultCache;
 import org.apache.batik.gvt.renderer.ImageRenderer;
 import org.apache.batik.util.EventDispatcher;
 import org.apache.batik.util.XMLConstants;
@@ -282,6 +283,9 @@ public class UpdateManager  {
                         if (root != null){
                             root.addTreeGraphicsNodeChangeListener
                                 (updateTracker);
+                            if (FilterResultCache.DEFAULT_MAX_BYTES > 0)
+                                root.setFilterResultCache
+                                    (new FilterResultCache());
                         }
 
                         repaintManager = new RepaintManager(r);
@@ -188,6 +188,19 @@ public class SVG12BridgeContext extends BridgeContext {
         }
     }
 
+    /**
+     * Disposes this BridgeContext and makes it ready for another
+     * document.
+     */
+    public void reset() {
+        super.reset();
+        bindingListener = null;
+        contentListener = null;
+        mouseCaptureTarget = null;
+        mouseCaptureSendAll = false;
+        mouseCaptureAutoRelease = false;
+    }
+
     /**
      * Adds a BindingListener to the XBLManager for the document, so that
      * XBL binding events can be passed on to the BridgeUpdateHandlers.
@@ -0,0 +1,220 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.io.StringReader;
+
+import org.apache.batik.anim.dom.SAXSVGDocumentFactory;
+import org.apache.batik.script.InterpreterPool;
+import org.apache.batik.util.SVGConstants;
+import org.apache.batik.util.XMLResourceDescriptor;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the bridge contexts share the bridges registered by the
+ * same extensions without sharing the changes made to them.
+ *
+ * @version $Id$
+ */
+public class BridgeContextTestCase {
+
+    static final String SVG_NS = SVGConstants.SVG_NAMESPACE_URI;
+
+    static final String CONTENT =
+        "<svg xmlns='http://www.w3.org/2000/svg' width='100' height='100'>\n"
+        + "<rect id='r' width='10' height='20'/>\n"
+        + "<circle id='c' cx='50' cy='50' r='5'/>\n"
+        + "</svg>\n";
+
+    static final String CONTENT_12 =
+        "<svg xmlns='http://www.w3.org/2000/svg' version='1.2'"
+        + " width='100' height='100'>\n"
+        + "<rect id='r' width='10' height='20'/>\n"
+        + "</svg>\n";
+
+    /**
+     * A bridge put in a context by hand.
+     */
+    static class RectBridge extends SVGRectElementBridge {
+        public Bridge getInstance() {
+            return new RectBridge();
+        }
+    }
+
+    static Document parse(String content) throws Exception {
+        SAXSVGDocumentFactory f = new SAXSVGDocumentFactory
+            (XMLResourceDescriptor.getXMLParserClassName());
+        return f.createDocument("http://example.org/test.svg",
+                                new StringReader(content));
+    }
+
+    static BridgeContext build(String content) throws Exception {
+        BridgeContext ctx = new BridgeContext(new UserAgentAdapter());
+        new GVTBuilder().build(ctx, parse(content));
+        return ctx;
+    }
+
+    static Element getElement(BridgeContext ctx, String id) {
+        return ctx.getDocument().getElementById(id);
+    }
+
+    @Test
+    public void testShared() throws Exception {
+        BridgeContext ctx1 = build(CONTENT);
+        BridgeContext ctx2 = build(CONTENT);
+        assertNotNull(ctx1.bridgeRegistry);
+        assertSame(ctx1.bridgeRegistry, ctx2.bridgeRegistry);
+
+        // Each context has bridges of its own.
+        Bridge b1 = ctx1.getBridge(getElement(ctx1, "r"));
+        Bridge b2 = ctx2.getBridge(getElement(ctx2, "r"));
+        assertTrue(b1 instanceof SVGRectElementBridge);
+        assertTrue(b2 instanceof SVGRectElementBridge);
+        assertTrue(b1 != b2);
+        assertTrue(b1 != ctx1.bridgeRegistry.getPrototype(SVG_NS, "rect"));
+    }
+
+    @Test
+    public void testPutBridge() throws Exception {
+        BridgeContext ctx1 = build(CONTENT);
+        BridgeContext ctx2 = build(CONTENT);
+        BridgeContext.BridgeRegistry reg = ctx1.bridgeRegistry;
+
+        Bridge rb = new RectBridge();
+        ctx1.putBridge(SVG_NS, "rect", rb);
+        assertSame(rb, ctx1.getBridge(getElement(ctx1, "r")));
+
+        // Neither the registry nor the other contexts see it.
+        assertSame(reg, ctx1.bridgeRegistry);
+        assertSame(SVGRectElementBridge.class,
+                   reg.getPrototype(SVG_NS, "rect").getClass());
+        assertSame(SVGRectElementBridge.class,
+                   ctx2.getBridge(getElement(ctx2, "r")).getClass());
+        BridgeContext ctx3 = build(CONTENT);
+        assertSame(SVGRectElementBridge.class,
+                   ctx3.getBridge(getElement(ctx3, "r")).getClass());
+    }
+
+    @Test
+    public void testRemoveBridge() throws Exception {
+        BridgeContext ctx1 = build(CONTENT);
+        BridgeContext ctx2 = build(CONTENT);
+        BridgeContext.BridgeRegistry reg = ctx1.bridgeRegistry;
+
+        ctx1.removeBridge(SVG_NS, "rect");
+        assertNull(ctx1.getBridge(getElement(ctx1, "r")));
+        assertTrue(ctx1.getBridge(getElement(ctx1, "c"))
+                   instanceof SVGCircleElementBridge);
+
+        // The element is no longer built in that context only.
+        GVTBuilder builder = new GVTBuilder();
+        assertNull(builder.build(ctx1, getElement(ctx1, "r")));
+        assertNotNull(builder.build(ctx1, getElement(ctx1, "c")));
+        assertNotNull(builder.build(ctx2, getElement(ctx2, "r")));
+
+        assertTrue(reg.getPrototype(SVG_NS, "rect") != null);
+        assertTrue(ctx2.getBridge(getElement(ctx2, "r"))
+                   instanceof SVGRectElementBridge);
+        BridgeContext ctx3 = build(CONTENT);
+        assertSame(reg, ctx3.bridgeRegistry);
+        assertTrue(ctx3.getBridge(getElement(ctx3, "r"))
+                   instanceof SVGRectElementBridge);
+    }
+
+    @Test
+    public void testExtensions() throws Exception {
+        // SVG 1.2 documents have more extensions, so another registry.
+        BridgeContext ctx1 = build(CONTENT);
+        BridgeContext ctx2 = build(CONTENT_12);
+        BridgeContext ctx3 = build(CONTENT_12);
+        assertTrue(ctx1.bridgeRegistry != ctx2.bridgeRegistry);
+        assertSame(ctx2.bridgeRegistry, ctx3.bridgeRegistry);
+        assertTrue(ctx2.bridgeRegistry.getPrototype(SVG_NS, "flowRoot")
+                   != null);
+        assertNull(ctx1.bridgeRegistry.getPrototype(SVG_NS, "flowRoot"));
+        assertEquals(ctx1.bridgeRegistry.getPrototype(SVG_NS, "rect")
+                     .getClass().getName(),
+                     SVGRectElementBridge.class.getName());
+        assertTrue(ctx2.bridgeRegistry.getPrototype(SVG_NS, "rect")
+                   instanceof SVGRectElementBridge);
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        BridgeContext ctx = new BridgeContext(new UserAgentAdapter());
+        ctx.setDynamicState(BridgeContext.DYNAMIC);
+        new GVTBuilder().build(ctx, parse(CONTENT));
+        UserAgent ua = ctx.getUserAgent();
+        InterpreterPool pool = ctx.getInterpreterPool();
+        DocumentLoader loader = ctx.getDocumentLoader();
+        TextPainter tp = ctx.getTextPainter();
+        BridgeContext.BridgeRegistry reg = ctx.bridgeRegistry;
+        Element r = getElement(ctx, "r");
+        assertNotNull(ctx.getGraphicsNode(r));
+        ctx.putBridge(SVG_NS, "rect", new RectBridge());
+        ctx.getFontFamilyMap().put("f", "f");
+        int listeners = ctx.eventListenerSet.size();
+        assertTrue(listeners > 0);
+
+        ctx.reset();
+
+        // What belongs to the document is dropped...
+        assertNull(ctx.getDocument());
+        assertNull(ctx.getGVTBuilder());
+        assertNull(ctx.getGraphicsNode(r));
+        assertNull(ctx.elementNodeMap);
+        assertNull(ctx.nodeElementMap);
+        assertNull(ctx.elementDataMap);
+        assertNull(ctx.namespaceURIMap);
+        assertNull(ctx.bridgeRegistry);
+        assertTrue(ctx.getFontFamilyMap().isEmpty());
+        assertTrue(ctx.interpreterMap.isEmpty());
+        assertEquals(0, ctx.eventListenerSet.size());
+        assertFalse(ctx.isDynamic());
+
+        // ...what doesn't is kept.
+        assertSame(ua, ctx.getUserAgent());
+        assertSame(ua.getFontFamilyResolver(), ctx.getFontFamilyResolver());
+        assertSame(pool, ctx.getInterpreterPool());
+        assertSame(loader, ctx.getDocumentLoader());
+        assertSame(tp, ctx.getTextPainter());
+
+        // The next document gets the shared registry again, without
+        // the bridge put by hand.
+        ctx.setDynamicState(BridgeContext.DYNAMIC);
+        new GVTBuilder().build(ctx, parse(CONTENT));
+        assertSame(reg, ctx.bridgeRegistry);
+        assertSame(SVGRectElementBridge.class,
+                   ctx.getBridge(getElement(ctx, "r")).getClass());
+        assertNotNull(ctx.getGraphicsNode(getElement(ctx, "r")));
+        assertNull(ctx.getGraphicsNode(r));
+        assertEquals(listeners, ctx.eventListenerSet.size());
+        ctx.dispose();
+    }
+}
@@ -0,0 +1,130 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.io.StringReader;
+
+import org.apache.batik.anim.dom.SAXSVGDocumentFactory;
+import org.apache.batik.anim.dom.SVGOMDocument;
+import org.apache.batik.dom.util.DocumentDescriptor;
+import org.apache.batik.util.XMLResourceDescriptor;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the documents handed out by {@link DocumentCache} are
+ * independent copies of the cached one, and that they keep what the
+ * parser recorded about it.
+ *
+ * @version $Id$
+ */
+public class DocumentCacheTestCase {
+
+    static final String URI = "http://example.org/test.svg";
+
+    static final String VARIANT = "test";
+
+    static String svg(String version) {
+        return "<svg xmlns='http://www.w3.org/2000/svg' version='"
+            + version + "' width='10' height='10'>\n"
+            + "<rect id='r' width='5' height='5'/>\n"
+            + "</svg>\n";
+    }
+
+    static class Parsed {
+        SVGOMDocument document;
+        DocumentDescriptor desc;
+    }
+
+    static Parsed parse(String content) throws Exception {
+        SAXSVGDocumentFactory f = new SAXSVGDocumentFactory
+            (XMLResourceDescriptor.getXMLParserClassName(), true);
+        Parsed p = new Parsed();
+        p.document = (SVGOMDocument)f.createSVGDocument
+            (URI, new StringReader(content));
+        p.desc = f.getDocumentDescriptor();
+        return p;
+    }
+
+    static SVGOMDocument roundTrip(Parsed p) {
+        DocumentCache cache = new DocumentCache(100);
+        cache.put(URI, VARIANT, p.document, p.desc);
+        Document d = cache.get(URI, VARIANT, new DocumentDescriptor());
+        assertNotNull(d);
+        return (SVGOMDocument)d;
+    }
+
+    @Test
+    public void testSVG12() throws Exception {
+        Parsed p = parse(svg("1.2"));
+        assertTrue(p.document.isSVG12());
+        SVGOMDocument copy = roundTrip(p);
+        assertTrue(copy.isSVG12());
+        assertSame(p.document.getClass(), copy.getClass());
+    }
+
+    @Test
+    public void testSVG11() throws Exception {
+        Parsed p = parse(svg("1.1"));
+        assertFalse(p.document.isSVG12());
+        assertFalse(roundTrip(p).isSVG12());
+    }
+
+    @Test
+    public void testCopies() throws Exception {
+        Parsed p = parse(svg("1.1"));
+        DocumentCache cache = new DocumentCache(100);
+        cache.put(URI, VARIANT, p.document, p.desc);
+
+        DocumentDescriptor desc = new DocumentDescriptor();
+        SVGOMDocument a = (SVGOMDocument)cache.get(URI, VARIANT, desc);
+        SVGOMDocument b = (SVGOMDocument)cache.get
+            (URI, VARIANT, new DocumentDescriptor());
+        assertNotSame(a, b);
+        assertEquals(p.document.getURL(), a.getURL());
+
+        Element r = a.getElementById("r");
+        assertNotNull(r);
+        assertEquals(p.desc.getLocationLine(p.document.getElementById("r")),
+                     desc.getLocationLine(r));
+
+        // Changing a copy touches neither the cache nor other copies.
+        r.setAttributeNS(null, "width", "7");
+        r.getParentNode().removeChild(r);
+        assertNull(a.getElementById("r"));
+        assertEquals("5", b.getElementById("r").getAttributeNS(null, "width"));
+        SVGOMDocument c = (SVGOMDocument)cache.get
+            (URI, VARIANT, new DocumentDescriptor());
+        assertEquals("5", c.getElementById("r").getAttributeNS(null, "width"));
+
+        assertNull(cache.get(URI, "other", new DocumentDescriptor()));
+        cache.flush();
+        assertNull(cache.get(URI, VARIANT, new DocumentDescriptor()));
+    }
+}
@@ -0,0 +1,267 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.io.StringReader;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.batik.anim.dom.SAXSVGDocumentFactory;
+import org.apache.batik.gvt.CompositeGraphicsNode;
+import org.apache.batik.gvt.GraphicsNode;
+import org.apache.batik.util.HaltingThread;
+import org.apache.batik.util.WorkerPool;
+import org.apache.batik.util.XMLResourceDescriptor;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Checks that building runs of independent siblings in parallel gives
+ * the same tree and the same errors as building them in order.
+ *
+ * @version $Id$
+ */
+public class GVTBuilderTestCase {
+
+    /**
+     * The number of shapes in the long runs of the test documents.
+     */
+    static final int RUN = GVTBuilder.PARALLEL_THRESHOLD + 500;
+
+    /**
+     * A builder that builds everything on the calling thread.
+     */
+    static class SerialBuilder extends GVTBuilder {
+        protected boolean canBuildInParallel(BridgeContext ctx) {
+            return false;
+        }
+    }
+
+    /**
+     * A builder that counts its parallel runs, the elements it checks
+     * and the elements it builds.
+     */
+    static class CountingBuilder extends GVTBuilder {
+        int runs;
+        Map checked = new HashMap();
+        int built;
+
+        protected void buildInParallel(BridgeContext ctx, List run,
+                                       CompositeGraphicsNode parentNode) {
+            runs++;
+            super.buildInParallel(ctx, run, parentNode);
+        }
+
+        protected int checkIndependent(BridgeContext ctx, Element e) {
+            Integer n = (Integer)checked.get(e);
+            checked.put(e, new Integer((n == null) ? 1 : n.intValue()+1));
+            return super.checkIndependent(ctx, e);
+        }
+
+        protected void buildGraphicsNode(BridgeContext ctx, Element e,
+                                         CompositeGraphicsNode parentNode) {
+            synchronized (this) {
+                built++;
+            }
+            super.buildGraphicsNode(ctx, e, parentNode);
+        }
+    }
+
+    /**
+     * Returns a document with a long run of shapes and groups, cut by
+     * an element using a gradient, followed by nested groups.
+     * <code>errors</code> lists the indices in the first run of the
+     * rectangles given a negative width and an id, they must be
+     * multiples of four or one more.
+     */
+    static String createContent(int [] errors) {
+        StringBuffer sb = new StringBuffer();
+        sb.append("<svg xmlns='http://www.w3.org/2000/svg'"
+                  + " width='400' height='400'>\n"
+                  + "<defs><linearGradient id='lg'>"
+                  + "<stop offset='0' stop-color='red'/>"
+                  + "<stop offset='1' stop-color='blue'/>"
+                  + "</linearGradient></defs>\n");
+        int e = 0;
+        for (int i = 0; i < RUN; i++) {
+            String w = "3";
+            if ((e < errors.length) && (errors[e] == i)) {
+                w = "-3' id='e" + i;
+                e++;
+            }
+            switch (i % 4) {
+            case 0:
+                sb.append("<rect x='" + (i % 397) + "' y='" + (i / 4)
+                          + "' width='" + w + "' height='2'/>\n");
+                break;
+            case 1:
+                sb.append("<g transform='translate(" + (i % 13) + ")'>"
+                          + "<circle cx='5' cy='" + (i / 4) + "' r='1'/>"
+                          + "<rect width='" + w + "' height='1'/>"
+                          + "</g>\n");
+                break;
+            case 2:
+                sb.append("<ellipse cx='" + (i % 101) + "' cy='7'"
+                          + " rx='2' ry='1' fill='green'/>\n");
+                break;
+            default:
+                sb.append("<polyline points='0,0 " + (i % 7) + ",3 9,1'"
+                          + " stroke='blue'/>\n");
+            }
+        }
+        sb.append("<rect width='10' height='10' fill='url(#lg)'/>\n");
+        sb.append("<g>");
+        for (int i = 0; i < RUN; i++) {
+            sb.append("<g transform='scale(1.5)'><g><line x2='" + i
+                      + "' y2='3' stroke='black'/></g></g>\n");
+        }
+        sb.append("</g>\n</svg>\n");
+        return sb.toString();
+    }
+
+    static Document parse(String content) throws Exception {
+        SAXSVGDocumentFactory f = new SAXSVGDocumentFactory
+            (XMLResourceDescriptor.getXMLParserClassName());
+        return f.createDocument("http://example.org/test.svg",
+                                new StringReader(content));
+    }
+
+    static GraphicsNode build(GVTBuilder builder, String content)
+        throws Exception {
+        BridgeContext ctx = new BridgeContext(new UserAgentAdapter());
+        return builder.build(ctx, parse(content));
+    }
+
+    static void assertSameTree(GraphicsNode expected, GraphicsNode actual) {
+        assertSame(expected.getClass(), actual.getClass());
+        assertEquals(expected.getTransform(), actual.getTransform());
+        assertEquals(expected.getPrimitiveBounds(),
+                     actual.getPrimitiveBounds());
+        if (expected instanceof CompositeGraphicsNode) {
+            List a = ((CompositeGraphicsNode)expected).getChildren();
+            List b = ((CompositeGraphicsNode)actual).getChildren();
+            assertEquals(a.size(), b.size());
+            for (int i = 0; i < a.size(); i++)
+                assertSameTree((GraphicsNode)a.get(i),
+                               (GraphicsNode)b.get(i));
+        }
+    }
+
+    @Test
+    public void testSameTree() throws Exception {
+        String content = createContent(new int[0]);
+        CountingBuilder builder = new CountingBuilder();
+        GraphicsNode parallel = build(builder, content);
+        assertSameTree(build(new SerialBuilder(), content), parallel);
+        if (!WorkerPool.isParallel())
+            return;
+        assertEquals(2, builder.runs);
+
+        // Each subtree was checked once, not again for each composite
+        // holding it.
+        assertTrue(builder.checked.size() > 4*RUN);
+        Object [] counts = builder.checked.values().toArray();
+        for (int i = 0; i < counts.length; i++)
+            assertEquals(new Integer(1), counts[i]);
+    }
+
+    static BridgeException buildError(GVTBuilder builder, String content)
+        throws Exception {
+        try {
+            build(builder, content);
+        } catch (BridgeException ex) {
+            return ex;
+        }
+        fail("the build should fail");
+        return null;
+    }
+
+    @Test
+    public void testFirstError() throws Exception {
+        // Several errors in the run: built in parallel, the later
+        // ones may well be found first.
+        String content = createContent(new int[] { 601, 1460, 1497 });
+        BridgeException serial = buildError(new SerialBuilder(), content);
+        BridgeException parallel = buildError(new GVTBuilder(), content);
+        assertSame(BridgeException.class, parallel.getClass());
+        assertEquals("e601", serial.getElement().getAttributeNS(null, "id"));
+        assertEquals("e601", parallel.getElement().getAttributeNS(null, "id"));
+        assertEquals(serial.getMessage(), parallel.getMessage());
+
+        // The nodes before the error are there in both trees.
+        assertSameTree(serial.getGraphicsNode(), parallel.getGraphicsNode());
+    }
+
+    /**
+     * A builder that halts the thread which started the build once
+     * <code>haltAt</code> elements are built.
+     */
+    static class HaltingBuilder extends CountingBuilder {
+        int haltAt;
+        Thread thread;
+
+        HaltingBuilder(int haltAt) {
+            this.haltAt = haltAt;
+        }
+
+        protected void buildGraphicsNode(BridgeContext ctx, Element e,
+                                         CompositeGraphicsNode parentNode) {
+            synchronized (this) {
+                if (built == haltAt)
+                    HaltingThread.haltThread(thread);
+            }
+            super.buildGraphicsNode(ctx, e, parentNode);
+        }
+    }
+
+    @Test
+    public void testHalt() throws Exception {
+        assumeTrue(WorkerPool.isParallel());
+        final String content = createContent(new int[0]);
+        final HaltingBuilder builder = new HaltingBuilder(RUN / 3);
+        final Exception [] error = new Exception[1];
+        HaltingThread t = new HaltingThread() {
+                public void run() {
+                    try {
+                        build(builder, content);
+                    } catch (Exception ex) {
+                        error[0] = ex;
+                    }
+                }
+            };
+        builder.thread = t;
+        t.start();
+        t.join();
+
+        assertTrue(error[0] instanceof InterruptedBridgeException);
+        // Once halted, each thread at most finishes the element it
+        // was building.
+        assertTrue("built " + builder.built,
+                   builder.built <= RUN / 3 + WorkerPool.PARALLELISM);
+    }
+}
@@ -0,0 +1,229 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.awt.geom.AffineTransform;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.batik.anim.dom.SAXSVGDocumentFactory;
+import org.apache.batik.gvt.CompositeGraphicsNode;
+import org.apache.batik.gvt.GraphicsNode;
+import org.apache.batik.util.XMLResourceDescriptor;
+
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that building the content of hidden elements lazily gives
+ * the same tree as building it right away, and that the errors in
+ * that content are still reported.
+ *
+ * @version $Id$
+ */
+public class LazyCompositeGraphicsNodeTestCase {
+
+    static final String SVG_START =
+        "<svg xmlns='http://www.w3.org/2000/svg' width='200' height='200'>\n";
+
+    static final String CONTENT = SVG_START
+        + "<rect x='10' y='10' width='20' height='20'/>\n"
+        + "<g id='hidden' visibility='hidden' transform='translate(50 5)'>\n"
+        + "  <rect x='0' y='0' width='30' height='40' stroke='black'"
+        + " stroke-width='4'/>\n"
+        + "  <g transform='scale(2)'>\n"
+        + "    <circle cx='60' cy='60' r='10'/>\n"
+        + "    <text x='5' y='70'>hidden</text>\n"
+        + "  </g>\n"
+        + "</g>\n"
+        + "<g id='outer' transform='rotate(10)'>\n"
+        + "  <rect x='100' y='20' width='10' height='10'/>\n"
+        + "  <g visibility='hidden'><rect x='-50' y='-50' width='5'"
+        + " height='5'/></g>\n"
+        + "</g>\n"
+        + "</svg>\n";
+
+    /**
+     * Records the errors instead of showing them.
+     */
+    static class ErrorUserAgent extends UserAgentAdapter {
+        List errors = new ArrayList();
+
+        public void displayError(Exception ex) {
+            errors.add(ex);
+        }
+    }
+
+    /**
+     * A builder that never defers the content of hidden elements.
+     */
+    static class EagerBuilder extends GVTBuilder {
+        protected boolean isHiddenContent(BridgeContext ctx, Element e) {
+            return false;
+        }
+    }
+
+    static Document parse(String content) throws Exception {
+        SAXSVGDocumentFactory f = new SAXSVGDocumentFactory
+            (XMLResourceDescriptor.getXMLParserClassName());
+        return f.createDocument("http://example.org/test.svg",
+                                new StringReader(content));
+    }
+
+    static GraphicsNode build(GVTBuilder builder, UserAgent ua,
+                              String content) throws Exception {
+        BridgeContext ctx = new BridgeContext(ua);
+        return builder.build(ctx, parse(content));
+    }
+
+    /**
+     * Returns the children of <code>gn</code>, those held by a lazy
+     * node being counted as children of its parent.
+     */
+    static List childrenOf(GraphicsNode gn) {
+        List result = new ArrayList();
+        if (gn instanceof CompositeGraphicsNode) {
+            List l = ((CompositeGraphicsNode)gn).getChildren();
+            for (int i = 0; i < l.size(); i++) {
+                Object o = l.get(i);
+                if (o instanceof LazyCompositeGraphicsNode)
+                    result.addAll(childrenOf((GraphicsNode)o));
+                else
+                    result.add(o);
+            }
+        }
+        return result;
+    }
+
+    static void assertSameBounds(GraphicsNode expected, GraphicsNode actual) {
+        assertEquals(expected.getBounds(), actual.getBounds());
+        assertEquals(expected.getPrimitiveBounds(),
+                     actual.getPrimitiveBounds());
+        assertEquals(expected.getGeometryBounds(),
+                     actual.getGeometryBounds());
+        assertEquals(expected.getSensitiveBounds(),
+                     actual.getSensitiveBounds());
+        List a = childrenOf(expected);
+        List b = childrenOf(actual);
+        assertEquals(a.size(), b.size());
+        for (int i = 0; i < a.size(); i++)
+            assertSameBounds((GraphicsNode)a.get(i), (GraphicsNode)b.get(i));
+    }
+
+    /**
+     * Returns the node built for the hidden group.
+     */
+    static GraphicsNode findHidden(GraphicsNode root) {
+        GraphicsNode canvas = (GraphicsNode)childrenOf(root).get(0);
+        return (GraphicsNode)childrenOf(canvas).get(1);
+    }
+
+    @Test
+    public void testRootBounds() throws Exception {
+        // Compares a root whose geometry is asked for first...
+        GraphicsNode eager = build(new EagerBuilder(),
+                                   new UserAgentAdapter(), CONTENT);
+        GraphicsNode lazy = build(new GVTBuilder(),
+                                  new UserAgentAdapter(), CONTENT);
+        assertEquals(eager.getGeometryBounds(), lazy.getGeometryBounds());
+        assertEquals(eager.getSensitiveBounds(), lazy.getSensitiveBounds());
+        assertEquals(eager.getBounds(), lazy.getBounds());
+    }
+
+    @Test
+    public void testPaintBoundsFirst() throws Exception {
+        // ...with one whose painted area is asked for first.
+        GraphicsNode eager = build(new EagerBuilder(),
+                                   new UserAgentAdapter(), CONTENT);
+        GraphicsNode lazy = build(new GVTBuilder(),
+                                  new UserAgentAdapter(), CONTENT);
+        assertEquals(eager.getBounds(), lazy.getBounds());
+        assertSameBounds(eager, lazy);
+    }
+
+    @Test
+    public void testHiddenNode() throws Exception {
+        GraphicsNode lazy = findHidden(build(new GVTBuilder(),
+                                             new UserAgentAdapter(), CONTENT));
+        // The content of the hidden group really is deferred.
+        Object child = ((CompositeGraphicsNode)lazy).getChildren().get(0);
+        assertTrue(child instanceof LazyCompositeGraphicsNode);
+
+        GraphicsNode eager = findHidden(build(new EagerBuilder(),
+                                              new UserAgentAdapter(), CONTENT));
+        assertEquals(eager.getGeometryBounds(), lazy.getGeometryBounds());
+        AffineTransform at = AffineTransform.getRotateInstance(0.5);
+        assertEquals(eager.getTransformedSensitiveBounds(at),
+                     lazy.getTransformedSensitiveBounds(at));
+        assertEquals(eager.getOutline().getBounds2D(),
+                     lazy.getOutline().getBounds2D());
+    }
+
+    @Test
+    public void testHiddenError() throws Exception {
+        String content = SVG_START
+            + "<g visibility='hidden'><rect width='-5' height='5'/></g>\n"
+            + "</svg>\n";
+        try {
+            build(new EagerBuilder(), new UserAgentAdapter(), content);
+            fail("eager build should fail");
+        } catch (BridgeException ex) {
+        }
+
+        // The lazy build only finds the error when the content is
+        // asked for, and reports it to the user agent.
+        ErrorUserAgent ua = new ErrorUserAgent();
+        GraphicsNode lazy = build(new GVTBuilder(), ua, content);
+        assertEquals(0, ua.errors.size());
+        lazy.getGeometryBounds();
+        assertEquals(1, ua.errors.size());
+        assertTrue(ua.errors.get(0) instanceof BridgeException);
+        // Once only.
+        lazy.getSensitiveBounds();
+        assertEquals(1, ua.errors.size());
+    }
+
+    @Test
+    public void testReset() throws Exception {
+        // The content can't be built once the context is reset, nor
+        // once it is used for another document.
+        for (int i = 0; i < 2; i++) {
+            ErrorUserAgent ua = new ErrorUserAgent();
+            BridgeContext ctx = new BridgeContext(ua);
+            GraphicsNode root = new GVTBuilder().build(ctx, parse(CONTENT));
+            CompositeGraphicsNode hidden = (CompositeGraphicsNode)
+                ((CompositeGraphicsNode)findHidden(root)).getChildren().get(0);
+            ctx.reset();
+            if (i == 1)
+                new GVTBuilder().build(ctx, parse(CONTENT));
+
+            assertEquals(0, hidden.getChildren().size());
+            assertEquals(1, ua.errors.size());
+            assertTrue(ua.errors.get(0) instanceof IllegalStateException);
+            hidden.getGeometryBounds();
+            assertEquals(1, ua.errors.size());
+        }
+    }
+}
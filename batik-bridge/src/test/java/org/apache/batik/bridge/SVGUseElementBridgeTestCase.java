@@ -0,0 +1,167 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.bridge;
+
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.io.StringReader;
+import java.util.List;
+
+import org.apache.batik.anim.dom.SAXSVGDocumentFactory;
+import org.apache.batik.gvt.CompositeGraphicsNode;
+import org.apache.batik.gvt.GraphicsNode;
+import org.apache.batik.gvt.ProxyGraphicsNode;
+import org.apache.batik.util.XMLResourceDescriptor;
+
+import org.w3c.dom.Document;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the &lt;use> elements of a static document share the
+ * tree built for the element they reference only when it would be
+ * built the same for each of them.
+ *
+ * @version $Id$
+ */
+public class SVGUseElementBridgeTestCase {
+
+    static final String CONTENT =
+        "<svg xmlns='http://www.w3.org/2000/svg'"
+        + " xmlns:xlink='http://www.w3.org/1999/xlink'"
+        + " width='200' height='200'>\n"
+        + "<defs>\n"
+        + "  <g id='s'>\n"
+        + "    <rect width='10' height='10'/>\n"
+        + "    <circle cx='20' cy='5' r='5' stroke='blue'/>\n"
+        + "  </g>\n"
+        + "  <symbol id='sym'>\n"
+        + "    <rect width='50%' height='10'/>\n"
+        + "  </symbol>\n"
+        + "</defs>\n"
+        + "<use xlink:href='#s' x='10'/>\n"
+        + "<use xlink:href='#s' x='50' y='20'/>\n"
+        + "<use xlink:href='#s' fill='red'/>\n"
+        + "<svg x='100' width='50' height='50'>\n"
+        + "  <use xlink:href='#s'/>\n"
+        + "</svg>\n"
+        + "<use xlink:href='#s' y='120'/>\n"
+        + "<use xlink:href='#sym' width='20' height='20'/>\n"
+        + "<use xlink:href='#sym' width='20' height='20' y='30'/>\n"
+        + "<use xlink:href='#sym' width='40' height='20' y='60'/>\n"
+        + "</svg>\n";
+
+    static Document parse(String content) throws Exception {
+        SAXSVGDocumentFactory f = new SAXSVGDocumentFactory
+            (XMLResourceDescriptor.getXMLParserClassName());
+        return f.createDocument("http://example.org/test.svg",
+                                new StringReader(content));
+    }
+
+    static GraphicsNode child(GraphicsNode gn, int i) {
+        return (GraphicsNode)((CompositeGraphicsNode)gn).getChildren().get(i);
+    }
+
+    /**
+     * Returns the content built for the &lt;use> node
+     * <code>use</code>: the tree of the referenced element, or the
+     * tree it shares.
+     */
+    static GraphicsNode content(GraphicsNode use) {
+        GraphicsNode gn = child(use, 0);
+        if (gn instanceof ProxyGraphicsNode)
+            return ((ProxyGraphicsNode)gn).getSource();
+        return gn;
+    }
+
+    /**
+     * Returns the bounds of <code>gn</code> in its parent's space.
+     */
+    static Rectangle2D bounds(GraphicsNode gn) {
+        return gn.getTransformedBounds(new AffineTransform());
+    }
+
+    static boolean isShared(GraphicsNode use) {
+        return child(use, 0) instanceof ProxyGraphicsNode;
+    }
+
+    @Test
+    public void testInstances() throws Exception {
+        BridgeContext ctx = new BridgeContext(new UserAgentAdapter());
+        GraphicsNode root = new GVTBuilder().build(ctx, parse(CONTENT));
+        List uses = ((CompositeGraphicsNode)child(root, 0)).getChildren();
+        assertEquals(8, uses.size());
+
+        GraphicsNode u1 = (GraphicsNode)uses.get(0);
+        GraphicsNode u2 = (GraphicsNode)uses.get(1);
+        GraphicsNode u3 = (GraphicsNode)uses.get(2);
+        GraphicsNode u4 = child((GraphicsNode)uses.get(3), 0);
+        GraphicsNode u5 = (GraphicsNode)uses.get(4);
+
+        // Identical uses share the first one's tree, each with its own
+        // position.
+        assertFalse(isShared(u1));
+        assertTrue(isShared(u2));
+        assertTrue(isShared(u5));
+        assertSame(content(u1), content(u2));
+        assertSame(content(u1), content(u5));
+        Rectangle2D b1 = bounds(u1);
+        Rectangle2D b2 = bounds(u2);
+        assertEquals(b1.getX() + 40, b2.getX(), 1e-9);
+        assertEquals(b1.getY() + 20, b2.getY(), 1e-9);
+        assertEquals(b1.getWidth(),  b2.getWidth(),  1e-9);
+        assertEquals(b1.getHeight(), b2.getHeight(), 1e-9);
+
+        // Another computed style or another viewport gets its own.
+        assertFalse(isShared(u3));
+        assertFalse(isShared(u4));
+        assertTrue(content(u3) != content(u1));
+        assertTrue(content(u4) != content(u1));
+
+        // A symbol shares its tree only with the uses of the same size.
+        GraphicsNode s1 = (GraphicsNode)uses.get(5);
+        GraphicsNode s2 = (GraphicsNode)uses.get(6);
+        GraphicsNode s3 = (GraphicsNode)uses.get(7);
+        assertFalse(isShared(s1));
+        assertTrue(isShared(s2));
+        assertFalse(isShared(s3));
+        assertSame(content(s1), content(s2));
+        assertEquals(10, bounds(s1).getWidth(), 1e-9);
+        assertEquals(10, bounds(s2).getWidth(), 1e-9);
+        assertEquals(20, bounds(s3).getWidth(), 1e-9);
+    }
+
+    @Test
+    public void testDynamic() throws Exception {
+        // The uses of dynamic documents keep a tree of their own.
+        BridgeContext ctx = new BridgeContext(new UserAgentAdapter());
+        ctx.setDynamicState(BridgeContext.DYNAMIC);
+        GraphicsNode root = new GVTBuilder().build(ctx, parse(CONTENT));
+        List uses = ((CompositeGraphicsNode)child(root, 0)).getChildren();
+        for (int i = 0; i < uses.size(); i++) {
+            if (i != 3)
+                assertFalse(isShared((GraphicsNode)uses.get(i)));
+        }
+        ctx.dispose();
+    }
+}
@@ -39,6 +39,7 @@ import org.apache.batik.ext.awt.image.renderable.ClipRable;
 import org.apache.batik.ext.awt.image.renderable.Filter;
 import org.apache.batik.gvt.event.GraphicsNodeChangeEvent;
 import org.apache.batik.gvt.event.GraphicsNodeChangeListener;
+import org.apache.batik.gvt.filter.FilterResultCache;
 import org.apache.batik.gvt.filter.GraphicsNodeRable;
 import org.apache.batik.gvt.filter.GraphicsNodeRable8Bit;
 import org.apache.batik.gvt.filter.Mask;
@@ -54,6 +55,18 @@ import org.apache.batik.util.HaltingThread;
  */
 public abstract class AbstractGraphicsNode implements GraphicsNode {
 
+    /**
+     * Hint holding the translucent composite set by a node painted in
+     * a single pass, which its descendants keep instead of setting an
+     * opaque source over composite of their own.
+     */
+    protected static final RenderingHints.Key KEY_SINGLE_PASS_COMPOSITE =
+        new RenderingHints.Key(0) {
+            public boolean isCompatibleValue(Object v) {
+                return v instanceof Composite;
+            }
+        };
+
     /**
      * The listeners list.
      */
@@ -431,6 +444,16 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
     /**
      * Paints this node.
      *
+     * <p>A node with a translucent source over composite is normally
+     * painted offscreen and the result composited.  When
+     * {@link #isSinglePass} says its content draws each pixel at most
+     * once, it is painted directly with the composite instead.  The
+     * result is the same, except for the partly covered pixels around
+     * the node's bounds which the clip of the offscreen buffer drops.
+     * Its descendants keep that composite rather than set an opaque
+     * one; a translucent composite the caller set on <code>g2d</code>
+     * is still replaced.</p>
+     *
      * @param g2d the Graphics2D to use
      */
     public void paint(Graphics2D g2d){
@@ -443,6 +466,16 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
         Rectangle2D bounds = getBounds();
         if (bounds == null) return;
 
+        // An opaque source over composite must not undo the translucent
+        // one set up by an ancestor painted in a single pass.  Any
+        // other composite found on g2d is replaced as before.
+        Composite comp = composite;
+        if (AlphaComposite.SrcOver.equals(comp)) {
+            Object spc = g2d.getRenderingHint(KEY_SINGLE_PASS_COMPOSITE);
+            if ((spc != null) && spc.equals(g2d.getComposite()))
+                comp = null;
+        }
+
         // Set up graphic context. It is important to setup the
         // transform first, because the clip is defined in this node's
         // user space.
@@ -458,8 +491,8 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
                 g2d.addRenderingHints(hints);
             if (transform != null)
                 g2d.transform(transform);
-            if (composite != null)
-                g2d.setComposite(composite);
+            if (comp != null)
+                g2d.setComposite(comp);
             g2d.clip(clip.getClipPath());
         } else {
             if (hints != null) {
@@ -470,9 +503,9 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
                 defaultTransform = g2d.getTransform();
                 g2d.transform(transform);
             }
-            if (composite != null) {
+            if (comp != null) {
                 defaultComposite = g2d.getComposite();
-                g2d.setComposite(composite);
+                g2d.setComposite(comp);
             }
         }
 
@@ -504,7 +537,26 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
 
             useOffscreen |= antialiasedClip;
 
-            if (!useOffscreen) {
+            // Group opacity over content that never draws a pixel twice
+            // gives the same result as painting with the translucent
+            // composite directly, so skip the offscreen buffer.
+            boolean singlePass = false;
+            if (useOffscreen && !antialiasedClip &&
+                (filter == null) && (mask == null) &&
+                isAlphaOver(composite) &&
+                isSinglePass(g2d.getTransform())) {
+                useOffscreen = false;
+                singlePass = true;
+            }
+
+            if (singlePass) {
+                // Render on this canvas, telling the descendants the
+                // composite is to be kept.
+                Graphics2D spG2d = (Graphics2D)g2d.create();
+                spG2d.setRenderingHint(KEY_SINGLE_PASS_COMPOSITE, composite);
+                primitivePaint(spG2d);
+                spG2d.dispose();
+            } else if (!useOffscreen) {
                 // Render on this canvas.
                 primitivePaint(g2d);
             } else {
@@ -516,6 +568,13 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
                 else {
                     // traceFilter(filter, "=====>> ");
                     filteredImage = filter;
+
+                    RootGraphicsNode root = getRoot();
+                    FilterResultCache frc = null;
+                    if (root != null)
+                        frc = root.getFilterResultCache();
+                    if (frc != null)
+                        filteredImage = frc.getFilter(this, filter);
                 }
 
                 if (mask != null) {
@@ -597,6 +656,48 @@ public abstract class AbstractGraphicsNode implements GraphicsNode {
                  !AlphaComposite.SrcOver.equals(composite)));
     }
 
+    /**
+     * Returns true if <code>c</code> is a (possibly translucent) source
+     * over composite.
+     */
+    protected static boolean isAlphaOver(Composite c) {
+        return ((c instanceof AlphaComposite) &&
+                (((AlphaComposite)c).getRule() == AlphaComposite.SRC_OVER));
+    }
+
+    /**
+     * Returns true if <code>primitivePaint</code> draws each device
+     * pixel at most once, in which case this node can be painted with
+     * a translucent composite rather than through an offscreen buffer.
+     * The default implementation returns false.
+     *
+     * @param usr2dev the transform from this node's user space (including
+     *        its own transform) to device space
+     */
+    protected boolean isSinglePass(AffineTransform usr2dev) {
+        return false;
+    }
+
+    /**
+     * Returns true if this node, painted by a parent whose user space is
+     * mapped to device space by <code>parent2dev</code>, draws each
+     * device pixel at most once using the composite the parent set.
+     */
+    protected boolean isSinglePassChild(AffineTransform parent2dev) {
+        if ((filter != null) || (mask != null) || (clip != null))
+            return false;
+        if ((composite != null) &&
+            !AlphaComposite.SrcOver.equals(composite))
+            return false;
+
+        AffineTransform at = parent2dev;
+        if (transform != null) {
+            at = new AffineTransform(parent2dev);
+            at.concatenate(transform);
+        }
+        return isSinglePass(at);
+    }
+
     /**
      * Returns true if there is a clip and it should be antialiased
      */
@@ -158,4 +158,14 @@ public class CanvasGraphicsNode extends CompositeGraphicsNode {
         }
         super.primitivePaint(g2d);
     }
+
+    /**
+     * Returns false if this node has a background, which the children
+     * draw over.
+     */
+    protected boolean isSinglePass(AffineTransform usr2dev) {
+        if (backgroundPaint != null)
+            return false;
+        return super.isSinglePass(usr2dev);
+    }
 }
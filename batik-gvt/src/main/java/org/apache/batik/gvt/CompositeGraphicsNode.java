@@ -25,7 +25,9 @@ import java.awt.geom.AffineTransform;
 import java.awt.geom.GeneralPath;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Comparator;
 import java.util.ConcurrentModificationException;
 import java.util.Iterator;
 import java.util.List;
@@ -167,6 +169,58 @@ public class CompositeGraphicsNode extends AbstractGraphicsNode
         }
     }
 
+    /**
+     * Returns true if every child can itself be painted in a single
+     * pass, paints with the composite it is given, and covers device
+     * pixels no other child touches.
+     */
+    protected boolean isSinglePass(AffineTransform usr2dev) {
+        int n = count;
+        Rectangle2D [] rects = new Rectangle2D[n];
+        int nr = 0;
+        for (int i = 0; i < n; i++) {
+            GraphicsNode gn = children[i];
+            if (gn == null)
+                continue;
+            if (!(gn instanceof AbstractGraphicsNode))
+                return false;
+            AbstractGraphicsNode agn = (AbstractGraphicsNode)gn;
+            if (!agn.isSinglePassChild(usr2dev))
+                return false;
+
+            Rectangle2D r = agn.getTransformedBounds(usr2dev);
+            if (r == null)
+                continue;
+            // Anti-aliasing touches the pixels along the edges.
+            rects[nr++] = new Rectangle2D.Double
+                (r.getX()-1, r.getY()-1, r.getWidth()+2, r.getHeight()+2);
+        }
+        return !hasOverlap(rects, nr);
+    }
+
+    /**
+     * Returns true if two of the first <code>n</code> rectangles of
+     * <code>rects</code> intersect.
+     */
+    protected static boolean hasOverlap(Rectangle2D [] rects, int n) {
+        Arrays.sort(rects, 0, n, new Comparator() {
+                public int compare(Object o1, Object o2) {
+                    double x1 = ((Rectangle2D)o1).getMinX();
+                    double x2 = ((Rectangle2D)o2).getMinX();
+                    return (x1 < x2) ? -1 : ((x1 > x2) ? 1 : 0);
+                }
+            });
+        for (int i = 0; i < n; i++) {
+            Rectangle2D r = rects[i];
+            double maxX = r.getMaxX();
+            for (int j = i+1; (j < n) && (rects[j].getMinX() < maxX); j++) {
+                if (r.intersects(rects[j]))
+                    return true;
+            }
+        }
+        return false;
+    }
+
     //
     // Event support methods
     //
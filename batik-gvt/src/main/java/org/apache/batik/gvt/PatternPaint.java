@@ -173,11 +173,13 @@ public class PatternPaint implements Paint {
                 (p[2] == q[2]) && (p[3] == q[3])) {
                 if ((p[4] == q[4]) && (p[5] == q[5]))
                     return lastContext;
-                else
+                // The cached tiles can only be reused if they are
+                // off by a whole number of device pixels.
+                double dx = q[4]-p[4];
+                double dy = q[5]-p[5];
+                if ((dx == Math.floor(dx)) && (dy == Math.floor(dy)))
                     return new PatternPaintContextWrapper
-                        (lastContext,
-                         (int)(q[4]-p[4]+0.5),
-                         (int)(q[5]-p[5]+0.5));
+                        (lastContext, (int)dx, (int)dy);
             }
         }
         // System.out.println("CreateContext Called: " + this);
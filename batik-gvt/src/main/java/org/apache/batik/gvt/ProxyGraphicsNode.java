@@ -70,14 +70,25 @@ public class ProxyGraphicsNode extends AbstractGraphicsNode {
         }
     }
 
+    /**
+     * Returns true if the proxied node draws each device pixel at most
+     * once.
+     */
+    protected boolean isSinglePass(AffineTransform usr2dev) {
+        return ((source instanceof AbstractGraphicsNode) &&
+                ((AbstractGraphicsNode)source).isSinglePassChild(usr2dev));
+    }
+
     /**
      * Returns the bounds of the area covered by this node's primitive paint.
+     * This is the area painted by the proxied node, including its own
+     * transform.
      */
     public Rectangle2D getPrimitiveBounds() {
         if (source == null) 
             return null;
 
-        return source.getBounds();
+        return source.getTransformedBounds(IDENTITY);
     }
 
     /**
@@ -96,7 +107,7 @@ public class ProxyGraphicsNode extends AbstractGraphicsNode {
             t = new AffineTransform(txf);
             t.concatenate(transform);
         }
-        return source.getTransformedPrimitiveBounds(t);
+        return source.getTransformedBounds(t);
     }
 
     /**
@@ -109,7 +120,7 @@ public class ProxyGraphicsNode extends AbstractGraphicsNode {
         if (source == null) 
             return null;
 
-        return source.getGeometryBounds();
+        return source.getTransformedGeometryBounds(IDENTITY);
     }
 
     /**
@@ -144,7 +155,7 @@ public class ProxyGraphicsNode extends AbstractGraphicsNode {
         if (source == null) 
             return null;
 
-        return source.getSensitiveBounds();
+        return source.getTransformedSensitiveBounds(IDENTITY);
     }
 
     /**
@@ -154,6 +165,10 @@ public class ProxyGraphicsNode extends AbstractGraphicsNode {
         if (source == null) 
             return null;
 
-        return source.getOutline();
+        Shape outline = source.getOutline();
+        AffineTransform at = source.getTransform();
+        if ((outline == null) || (at == null))
+            return outline;
+        return at.createTransformedShape(outline);
     }
 }
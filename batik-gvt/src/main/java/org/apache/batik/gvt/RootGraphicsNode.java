@@ -22,6 +22,7 @@ import java.util.LinkedList;
 import java.util.List;
 
 import org.apache.batik.gvt.event.GraphicsNodeChangeListener;
+import org.apache.batik.gvt.filter.FilterResultCache;
 
 /**
  * The top-level graphics node of the GVT tree.
@@ -33,6 +34,12 @@ public class RootGraphicsNode extends CompositeGraphicsNode {
 
     List treeGraphicsNodeChangeListeners = null;
 
+    /**
+     * The cache of filter results used when painting this tree, or
+     * null.
+     */
+    protected FilterResultCache filterResultCache;
+
    /**
      * Constructs a new empty <code>RootGraphicsNode</code>.
      */
@@ -63,4 +70,26 @@ public class RootGraphicsNode extends CompositeGraphicsNode {
         getTreeGraphicsNodeChangeListeners().remove(l);
     }
 
+    /**
+     * Returns the cache of filter results used when painting this
+     * tree, or null if filter results are not kept between paints.
+     */
+    public FilterResultCache getFilterResultCache() {
+        return filterResultCache;
+    }
+
+    /**
+     * Sets the cache of filter results used when painting this tree.
+     * The cache is registered as a tree listener so that it sees the
+     * changes made to the tree.
+     * @param frc the new cache, or null to stop caching filter results
+     */
+    public void setFilterResultCache(FilterResultCache frc) {
+        if (filterResultCache != null)
+            removeTreeGraphicsNodeChangeListener(filterResultCache);
+        filterResultCache = frc;
+        if (frc != null)
+            addTreeGraphicsNodeChangeListener(frc);
+    }
+
 }
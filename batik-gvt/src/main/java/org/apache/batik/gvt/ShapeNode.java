@@ -20,6 +20,7 @@ package org.apache.batik.gvt;
 
 import java.awt.Graphics2D;
 import java.awt.Shape;
+import java.awt.geom.AffineTransform;
 import java.awt.geom.Point2D;
 import java.awt.geom.Rectangle2D;
 
@@ -154,6 +155,42 @@ public class ShapeNode extends AbstractGraphicsNode {
         }
     }
 
+    /**
+     * Returns true if the shape painter fills or strokes the shape, but
+     * not both, and draws no markers.
+     */
+    protected boolean isSinglePass(AffineTransform usr2dev) {
+        return getPassCount(shapePainter) <= 1;
+    }
+
+    /**
+     * Returns the number of times <code>sp</code> may draw over the
+     * same pixel, or <code>Integer.MAX_VALUE</code> if that's not known.
+     */
+    protected static int getPassCount(ShapePainter sp) {
+        if (sp == null)
+            return 0;
+        if (sp instanceof FillShapePainter)
+            return (((FillShapePainter)sp).getPaint() == null) ? 0 : 1;
+        if (sp instanceof StrokeShapePainter) {
+            StrokeShapePainter ssp = (StrokeShapePainter)sp;
+            return ((ssp.getPaint() == null) ||
+                    (ssp.getStroke() == null)) ? 0 : 1;
+        }
+        if (sp instanceof CompositeShapePainter) {
+            CompositeShapePainter csp = (CompositeShapePainter)sp;
+            int n = 0;
+            for (int i = 0; i < csp.getShapePainterCount(); i++) {
+                int c = getPassCount(csp.getShapePainter(i));
+                if (c == Integer.MAX_VALUE)
+                    return c;
+                n += c;
+            }
+            return n;
+        }
+        return Integer.MAX_VALUE;
+    }
+
     //
     // Geometric methods
     //
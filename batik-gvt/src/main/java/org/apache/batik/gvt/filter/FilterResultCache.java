@@ -0,0 +1,384 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt.filter;
+
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.RenderedImage;
+import java.awt.image.renderable.RenderContext;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.batik.ext.awt.image.GraphicsUtil;
+import org.apache.batik.ext.awt.image.renderable.AbstractRable;
+import org.apache.batik.ext.awt.image.renderable.Filter;
+import org.apache.batik.ext.awt.image.rendered.AbstractTiledRed;
+import org.apache.batik.ext.awt.image.rendered.CachableRed;
+import org.apache.batik.ext.awt.image.rendered.TileCacheRed;
+import org.apache.batik.ext.awt.image.rendered.TranslateRed;
+import org.apache.batik.gvt.GraphicsNode;
+import org.apache.batik.gvt.event.GraphicsNodeChangeAdapter;
+import org.apache.batik.gvt.event.GraphicsNodeChangeEvent;
+
+/**
+ * Keeps the rendered output of node filters from one repaint of a
+ * dynamic document to the next.
+ *
+ * <p>A result is reused as long as the filter graph, the filtered
+ * node and its descendants are unchanged and the device transform
+ * differs only by a whole pixel translation, so moving a filtered node
+ * or changing one of its siblings no longer re-runs its filter.  The
+ * cache listens to the tree's {@link GraphicsNodeChangeEvent}s: a
+ * change to a node drops the results of the node and all its
+ * ancestors, except that a change of a node's own transform keeps the
+ * node's result (its filter works in the node's user space).</p>
+ *
+ * <p>Filters that read other parts of the tree (BackgroundImage, or
+ * feImage referencing an element) are never cached.</p>
+ *
+ * <p>The size of a result is counted as four bytes per pixel of the
+ * device bounds of its filter, and the total is bounded by
+ * {@link #getMaxBytes}, which defaults to the
+ * <code>org.apache.batik.filter_cache_size</code> system property
+ * (16MB).  This is a nominal size: it limits how many and how large
+ * results are kept, not the memory they use.  The pixels of a result
+ * are its tiles, computed only where the result is drawn and held by
+ * the shared {@link org.apache.batik.ext.awt.image.rendered.TileCache},
+ * which drops them under memory pressure like any other tile.  A tile
+ * dropped that way is computed again from the unchanged filter.</p>
+ *
+ * <p>Results are drawn as images.  Without the cache, filters that
+ * can (see {@link org.apache.batik.ext.awt.image.renderable.PaintRable})
+ * draw their sources straight on the canvas; the two only differ by
+ * the rounding of antialiased edges, which the tests check.</p>
+ *
+ * @version $Id$
+ */
+public class FilterResultCache extends GraphicsNodeChangeAdapter {
+
+    /**
+     * The default maximum size of the cache, in bytes.
+     */
+    public static final long DEFAULT_MAX_BYTES;
+
+    static {
+        long value = 16*1024*1024;
+        try {
+            String s = System.getProperty
+                ("org.apache.batik.filter_cache_size", String.valueOf(value));
+            value = Long.parseLong(s);
+        } catch (SecurityException se) {
+        } catch (NumberFormatException nfe) {
+        } finally {
+            DEFAULT_MAX_BYTES = value;
+        }
+    }
+
+    /**
+     * The rendering hints that affect what a filter produces.  Other
+     * hints (like the area of interest) change from paint to paint.
+     */
+    protected static final RenderingHints.Key [] HINT_KEYS = {
+        RenderingHints.KEY_RENDERING,
+        RenderingHints.KEY_ANTIALIASING,
+        RenderingHints.KEY_TEXT_ANTIALIASING,
+        RenderingHints.KEY_INTERPOLATION,
+        RenderingHints.KEY_COLOR_RENDERING,
+        RenderingHints.KEY_ALPHA_INTERPOLATION,
+        RenderingHints.KEY_FRACTIONALMETRICS,
+        RenderingHints.KEY_STROKE_CONTROL,
+        RenderingHints.KEY_DITHERING
+    };
+
+    /**
+     * How close to a whole pixel a translation must be for a result
+     * to be reused.
+     */
+    protected static final double EPS = 1e-6;
+
+    protected static final AffineTransform IDENTITY = new AffineTransform();
+
+    protected long maxBytes = DEFAULT_MAX_BYTES;
+    protected long curBytes;
+
+    /**
+     * Maps the weak references of GraphicsNodes (see
+     * <code>GraphicsNode.getWeakReference</code>) to the Result of
+     * their filter, least recently used first.
+     */
+    protected LinkedHashMap results = new LinkedHashMap(16, 0.75f, true);
+
+    /**
+     * The transforms of the nodes that have a change in progress.
+     */
+    protected Map pending = new IdentityHashMap();
+
+    /**
+     * Returns the maximum number of bytes of results kept, counted as
+     * four bytes per device pixel of each result.
+     */
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Sets the maximum number of bytes of results kept.  Zero or less
+     * disables the cache.
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        this.maxBytes = maxBytes;
+        evict();
+    }
+
+    /**
+     * Returns the nominal number of bytes of the results currently
+     * kept, see {@link #getMaxBytes}.
+     */
+    public synchronized long getSize() {
+        return curBytes;
+    }
+
+    /**
+     * Drops all the cached results.
+     */
+    public synchronized void clear() {
+        results.clear();
+        curBytes = 0;
+    }
+
+    /**
+     * Returns the filter <code>gn</code> should draw in place of
+     * <code>filter</code>.
+     */
+    public synchronized Filter getFilter(GraphicsNode gn, Filter filter) {
+        if (maxBytes <= 0)
+            return filter;
+        return new CachedFilter(gn, filter);
+    }
+
+    public void changeStarted(GraphicsNodeChangeEvent gnce) {
+        GraphicsNode gn = gnce.getGraphicsNode();
+        AffineTransform at = gn.getTransform();
+        synchronized (this) {
+            pending.put(gn, (at == null) ? IDENTITY : new AffineTransform(at));
+        }
+    }
+
+    public void changeCompleted(GraphicsNodeChangeEvent gnce) {
+        GraphicsNode gn = gnce.getGraphicsNode();
+        AffineTransform at = gn.getTransform();
+        if (at == null) at = IDENTITY;
+        synchronized (this) {
+            Object oat = pending.remove(gn);
+            // Every change fires its own pair of events, so if the
+            // transform moved this was a transform change.
+            if ((oat == null) || oat.equals(at))
+                invalidate(gn);
+
+            GraphicsNode p = gn.getParent();
+            while (p != null) {
+                invalidate(p);
+                p = p.getParent();
+            }
+        }
+    }
+
+    /**
+     * Drops the result for <code>gn</code>'s filter if any.
+     */
+    protected void invalidate(GraphicsNode gn) {
+        Result r = (Result)results.remove(gn.getWeakReference());
+        if (r != null)
+            curBytes -= r.bytes;
+    }
+
+    /**
+     * Removes the least recently used results until the cache fits in
+     * <code>maxBytes</code>.
+     */
+    protected void evict() {
+        Iterator i = results.values().iterator();
+        while ((curBytes > maxBytes) && i.hasNext()) {
+            Result r = (Result)i.next();
+            i.remove();
+            curBytes -= r.bytes;
+        }
+    }
+
+    /**
+     * Renders <code>cf</code>, reusing the previous result if nothing it
+     * depends on has changed.
+     */
+    protected RenderedImage createRendering(CachedFilter cf,
+                                            RenderContext rc) {
+        Filter src = cf.getSource();
+        GraphicsNode gn = cf.node;
+        long stamp = getStamp(src, gn);
+        if (stamp < 0)
+            return src.createRendering(rc);
+
+        AffineTransform at = rc.getTransform();
+        Rectangle2D bounds = src.getBounds2D();
+        Rectangle devR = at.createTransformedShape(bounds).getBounds();
+        long bytes = 4L*devR.width*devR.height;
+        synchronized (this) {
+            // Leave room for a few results.
+            if (bytes > maxBytes/4)
+                return src.createRendering(rc);
+        }
+
+        RenderingHints rh = rc.getRenderingHints();
+        Object [] hints = new Object[HINT_KEYS.length];
+        if (rh != null) {
+            for (int i=0; i<hints.length; i++)
+                hints[i] = rh.get(HINT_KEYS[i]);
+        }
+
+        Object key = gn.getWeakReference();
+        Result r;
+        synchronized (this) {
+            r = (Result)results.get(key);
+        }
+        if ((r != null) && (r.filter == src) && (r.stamp == stamp) &&
+            (r.at.getScaleX() == at.getScaleX()) &&
+            (r.at.getShearX() == at.getShearX()) &&
+            (r.at.getShearY() == at.getShearY()) &&
+            (r.at.getScaleY() == at.getScaleY()) &&
+            Arrays.equals(r.hints, hints)) {
+            double dx = at.getTranslateX()-r.at.getTranslateX();
+            double dy = at.getTranslateY()-r.at.getTranslateY();
+            long ix = Math.round(dx);
+            long iy = Math.round(dy);
+            if ((Math.abs(dx-ix) < EPS) && (Math.abs(dy-iy) < EPS)) {
+                if ((r.red == null) || ((ix == 0) && (iy == 0)))
+                    return r.red;
+                return new TranslateRed(r.red,
+                                        r.red.getMinX()+(int)ix,
+                                        r.red.getMinY()+(int)iy);
+            }
+        }
+
+        // Render all of our bounds, not just the area of interest, so
+        // the result can be reused when the visible part moves.  Only
+        // the tiles actually drawn get computed.
+        RenderedImage ri = src.createRendering
+            (new RenderContext(at, bounds, rh));
+        CachableRed cr = null;
+        if (ri != null) {
+            cr = GraphicsUtil.wrap(ri);
+            if (!(cr instanceof AbstractTiledRed))
+                cr = new TileCacheRed(cr);
+        }
+
+        r = new Result(src, new AffineTransform(at), hints, stamp, cr, bytes);
+        synchronized (this) {
+            Result old = (Result)results.put(key, r);
+            if (old != null)
+                curBytes -= old.bytes;
+            curBytes += bytes;
+            evict();
+        }
+        return cr;
+    }
+
+    /**
+     * Returns a value that changes whenever one of the filters in the
+     * graph rooted at <code>f</code> is modified, or -1 if the graph
+     * depends on nodes other than <code>gn</code> and can't be cached.
+     */
+    protected static long getStamp(Filter f, GraphicsNode gn) {
+        if (f instanceof BackgroundRable8Bit)
+            return -1;
+        if ((f instanceof GraphicsNodeRable) &&
+            (((GraphicsNodeRable)f).getGraphicsNode() != gn))
+            return -1;
+
+        long stamp = f.getTimeStamp();
+        List srcs = f.getSources();
+        if (srcs == null)
+            return stamp;
+        Iterator i = srcs.iterator();
+        while (i.hasNext()) {
+            Object o = i.next();
+            if (!(o instanceof Filter))
+                continue;
+            long s = getStamp((Filter)o, gn);
+            if (s < 0)
+                return -1;
+            stamp += s;
+        }
+        return stamp;
+    }
+
+    /**
+     * A cached rendering of a filter.
+     */
+    protected static class Result {
+        Filter          filter;
+        AffineTransform at;
+        Object []       hints;
+        long            stamp;
+        CachableRed     red;
+        long            bytes;
+
+        Result(Filter filter, AffineTransform at, Object [] hints,
+               long stamp, CachableRed red, long bytes) {
+            this.filter = filter;
+            this.at     = at;
+            this.hints  = hints;
+            this.stamp  = stamp;
+            this.red    = red;
+            this.bytes  = bytes;
+        }
+    }
+
+    /**
+     * The filter a node draws instead of its own when it is cached.
+     */
+    protected class CachedFilter extends AbstractRable {
+        GraphicsNode node;
+
+        CachedFilter(GraphicsNode gn, Filter filter) {
+            super(filter);
+            node = gn;
+        }
+
+        public Filter getSource() {
+            return (Filter)getSources().get(0);
+        }
+
+        public Rectangle2D getBounds2D() {
+            return getSource().getBounds2D();
+        }
+
+        public long getTimeStamp() {
+            return getSource().getTimeStamp();
+        }
+
+        public RenderedImage createRendering(RenderContext rc) {
+            return FilterResultCache.this.createRendering(this, rc);
+        }
+    }
+}
@@ -0,0 +1,269 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt;
+
+import java.awt.AlphaComposite;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Composite;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.Shape;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that nodes with group opacity painted in a single pass look
+ * like the same nodes painted through an offscreen buffer, and that
+ * the nodes which can't be painted in one pass still use the buffer.
+ *
+ * @version $Id$
+ */
+public class AbstractGraphicsNodeTestCase {
+
+    static final int SIZE = 80;
+
+    static final Composite HALF =
+        AlphaComposite.getInstance(AlphaComposite.SRC_OVER, 0.5f);
+
+    /**
+     * A group always painted through an offscreen buffer.
+     */
+    static class OffscreenGroup extends CompositeGraphicsNode {
+        protected boolean isSinglePass(AffineTransform usr2dev) {
+            return false;
+        }
+    }
+
+    /**
+     * A shape always painted through an offscreen buffer.
+     */
+    static class OffscreenShape extends ShapeNode {
+        protected boolean isSinglePass(AffineTransform usr2dev) {
+            return false;
+        }
+    }
+
+    static ShapeNode createShape(ShapeNode sn, Shape s, Color fill,
+                                 Color stroke) {
+        sn.setShape(s);
+        // Like the bridge, which sets the opacity of every node.
+        sn.setComposite(AlphaComposite.SrcOver);
+        ShapePainter fp = null;
+        if (fill != null) {
+            FillShapePainter p = new FillShapePainter(s);
+            p.setPaint(fill);
+            fp = p;
+        }
+        if (stroke != null) {
+            StrokeShapePainter p = new StrokeShapePainter(s);
+            p.setPaint(stroke);
+            p.setStroke(new BasicStroke(3.5f));
+            if (fp == null) {
+                fp = p;
+            } else {
+                CompositeShapePainter csp = new CompositeShapePainter(s);
+                csp.addShapePainter(fp);
+                csp.addShapePainter(p);
+                fp = csp;
+            }
+        }
+        sn.setShapePainter(fp);
+        return sn;
+    }
+
+    static Shape ellipse(double x, double y, double w, double h) {
+        return new Ellipse2D.Double(x, y, w, h);
+    }
+
+    static BufferedImage paint(GraphicsNode gn, Composite c) {
+        BufferedImage bi = new BufferedImage
+            (SIZE, SIZE, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g2d = bi.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                             RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setRenderingHint(RenderingHints.KEY_RENDERING,
+                             RenderingHints.VALUE_RENDER_QUALITY);
+        // A background for the translucent nodes to blend with.
+        g2d.setPaint(new Color(200, 230, 90));
+        g2d.fillRect(0, 0, SIZE, SIZE);
+        g2d.transform(scale());
+        if (c != null)
+            g2d.setComposite(c);
+        gn.paint(g2d);
+        g2d.dispose();
+        return bi;
+    }
+
+    static BufferedImage paint(GraphicsNode gn) {
+        return paint(gn, null);
+    }
+
+    /**
+     * Returns the largest difference of a color or alpha component.
+     */
+    static int maxDiff(BufferedImage a, BufferedImage b) {
+        int max = 0;
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                int p = a.getRGB(x, y);
+                int q = b.getRGB(x, y);
+                for (int s = 0; s < 32; s += 8) {
+                    int d = Math.abs(((p >>> s) & 0xFF) - ((q >>> s) & 0xFF));
+                    if (d > max)
+                        max = d;
+                }
+            }
+        }
+        return max;
+    }
+
+    /**
+     * The device transform of the tests.  The shapes' bounds fall on
+     * whole device pixels under it: the offscreen buffer is clipped to
+     * the bounds, which would otherwise drop the partly covered pixels
+     * around them that the direct paint keeps.
+     */
+    static AffineTransform scale() {
+        return AffineTransform.getScaleInstance(1.25, 1.25);
+    }
+
+    @Test
+    public void testShape() {
+        Shape s = ellipse(8, 12, 30.4, 20.8);
+        ShapeNode direct = createShape(new ShapeNode(), s, Color.blue, null);
+        direct.setComposite(HALF);
+        ShapeNode offscreen =
+            createShape(new OffscreenShape(), s, Color.blue, null);
+        offscreen.setComposite(HALF);
+
+        assertTrue(direct.isSinglePass(scale()));
+        assertEquals(0, maxDiff(paint(offscreen), paint(direct)));
+
+        ShapeNode stroked = createShape(new ShapeNode(), s, null, Color.red);
+        stroked.setComposite(HALF);
+        assertTrue(stroked.isSinglePass(scale()));
+    }
+
+    static CompositeGraphicsNode createGroup(CompositeGraphicsNode g,
+                                             boolean overlap) {
+        g.setComposite(HALF);
+        g.add(createShape(new ShapeNode(), ellipse(5.6, 8, 20, 24.8),
+                          Color.blue, null));
+        g.add(createShape(new ShapeNode(),
+                          ellipse(overlap ? 20 : 32, 10.4, 24.8, 15.2),
+                          Color.red, null));
+        ShapeNode moved = createShape(new ShapeNode(),
+                                      ellipse(0, 0, 12, 12),
+                                      Color.black, null);
+        moved.setTransform(AffineTransform.getTranslateInstance(40.8, 40));
+        g.add(moved);
+        return g;
+    }
+
+    @Test
+    public void testGroup() {
+        CompositeGraphicsNode direct = createGroup
+            (new CompositeGraphicsNode(), false);
+        CompositeGraphicsNode offscreen = createGroup
+            (new OffscreenGroup(), false);
+
+        assertTrue(direct.isSinglePass(scale()));
+        BufferedImage d = paint(direct);
+        assertEquals(0, maxDiff(paint(offscreen), d));
+
+        // The children kept the group opacity: the middle of the
+        // blue ellipse is half blue over the background.
+        int p = d.getRGB((int)(15*1.25), (int)(20*1.25));
+        assertEquals(100, (p >>> 16) & 0xFF, 1);
+        assertEquals(115, (p >>>  8) & 0xFF, 1);
+        assertEquals(172, p & 0xFF, 1);
+    }
+
+    @Test
+    public void testOverlap() {
+        // Overlapping children must go through the buffer, where the
+        // overlap is not drawn twice.
+        CompositeGraphicsNode direct = createGroup
+            (new CompositeGraphicsNode(), true);
+        CompositeGraphicsNode offscreen = createGroup
+            (new OffscreenGroup(), true);
+
+        assertFalse(direct.isSinglePass(scale()));
+        assertEquals(0, maxDiff(paint(offscreen), paint(direct)));
+    }
+
+    @Test
+    public void testStrokeAndFill() {
+        // The stroke is drawn over the inner half of the fill's edge.
+        Shape s = ellipse(8, 12, 30.4, 20.8);
+        ShapeNode direct = createShape(new ShapeNode(), s,
+                                       Color.blue, Color.red);
+        direct.setComposite(HALF);
+        ShapeNode offscreen = createShape(new OffscreenShape(), s,
+                                          Color.blue, Color.red);
+        offscreen.setComposite(HALF);
+
+        assertFalse(direct.isSinglePass(scale()));
+        assertEquals(0, maxDiff(paint(offscreen), paint(direct)));
+    }
+
+    static ProxyGraphicsNode createProxy(ProxyGraphicsNode proxy) {
+        GraphicsNode src = createGroup(new CompositeGraphicsNode(), false);
+        src.setComposite(AlphaComposite.SrcOver);
+        proxy.setSource(src);
+        proxy.setComposite(HALF);
+        return proxy;
+    }
+
+    @Test
+    public void testProxy() {
+        // The proxied node is not a child of the proxy, it keeps the
+        // composite of the proxy all the same.
+        ProxyGraphicsNode direct = createProxy(new ProxyGraphicsNode());
+        ProxyGraphicsNode offscreen = createProxy(new ProxyGraphicsNode() {
+                protected boolean isSinglePass(AffineTransform usr2dev) {
+                    return false;
+                }
+            });
+
+        assertTrue(direct.isSinglePass(scale()));
+        assertEquals(0, maxDiff(paint(offscreen), paint(direct)));
+    }
+
+    @Test
+    public void testInheritedComposite() {
+        // A translucent composite set by the caller is replaced by the
+        // opaque one of the node, as it always was.
+        Shape s = ellipse(8, 12, 30.4, 20.8);
+        ShapeNode sn = createShape(new ShapeNode(), s, Color.blue, null);
+        assertEquals(0, maxDiff(paint(sn), paint(sn, HALF)));
+
+        CompositeGraphicsNode g = new CompositeGraphicsNode();
+        g.setComposite(AlphaComposite.SrcOver);
+        g.add(sn);
+        assertEquals(0, maxDiff(paint(g), paint(g, HALF)));
+    }
+}
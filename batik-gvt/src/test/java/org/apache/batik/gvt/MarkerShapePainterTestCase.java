@@ -0,0 +1,127 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.GeneralPath;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the area painted by markers includes the transform of
+ * the marker content, as set by the bridge for 'markerUnits' and
+ * 'viewBox'.
+ *
+ * @version $Id$
+ */
+public class MarkerShapePainterTestCase {
+
+    static final int SIZE = 100;
+
+    /**
+     * Returns a marker drawing a 3 by 3 square, scaled by
+     * <code>scale</code> like a marker sized in stroke widths.
+     */
+    static Marker createMarker(double scale, double orient) {
+        Rectangle2D r = new Rectangle2D.Double(0, 0, 3, 3);
+        ShapeNode sn = new ShapeNode();
+        sn.setShape(r);
+        FillShapePainter p = new FillShapePainter(r);
+        p.setPaint(Color.black);
+        sn.setShapePainter(p);
+
+        CompositeGraphicsNode content = new CompositeGraphicsNode();
+        content.getChildren().add(sn);
+        content.setTransform(AffineTransform.getScaleInstance(scale, scale));
+        return new Marker(content, new Point2D.Double(0, 0), orient);
+    }
+
+    static MarkerShapePainter createPainter(double orient) {
+        GeneralPath path = new GeneralPath();
+        path.moveTo(20, 20);
+        path.lineTo(50, 20);
+        path.lineTo(80, 20);
+        MarkerShapePainter msp = new MarkerShapePainter(path);
+        msp.setStartMarker(createMarker(4, orient));
+        msp.setEndMarker(createMarker(4, orient));
+        return msp;
+    }
+
+    /**
+     * Returns the bounds of the pixels <code>msp</code> paints.
+     */
+    static Rectangle getPaintedPixels(MarkerShapePainter msp) {
+        BufferedImage bi = new BufferedImage
+            (SIZE, SIZE, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g2d = bi.createGraphics();
+        msp.paint(g2d);
+        g2d.dispose();
+        Rectangle r = null;
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                if ((bi.getRGB(x, y) >>> 24) == 0)
+                    continue;
+                if (r == null)
+                    r = new Rectangle(x, y, 1, 1);
+                else
+                    r.add(new Rectangle(x, y, 1, 1));
+            }
+        }
+        return r;
+    }
+
+    @Test
+    public void testBounds() {
+        // Each marker covers 12 by 12 units at its vertex.  Without the
+        // transform of the content the area was the 3 by 3 square at
+        // each vertex.
+        MarkerShapePainter msp = createPainter(0);
+        Rectangle2D expected = new Rectangle2D.Double(20, 20, 72, 12);
+        assertEquals(expected, msp.getPaintedBounds2D());
+        assertEquals(expected, msp.getPaintedArea().getBounds2D());
+        assertEquals(expected, getPaintedPixels(msp));
+
+        assertTrue(msp.inPaintedArea(new Point2D.Double(30, 30)));
+        assertTrue(msp.inPaintedArea(new Point2D.Double(90, 30)));
+        assertFalse(msp.inPaintedArea(new Point2D.Double(50, 25)));
+    }
+
+    @Test
+    public void testOrientedBounds() {
+        // Turned a quarter, the markers extend to the left of the
+        // vertices.
+        MarkerShapePainter msp = createPainter(90);
+        Rectangle2D expected = new Rectangle2D.Double(8, 20, 72, 12);
+        Rectangle2D actual = msp.getPaintedBounds2D();
+        assertEquals(expected.getX(),      actual.getX(),      1e-9);
+        assertEquals(expected.getY(),      actual.getY(),      1e-9);
+        assertEquals(expected.getWidth(),  actual.getWidth(),  1e-9);
+        assertEquals(expected.getHeight(), actual.getHeight(), 1e-9);
+        assertEquals(expected, getPaintedPixels(msp));
+    }
+}
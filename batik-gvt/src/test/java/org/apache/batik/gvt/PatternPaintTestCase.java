@@ -0,0 +1,98 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that a {@link PatternPaint} drawn again at another position
+ * gives the same pixels as a new paint drawn there.
+ *
+ * @version $Id$
+ */
+public class PatternPaintTestCase {
+
+    static final int SIZE = 60;
+
+    static PatternPaint createPaint() {
+        Ellipse2D e = new Ellipse2D.Double(1.3, 2.1, 5.5, 4.25);
+        ShapeNode sn = new ShapeNode();
+        sn.setShape(e);
+        FillShapePainter p = new FillShapePainter(e);
+        p.setPaint(Color.red);
+        sn.setShapePainter(p);
+        return new PatternPaint(sn, new Rectangle2D.Double(0, 0, 9, 7),
+                                false, null);
+    }
+
+    static BufferedImage fill(PatternPaint pp, AffineTransform at) {
+        BufferedImage bi = new BufferedImage
+            (SIZE, SIZE, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g2d = bi.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                             RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.transform(at);
+        g2d.setPaint(pp);
+        g2d.fill(new Rectangle2D.Double(-20, -20, SIZE+40, SIZE+40));
+        g2d.dispose();
+        return bi;
+    }
+
+    static void assertSameImage(BufferedImage expected,
+                                BufferedImage actual) {
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                if (expected.getRGB(x, y) != actual.getRGB(x, y))
+                    assertEquals("pixel " + x + "," + y,
+                                 Integer.toHexString(expected.getRGB(x, y)),
+                                 Integer.toHexString(actual.getRGB(x, y)));
+            }
+        }
+    }
+
+    static void check(AffineTransform at) {
+        PatternPaint pp = createPaint();
+        fill(pp, AffineTransform.getScaleInstance(1.5, 1.5));
+        AffineTransform t = AffineTransform.getScaleInstance(1.5, 1.5);
+        t.preConcatenate(at);
+        assertSameImage(fill(createPaint(), t), fill(pp, t));
+    }
+
+    @Test
+    public void testWholePixelTranslation() {
+        check(AffineTransform.getTranslateInstance(7, -4));
+    }
+
+    @Test
+    public void testFractionalTranslation() {
+        // The tiles of the last context are off by a fraction of a
+        // pixel, they can't be reused by shifting them.
+        check(AffineTransform.getTranslateInstance(3.5, 1.25));
+        check(AffineTransform.getTranslateInstance(-0.4, 0));
+    }
+}
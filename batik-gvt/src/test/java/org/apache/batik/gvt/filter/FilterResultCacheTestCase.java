@@ -0,0 +1,258 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.gvt.filter;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Ellipse2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.awt.image.renderable.RenderContext;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.batik.ext.awt.image.renderable.AbstractRable;
+import org.apache.batik.ext.awt.image.renderable.AffineRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.CompositeRable8Bit;
+import org.apache.batik.ext.awt.image.renderable.Filter;
+import org.apache.batik.ext.awt.image.renderable.GaussianBlurRable8Bit;
+import org.apache.batik.ext.awt.image.CompositeRule;
+import org.apache.batik.gvt.FillShapePainter;
+import org.apache.batik.gvt.RootGraphicsNode;
+import org.apache.batik.gvt.ShapeNode;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks when {@link FilterResultCache} reuses the result of a node's
+ * filter, and that a reused result draws like a new one.
+ *
+ * @version $Id$
+ */
+public class FilterResultCacheTestCase {
+
+    static final int SIZE = 80;
+
+    /**
+     * Counts the renderings of the filter it wraps.
+     */
+    static class CountingRable extends AbstractRable {
+        int count;
+
+        CountingRable(Filter src) {
+            super(src);
+        }
+
+        public Rectangle2D getBounds2D() {
+            return ((Filter)getSources().get(0)).getBounds2D();
+        }
+
+        public RenderedImage createRendering(RenderContext rc) {
+            count++;
+            return ((Filter)getSources().get(0)).createRendering(rc);
+        }
+    }
+
+    static ShapeNode createShape(double x, double y, Color c) {
+        ShapeNode sn = new ShapeNode();
+        Ellipse2D e = new Ellipse2D.Double(x, y, 25.3, 17.7);
+        sn.setShape(e);
+        FillShapePainter p = new FillShapePainter(e);
+        p.setPaint(c);
+        sn.setShapePainter(p);
+        return sn;
+    }
+
+    /**
+     * Returns a blurred copy of the node merged under it, like a drop
+     * shadow.
+     */
+    static Filter createShadow(ShapeNode sn) {
+        Filter src = new GraphicsNodeRable8Bit(sn);
+        Filter blur = new GaussianBlurRable8Bit(src, 2.5, 2.5);
+        Filter offset = new AffineRable8Bit
+            (blur, AffineTransform.getTranslateInstance(3, 2));
+        List srcs = new ArrayList();
+        srcs.add(offset);
+        srcs.add(src);
+        return new CompositeRable8Bit(srcs, CompositeRule.OVER, false);
+    }
+
+    static BufferedImage paint(RootGraphicsNode root, AffineTransform at) {
+        BufferedImage bi = new BufferedImage
+            (SIZE, SIZE, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g2d = bi.createGraphics();
+        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+                             RenderingHints.VALUE_ANTIALIAS_ON);
+        g2d.setRenderingHint(RenderingHints.KEY_RENDERING,
+                             RenderingHints.VALUE_RENDER_QUALITY);
+        g2d.transform(at);
+        root.paint(g2d);
+        g2d.dispose();
+        return bi;
+    }
+
+    /**
+     * Returns the largest difference of a color or alpha component.
+     */
+    static int maxDiff(BufferedImage a, BufferedImage b) {
+        int max = 0;
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                int p = a.getRGB(x, y);
+                int q = b.getRGB(x, y);
+                for (int s = 0; s < 32; s += 8) {
+                    int d = Math.abs(((p >>> s) & 0xFF) - ((q >>> s) & 0xFF));
+                    if (d > max)
+                        max = d;
+                }
+            }
+        }
+        return max;
+    }
+
+    static AffineTransform translate(double tx, double ty) {
+        return AffineTransform.getTranslateInstance(tx, ty);
+    }
+
+    @Test
+    public void testReuse() {
+        RootGraphicsNode root = new RootGraphicsNode();
+        ShapeNode sn = createShape(20, 25, Color.blue);
+        CountingRable filter = new CountingRable(createShadow(sn));
+        sn.setFilter(filter);
+        root.add(sn);
+        root.setFilterResultCache(new FilterResultCache());
+
+        paint(root, translate(0, 0));
+        assertEquals(1, filter.count);
+        paint(root, translate(0, 0));
+        assertEquals(1, filter.count);
+
+        // A whole pixel translation draws the same result moved.
+        BufferedImage moved = paint(root, translate(7, -4));
+        assertEquals(1, filter.count);
+
+        RootGraphicsNode root2 = new RootGraphicsNode();
+        ShapeNode sn2 = createShape(20, 25, Color.blue);
+        sn2.setFilter(createShadow(sn2));
+        root2.add(sn2);
+        root2.setFilterResultCache(new FilterResultCache());
+        assertEquals(0, maxDiff(paint(root2, translate(7, -4)), moved));
+
+        // A sub pixel translation or a scale needs a new result.
+        paint(root, translate(7.5, -4));
+        assertEquals(2, filter.count);
+        paint(root, AffineTransform.getScaleInstance(1.25, 1.25));
+        assertEquals(3, filter.count);
+    }
+
+    @Test
+    public void testInvalidate() {
+        RootGraphicsNode root = new RootGraphicsNode();
+        ShapeNode sn = createShape(20, 25, Color.blue);
+        ShapeNode other = createShape(40, 40, Color.red);
+        CountingRable filter = new CountingRable(createShadow(sn));
+        sn.setFilter(filter);
+        root.add(sn);
+        root.add(other);
+        root.setFilterResultCache(new FilterResultCache());
+
+        paint(root, translate(0, 0));
+        assertEquals(1, filter.count);
+
+        // A change to another node keeps the result.
+        other.setShape(new Ellipse2D.Double(45, 40, 20, 20));
+        paint(root, translate(0, 0));
+        assertEquals(1, filter.count);
+
+        // A change to the filtered node drops it.
+        sn.setShape(new Ellipse2D.Double(20, 25, 30, 20));
+        paint(root, translate(0, 0));
+        assertEquals(2, filter.count);
+
+        // So does a change to the filter, seen through its time stamp.
+        filter.touch();
+        paint(root, translate(0, 0));
+        assertEquals(3, filter.count);
+
+        // The transform of the node itself doesn't change the result
+        // of its filter, it is drawn moved.
+        sn.setTransform(translate(5, 6));
+        paint(root, translate(0, 0));
+        assertEquals(3, filter.count);
+    }
+
+    /**
+     * Returns the node moved by a fractional offset.
+     */
+    static Filter createOffset(ShapeNode sn) {
+        return new AffineRable8Bit
+            (new GraphicsNodeRable8Bit(sn),
+             AffineTransform.getTranslateInstance(2.5, -1.25));
+    }
+
+    static RootGraphicsNode createTree(boolean shadow, boolean cached) {
+        RootGraphicsNode root = new RootGraphicsNode();
+        // A background for the antialiased edges to blend with.
+        ShapeNode bg = new ShapeNode();
+        Rectangle2D r = new Rectangle2D.Double(0, 0, SIZE, SIZE);
+        bg.setShape(r);
+        FillShapePainter p = new FillShapePainter(r);
+        p.setPaint(new Color(200, 230, 90));
+        bg.setShapePainter(p);
+        root.add(bg);
+
+        ShapeNode sn = createShape(20, 25, Color.blue);
+        sn.setFilter(shadow ? createShadow(sn) : createOffset(sn));
+        root.add(sn);
+        if (cached)
+            root.setFilterResultCache(new FilterResultCache());
+        return root;
+    }
+
+    @Test
+    public void testDirectPaint() {
+        // Without the cache, filters that can draw their sources
+        // straight on the canvas (here the offset, and the node in the
+        // shadow) do so.  With the cache the whole result is drawn as
+        // an image.  Both only differ by the rounding of the
+        // antialiased edges.
+        AffineTransform [] ats = {
+            translate(0, 0), translate(0.5, 0.25),
+            AffineTransform.getScaleInstance(1.25, 1.25)
+        };
+        for (int i = 0; i < ats.length; i++) {
+            for (int j = 0; j < 2; j++) {
+                boolean shadow = (j == 0);
+                RootGraphicsNode cached = createTree(shadow, true);
+                BufferedImage bi = paint(cached, ats[i]);
+                assertTrue(cached.getFilterResultCache().getSize() > 0);
+                int d = maxDiff(paint(createTree(shadow, false), ats[i]), bi);
+                assertTrue("transform " + ats[i] + " difference " + d,
+                           d <= 1);
+            }
+        }
+    }
+}
@@ -100,6 +100,11 @@ public abstract class SVGAbstractTranscoder extends XMLAbstractTranscoder {
      */
     protected BridgeContext ctx;
 
+    /**
+     * Whether ctx was created for an SVG 1.2 document.
+     */
+    protected boolean ctxIsSVG12;
+
     /**
      * Current gvt builder
      */
@@ -155,8 +160,22 @@ public abstract class SVGAbstractTranscoder extends XMLAbstractTranscoder {
 
         super.transcode(input, output);
 
-        if (ctx != null)
-            ctx.dispose();
+        if (ctx != null) {
+            if (isReusingBridgeContext())
+                ctx.reset();
+            else
+                ctx.dispose();
+        }
+    }
+
+    /**
+     * Returns true if the bridge context of the previous document
+     * should be reset and used again, see
+     * {@link #KEY_REUSE_BRIDGE_CONTEXT}.
+     */
+    protected boolean isReusingBridgeContext() {
+        return hints.containsKey(KEY_REUSE_BRIDGE_CONTEXT) &&
+            ((Boolean)hints.get(KEY_REUSE_BRIDGE_CONTEXT)).booleanValue();
     }
     /**
      * Transcodes the specified Document as an image in the specified output.
@@ -191,7 +210,14 @@ public abstract class SVGAbstractTranscoder extends XMLAbstractTranscoder {
 
         SVGOMDocument svgDoc = (SVGOMDocument)document;
         SVGSVGElement root = svgDoc.getRootElement();
-        ctx = createBridgeContext(svgDoc);
+        if ((ctx != null) && isReusingBridgeContext()
+                && (ctxIsSVG12 == svgDoc.isSVG12())) {
+            if (ctx.getDocument() != null)
+                ctx.reset();
+        } else {
+            ctx = createBridgeContext(svgDoc);
+            ctxIsSVG12 = svgDoc.isSVG12();
+        }
 
         // build the GVT tree
         builder = new GVTBuilder();
@@ -877,6 +903,40 @@ public abstract class SVGAbstractTranscoder extends XMLAbstractTranscoder {
     public static final TranscodingHints.Key KEY_CONSTRAIN_SCRIPT_ORIGIN
         = new BooleanKey();
 
+    /**
+     * The bridge context reuse key.
+     * <table border="0" cellspacing="0" cellpadding="1">
+     *   <tr>
+     *     <th valign="top" align="right">Key:</th>
+     *     <td valign="top">KEY_REUSE_BRIDGE_CONTEXT</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Value:</th>
+     *     <td valign="top">Boolean</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Default:</th>
+     *     <td valign="top">false</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Required:</th>
+     *     <td valign="top">No</td>
+     *   </tr>
+     *   <tr>
+     *     <th valign="top" align="right">Description:</th>
+     *     <td valign="top">Specify if the transcoder should keep its
+     *       <code>BridgeContext</code> from one document to the next
+     *       (see <code>BridgeContext.reset()</code>) instead of calling
+     *       <code>createBridgeContext</code> for each of them.  This
+     *       helps when transcoding many small documents.  The context
+     *       is only kept while the documents have the same SVG
+     *       version.</td>
+     *   </tr>
+     * </table>
+     */
+    public static final TranscodingHints.Key KEY_REUSE_BRIDGE_CONTEXT
+        = new BooleanKey();
+
 
     /**
      * A user agent implementation for <code>PrintTranscoder</code>.
@@ -0,0 +1,140 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.transcoder;
+
+import java.awt.image.BufferedImage;
+import java.io.StringReader;
+
+import org.apache.batik.bridge.BridgeContext;
+import org.apache.batik.transcoder.image.ImageTranscoder;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that the documents rendered with a bridge context kept from
+ * one document to the next look the same as those rendered with a new
+ * context each.
+ *
+ * @version $Id$
+ */
+public class SVGAbstractTranscoderTestCase {
+
+    /**
+     * Both documents use the same ids, fonts and classes for
+     * different things, so that anything the context keeps from the
+     * first document shows in the second.
+     */
+    static final String [] CONTENTS = {
+        "<svg xmlns='http://www.w3.org/2000/svg'"
+        + " xmlns:xlink='http://www.w3.org/1999/xlink'"
+        + " width='100' height='80'>\n"
+        + "<style type='text/css'>.c { fill: url(#a) }</style>\n"
+        + "<defs><linearGradient id='a'>"
+        + "<stop offset='0' stop-color='red'/>"
+        + "<stop offset='1' stop-color='blue'/>"
+        + "</linearGradient>\n"
+        + "<g id='s'><circle cx='10' cy='10' r='8'/></g></defs>\n"
+        + "<rect class='c' x='5' y='5' width='90' height='30'/>\n"
+        + "<use xlink:href='#s' x='20' y='40'/>\n"
+        + "<text x='50' y='70' font-family='serif' font-size='15'>Ab</text>\n"
+        + "</svg>\n",
+
+        "<svg xmlns='http://www.w3.org/2000/svg'"
+        + " xmlns:xlink='http://www.w3.org/1999/xlink'"
+        + " width='100' height='80'>\n"
+        + "<style type='text/css'>.c { fill: green; stroke: url(#a) }"
+        + "</style>\n"
+        + "<defs><radialGradient id='a'>"
+        + "<stop offset='0' stop-color='yellow'/>"
+        + "<stop offset='1' stop-color='black'/>"
+        + "</radialGradient>\n"
+        + "<g id='s'><rect width='15' height='5' fill='purple'/></g>"
+        + "</defs>\n"
+        + "<circle class='c' cx='50' cy='30' r='20' stroke-width='6'/>\n"
+        + "<use xlink:href='#s' x='60' y='60'/>\n"
+        + "<text x='5' y='70' font-family='sans-serif' font-size='12'"
+        + " font-weight='bold'>Cd</text>\n"
+        + "</svg>\n"
+    };
+
+    /**
+     * A transcoder that keeps the images it renders.
+     */
+    static class Transcoder extends ImageTranscoder {
+        BufferedImage image;
+
+        public BufferedImage createImage(int width, int height) {
+            return new BufferedImage(width, height,
+                                     BufferedImage.TYPE_INT_ARGB);
+        }
+
+        public void writeImage(BufferedImage img, TranscoderOutput output) {
+            image = img;
+        }
+    }
+
+    static BufferedImage render(Transcoder t, int i) throws Exception {
+        TranscoderInput input =
+            new TranscoderInput(new StringReader(CONTENTS[i]));
+        input.setURI("http://example.org/test" + i + ".svg");
+        t.image = null;
+        t.transcode(input, new TranscoderOutput());
+        assertNotNull(t.image);
+        return t.image;
+    }
+
+    static void assertSameImage(BufferedImage expected,
+                                BufferedImage actual) {
+        assertEquals(expected.getWidth(),  actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int y = 0; y < expected.getHeight(); y++) {
+            for (int x = 0; x < expected.getWidth(); x++) {
+                if (expected.getRGB(x, y) != actual.getRGB(x, y))
+                    assertEquals("pixel " + x + "," + y,
+                                 Integer.toHexString(expected.getRGB(x, y)),
+                                 Integer.toHexString(actual.getRGB(x, y)));
+            }
+        }
+    }
+
+    @Test
+    public void testReuseBridgeContext() throws Exception {
+        Transcoder reusing = new Transcoder();
+        reusing.addTranscodingHint
+            (SVGAbstractTranscoder.KEY_REUSE_BRIDGE_CONTEXT, Boolean.TRUE);
+
+        BufferedImage a = render(reusing, 0);
+        BridgeContext ctx = reusing.ctx;
+        // The context doesn't hold on to the document between two.
+        assertNull(ctx.getDocument());
+        BufferedImage b = render(reusing, 1);
+        assertSame(ctx, reusing.ctx);
+        assertNull(ctx.getDocument());
+        BufferedImage c = render(reusing, 0);
+        assertSame(ctx, reusing.ctx);
+
+        assertSameImage(render(new Transcoder(), 0), a);
+        assertSameImage(render(new Transcoder(), 1), b);
+        assertSameImage(a, c);
+    }
+}
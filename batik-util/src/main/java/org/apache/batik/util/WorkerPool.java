@@ -0,0 +1,273 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A process wide pool of daemon worker threads that is used to split
+ * expensive but independent pieces of work (rows of a filter, tiles,
+ * images to decode...) across the available processors.
+ *
+ * <p>The number of workers defaults to the number of available
+ * processors and can be set with the
+ * <code>org.apache.batik.worker_threads</code> system property.  A
+ * value of <code>1</code> (or a single processor machine) disables
+ * parallel execution entirely, everything then runs on the calling
+ * thread.</p>
+ *
+ * <p>{@link #parallelFor} is safe to call from a worker thread: nested
+ * calls simply run inline, so a parallel tile computation that calls a
+ * parallel filter will never deadlock waiting on itself.</p>
+ *
+ * @version $Id$
+ */
+public class WorkerPool {
+
+    /**
+     * The number of threads the pool will use.
+     */
+    public static final int PARALLELISM;
+
+    static {
+        int value = Runtime.getRuntime().availableProcessors();
+        try {
+            String s = System.getProperty
+                ("org.apache.batik.worker_threads", String.valueOf(value));
+            value = Integer.parseInt(s);
+        } catch (SecurityException se) {
+        } catch (NumberFormatException nfe) {
+        } finally {
+            PARALLELISM = (value < 1) ? 1 : value;
+        }
+    }
+
+    /**
+     * Implemented by work that can be split over a range of
+     * integers (typically rows or columns).
+     */
+    public interface RangeTask {
+        /**
+         * Process the half open range [start, end).
+         */
+        void run(int start, int end);
+    }
+
+    private static ExecutorService executor;
+
+    /**
+     * Used to mark threads owned by the pool.
+     */
+    private static final ThreadLocal inWorker = new ThreadLocal();
+
+    /**
+     * No instances.
+     */
+    protected WorkerPool() { }
+
+    /**
+     * Returns true if work may actually be spread over several threads.
+     */
+    public static boolean isParallel() {
+        return PARALLELISM > 1;
+    }
+
+    /**
+     * Returns true if the current thread is one of the pool's workers.
+     */
+    public static boolean isWorkerThread() {
+        return inWorker.get() != null;
+    }
+
+    /**
+     * Returns the shared executor, creating it on first use.  Returns
+     * null if worker threads may not be created in this environment.
+     */
+    protected static synchronized ExecutorService getExecutor() {
+        if (executor == null) {
+            try {
+                ThreadPoolExecutor tpe = new ThreadPoolExecutor
+                    (PARALLELISM, PARALLELISM, 30, TimeUnit.SECONDS,
+                     new LinkedBlockingQueue(), new WorkerThreadFactory());
+                tpe.allowCoreThreadTimeOut(true);
+                executor = tpe;
+            } catch (SecurityException se) {
+                return null;
+            }
+        }
+        return executor;
+    }
+
+    /**
+     * Submits a task to the pool.  If the pool can't be used the
+     * task is run immediately on the calling thread and a completed
+     * future is returned.
+     */
+    public static Future submit(Callable task) {
+        ExecutorService es = isParallel() ? getExecutor() : null;
+        if (es != null) {
+            return es.submit(task);
+        }
+        CompletedFuture f = new CompletedFuture();
+        try {
+            f.value = task.call();
+        } catch (Exception e) {
+            f.exception = e;
+        }
+        return f;
+    }
+
+    /**
+     * Runs <code>task</code> over the range [start, end), split into
+     * chunks of at least <code>grain</code> elements.  The calling
+     * thread takes part in the work and this method returns once the
+     * whole range has been processed.  Any exception thrown by a chunk
+     * is rethrown on the calling thread.
+     */
+    public static void parallelFor(int start, int end, int grain,
+                                   RangeTask task) {
+        int len = end - start;
+        if (len <= 0) return;
+        if (grain < 1) grain = 1;
+
+        int chunks = len / grain;
+        if (chunks > PARALLELISM*4) chunks = PARALLELISM*4;
+
+        ExecutorService es = null;
+        if ((chunks > 1) && isParallel() && !isWorkerThread())
+            es = getExecutor();
+        if (es == null) {
+            task.run(start, end);
+            return;
+        }
+
+        RangeJob job = new RangeJob(start, len, chunks, task);
+        int helpers = Math.min(chunks, PARALLELISM) - 1;
+        for (int i = 0; i < helpers; i++)
+            es.execute(job);
+        job.run();
+        job.await();
+    }
+
+    /**
+     * Splits a range into a fixed number of chunks which are claimed
+     * by whichever thread (caller or helper) gets to them first.
+     */
+    static class RangeJob implements Runnable {
+        final int start, len, chunks;
+        final RangeTask task;
+        final AtomicInteger next = new AtomicInteger();
+        final CountDownLatch done;
+        volatile Throwable failure;
+
+        RangeJob(int start, int len, int chunks, RangeTask task) {
+            this.start  = start;
+            this.len    = len;
+            this.chunks = chunks;
+            this.task   = task;
+            this.done   = new CountDownLatch(chunks);
+        }
+
+        public void run() {
+            int c;
+            while ((c = next.getAndIncrement()) < chunks) {
+                try {
+                    int s = start + (int)(((long)len*c)/chunks);
+                    int e = start + (int)(((long)len*(c+1))/chunks);
+                    task.run(s, e);
+                } catch (Throwable t) {
+                    failure = t;
+                } finally {
+                    done.countDown();
+                }
+            }
+        }
+
+        void await() {
+            boolean interrupted = false;
+            while (true) {
+                try {
+                    done.await();
+                    break;
+                } catch (InterruptedException ie) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted)
+                Thread.currentThread().interrupt();
+
+            Throwable t = failure;
+            if (t instanceof RuntimeException) throw (RuntimeException)t;
+            if (t instanceof Error)            throw (Error)t;
+            if (t != null) throw new RuntimeException(t);
+        }
+    }
+
+    /**
+     * Creates the named daemon threads used by the pool.
+     */
+    static class WorkerThreadFactory implements ThreadFactory {
+        int count;
+
+        public synchronized Thread newThread(final Runnable r) {
+            Thread t = new Thread(new Runnable() {
+                    public void run() {
+                        inWorker.set(Boolean.TRUE);
+                        r.run();
+                    }
+                }, "Batik Worker-" + (++count));
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+    /**
+     * The Future returned when a task had to be run synchronously.
+     */
+    static class CompletedFuture implements Future {
+        Object value;
+        Exception exception;
+
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            return false;
+        }
+        public boolean isCancelled() { return false; }
+        public boolean isDone()      { return true;  }
+
+        public Object get() throws ExecutionException {
+            if (exception != null)
+                throw new ExecutionException(exception);
+            return value;
+        }
+
+        public Object get(long timeout, TimeUnit unit)
+            throws ExecutionException {
+            return get();
+        }
+    }
+}
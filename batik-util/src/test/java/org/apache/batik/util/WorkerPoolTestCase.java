@@ -0,0 +1,156 @@
+/*
+
+   Licensed to the Apache Software Foundation (ASF) under one or more
+   contributor license agreements.  See the NOTICE file distributed with
+   this work for additional information regarding copyright ownership.
+   The ASF licenses this file to You under the Apache License, Version 2.0
+   (the "License"); you may not use this file except in compliance with
+   the License.  You may obtain a copy of the License at
+
+       http://www.apache.org/licenses/LICENSE-2.0
+
+   Unless required by applicable law or agreed to in writing, software
+   distributed under the License is distributed on an "AS IS" BASIS,
+   WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+   See the License for the specific language governing permissions and
+   limitations under the License.
+
+ */
+package org.apache.batik.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that {@link WorkerPool#parallelFor} covers its range exactly
+ * once, nests without deadlocking and reports failures to the caller.
+ *
+ * @version $Id$
+ */
+public class WorkerPoolTestCase {
+
+    @Test
+    public void testEachIndexOnce() {
+        int [] grains = { 1, 3, 64, 1000 };
+        for (int g = 0; g < grains.length; g++) {
+            final AtomicIntegerArray seen = new AtomicIntegerArray(1000);
+            WorkerPool.parallelFor(0, 1000, grains[g],
+                                   new WorkerPool.RangeTask() {
+                    public void run(int start, int end) {
+                        for (int i = start; i < end; i++)
+                            seen.incrementAndGet(i);
+                    }
+                });
+            for (int i = 0; i < 1000; i++)
+                assertEquals("grain " + grains[g] + " index " + i,
+                             1, seen.get(i));
+        }
+    }
+
+    @Test
+    public void testSubRange() {
+        final AtomicIntegerArray seen = new AtomicIntegerArray(100);
+        WorkerPool.parallelFor(10, 90, 1, new WorkerPool.RangeTask() {
+                public void run(int start, int end) {
+                    for (int i = start; i < end; i++)
+                        seen.incrementAndGet(i);
+                }
+            });
+        for (int i = 0; i < 100; i++)
+            assertEquals("index " + i, (i >= 10 && i < 90) ? 1 : 0,
+                         seen.get(i));
+    }
+
+    @Test
+    public void testEmptyRange() {
+        WorkerPool.parallelFor(5, 5, 1, new WorkerPool.RangeTask() {
+                public void run(int start, int end) {
+                    fail("empty range ran");
+                }
+            });
+    }
+
+    @Test(timeout = 30000)
+    public void testNested() {
+        final AtomicIntegerArray seen = new AtomicIntegerArray(64 * 64);
+        WorkerPool.parallelFor(0, 64, 1, new WorkerPool.RangeTask() {
+                public void run(int start, int end) {
+                    for (int i = start; i < end; i++) {
+                        final int row = i;
+                        WorkerPool.parallelFor
+                            (0, 64, 1, new WorkerPool.RangeTask() {
+                                public void run(int s, int e) {
+                                    for (int j = s; j < e; j++)
+                                        seen.incrementAndGet(row * 64 + j);
+                                }
+                            });
+                    }
+                }
+            });
+        for (int i = 0; i < 64 * 64; i++)
+            assertEquals("index " + i, 1, seen.get(i));
+    }
+
+    @Test
+    public void testRuntimeException() {
+        final RuntimeException ex = new IllegalStateException("chunk 7");
+        try {
+            WorkerPool.parallelFor(0, 16, 1, new WorkerPool.RangeTask() {
+                    public void run(int start, int end) {
+                        if (start <= 7 && 7 < end)
+                            throw ex;
+                    }
+                });
+            fail("exception not rethrown");
+        } catch (IllegalStateException e) {
+            assertSame(ex, e);
+        }
+        // The pool is still usable afterwards.
+        testEachIndexOnce();
+    }
+
+    @Test
+    public void testError() {
+        try {
+            WorkerPool.parallelFor(0, 16, 1, new WorkerPool.RangeTask() {
+                    public void run(int start, int end) {
+                        throw new AssertionError("all chunks");
+                    }
+                });
+            fail("error not rethrown");
+        } catch (AssertionError e) {
+            assertEquals("all chunks", e.getMessage());
+        }
+    }
+
+    @Test(timeout = 30000)
+    public void testSubmit() throws Exception {
+        Future f = WorkerPool.submit(new Callable() {
+                public Object call() {
+                    return Boolean.valueOf(WorkerPool.isParallel() ==
+                                           WorkerPool.isWorkerThread());
+                }
+            });
+        assertEquals(Boolean.TRUE, f.get());
+
+        f = WorkerPool.submit(new Callable() {
+                public Object call() throws Exception {
+                    throw new Exception("failed");
+                }
+            });
+        try {
+            f.get();
+            fail("exception not reported");
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause().getMessage().equals("failed"));
+        }
+    }
+}